@@ -51,6 +51,8 @@ public class ActiveDirectoryConfiguration extends AbstractDirectoryConfiguration
 	public static final String ACTIVE_DIRECTORY_INCLUDE_BUILTN_GROUPS = "activeDirectory.includeBuiltInGroups";
 	public static final String ACTIVE_DIRECTORY_USERNAME_IS_SAMACCOUNTNAME = "activeDirectory.usernameSamAccountName";
 	public static final String ACTIVE_DIRECTORY_GROUP_IS_SAMACCOUNTNAME = "activeDirectory.groupSamAccountName";
+	public static final String ACTIVE_DIRECTORY_DIRSYNC = "activeDirectory.dirSync";
+	public static final String ACTIVE_DIRECTORY_DIRSYNC_OBJECT_SECURITY = "activeDirectory.dirSyncObjectSecurity";
 	
 	@Deprecated
 	public static final String ACTIVE_DIRECTORy_ENFORCE_PASSWORD_RULES = "activeDirectory.enforcePasswordRules";
@@ -348,6 +350,30 @@ public class ActiveDirectoryConfiguration extends AbstractDirectoryConfiguration
 				ACTIVE_DIRECTORY_GROUP_IS_SAMACCOUNTNAME, Boolean.FALSE);
 	}
 
+	/**
+	 * Whether tagged (incremental) listing of identities and roles should use
+	 * the DirSync control rather than comparing <i>uSNChanged</i>. DirSync
+	 * also reports deleted objects. The default is <code>false</code>.
+	 * 
+	 * @return use DirSync
+	 */
+	public boolean isDirSync() {
+		return configurationParameters.getBooleanOrDefault(
+				ACTIVE_DIRECTORY_DIRSYNC, Boolean.FALSE);
+	}
+
+	/**
+	 * Whether DirSync searches should only return objects and attributes the
+	 * service account may read. This allows DirSync to be used without the
+	 * "Replicating Directory Changes" right. The default is <code>false</code>.
+	 * 
+	 * @return DirSync object security
+	 */
+	public boolean isDirSyncObjectSecurity() {
+		return configurationParameters.getBooleanOrDefault(
+				ACTIVE_DIRECTORY_DIRSYNC_OBJECT_SECURITY, Boolean.FALSE);
+	}
+
 	@Override
 	public Class<? extends Connector<?>> getConnectorClass() {
 		return ActiveDirectoryConnector.class;
@@ -69,6 +69,7 @@ import com.identity4j.connector.Count;
 import com.identity4j.connector.Media;
 import com.identity4j.connector.OperationContext;
 import com.identity4j.connector.ResultIterator;
+import com.identity4j.connector.UserGroupRelationshipCache;
 import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.InvalidLoginCredentialsException;
 import com.identity4j.connector.exception.PasswordChangeRequiredException;
@@ -230,6 +231,16 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 
 	});
 
+	/**
+	 * These are the attributes the identity mapper reads, so are always retrieved
+	 * even if an operation only requests some attributes.
+	 */
+	private static Collection<String> MAPPED_IDENTITY_ATTRIBUTES = Arrays.asList(new String[] {
+			OBJECT_GUID_ATTRIBUTE, SAM_ACCOUNT_NAME_ATTRIBUTE, USER_PRINCIPAL_NAME_ATTRIBUTE, COMMON_NAME_ATTRIBUTE,
+			MAIL_ATTRIBUTE, MOBILE_PHONE_NUMBER_ATTRIBUTE, USER_ACCOUNT_CONTROL_ATTRIBUTE, PWD_LAST_SET_ATTRIBUTE,
+			PASSWORD_EXPIRY_COMPUTED, ACCOUNT_EXPIRES_ATTRIBUTE, LOCKOUT_TIME_ATTRIBUTE, LAST_LOGON_ATTRIBUTE,
+			LAST_LOGON_TIMESTAMP_ATTRIBUTE, MEMBER_OF_ATTRIBUTE, PRIMARY_GROUP_ID_ATTRIBUTE });
+
 	private static Collection<String> CORE_IDENTITY_ATTRIBUTES = Arrays.asList(new String[] { COMMON_NAME_ATTRIBUTE,
 			SAM_ACCOUNT_NAME_ATTRIBUTE, USER_PRINCIPAL_NAME_ATTRIBUTE, OBJECT_CLASS_ATTRIBUTE, HIGHEST_COMMITTED_USN });
 
@@ -337,6 +348,19 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 	@Override
 	public Count<Long> countIdentities(OperationContext opContext) throws ConnectorException {
 		try {
+			if (getActiveDirectoryConfiguration().isDirSync()) {
+				if (isClientSideRoleFiltered(opContext)) {
+					ResultIterator<Identity> it = getIdentities(buildIdentityFilter(WILDCARD_SEARCH), new DirSyncOperationContext(opContext));
+					return new Count<Long>(count(it), it.tag());
+				}
+				return countDirSync(applyServerRoleFilter(buildIdentityFilter(WILDCARD_SEARCH)), opContext);
+			}
+			if (!isClientSideRoleFiltered(opContext)) {
+				/* Nothing the mapper filters on, so let the server count */
+				String usn = getHighestCommittedUSN();
+				Filter filter = applyServerRoleFilter(createTagFilter(buildIdentityFilter(WILDCARD_SEARCH), opContext.getTag()));
+				return new Count<Long>(ldapService.count(filter, ldapService.getSearchControls(), true, opContext), usn);
+			}
 			USNWrapperIterator<Identity> it = new USNWrapperIterator<Identity>(getIdentities(createTagFilter(buildIdentityFilter(WILDCARD_SEARCH), opContext.getTag()), opContext));
 			return new Count<Long>(count(it), it.tag());
 		} catch (NamingException e) {
@@ -350,8 +374,12 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 	@Override
 	public Count<Long> countRoles(OperationContext opContext) throws ConnectorException {
 		try {
-			USNWrapperIterator<Role> it = new USNWrapperIterator<Role>(getRoles(createTagFilter(buildRoleFilter(WILDCARD_SEARCH, true), opContext.getTag()), true, opContext));
-			return new Count<Long>(count(it), it.tag());
+			if (getActiveDirectoryConfiguration().isDirSync()) {
+				return countDirSync(buildRoleFilter(WILDCARD_SEARCH, true), opContext);
+			}
+			String usn = getHighestCommittedUSN();
+			Filter filter = createTagFilter(buildRoleFilter(WILDCARD_SEARCH, true), opContext.getTag());
+			return new Count<Long>(ldapService.count(filter, ldapService.getSearchControls(), true, opContext), usn);
 		} catch (NamingException e) {
 			throw new ConnectorException(processNamingException(e), e);
 		} catch (IOException e) {
@@ -360,8 +388,70 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 		
 	}
 
+	/**
+	 * When using server side role DN filtering, add the role membership
+	 * conditions to an identity filter.
+	 * 
+	 * @param filter identity filter
+	 * @return filter
+	 */
+	protected Filter applyServerRoleFilter(Filter filter) {
+		// If using server side DN member filter, encode a new filter
+		if (getActiveDirectoryConfiguration().isFilteredByRole()
+				&& getActiveDirectoryConfiguration().getRoleMode().equals(RoleMode.serverDistinguishedNames)) {
+
+			Or incFilters = new Or();
+			for (String inc : getActiveDirectoryConfiguration().getIncludedRolesDN()) {
+				incFilters.add(new Eq("memberof", inc));
+			}
+
+			Or excFilters = new Or();
+			for (String exc : getActiveDirectoryConfiguration().getExcludedRolesDN()) {
+				excFilters.add(new Eq("memberof", exc));
+			}
+
+			Filter groupMemberFilter;
+			if (getActiveDirectoryConfiguration().getIncludedRolesDN().isEmpty()) {
+				groupMemberFilter = new Not(excFilters);
+			} else {
+				if (getActiveDirectoryConfiguration().getExcludedRolesDN().isEmpty()) {
+					groupMemberFilter = incFilters;
+				} else {
+					groupMemberFilter = new And().add(incFilters).add(excFilters);
+				}
+			}
+
+			And newFilter = new And();
+			newFilter.add(filter);
+			newFilter.add(groupMemberFilter);
+			filter = newFilter;
+			LOG.info("Final user search filter is '" + filter.encode() + "'");
+		}
+		return filter;
+	}
+
+	/**
+	 * Get whether identities are filtered by their role membership as they are
+	 * mapped, rather than by the search filter. When they are, identities
+	 * cannot be counted without mapping them.
+	 * 
+	 * @param opContext operation context
+	 * @return filtered by role client side
+	 */
+	protected boolean isClientSideRoleFiltered(OperationContext opContext) {
+		return opContext.isGroups() && getConfiguration().isFilteredByRole()
+				&& !getActiveDirectoryConfiguration().getRoleMode().equals(RoleMode.serverDistinguishedNames);
+	}
+
+	private String getHighestCommittedUSN() throws NamingException, IOException {
+		// https://docs.microsoft.com/en-us/windows/win32/ad/polling-for-changes-using-usnchanged
+		Attribute usnAttr = ldapService.getRootDSEAttribute(HIGHEST_COMMITTED_USN);
+		return String.valueOf(usnAttr == null ? 0 : Long.valueOf(String.valueOf(usnAttr.get())));
+	}
+
 	protected Filter createTagFilter(Filter filter, String tag) {
-		if (!StringUtil.isNullOrEmpty(tag)) {
+		/* A DirSync cookie cannot be used for USN tracking, so list everything */
+		if (!StringUtil.isNullOrEmpty(tag) && !DirSyncResultsIterator.isDirSyncTag(tag)) {
 			And and = new And();
 			and.add(filter);
 			/*
@@ -377,6 +467,9 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 	@Override
 	public ResultIterator<Identity> allIdentities(OperationContext opContext) throws ConnectorException {
 		try {
+			if (getActiveDirectoryConfiguration().isDirSync()) {
+				return getIdentities(buildIdentityFilter(WILDCARD_SEARCH), new DirSyncOperationContext(opContext));
+			}
 			return new USNWrapperIterator<Identity>(getIdentities(createTagFilter(buildIdentityFilter(WILDCARD_SEARCH), opContext.getTag()), opContext));
 		} catch (NamingException e) {
 			throw new ConnectorException(processNamingException(e), e);
@@ -388,7 +481,9 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 	@Override
 	public final ResultIterator<Role> allRoles(OperationContext opContext) throws ConnectorException {
 		try {
-			if(getConfiguration().isEnableRoles())
+			if(getConfiguration().isEnableRoles() && getActiveDirectoryConfiguration().isDirSync())
+				return getRoles(buildRoleFilter(WILDCARD_SEARCH, true), true, new DirSyncOperationContext(opContext));
+			else if(getConfiguration().isEnableRoles())
 				return new USNWrapperIterator<Role>(getRoles(createTagFilter(buildRoleFilter(WILDCARD_SEARCH, true), opContext.getTag()), true, opContext));
 			else
 				return new ResultIterator<Role>() {
@@ -421,11 +516,7 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 
 		USNWrapperIterator(Iterator<E> delegate) throws NamingException, IOException {
 			this.delegate = delegate;
-			// https://docs.microsoft.com/en-us/windows/win32/ad/polling-for-changes-using-usnchanged
-			Attribute usnAttr = ldapService.getRootDSEAttribute(HIGHEST_COMMITTED_USN);
-			if (usnAttr != null) {
-				usn = Long.valueOf(String.valueOf(usnAttr.get()));
-			}
+			usn = Long.parseLong(getHighestCommittedUSN());
 		}
 
 		@Override
@@ -445,6 +536,155 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 
 	}
 
+	/**
+	 * Marks an operation as an incremental DirSync listing. The tag of the
+	 * wrapped context is the DirSync cookie (if any).
+	 */
+	static class DirSyncOperationContext implements OperationContext {
+		private final OperationContext delegate;
+
+		DirSyncOperationContext(OperationContext delegate) {
+			this.delegate = delegate;
+		}
+
+		static OperationContext unwrap(OperationContext opContext) {
+			return opContext instanceof DirSyncOperationContext ? ((DirSyncOperationContext) opContext).delegate
+					: opContext;
+		}
+
+		@Override
+		public String getTag() {
+			return delegate.getTag();
+		}
+
+		@Override
+		public UserGroupRelationshipCache getRelationshipCache() {
+			return delegate.getRelationshipCache();
+		}
+
+		@Override
+		public boolean isGroups() {
+			return delegate.isGroups();
+		}
+
+		@Override
+		public Set<String> getAttributes() {
+			return delegate.getAttributes();
+		}
+	}
+
+	private <T> ResultIterator<T> search(Filter filter, ResultMapper<T> resultMapper, ResultMapper<T> deletedMapper,
+			SearchControls searchControls, OperationContext opContext) throws NamingException, IOException {
+		if (opContext instanceof DirSyncOperationContext) {
+			return createDirSyncIterator(filter, resultMapper, deletedMapper, searchControls, opContext.getTag());
+		}
+		return ldapService.search(filter, resultMapper, searchControls, opContext);
+	}
+
+	private <T> DirSyncResultsIterator<T> createDirSyncIterator(Filter filter, ResultMapper<T> resultMapper,
+			ResultMapper<T> deletedMapper, SearchControls searchControls, String tag) {
+		int flags = DirSyncControl.LDAP_DIRSYNC_ANCESTORS_FIRST_ORDER;
+		if (getActiveDirectoryConfiguration().isDirSyncObjectSecurity()) {
+			flags |= DirSyncControl.LDAP_DIRSYNC_OBJECT_SECURITY;
+		}
+		return new DirSyncResultsIterator<T>(ldapService, getRootDn(), filter, searchControls, getConfiguration(),
+				resultMapper, deletedMapper, tag, flags);
+	}
+
+	/**
+	 * Count the objects a DirSync listing would return without mapping them or
+	 * reading them in full, only the identifying attributes are requested.
+	 * 
+	 * @param filter filter
+	 * @param opContext operation context
+	 * @return count, tagged with the new DirSync cookie
+	 */
+	private Count<Long> countDirSync(Filter filter, OperationContext opContext) {
+		ResultMapper<Boolean> counter = new ResultMapper<Boolean>() {
+
+			@Override
+			public Boolean apply(SearchResult result) {
+				return Boolean.TRUE;
+			}
+
+			public boolean isApplyFilters() {
+				return true;
+			}
+		};
+		SearchControls searchControls = ldapService.getSearchControls();
+		searchControls.setReturningAttributes(new String[0]);
+		DirSyncResultsIterator<Boolean> it = createDirSyncIterator(filter, counter, counter, searchControls,
+				opContext.getTag());
+		it.setReadFull(false);
+		long count = 0;
+		try {
+			while (it.hasNext()) {
+				it.next();
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		return new Count<Long>(count, it.tag());
+	}
+
+	/**
+	 * Map the tombstone of a deleted user returned by DirSync. Only the GUID,
+	 * name and DN are available.
+	 * 
+	 * @param result tombstone
+	 * @return deleted identity
+	 * @throws NamingException
+	 */
+	protected Identity mapDeletedIdentity(SearchResult result) throws NamingException {
+		byte[] guidBytes = (byte[]) getAttribute(result.getAttributes().get(OBJECT_GUID_ATTRIBUTE));
+		if (guidBytes == null) {
+			return null;
+		}
+		String guid = UUID.nameUUIDFromBytes(guidBytes).toString();
+		LdapName dn = new LdapName(result.getNameInNamespace());
+		DirectoryIdentity directoryIdentity = new DirectoryIdentity(guid, getDeletedName(result, dn), dn);
+		directoryIdentity.setAttribute(IMMUTABLE_ID_ATTR, org.apache.commons.codec.binary.StringUtils
+				.newStringUtf8(Base64.encodeBase64(guidBytes, false)).trim());
+		directoryIdentity.setAttribute(DirSyncResultsIterator.IS_DELETED_ATTRIBUTE, "TRUE");
+		directoryIdentity.setRoles(new Role[0]);
+		return directoryIdentity;
+	}
+
+	/**
+	 * Map the tombstone of a deleted group returned by DirSync. Only the GUID,
+	 * name and DN are available.
+	 * 
+	 * @param result tombstone
+	 * @return deleted role
+	 * @throws NamingException
+	 */
+	protected Role mapDeletedRole(SearchResult result) throws NamingException {
+		byte[] guidBytes = (byte[]) getAttribute(result.getAttributes().get(OBJECT_GUID_ATTRIBUTE));
+		if (guidBytes == null) {
+			return null;
+		}
+		String guid = UUID.nameUUIDFromBytes(guidBytes).toString();
+		LdapName dn = new LdapName(result.getNameInNamespace());
+		ActiveDirectoryGroup group = new ActiveDirectoryGroup(guid, getDeletedName(result, dn), dn,
+				(byte[]) getAttribute(result.getAttributes().get(OBJECT_SID_ATTRIBUTE)), new String[0], new String[0]);
+		group.setAttribute(DirSyncResultsIterator.IS_DELETED_ATTRIBUTE, "TRUE");
+		return group;
+	}
+
+	private String getDeletedName(SearchResult result, LdapName dn) throws NamingException {
+		String name = (String) getAttribute(result.getAttributes().get(SAM_ACCOUNT_NAME_ATTRIBUTE));
+		if (StringUtil.isNullOrEmpty(name)) {
+			/* Tombstone RDNs are mangled as "CN=name\0ADEL:guid" */
+			name = String.valueOf(dn.getRdn(dn.size() - 1).getValue());
+			int idx = name.indexOf('\n');
+			if (idx != -1) {
+				name = name.substring(0, idx);
+			}
+		}
+		return name;
+	}
+
 	@Override
 	protected void assignRole(LdapName userDn, Role role) throws NamingException, IOException {
 		if (role.getPrincipalName().equals("Domain Users")) {
@@ -948,13 +1188,23 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 	@Override
 	protected ResultIterator<Role> getRoles(Filter filter, boolean applyFilters, OperationContext opContext) {
 		try {
-			return ldapService.search(filter, new ResultMapper<Role>() {
+			return search(filter, new ResultMapper<Role>() {
 
 				@Override
 				public Role apply(SearchResult result) throws NamingException {
 					return mapRole(result, opContext);
 				}
 
+				public boolean isApplyFilters() {
+					return applyFilters;
+				}
+			}, new ResultMapper<Role>() {
+
+				@Override
+				public Role apply(SearchResult result) throws NamingException {
+					return mapDeletedRole(result);
+				}
+
 				public boolean isApplyFilters() {
 					return applyFilters;
 				}
@@ -1002,6 +1252,13 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 		return searchControls;
 	}
 
+	@Override
+	protected Collection<String> getRequiredIdentityAttributes() {
+		List<String> attr = new ArrayList<String>(MAPPED_IDENTITY_ATTRIBUTES);
+		attr.add(getActiveDirectoryConfiguration().getDistinguishedNameAttribute());
+		return attr;
+	}
+
 	protected SearchControls configurePSOSearchControls(SearchControls searchControls) {
 		searchControls = super.configureSearchControls(searchControls);
 		List<String> attr = new ArrayList<String>(Arrays.asList("cn", "msDS-PSOAppliesTo"));
@@ -1322,7 +1579,8 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 		final Map<String, List<String>> userGroups = new HashMap<String, List<String>>();
 
 		if (opContext.isGroups() && config.isEnableRoles()) {
-			Iterator<Role> it = getRoles(buildRoleFilter(WILDCARD_SEARCH, true), config.isCacheFilteredGroups(), opContext);
+			Iterator<Role> it = getRoles(buildRoleFilter(WILDCARD_SEARCH, true), config.isCacheFilteredGroups(),
+					DirSyncOperationContext.unwrap(opContext));
 			LOG.info(String.format("Pre-caching roles (%s)", config.isCacheFilteredGroups() ? "using filtered groups for cache" : "using unfiltered groups for cache"));
 			while (it.hasNext()) {
 				ActiveDirectoryGroup group = (ActiveDirectoryGroup) it.next();
@@ -1346,43 +1604,13 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 		final int maximumPasswordAge = getMaximumPasswordAge();
 		final long lockoutDuration = getBaseLongAttribute(LOCKOUT_DURATION_ATTRIBUTE);
 
-		// If using server side DN member filter, encode a new filter
-		if (getActiveDirectoryConfiguration().isFilteredByRole()
-				&& getActiveDirectoryConfiguration().getRoleMode().equals(RoleMode.serverDistinguishedNames)) {
-
-			Or incFilters = new Or();
-			for (String inc : getActiveDirectoryConfiguration().getIncludedRolesDN()) {
-				incFilters.add(new Eq("memberof", inc));
-			}
-
-			Or excFilters = new Or();
-			for (String exc : getActiveDirectoryConfiguration().getExcludedRolesDN()) {
-				excFilters.add(new Eq("memberof", exc));
-			}
-
-			Filter groupMemberFilter;
-			if (getActiveDirectoryConfiguration().getIncludedRolesDN().isEmpty()) {
-				groupMemberFilter = new Not(excFilters);
-			} else {
-				if (getActiveDirectoryConfiguration().getExcludedRolesDN().isEmpty()) {
-					groupMemberFilter = incFilters;
-				} else {
-					groupMemberFilter = new And().add(incFilters).add(excFilters);
-				}
-			}
-
-			And newFilter = new And();
-			newFilter.add(filter);
-			newFilter.add(groupMemberFilter);
-			filter = newFilter;
-			LOG.info("Final user search filter is '" + filter.encode() + "'");
-		}
+		filter = applyServerRoleFilter(filter);
 
 		try {
-			return ldapService.search(filter, new ResultMapper<Identity>() {
+			return search(filter, new ResultMapper<Identity>() {
 
 				private boolean isAttributeMapped(Attribute attribute) {
-					return true;
+					return isAttributeRequested(attribute.getID(), opContext);
 				}
 
 				@Override
@@ -1464,7 +1692,7 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 					}
 
 					if (!isPasswordNeverExpire(result)) {
-						String passwordexpiryComputed = directoryIdentity.getAttribute(PASSWORD_EXPIRY_COMPUTED);
+						String passwordexpiryComputed = (String) getAttribute(attributes.get(PASSWORD_EXPIRY_COMPUTED));
 						if (LOG.isInfoEnabled()) {
 							LOG.info(String.format("%s's computed password expiry is %s", username,
 									passwordexpiryComputed));
@@ -1661,7 +1889,17 @@ public class ActiveDirectoryConnector extends AbstractDirectoryConnector<ActiveD
 				public boolean isApplyFilters() {
 					return true;
 				}
-			}, configureSearchControls(ldapService.getSearchControls()), opContext);
+			}, new ResultMapper<Identity>() {
+
+				@Override
+				public Identity apply(SearchResult result) throws NamingException {
+					return mapDeletedIdentity(result);
+				}
+
+				public boolean isApplyFilters() {
+					return true;
+				}
+			}, configureSearchControls(ldapService.getSearchControls(), opContext), opContext);
 		} catch (NamingException e) {
 			processNamingException(e);
 			throw new IllegalStateException("Unreachable code");
@@ -58,6 +58,9 @@ public class ActiveDirectoryUtils {
 	}
 
 	public static Long getRIDFromSID(byte[] sid) {
+		if (sid == null) {
+			return null;
+		}
 		String rid = "";
 		for (int i = 6; i > 0; i--) {
 			rid += byteToHex(sid[i]);
@@ -0,0 +1,218 @@
+package com.identity4j.connector.jndi.activedirectory;
+
+/*
+ * #%L
+ * Identity4J Active Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+/**
+ * The Active Directory DirSync request control (LDAP_SERVER_DIRSYNC_OID). When
+ * attached to a search from the root of a naming context, only objects that
+ * have changed since the state described by the cookie are returned, including
+ * deleted objects.
+ * 
+ * https://docs.microsoft.com/en-us/openspecs/windows_protocols/ms-adts/2213a7f2-0a36-483c-b2a4-8574d53aa1e3
+ */
+public class DirSyncControl extends BasicControl {
+
+	private static final long serialVersionUID = 7170530409489457305L;
+
+	public static final String OID = "1.2.840.113556.1.4.841";
+
+	/**
+	 * Return only objects and attributes the caller has permission to read, so
+	 * the "Replicating Directory Changes" right is not required.
+	 */
+	public static final int LDAP_DIRSYNC_OBJECT_SECURITY = 0x00000001;
+
+	/**
+	 * Return parent objects before their children.
+	 */
+	public static final int LDAP_DIRSYNC_ANCESTORS_FIRST_ORDER = 0x00000800;
+
+	/**
+	 * The largest value allowed for the maximum number of bytes to return.
+	 */
+	public static final int MAX_BYTES = 0x7FFFFFFF;
+
+	private static final int BER_SEQUENCE = 0x30;
+	private static final int BER_INTEGER = 0x02;
+	private static final int BER_OCTET_STRING = 0x04;
+
+	public DirSyncControl(int flags, int maxBytes, byte[] cookie) {
+		super(OID, Control.CRITICAL, encode(flags, maxBytes, cookie));
+	}
+
+	static byte[] encode(int flags, int maxBytes, byte[] cookie) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		writeInteger(content, flags);
+		writeInteger(content, maxBytes);
+		writeElement(content, BER_OCTET_STRING, cookie == null ? new byte[0] : cookie);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeElement(out, BER_SEQUENCE, content.toByteArray());
+		return out.toByteArray();
+	}
+
+	private static void writeInteger(ByteArrayOutputStream out, int value) {
+		/* Minimal two's complement encoding */
+		int len = 4;
+		while (len > 1) {
+			int top = (value >> ((len - 1) * 8)) & 0xff;
+			int next = (value >> ((len - 2) * 8)) & 0x80;
+			if ((top == 0 && next == 0) || (top == 0xff && next == 0x80)) {
+				len--;
+			} else {
+				break;
+			}
+		}
+		byte[] b = new byte[len];
+		for (int i = 0; i < len; i++) {
+			b[i] = (byte) (value >> ((len - 1 - i) * 8));
+		}
+		writeElement(out, BER_INTEGER, b);
+	}
+
+	private static void writeElement(ByteArrayOutputStream out, int tag, byte[] value) {
+		out.write(tag);
+		int len = value.length;
+		if (len < 0x80) {
+			out.write(len);
+		} else {
+			int bytes = len > 0xffffff ? 4 : len > 0xffff ? 3 : len > 0xff ? 2 : 1;
+			out.write(0x80 | bytes);
+			for (int i = bytes - 1; i >= 0; i--) {
+				out.write(len >> (i * 8));
+			}
+		}
+		out.write(value, 0, value.length);
+	}
+
+	/**
+	 * The decoded value of the DirSync response control.
+	 */
+	public static class Response {
+		private final boolean moreResults;
+		private final byte[] cookie;
+
+		Response(boolean moreResults, byte[] cookie) {
+			this.moreResults = moreResults;
+			this.cookie = cookie;
+		}
+
+		/**
+		 * Get whether there are more changes to retrieve using the returned
+		 * cookie.
+		 * 
+		 * @return more results
+		 */
+		public boolean isMoreResults() {
+			return moreResults;
+		}
+
+		/**
+		 * Get the cookie to use for the next DirSync search.
+		 * 
+		 * @return cookie
+		 */
+		public byte[] getCookie() {
+			return cookie;
+		}
+	}
+
+	/**
+	 * Find and decode the DirSync response control in a set of response
+	 * controls.
+	 * 
+	 * @param controls response controls (may be <code>null</code>)
+	 * @return response or <code>null</code> if there was no DirSync control
+	 * @throws IOException if the control cannot be decoded
+	 */
+	public static Response getResponse(Control[] controls) throws IOException {
+		if (controls != null) {
+			for (Control control : controls) {
+				if (OID.equals(control.getID())) {
+					return decode(control.getEncodedValue());
+				}
+			}
+		}
+		return null;
+	}
+
+	static Response decode(byte[] value) throws IOException {
+		int[] pos = new int[] { 0 };
+		expectTag(value, pos, BER_SEQUENCE);
+		readLength(value, pos);
+		expectTag(value, pos, BER_INTEGER);
+		boolean more = readInteger(value, pos) != 0;
+		expectTag(value, pos, BER_INTEGER);
+		readInteger(value, pos);
+		expectTag(value, pos, BER_OCTET_STRING);
+		int len = readLength(value, pos);
+		if (pos[0] + len > value.length) {
+			throw new IOException("Truncated DirSync cookie.");
+		}
+		byte[] cookie = new byte[len];
+		System.arraycopy(value, pos[0], cookie, 0, len);
+		return new Response(more, cookie);
+	}
+
+	private static void expectTag(byte[] value, int[] pos, int tag) throws IOException {
+		if (pos[0] >= value.length || (value[pos[0]] & 0xff) != tag) {
+			throw new IOException(String.format("Expected BER tag %02x at %d in DirSync response.", tag, pos[0]));
+		}
+		pos[0]++;
+	}
+
+	private static int readLength(byte[] value, int[] pos) throws IOException {
+		if (pos[0] >= value.length) {
+			throw new IOException("Truncated DirSync response.");
+		}
+		int len = value[pos[0]++] & 0xff;
+		if ((len & 0x80) != 0) {
+			int bytes = len & 0x7f;
+			if (bytes > 4 || pos[0] + bytes > value.length) {
+				throw new IOException("Invalid length in DirSync response.");
+			}
+			len = 0;
+			for (int i = 0; i < bytes; i++) {
+				len = (len << 8) | (value[pos[0]++] & 0xff);
+			}
+		}
+		return len;
+	}
+
+	private static long readInteger(byte[] value, int[] pos) throws IOException {
+		int len = readLength(value, pos);
+		if (len > 8 || pos[0] + len > value.length) {
+			throw new IOException("Invalid integer in DirSync response.");
+		}
+		long val = len > 0 && value[pos[0]] < 0 ? -1 : 0;
+		for (int i = 0; i < len; i++) {
+			val = (val << 8) | (value[pos[0]++] & 0xff);
+		}
+		return val;
+	}
+}
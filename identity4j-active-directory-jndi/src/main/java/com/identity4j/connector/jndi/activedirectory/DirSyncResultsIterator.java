@@ -0,0 +1,306 @@
+package com.identity4j.connector.jndi.activedirectory;
+
+/*
+ * #%L
+ * Identity4J Active Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.NoSuchElementException;
+
+import javax.naming.Name;
+import javax.naming.NamingEnumeration;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.PartialResultException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.ResultIterator;
+import com.identity4j.connector.jndi.directory.AbstractDirectoryConfiguration;
+import com.identity4j.connector.jndi.directory.LdapService;
+import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
+import com.identity4j.connector.jndi.directory.SearchResultsIterator;
+import com.identity4j.connector.jndi.directory.filter.Filter;
+
+/**
+ * Iterates over the objects that have changed since a previous DirSync
+ * search. The opaque DirSync cookie is returned from {@link #tag()} (once all
+ * results have been read) so it may be passed back in as the tag for the next
+ * incremental search. With no cookie, every matching object is returned.
+ * <p>
+ * On an incremental search DirSync only returns the attributes that changed,
+ * so each live object is read in full before being passed to the mapper. A
+ * full search (no cookie) already returns every requested attribute. Deleted
+ * objects are passed to a separate mapper with the partial attributes of
+ * their tombstone.
+ */
+public class DirSyncResultsIterator<T> implements ResultIterator<T>, Closeable {
+
+	final static Log LOG = LogFactory.getLog(DirSyncResultsIterator.class);
+
+	/**
+	 * Prefix of tags that hold a DirSync cookie
+	 */
+	public static final String TAG_PREFIX = "dirsync:";
+
+	public static final String IS_DELETED_ATTRIBUTE = "isDeleted";
+
+	private final LdapService ldapService;
+	private final Name root;
+	private final Filter filter;
+	private final SearchControls searchControls;
+	private final String[] fullAttributes;
+	private final AbstractDirectoryConfiguration configuration;
+	private final ResultMapper<T> mapper;
+	private final ResultMapper<T> deletedMapper;
+	private final int flags;
+	private final boolean incremental;
+
+	private LdapContext context;
+	private Control[] prev;
+	private NamingEnumeration<SearchResult> listIterator;
+	private byte[] cookie;
+	private boolean moreResults = true;
+	private boolean readFull = true;
+	private T next;
+
+	public DirSyncResultsIterator(LdapService ldapService, Name root, Filter filter, SearchControls searchControls,
+			AbstractDirectoryConfiguration configuration, ResultMapper<T> mapper, ResultMapper<T> deletedMapper,
+			String tag, int flags) {
+		this.ldapService = ldapService;
+		this.root = root;
+		this.filter = filter;
+		this.configuration = configuration;
+		this.mapper = mapper;
+		this.deletedMapper = deletedMapper;
+		this.flags = flags;
+		this.cookie = getCookie(tag);
+		this.incremental = cookie != null;
+
+		/*
+		 * The returned attributes are only those that changed. Always ask for
+		 * the ones needed to identify the object and detect deletion
+		 */
+		this.fullAttributes = searchControls.getReturningAttributes();
+		this.searchControls = new SearchControls(SearchControls.SUBTREE_SCOPE, 0, searchControls.getTimeLimit(),
+				withIdentifyingAttributes(fullAttributes), false, false);
+
+		LOG.info(String.format("New DirSync iterator using filter: %s from %s (%s)",
+				filter == null ? "<none>" : filter.encode(), root, cookie == null ? "full" : "incremental"));
+	}
+
+	/**
+	 * Get whether a tag holds a DirSync cookie.
+	 * 
+	 * @param tag tag
+	 * @return DirSync tag
+	 */
+	public static boolean isDirSyncTag(String tag) {
+		return tag != null && tag.startsWith(TAG_PREFIX);
+	}
+
+	static byte[] getCookie(String tag) {
+		if (isDirSyncTag(tag)) {
+			return Base64.getDecoder().decode(tag.substring(TAG_PREFIX.length()));
+		}
+		return null;
+	}
+
+	/**
+	 * Get whether a search result is the tombstone of a deleted object.
+	 * 
+	 * @param result result
+	 * @return deleted
+	 * @throws NamingException
+	 */
+	public static boolean isDeleted(SearchResult result) throws NamingException {
+		Attribute attr = result.getAttributes().get(IS_DELETED_ATTRIBUTE);
+		return attr != null && "TRUE".equalsIgnoreCase(String.valueOf(attr.get()));
+	}
+
+	/**
+	 * Set whether changed live objects from an incremental search should be
+	 * read in full before being mapped. The default is <code>true</code>, turn
+	 * it off when only the identifying attributes are needed, e.g. to count.
+	 * 
+	 * @param readFull read full objects
+	 */
+	public void setReadFull(boolean readFull) {
+		this.readFull = readFull;
+	}
+
+	@Override
+	public String tag() {
+		return cookie == null ? null : TAG_PREFIX + Base64.getEncoder().encodeToString(cookie);
+	}
+
+	@Override
+	public boolean hasNext() {
+		fetchNext();
+		if (next == null) {
+			close();
+		}
+		return next != null;
+	}
+
+	@Override
+	public T next() {
+		try {
+			fetchNext();
+			if (next == null) {
+				close();
+				throw new NoSuchElementException();
+			}
+			return next;
+		} finally {
+			next = null;
+		}
+	}
+
+	@Override
+	public void remove() {
+	}
+
+	@Override
+	public void close() {
+		closeListIterator();
+		if (context != null) {
+			try {
+				if (prev != null) {
+					context.setRequestControls(prev);
+				}
+				context.close();
+			} catch (NamingException e) {
+			}
+			context = null;
+		}
+	}
+
+	void fetchNext() {
+		try {
+			while (next == null) {
+				if (listIterator == null) {
+					if (!moreResults) {
+						return;
+					}
+					if (context == null) {
+						context = ldapService.getConnection();
+						prev = context.getRequestControls();
+					}
+					context.setRequestControls(
+							new Control[] { new DirSyncControl(flags, DirSyncControl.MAX_BYTES, cookie) });
+					listIterator = context.search(root, filter.encode(), searchControls);
+				}
+
+				while (next == null && hasMore()) {
+					SearchResult result = listIterator.next();
+					if (isDeleted(result)) {
+						next = deletedMapper.apply(result);
+					} else {
+						next = mapLive(result);
+					}
+				}
+
+				if (next == null) {
+					DirSyncControl.Response response = DirSyncControl.getResponse(context.getResponseControls());
+					closeListIterator();
+					if (response == null) {
+						throw new IllegalStateException(
+								"The server did not return a DirSync response control. Is this Active Directory?");
+					}
+					cookie = response.getCookie();
+					moreResults = response.isMoreResults();
+				}
+			}
+		} catch (NamingException e) {
+			LOG.error("Failed to get DirSync results", e);
+			close();
+			throw new IllegalStateException(e.getMessage(), e);
+		} catch (IOException e) {
+			LOG.error("Failed to get DirSync results", e);
+			close();
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	private boolean hasMore() throws NamingException {
+		try {
+			return listIterator.hasMore();
+		} catch (PartialResultException e) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Partial results ignored: " + e.getExplanation());
+			}
+			return false;
+		}
+	}
+
+	private T mapLive(SearchResult result) throws NamingException, IOException {
+		if (mapper.isApplyFilters() && !SearchResultsIterator.isIncluded(configuration, result)) {
+			return null;
+		}
+		if (!incremental || !readFull) {
+			return mapper.apply(result);
+		}
+		Name dn = new LdapName(result.getNameInNamespace());
+		SearchResult full;
+		try {
+			full = new SearchResult(result.getName(), null, ldapService.getAttributes(dn, fullAttributes));
+		} catch (NameNotFoundException nnfe) {
+			/* Moved or deleted since the change was recorded, a later change will report it */
+			LOG.debug(String.format("%s no longer exists, skipping", dn));
+			return null;
+		}
+		full.setNameInNamespace(result.getNameInNamespace());
+		return mapper.apply(full);
+	}
+
+	private static String[] withIdentifyingAttributes(String[] attributes) {
+		if (attributes == null) {
+			return null;
+		}
+		String[] all = new String[attributes.length + 3];
+		System.arraycopy(attributes, 0, all, 0, attributes.length);
+		all[attributes.length] = IS_DELETED_ATTRIBUTE;
+		all[attributes.length + 1] = ActiveDirectoryConnector.OBJECT_GUID_ATTRIBUTE;
+		all[attributes.length + 2] = ActiveDirectoryConnector.SAM_ACCOUNT_NAME_ATTRIBUTE;
+		return all;
+	}
+
+	private void closeListIterator() {
+		if (listIterator != null) {
+			try {
+				listIterator.close();
+			} catch (NamingException e) {
+			} finally {
+				listIterator = null;
+			}
+		}
+	}
+}
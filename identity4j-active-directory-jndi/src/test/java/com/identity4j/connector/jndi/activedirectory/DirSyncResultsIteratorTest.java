@@ -0,0 +1,229 @@
+package com.identity4j.connector.jndi.activedirectory;
+
+/*
+ * #%L
+ * Identity4J Active Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.junit.Test;
+
+import com.identity4j.connector.jndi.directory.DirectoryConfiguration;
+import com.identity4j.connector.jndi.directory.LdapService;
+import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
+import com.identity4j.connector.jndi.directory.filter.Eq;
+import com.identity4j.util.MultiMap;
+
+public class DirSyncResultsIteratorTest {
+
+	@Test
+	public void controlRoundTrip() throws Exception {
+		byte[] cookie = new byte[300];
+		Arrays.fill(cookie, (byte) 7);
+		DirSyncControl.Response response = DirSyncControl
+				.decode(DirSyncControl.encode(1, DirSyncControl.MAX_BYTES, cookie));
+		assertTrue(response.isMoreResults());
+		assertArrayEquals(cookie, response.getCookie());
+
+		response = DirSyncControl.decode(new DirSyncControl(0, 128, null).getEncodedValue());
+		assertFalse(response.isMoreResults());
+		assertEquals(0, response.getCookie().length);
+	}
+
+	@Test
+	public void changesAndDeletionsAcrossBatches() {
+		MultiMap parameters = new MultiMap();
+		parameters.set(DirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		DirectoryConfiguration configuration = new DirectoryConfiguration(parameters);
+
+		final FakeDirectory directory = new FakeDirectory();
+		LdapService service = new LdapService() {
+			@Override
+			public LdapContext getConnection(Control... controls) {
+				return directory.newContext();
+			}
+		};
+		service.init(configuration);
+
+		ResultMapper<String> mapper = new ResultMapper<String>() {
+			@Override
+			public String apply(SearchResult result) throws NamingException {
+				return "live:" + result.getAttributes().get("description").get();
+			}
+
+			@Override
+			public boolean isApplyFilters() {
+				return true;
+			}
+		};
+		ResultMapper<String> deletedMapper = new ResultMapper<String>() {
+			@Override
+			public String apply(SearchResult result) {
+				return "deleted:" + result.getNameInNamespace();
+			}
+
+			@Override
+			public boolean isApplyFilters() {
+				return true;
+			}
+		};
+
+		DirSyncResultsIterator<String> it = new DirSyncResultsIterator<String>(service, configuration.getBaseDn(),
+				new Eq("objectClass", "user"), service.getSearchControls(), configuration, mapper, deletedMapper, null,
+				0);
+		List<String> results = new ArrayList<String>();
+		while (it.hasNext()) {
+			results.add(it.next());
+		}
+		assertEquals(Arrays.asList("live:changed user1", "deleted:cn=user2\\0ADEL:1234,cn=Deleted Objects,dc=example,dc=com"),
+				results);
+		assertNull(directory.cookies.get(0));
+		assertArrayEquals(new byte[] { 1 }, directory.cookies.get(1));
+		assertEquals(DirSyncResultsIterator.TAG_PREFIX + "Ag==", it.tag());
+		assertEquals(0, directory.open);
+		/* A full sync already has every requested attribute */
+		assertEquals(0, directory.reads);
+
+		/* Next sync starts from the returned cookie, and reads changed objects in full */
+		it = new DirSyncResultsIterator<String>(service, configuration.getBaseDn(), new Eq("objectClass", "user"),
+				service.getSearchControls(), configuration, mapper, deletedMapper, it.tag(), 0);
+		assertTrue(it.hasNext());
+		assertEquals("live:full user3", it.next());
+		assertFalse(it.hasNext());
+		assertArrayEquals(new byte[] { 2 }, directory.cookies.get(2));
+		assertEquals(1, directory.reads);
+	}
+
+	class FakeDirectory {
+		List<byte[]> cookies = new ArrayList<byte[]>();
+		int open;
+		int reads;
+
+		LdapContext newContext() {
+			open++;
+			return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { LdapContext.class }, new InvocationHandler() {
+						byte[] cookie;
+
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							switch (method.getName()) {
+							case "setRequestControls":
+								Control[] controls = (Control[]) args[0];
+								if (controls != null && controls.length == 1 && controls[0] instanceof DirSyncControl) {
+									/* The request value has the same layout as the response */
+									cookie = DirSyncControl.decode(controls[0].getEncodedValue()).getCookie();
+									cookies.add(cookie.length == 0 ? null : cookie);
+								}
+								return null;
+							case "search":
+								List<SearchResult> results = new ArrayList<SearchResult>();
+								if (cookie.length == 0) {
+									results.add(result("cn=user1,dc=example,dc=com", false));
+								} else if (cookie[0] == 1) {
+									results.add(result("cn=user2\\0ADEL:1234,cn=Deleted Objects,dc=example,dc=com", true));
+								} else if (cookie[0] == 2) {
+									results.add(result("cn=user3,dc=example,dc=com", false));
+								}
+								return enumeration(results);
+							case "getResponseControls":
+								byte next = (byte) (cookie.length == 0 ? 1 : cookie[0] + 1);
+								return new Control[] { new BasicControl(DirSyncControl.OID, false,
+										DirSyncControl.encode(next == 1 ? 1 : 0, 0, new byte[] { next })) };
+							case "getAttributes":
+								reads++;
+								BasicAttributes attrs = new BasicAttributes(true);
+								attrs.put("description", "full " + ((LdapName) args[0]).getRdn(((LdapName) args[0]).size() - 1).getValue());
+								return attrs;
+							case "close":
+								open--;
+								return null;
+							default:
+								return null;
+							}
+						}
+					});
+		}
+
+		private SearchResult result(String dn, boolean deleted) {
+			BasicAttributes attrs = new BasicAttributes(true);
+			if (deleted) {
+				attrs.put(DirSyncResultsIterator.IS_DELETED_ATTRIBUTE, "TRUE");
+			} else {
+				attrs.put("description", "changed " + dn.substring(3, dn.indexOf(',')));
+			}
+			SearchResult result = new SearchResult(dn, null, attrs);
+			result.setNameInNamespace(dn);
+			return result;
+		}
+	}
+
+	private static NamingEnumeration<SearchResult> enumeration(List<SearchResult> results) {
+		final Iterator<SearchResult> it = Collections.unmodifiableList(results).iterator();
+		return new NamingEnumeration<SearchResult>() {
+			@Override
+			public boolean hasMoreElements() {
+				return it.hasNext();
+			}
+
+			@Override
+			public SearchResult nextElement() {
+				return it.next();
+			}
+
+			@Override
+			public SearchResult next() throws NamingException {
+				return it.next();
+			}
+
+			@Override
+			public boolean hasMore() throws NamingException {
+				return it.hasNext();
+			}
+
+			@Override
+			public void close() throws NamingException {
+			}
+		};
+	}
+}
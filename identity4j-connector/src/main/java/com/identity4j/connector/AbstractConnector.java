@@ -24,9 +24,15 @@ package com.identity4j.connector;
  */
 
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.net.SocketFactory;
 
@@ -37,6 +43,7 @@ import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.Principal;
 import com.identity4j.connector.principal.Role;
+import com.identity4j.util.crypt.VerificationService;
 import com.identity4j.util.passwords.PasswordCharacteristics;
 import com.identity4j.util.validator.ValidationContext;
 
@@ -134,6 +141,85 @@ public abstract class AbstractConnector<P extends ConnectorConfigurationParamete
 		}
 	}
 
+	/**
+	 * Check the given credentials asynchronously. The identity is looked up
+	 * on the calling thread, then the credentials are verified by
+	 * {@link #verifyCredentials(Identity, char[])}. The password
+	 * is copied, so the caller may clear it as soon as this returns. Any
+	 * processors are run on {@link #getIdentityProcessorExecutor()}, so they
+	 * never hold up a verification thread.
+	 */
+	@Override
+	public CompletableFuture<Boolean> checkCredentialsAsync(String username, char[] password, final IdentityProcessor... processors) {
+		final Identity identity;
+		try {
+			identity = getIdentityByName(username);
+		} catch (PrincipalNotFoundException e) {
+			return CompletableFuture.completedFuture(false);
+		} catch (RuntimeException e) {
+			CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+			future.completeExceptionally(e);
+			return future;
+		}
+		final char[] passwordCopy = password.clone();
+		CompletableFuture<Boolean> verified = verifyCredentials(identity, passwordCopy)
+			.whenComplete((valid, e) -> Arrays.fill(passwordCopy, '\0'));
+		if (processors.length == 0) {
+			return verified;
+		}
+		return verified.thenApplyAsync(valid -> {
+			if (valid) {
+				for (IdentityProcessor processor : processors) {
+					processor.processIdentity(identity, this);
+				}
+			}
+			return valid;
+		}, getIdentityProcessorExecutor());
+	}
+
+	/**
+	 * Get the executor that runs identity processors after an asynchronous
+	 * credential check succeeds. The default is the common fork join pool,
+	 * connectors whose processors block for long should supply their own.
+	 * 
+	 * @return executor
+	 */
+	protected Executor getIdentityProcessorExecutor() {
+		return ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Verify the credentials of an identity asynchronously. By default,
+	 * {@link #areCredentialsValid(Identity, char[])} is run on the calling
+	 * thread, as most connectors check credentials against a remote service
+	 * and that blocking I/O should not occupy the processor sized
+	 * {@link VerificationService}. Connectors that check a hash locally should
+	 * hand that check to the service, looking the stored hash up on the
+	 * calling thread if it is cheap to find.
+	 * 
+	 * @param identity identity
+	 * @param password password
+	 * @return future result
+	 */
+	protected CompletableFuture<Boolean> verifyCredentials(final Identity identity, final char[] password) {
+		CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+		try {
+			future.complete(areCredentialsValid(identity, password));
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Get the service used to verify credentials asynchronously.
+	 * 
+	 * @return verification service
+	 */
+	protected VerificationService getVerificationService() {
+		return VerificationService.getInstance();
+	}
+
 	/**
 	 * Checks that the supplied credentials are valid for authentication
 	 * 
@@ -238,11 +324,16 @@ public abstract class AbstractConnector<P extends ConnectorConfigurationParamete
 	 * @throws {@link ConnectorException}
 	 */
 	public Identity getIdentityByName(String name, boolean withGroups) throws PrincipalNotFoundException, ConnectorException {
-		for (Iterator<Identity> identityIterator = allIdentities(OperationContext.createDefault()); identityIterator.hasNext();) {
-			Identity identity = identityIterator.next();
-			if (identity.getPrincipalName().equals(name)) {
-				return identity;
+		Iterator<Identity> identityIterator = allIdentities(OperationContext.createDefault());
+		try {
+			while (identityIterator.hasNext()) {
+				Identity identity = identityIterator.next();
+				if (identity.getPrincipalName().equals(name)) {
+					return identity;
+				}
 			}
+		} finally {
+			closeQuietly(identityIterator);
 		}
 		throw new PrincipalNotFoundException(name + " not found.");
 	}
@@ -252,12 +343,16 @@ public abstract class AbstractConnector<P extends ConnectorConfigurationParamete
 	 */
 	@Override
 	public Identity getIdentityByGuid(String guid) throws PrincipalNotFoundException, ConnectorException {
-		for (Iterator<Identity> identityIterator = allIdentities(OperationContext.createDefault()); identityIterator.hasNext();) {
-			Identity identity = identityIterator.next();
-			System.out.println(">> " + identity.getPrincipalName() + "/" + identity.getGuid() + " against " + guid);
-			if (identity.getGuid().equals(guid)) {
-				return identity;
+		Iterator<Identity> identityIterator = allIdentities(OperationContext.createDefault());
+		try {
+			while (identityIterator.hasNext()) {
+				Identity identity = identityIterator.next();
+				if (identity.getGuid().equals(guid)) {
+					return identity;
+				}
 			}
+		} finally {
+			closeQuietly(identityIterator);
 		}
 		throw new PrincipalNotFoundException(guid + " not found.");
 	}
@@ -273,22 +368,47 @@ public abstract class AbstractConnector<P extends ConnectorConfigurationParamete
 	 * @throws {@link ConnectorException}
 	 */
 	public Role getRoleByName(String name) throws PrincipalNotFoundException, ConnectorException {
-		for (Iterator<Role> roleIterator = allRoles(OperationContext.createDefault()); roleIterator.hasNext();) {
-			Role role = roleIterator.next();
-			if (role.getPrincipalName().equals(name)) {
-				return role;
+		Iterator<Role> roleIterator = allRoles(OperationContext.createDefault());
+		try {
+			while (roleIterator.hasNext()) {
+				Role role = roleIterator.next();
+				if (role.getPrincipalName().equals(name)) {
+					return role;
+				}
 			}
+		} finally {
+			closeQuietly(roleIterator);
 		}
 		throw new PrincipalNotFoundException(name + " not found.");
 	}
 
 	protected final <T extends Principal> T getPrincipal(String filter, Iterator<T> itr) {
-		if (itr.hasNext()) {
-			return itr.next();
+		try {
+			if (itr.hasNext()) {
+				return itr.next();
+			}
+		} finally {
+			/* Only the first result is wanted, release any resources held by the iterator */
+			closeQuietly(itr);
 		}
 		throw new PrincipalNotFoundException("Principal not found for filter '" + filter + "'");
 	}
 
+	/**
+	 * Close an iterator that may not have been read to the end, if it is
+	 * {@link Closeable}, so it releases any resources it holds.
+	 * 
+	 * @param itr iterator
+	 */
+	protected static void closeQuietly(Iterator<?> itr) {
+		if (itr instanceof Closeable) {
+			try {
+				((Closeable) itr).close();
+			} catch (IOException ioe) {
+			}
+		}
+	}
+
 	/**
 	 * Default implementation simply returns null. Need to override this to
 	 * create new identity
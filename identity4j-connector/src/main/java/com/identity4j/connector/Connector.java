@@ -29,6 +29,7 @@ import java.io.Closeable;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.net.SocketFactory;
 
@@ -140,6 +141,27 @@ public interface Connector<P extends ConnectorConfigurationParameters> extends C
 	 */
 	boolean checkCredentials(String username, char[] password, IdentityProcessor... processors) throws ConnectorException;
 
+	/**
+	 * Check the given credentials but do not actually logon, without tying up
+	 * the calling thread while a slow password hash is verified. Any failure
+	 * completes the future exceptionally. The default implementation simply
+	 * checks the credentials on the calling thread.
+	 * 
+	 * @param username
+	 * @param password
+	 * @return future result, <tt>true</tt> on success and <tt>false</tt> on
+	 *         failure.
+	 */
+	default CompletableFuture<Boolean> checkCredentialsAsync(String username, char[] password, IdentityProcessor... processors) {
+		CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+		try {
+			future.complete(checkCredentials(username, password, processors));
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
 	/**
 	 * Change your password. This method is used by an identity to change their
 	 * own password. The boolean property checkCurrent if true old password will be verified.
@@ -0,0 +1,49 @@
+/* HEADER */
+package com.identity4j.connector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * {@link ResultIterator} that converts each element of a source as it is
+ * requested. Closing it closes the source, if that is {@link Closeable}.
+ *
+ * @param <S> type of source element
+ * @param <E> type of result
+ * @see ResultIterator#createDefault(Iterator, Function, String)
+ */
+class ConvertingResultIterator<S, E> implements ResultIterator<E>, Closeable {
+	private final Iterator<S> it;
+	private final Function<? super S, ? extends E> converter;
+	private final String tag;
+
+	ConvertingResultIterator(Iterator<S> it, Function<? super S, ? extends E> converter, String tag) {
+		this.it = it;
+		this.converter = converter;
+		this.tag = tag;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return it.hasNext();
+	}
+
+	@Override
+	public E next() {
+		return converter.apply(it.next());
+	}
+
+	@Override
+	public String tag() {
+		return tag;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (it instanceof Closeable) {
+			((Closeable) it).close();
+		}
+	}
+}
@@ -1,5 +1,10 @@
 package com.identity4j.connector;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
 /**
  * Supplies some contextual objects and callbacks used during major operations
  * on a connector, such as {@link Connector#allIdentities()} and
@@ -15,6 +20,19 @@ public interface OperationContext {
 	
 	boolean isGroups();
 
+	/**
+	 * Get the names of the principal attributes the caller needs, or
+	 * <code>null</code> if all attributes are required. Connectors that can
+	 * limit the attributes they retrieve and map may use this to reduce the
+	 * amount of data transferred, others will ignore it. Attributes the
+	 * connector needs to build the principal itself are always retrieved.
+	 * 
+	 * @return requested attributes or <code>null</code> for all
+	 */
+	default Set<String> getAttributes() {
+		return null;
+	}
+
 	static OperationContext createDefault(OperationContext delegate, String newTag) {
 		return createDefault(delegate, newTag, true);
 	}
@@ -36,6 +54,39 @@ public interface OperationContext {
 			public boolean isGroups() {
 				return withGroups;
 			}
+
+			@Override
+			public Set<String> getAttributes() {
+				return delegate.getAttributes();
+			}
+		};
+	}
+
+	static OperationContext createWithAttributes(OperationContext delegate, String... attributes) {
+		Set<String> attributeSet = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		attributeSet.addAll(Arrays.asList(attributes));
+		Set<String> requested = Collections.unmodifiableSet(attributeSet);
+		return new OperationContext() {
+
+			@Override
+			public String getTag() {
+				return delegate.getTag();
+			}
+
+			@Override
+			public UserGroupRelationshipCache getRelationshipCache() {
+				return delegate.getRelationshipCache();
+			}
+
+			@Override
+			public boolean isGroups() {
+				return delegate.isGroups();
+			}
+
+			@Override
+			public Set<String> getAttributes() {
+				return requested;
+			}
 		};
 	}
 	
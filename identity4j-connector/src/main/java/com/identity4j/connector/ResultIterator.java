@@ -1,7 +1,9 @@
 /* HEADER */
 package com.identity4j.connector;
 
+import java.io.Closeable;
 import java.util.Iterator;
+import java.util.function.Function;
 
 /**
  * Specialisation of {@link Iterator} that also returns a <strong>Tag</strong>.
@@ -10,6 +12,22 @@ import java.util.Iterator;
  * @see {@link TagResult}
  */
 public interface ResultIterator<E> extends Iterator<E>, TagResult {
+	/**
+	 * Create a result iterator that converts each element of the source as it
+	 * is requested, so a source streaming from a remote service need not be
+	 * read into memory first. The returned iterator is {@link Closeable}, and
+	 * closes the source if that is too, so a consumer that stops early can
+	 * release whatever the source holds open.
+	 * 
+	 * @param it source
+	 * @param converter converts each source element
+	 * @param tag tag
+	 * @return result iterator
+	 */
+	static <S, E> ResultIterator<E> createDefault(Iterator<S> it, Function<? super S, ? extends E> converter, String tag) {
+		return new ConvertingResultIterator<S, E>(it, converter, tag);
+	}
+
 	static <E> ResultIterator<E> createDefault(Iterator<E> it, String tag) {
 		return new ResultIterator<E>() {
 
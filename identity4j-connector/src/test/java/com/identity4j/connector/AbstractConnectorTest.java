@@ -45,6 +45,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -341,6 +342,32 @@ public abstract class AbstractConnectorTest<C extends ConnectorConfigurationPara
 		assertFalse("Credentials are valid. These should be invalid", checkCredentials);
 	}
 
+	@Test
+	public final void checkCredentialsAsync() throws Exception {
+		char[] password = identityPassword.toCharArray();
+		CompletableFuture<Boolean> valid = connector.checkCredentialsAsync(identityName, password);
+		Arrays.fill(password, '\0');
+		assertTrue("Credentials are invalid. These should be valid", valid.get());
+		assertFalse("Credentials are valid. These should be invalid",
+			connector.checkCredentialsAsync(identityName, TestUtils.randomValue().toCharArray()).get());
+		assertFalse("Credentials are valid. These should be invalid",
+			connector.checkCredentialsAsync(getTestPrincipalName(), identityPassword.toCharArray()).get());
+	}
+
+	@Test
+	public final void checkCredentialsAsyncProcessorsRunOffVerificationThreads() throws Exception {
+		final List<String> threads = new ArrayList<String>();
+		assertTrue("Credentials are invalid. These should be valid",
+			connector.checkCredentialsAsync(identityName, identityPassword.toCharArray(), new IdentityProcessor() {
+				@Override
+				public void processIdentity(Identity identity, Connector<?> con) {
+					threads.add(Thread.currentThread().getName());
+				}
+			}).get());
+		assertEquals(1, threads.size());
+		assertFalse("Processor ran on a verification thread", threads.get(0).startsWith("identity4j-verification-"));
+	}
+
 	@Test
 	public void changePassword() {
 
@@ -0,0 +1,74 @@
+package com.identity4j.connector;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.identity4j.util.json.JsonArrayIterator;
+import com.identity4j.util.json.JsonMapperService;
+
+public class ResultIteratorTest {
+
+	@Test
+	public void closingAbandonedIteratorClosesSource() throws IOException {
+		AtomicInteger released = new AtomicInteger();
+		ResultIterator<String> it = ResultIterator.createDefault(items(released), item -> (String) item.get("name"), "tag");
+		assertEquals("a", it.next());
+		assertEquals(0, released.get());
+
+		assertTrue(it instanceof Closeable);
+		((Closeable) it).close();
+		assertEquals(1, released.get());
+	}
+
+	@Test
+	public void exhaustedIteratorReleasesSource() {
+		AtomicInteger released = new AtomicInteger();
+		ResultIterator<String> it = ResultIterator.createDefault(items(released), item -> (String) item.get("name"), "tag");
+		while (it.hasNext())
+			it.next();
+		assertEquals(1, released.get());
+		assertEquals("tag", it.tag());
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static JsonArrayIterator<Map> items(final AtomicInteger released) {
+		byte[] json = "{\"value\":[{\"name\":\"a\"},{\"name\":\"b\"}]}".getBytes(StandardCharsets.UTF_8);
+		return JsonMapperService.getInstance().getObjects(Map.class, new ByteArrayInputStream(json), "value", new Closeable() {
+			@Override
+			public void close() {
+				released.incrementAndGet();
+			}
+		});
+	}
+}
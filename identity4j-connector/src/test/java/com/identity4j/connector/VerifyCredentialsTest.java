@@ -0,0 +1,85 @@
+package com.identity4j.connector;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.Role;
+
+public class VerifyCredentialsTest {
+
+	@Test
+	public void credentialsAreCheckedOnCallingThreadByDefault() throws Exception {
+		final Thread caller = Thread.currentThread();
+		final Thread[] checkedOn = new Thread[1];
+		AbstractConnector<ConnectorConfigurationParameters> connector = new AbstractConnector<ConnectorConfigurationParameters>() {
+			@Override
+			public Set<ConnectorCapability> getCapabilities() {
+				return Collections.emptySet();
+			}
+
+			@Override
+			public ResultIterator<Identity> allIdentities(OperationContext opContext) {
+				return ResultIterator.createDefault(Arrays.<Identity>asList(new IdentityImpl("1", "user")).iterator(),
+						opContext.getTag());
+			}
+
+			@Override
+			public ResultIterator<Role> allRoles(OperationContext opContext) {
+				return ResultIterator.createDefault(Collections.<Role>emptyList().iterator(), opContext.getTag());
+			}
+
+			@Override
+			public boolean isReadOnly() {
+				return true;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			protected void onOpen(ConnectorConfigurationParameters parameters) {
+			}
+
+			@Override
+			protected boolean areCredentialsValid(Identity identity, char[] password) {
+				checkedOn[0] = Thread.currentThread();
+				return Arrays.equals("secret".toCharArray(), password);
+			}
+		};
+
+		assertTrue(connector.checkCredentialsAsync("user", "secret".toCharArray()).get());
+		assertEquals(caller, checkedOn[0]);
+	}
+}
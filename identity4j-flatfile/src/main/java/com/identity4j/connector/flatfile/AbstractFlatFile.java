@@ -22,33 +22,99 @@ package com.identity4j.connector.flatfile;
  * #L%
  */
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+/**
+ * A file of rows, each a list of string fields, held in memory.
+ * <p>
+ * Changes can be written either by rewriting the whole file with
+ * {@link #writeRows()}, or with {@link #writeChanges()}, which only writes
+ * rows that have been added, removed or changed. For the latter, rows must be
+ * changed with {@link #set(List, int, String)}, or passed to
+ * {@link #markDirty(List)} after being changed directly. Changed lines that
+ * keep their length are written over the old ones in place, and added rows
+ * are appended; anything else rewrites the whole file. Local files are
+ * rewritten to a temporary file that then replaces the original, so the file
+ * is never seen half written. Several changes can be gathered into a single
+ * write with {@link #beginBatch()} and {@link #commit()}.
+ * <p>
+ * Rows may be looked up by any number of threads at once. Changing rows,
+ * writing and swapping in newly loaded rows lock out readers while they
+ * happen, but a file is only ever read from disk and written by one thread at
+ * a time, and readers carry on using the previous rows while a load is in
+ * progress. Rows changed by other threads during a load wait for it to
+ * finish, so the change is made to the newly loaded rows rather than lost
+ * with the previous ones. Iterating over {@link #getContents()} sees the rows
+ * as they were when iteration started.
+ */
 public abstract class AbstractFlatFile {
     static final Log LOG = LogFactory.getLog(AbstractFlatFile.class);
 
+    private static final int MAX_LINE_LENGTH = 0xFFFFFF;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
     // Internal representation of file content
-    private final List<List<String>> contents = new ArrayList<List<String>>();
-    private final Map<Integer, Map<String, List<String>>> index = new HashMap<Integer, Map<String, List<String>>>();
+    private volatile RowStore rows = new ListRowStore();
+    // Rows being loaded, only made current once the whole file is read
+    private RowStore loading;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Held while loading or writing the file
+    private final Object updateLock = new Object();
+    private int rowIndex = -1;
     private boolean firstRowIsHeading;
     private final List<Column> columns = new ArrayList<Column>();
     private char escapeCharacter;
     private Filter filter;
 
+    // Where rows are in the file, for writing changes
+    private String charsetName;
+    private boolean locationsKnown;
+    private long length;
+    private boolean endsWithNewline = true;
+    private long loadLocation = -1;
+    private int batchDepth;
+    private boolean writePending;
+    private boolean rewritePending;
+    private long[] writeLocations;
+    private int writeCount;
+    private long writePosition;
+
     /**
      * Get the entire file content model
      * 
@@ -58,6 +124,121 @@ public abstract class AbstractFlatFile {
         return contents;
     }
 
+    private final List<List<String>> contents = new AbstractList<List<String>>() {
+        @Override
+        public List<String> get(int index) {
+            lock.readLock().lock();
+            try {
+                if (rows.isPacked()) {
+                    return rows.asList().get(index);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            /* Reading by position first closes the gaps left by removed rows */
+            lock.writeLock().lock();
+            try {
+                return rows.asList().get(index);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public Iterator<List<String>> iterator() {
+            final List<List<String>> snapshot;
+            lock.writeLock().lock();
+            try {
+                snapshot = new ArrayList<List<String>>(rows.asList());
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return new Iterator<List<String>>() {
+                private final Iterator<List<String>> it = snapshot.iterator();
+                private List<String> last;
+
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public List<String> next() {
+                    return last = it.next();
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    AbstractFlatFile.this.remove(last);
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public List<String> remove(int index) {
+            synchronized (updateLock) {
+                lock.writeLock().lock();
+                try {
+                    return rows.asList().remove(index);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return AbstractFlatFile.this.size();
+        }
+    };
+
+    /**
+     * Get whether rows are held in the memory compact representation.
+     * 
+     * @return compact rows
+     */
+    public boolean isCompactRows() {
+        return rows instanceof CompactRowStore;
+    }
+
+    /**
+     * Set whether rows should be held in a memory compact representation. Each
+     * row is then stored as a single string with field offsets rather than a
+     * list of strings. This uses much less memory for large files, at the cost of creating field
+     * strings as they are read, and of copying a row when a field is changed.
+     * Rows already loaded are moved to the new representation.
+     * 
+     * @param compactRows compact rows
+     */
+    public void setCompactRows(boolean compactRows) {
+        lock.writeLock().lock();
+        try {
+            if (compactRows != isCompactRows()) {
+                RowStore newRows = newRowStore(compactRows);
+                for (List<String> row : rows) {
+                    newRows.add(compactRows ? row : new ArrayList<String>(row));
+                }
+                rows = newRows;
+                /* Where the moved rows are in the file is not known */
+                locationsKnown = false;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private RowStore newRowStore(boolean compactRows) {
+        RowStore newRows = compactRows ? new CompactRowStore() : new ListRowStore();
+        for (Integer column : rows.getIndexColumns()) {
+            newRows.addIndex(column);
+        }
+        return newRows;
+    }
+
     /**
      * Get the filter
      * 
@@ -125,14 +306,28 @@ public abstract class AbstractFlatFile {
     }
 
     public void addIndex(int column) {
-        if (index.containsKey(column)) {
-            throw new IllegalArgumentException("Index already exists");
+        lock.writeLock().lock();
+        try {
+            if (rows.getIndexColumns().contains(column)) {
+                throw new IllegalArgumentException("Index already exists");
+            }
+            rows.addIndex(column);
+            rowIndex = -1;
+        } finally {
+            lock.writeLock().unlock();
         }
-        index.put(column, new HashMap<String, List<String>>());
     }
 
+    /**
+     * Get the indexes, keyed on column. The indexes are maintained by
+     * {@link #add(List)} and {@link #remove(List)} and should not be modified
+     * directly. The view is not locked, so should not be used while the file
+     * may be changed by another thread.
+     * 
+     * @return indexes
+     */
     public Map<Integer, Map<String, List<String>>> getIndex() {
-        return index;
+        return rows.getIndex();
     }
 
     /**
@@ -143,14 +338,25 @@ public abstract class AbstractFlatFile {
      * @return
      */
     public List<String> getRowByKeyField(int indexColumn, String keyFieldValue) {
-        final Map<String, List<String>> map = index.get(indexColumn);
-        return map.get(keyFieldValue);
+        lock.readLock().lock();
+        try {
+            return rows.getRowByKeyField(indexColumn, keyFieldValue);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public void clear() {
-        contents.clear();
-        for (Map<String, List<String>> rowIndex : index.values()) {
-            rowIndex.clear();
+        synchronized (updateLock) {
+            lock.writeLock().lock();
+            try {
+                rows.clear();
+                locationsKnown = false;
+                length = 0;
+                endsWithNewline = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
         }
     }
 
@@ -162,27 +368,427 @@ public abstract class AbstractFlatFile {
      * @throws IOException
      */
     public final void load(InputStream inputStream, String charsetName) throws IOException {
-        clear();
-        onLoad(inputStream, charsetName);
+        synchronized (updateLock) {
+            RowStore loaded;
+            lock.readLock().lock();
+            try {
+                loaded = newRowStore(isCompactRows());
+            } finally {
+                lock.readLock().unlock();
+            }
+            locationsKnown = false;
+            length = 0;
+            endsWithNewline = true;
+            this.charsetName = charsetName;
+            loading = loaded;
+            try {
+                onLoad(inputStream, charsetName);
+            } finally {
+                loading = null;
+                loadLocation = -1;
+            }
+            loaded.clearChanges();
+            lock.writeLock().lock();
+            try {
+                rows = loaded;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
     }
 
     /**
-     * Wrapper around writeRow to write a single row into the file
+     * Load the file again, and compare the new rows with those previously
+     * loaded. Rows are matched on a key field, which should be indexed, and
+     * a row counts as changed if any of its fields differ. Both the old and
+     * new rows are held in memory while they are compared. The new rows only
+     * replace the previous ones once they are all loaded, and if loading
+     * fails the previous rows are kept.
+     * 
+     * @param inputStream input stream
+     * @param charsetName character set
+     * @param keyColumn column of key field
+     * @return changes
+     * @throws IOException
+     */
+    public final FlatFileChanges reload(InputStream inputStream, String charsetName, int keyColumn)
+            throws IOException {
+        synchronized (updateLock) {
+            RowStore previous = rows;
+            load(inputStream, charsetName);
+            lock.readLock().lock();
+            try {
+                return compare(previous, rows, keyColumn);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private static FlatFileChanges compare(RowStore previous, RowStore rows, int keyColumn) {
+        Set<String> added = new LinkedHashSet<String>();
+        Set<String> changed = new LinkedHashSet<String>();
+        Set<String> removed = new LinkedHashSet<String>();
+        for (List<String> row : rows) {
+            if (row.size() > keyColumn) {
+                String key = row.get(keyColumn);
+                List<String> previousRow = previous.getRowByKeyField(keyColumn, key);
+                if (previousRow == null) {
+                    added.add(key);
+                } else if (!previousRow.equals(row)) {
+                    changed.add(key);
+                }
+            }
+        }
+        for (List<String> row : previous) {
+            if (row.size() > keyColumn) {
+                String key = row.get(keyColumn);
+                if (rows.getRowByKeyField(keyColumn, key) == null) {
+                    removed.add(key);
+                }
+            }
+        }
+        return new FlatFileChanges(added, changed, removed);
+    }
+
+    /**
+     * Load a local file again, and compare the new rows with those previously
+     * loaded.
+     * 
+     * @param file file
+     * @param charsetName character set
+     * @param keyColumn column of key field
+     * @return changes
+     * @throws IOException
+     * @see #reload(InputStream, String, int)
+     */
+    public FlatFileChanges reload(File file, String charsetName, int keyColumn) throws IOException {
+        LOG.info("Reloading flat file " + file);
+        InputStream in = openFile(file);
+        try {
+            return reload(in, charsetName, keyColumn);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Wrapper around writeRow to write a single row into the file. If the row
+     * has been added to this file and a batch is in progress, it is appended
+     * when the batch is committed.
      * 
      * @param row to write
      * @throws IOException
      */
     public void appendRow(List<String> row) throws IOException {
-        writeRows(Collections.singletonList(row), true);
+        synchronized (updateLock) {
+            lock.writeLock().lock();
+            try {
+                if (batchDepth > 0 && rows.markDirty(row)) {
+                    writePending = true;
+                    return;
+                }
+                boolean append = locationsKnown && endsWithNewline;
+                startTracking(length);
+                writeRows(Collections.singletonList(row), true);
+                if (append && writeCount == 1) {
+                    rows.setLocation(row, writeLocations[0]);
+                    length = writePosition;
+                } else {
+                    locationsKnown = false;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
     }
 
     /**
-     * Wrapper around writeRows to write many rows to the file
+     * Wrapper around writeRows to write many rows to the file. The whole file
+     * is rewritten. If a batch is in progress, this happens when the batch is
+     * committed.
      * 
      * @throws IOException
      */
     public void writeRows() throws IOException {
-        writeRows(contents, false);
+        synchronized (updateLock) {
+            if (batchDepth > 0) {
+                rewritePending = true;
+                return;
+            }
+            writeAll();
+        }
+    }
+
+    /**
+     * Write the rows that have been added, removed or changed since the file
+     * was loaded or last written. Changed lines of the same length are written
+     * in place and added rows are appended where possible, otherwise the whole
+     * file is rewritten. If a batch is in progress, this happens when the
+     * batch is committed.
+     * 
+     * @throws IOException
+     */
+    public void writeChanges() throws IOException {
+        synchronized (updateLock) {
+            lock.writeLock().lock();
+            try {
+                writeChangesLocked();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void writeChangesLocked() throws IOException {
+        if (batchDepth > 0) {
+            writePending = true;
+            return;
+        }
+        if (!locationsKnown || rows.isRemovedSinceWritten() || isChangedExternally()) {
+            writeAll();
+            return;
+        }
+
+        SortedMap<Long, byte[]> lines = new TreeMap<Long, byte[]>();
+        for (List<String> row : rows.getDirtyRows()) {
+            long location = rows.getLocation(row);
+            if (location != -1) {
+                byte[] line = rowToString(row).getBytes(charsetName);
+                if (line.length != (int) (location & MAX_LINE_LENGTH)) {
+                    writeAll();
+                    return;
+                }
+                lines.put(location >>> 24, line);
+            }
+        }
+        List<List<String>> newRows = rows.getNewRows();
+        if (!newRows.isEmpty() && (!endsWithNewline || !canAppend())) {
+            writeAll();
+            return;
+        }
+
+        if (!lines.isEmpty()) {
+            if (!writeLinesInPlace(lines, length)) {
+                writeAll();
+                return;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Wrote " + lines.size() + " changed lines in place");
+            }
+        }
+        if (!newRows.isEmpty()) {
+            startTracking(length);
+            writeRows(newRows, true);
+            if (writeCount == newRows.size()) {
+                for (int i = 0; i < writeCount; i++) {
+                    rows.setLocation(newRows.get(i), writeLocations[i]);
+                }
+                length = writePosition;
+            } else {
+                locationsKnown = false;
+            }
+        }
+        rows.clearChanges();
+    }
+
+    /**
+     * Start gathering changes. Until the matching {@link #commit()}, calls to
+     * {@link #writeRows()}, {@link #writeChanges()} and
+     * {@link #appendRow(List)} only note that a write is needed. Batches may
+     * be nested.
+     */
+    public void beginBatch() {
+        synchronized (updateLock) {
+            batchDepth++;
+        }
+    }
+
+    /**
+     * End a batch started with {@link #beginBatch()}, and when the outermost
+     * batch ends write everything that was changed during it in one go.
+     * 
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        synchronized (updateLock) {
+            if (batchDepth == 0) {
+                throw new IllegalStateException("No batch in progress.");
+            }
+            if (--batchDepth == 0) {
+                if (rewritePending) {
+                    writeAll();
+                } else if (writePending) {
+                    writeChanges();
+                }
+                rewritePending = writePending = false;
+            }
+        }
+    }
+
+    /**
+     * Get whether a batch is in progress.
+     * 
+     * @return in batch
+     */
+    public boolean isBatch() {
+        synchronized (updateLock) {
+            return batchDepth > 0;
+        }
+    }
+
+    private void writeAll() throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<List<String>> all = rows.asList();
+            startTracking(0);
+            writeRows(all, false);
+            if (writeCount == all.size() && charsetName != null) {
+                rows.setLocations(writeLocations);
+                locationsKnown = true;
+                length = writePosition;
+                endsWithNewline = true;
+            } else {
+                locationsKnown = false;
+                rows.clearChanges();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void startTracking(long position) {
+        writeLocations = new long[16];
+        writeCount = 0;
+        writePosition = position;
+    }
+
+    /**
+     * Write changed lines over the existing lines of the file, at the given
+     * byte offsets. The lines are the same length as those they replace.
+     * Implementations that cannot write in place, or that find the file is
+     * not the expected length, should return <code>false</code> and the whole
+     * file will be rewritten instead.
+     * 
+     * @param lines encoded lines, keyed on offset
+     * @param expectedLength expected length of the file
+     * @return written
+     * @throws IOException
+     */
+    protected boolean writeLinesInPlace(SortedMap<Long, byte[]> lines, long expectedLength) throws IOException {
+        return false;
+    }
+
+    /**
+     * Get whether rows can be appended to the file without rewriting it.
+     * 
+     * @return can append
+     */
+    protected boolean canAppend() {
+        return true;
+    }
+
+    /**
+     * Get whether the file may have been changed by something else since it
+     * was loaded or last written, in which case changes are not written in
+     * place.
+     * 
+     * @return changed externally
+     */
+    protected boolean isChangedExternally() {
+        return true;
+    }
+
+    /**
+     * Write changed lines over the existing lines of a local file.
+     * 
+     * @param file file
+     * @param lines encoded lines, keyed on offset
+     * @param expectedLength expected length of the file
+     * @return <code>false</code> if the file is not the expected length
+     * @throws IOException
+     */
+    protected final boolean writeLinesInPlace(File file, SortedMap<Long, byte[]> lines, long expectedLength)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() != expectedLength) {
+                return false;
+            }
+            for (Map.Entry<Long, byte[]> en : lines.entrySet()) {
+                raf.seek(en.getKey());
+                raf.write(en.getValue());
+            }
+            raf.getFD().sync();
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Rewrite a local file by writing the rows to a temporary file in the
+     * same directory, then moving that over the original. The permissions and
+     * (where allowed) ownership of the original are kept.
+     * 
+     * @param file file
+     * @param rows rows
+     * @param charsetName character set
+     * @return <code>false</code> if a temporary file could not be created
+     * @throws IOException
+     */
+    protected final boolean writeAtomically(File file, List<List<String>> rows, String charsetName)
+            throws IOException {
+        Path target = file.toPath().toRealPath();
+        Path temp;
+        try {
+            temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        } catch (IOException ioe) {
+            LOG.warn("Could not create temporary file to replace " + target + ", writing in place. " + ioe.getMessage());
+            return false;
+        }
+        try {
+            FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            try {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                for (List<String> row : rows) {
+                    write(out, row, charsetName);
+                }
+                out.flush();
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            copyAttributes(target, temp);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void copyAttributes(Path from, Path to) {
+        PosixFileAttributeView fromView = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        PosixFileAttributeView toView = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (fromView == null || toView == null) {
+            return;
+        }
+        try {
+            PosixFileAttributes attributes = fromView.readAttributes();
+            try {
+                toView.setGroup(attributes.group());
+                toView.setOwner(attributes.owner());
+            } catch (IOException ioe) {
+                LOG.debug("Could not set ownership of " + to, ioe);
+            }
+            toView.setPermissions(attributes.permissions());
+        } catch (IOException ioe) {
+            LOG.warn("Could not copy attributes of " + from + " to " + to, ioe);
+        }
     }
 
     /**
@@ -203,11 +809,25 @@ public abstract class AbstractFlatFile {
      * @throws IOException
      */
     protected void write(OutputStream out, List<String> row, String encoding) throws IOException {
+        byte[] line = rowToString(row).getBytes(encoding);
+        byte[] separator = System.lineSeparator().getBytes(encoding);
         synchronized (out) {
-            IOUtils.writeLines(Collections.singletonList(rowToString(row)), null, out, encoding);
+            out.write(line);
+            out.write(separator);
+            if (writeLocations != null) {
+                if (writeCount == writeLocations.length) {
+                    writeLocations = Arrays.copyOf(writeLocations, writeCount * 2);
+                }
+                writeLocations[writeCount++] = location(writePosition, line.length);
+                writePosition += line.length + separator.length;
+            }
         }
     }
 
+    private static long location(long offset, int length) {
+        return length > MAX_LINE_LENGTH ? -1 : offset << 24 | length;
+    }
+
     /**
      * Convert the row to the desired string format
      * 
@@ -218,6 +838,212 @@ public abstract class AbstractFlatFile {
 
     protected abstract void onLoad(InputStream inputStream, String charsetName) throws IOException;
 
+    /**
+     * Open a reader for the lines of the file being loaded. Rows added while
+     * the reader is in use are taken to come from the line last read, so that
+     * changes to them can later be written in place.
+     * 
+     * @param inputStream input stream
+     * @param charsetName character set
+     * @return line reader
+     */
+    protected final LineReader openLines(InputStream inputStream, String charsetName) {
+        return new LineReader(inputStream, Charset.forName(charsetName));
+    }
+
+    /**
+     * Reads lines, keeping track of the byte offset of each. Lines may end in
+     * either <code>\n</code> or <code>\r\n</code>. Character sets in which a
+     * line feed is not the single byte <code>0x0a</code> are read without
+     * tracking offsets.
+     * <p>
+     * When the whole file has been read into memory (see
+     * {@link AbstractFlatFile#load(File, String)}), lines may also be taken
+     * as bytes with {@link #next()}, without decoding them.
+     */
+    protected final class LineReader implements Closeable {
+        private final InputStream in;
+        private final Charset charset;
+        private final BufferedReader reader;
+        private byte[] buf;
+        private byte[] line = new byte[256];
+        private int pos;
+        private int limit;
+        private long offset;
+        private int lineStart;
+        private int lineEnd;
+        private final boolean buffered;
+
+        private LineReader(InputStream in, Charset charset) {
+            this.in = in;
+            this.charset = charset;
+            byte[] lf = "\n".getBytes(charset);
+            if (lf.length == 1 && lf[0] == '\n') {
+                reader = null;
+                locationsKnown = true;
+                if (in instanceof FileBytes) {
+                    FileBytes fileBytes = (FileBytes) in;
+                    buf = fileBytes.bytes();
+                    limit = fileBytes.length();
+                    buffered = true;
+                } else {
+                    buf = new byte[8192];
+                    buffered = false;
+                }
+            } else {
+                reader = new BufferedReader(new InputStreamReader(in, charset));
+                buffered = false;
+            }
+        }
+
+        /**
+         * Get whether the whole file is in memory, so {@link #next()} may be
+         * used.
+         * 
+         * @return buffered
+         */
+        public boolean isBuffered() {
+            return buffered;
+        }
+
+        /**
+         * Move to the next line without decoding it. Its bytes are
+         * {@link #getBytes()} from {@link #getStart()} to {@link #getEnd()}.
+         * 
+         * @return <code>false</code> at the end of the file
+         * @throws IllegalStateException if not buffered
+         */
+        public boolean next() {
+            if (!buffered) {
+                throw new IllegalStateException("Lines are not buffered.");
+            }
+            if (pos == limit) {
+                return false;
+            }
+            int start = pos;
+            int end = start;
+            while (end < limit && buf[end] != '\n') {
+                end++;
+            }
+            boolean terminated = end < limit;
+            pos = terminated ? end + 1 : end;
+            lineStart = start;
+            lineEnd = end > start && buf[end - 1] == '\r' ? end - 1 : end;
+            track(end - start, lineEnd - lineStart, terminated);
+            return true;
+        }
+
+        /**
+         * Get the bytes of the file, when buffered.
+         * 
+         * @return bytes
+         */
+        public byte[] getBytes() {
+            return buf;
+        }
+
+        /**
+         * Get the offset of the start of the current line in
+         * {@link #getBytes()}.
+         * 
+         * @return start
+         */
+        public int getStart() {
+            return lineStart;
+        }
+
+        /**
+         * Get the offset of the end of the current line in
+         * {@link #getBytes()}, excluding the line terminator.
+         * 
+         * @return end
+         */
+        public int getEnd() {
+            return lineEnd;
+        }
+
+        /**
+         * Decode the current line, after a call to {@link #next()}.
+         * 
+         * @return line
+         */
+        public String getLine() {
+            return new String(buf, lineStart, lineEnd - lineStart, charset);
+        }
+
+        /**
+         * Read the next line.
+         * 
+         * @return line, or <code>null</code> at the end of the file
+         * @throws IOException
+         */
+        public String nextLine() throws IOException {
+            if (reader != null) {
+                return reader.readLine();
+            }
+            if (buffered) {
+                return next() ? getLine() : null;
+            }
+            int len = 0;
+            while (true) {
+                if (pos == limit) {
+                    limit = in.read(buf, 0, buf.length);
+                    pos = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return len == 0 ? null : line(len, false);
+                    }
+                }
+                byte b = buf[pos++];
+                if (b == '\n') {
+                    return line(len, true);
+                }
+                if (len == line.length) {
+                    line = Arrays.copyOf(line, len * 2);
+                }
+                line[len++] = b;
+            }
+        }
+
+        private String line(int len, boolean terminated) {
+            int contentLength = len > 0 && line[len - 1] == '\r' ? len - 1 : len;
+            track(len, contentLength, terminated);
+            return new String(line, 0, contentLength, charset);
+        }
+
+        private void track(int len, int contentLength, boolean terminated) {
+            loadLocation = location(offset, contentLength);
+            if (loadLocation == -1) {
+                locationsKnown = false;
+            }
+            offset += terminated ? len + 1 : len;
+            length = offset;
+            endsWithNewline = terminated;
+        }
+
+        @Override
+        public void close() throws IOException {
+            loadLocation = -1;
+        }
+    }
+
+    /**
+     * The content of a local file, read in one go.
+     */
+    private static final class FileBytes extends ByteArrayInputStream {
+        private FileBytes(byte[] bytes) {
+            super(bytes);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        int length() {
+            return count;
+        }
+    }
+
     /**
      * Local class that represents a column. A file can be seen as rows
      * (horizontal lines of text) and columns of text. A column is separated by
@@ -253,52 +1079,72 @@ public abstract class AbstractFlatFile {
 
     public boolean add(List<String> row) {
         if (filter == null || filter.include(row)) {
-            if (!contents.add(row)) {
-                return false;
-            } else {
-                for (Integer indexColumn : index.keySet()) {
-                    if (row.size() > indexColumn) {
-                        Map<String, List<String>> rowMap = index.get(indexColumn);
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Adding index " + indexColumn + "/" + row.get(indexColumn));
-                        }
-                        rowMap.put(row.get(indexColumn), row);
-                    }
+            /* Other threads wait for any load, so only it sees the rows being loaded */
+            synchronized (updateLock) {
+                if (loading != null) {
+                    loading.add(row, loadLocation);
+                    return true;
                 }
+                lock.writeLock().lock();
+                try {
+                    rows.add(row, -1);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                return true;
             }
-            return true;
         }
         return false;
     }
 
     public boolean remove(List<String> row) {
-        if (!contents.remove(row)) {
-            return false;
-        } else {
-            for (Integer indexColumn : index.keySet()) {
-                if (row.size() > indexColumn) {
-                    Map<String, List<String>> rowMap = index.get(indexColumn);
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Removing index " + indexColumn + "/" + row.get(indexColumn));
-                    }
-                    rowMap.remove(row.get(indexColumn));
-                }
+        synchronized (updateLock) {
+            lock.writeLock().lock();
+            try {
+                return rows.remove(row);
+            } finally {
+                lock.writeLock().unlock();
             }
         }
-        return true;
     }
 
     /**
-     * Get stored rows. A row represents a line in a file which is now
-     * internally captured within a map
+     * Set a field of a row in this file. This should be used rather than
+     * setting the field on the row itself, so the row can still be found by its
+     * new value if the column is indexed, and so the change is written by
+     * {@link #writeChanges()}.
      * 
-     * @return row identifier, row
+     * @param row row
+     * @param column column
+     * @param value value
+     * @return previous value
      */
-    private Map<String, List<String>> getAllRows() {
+    public String set(List<String> row, int column, String value) {
+        synchronized (updateLock) {
+            lock.writeLock().lock();
+            try {
+                return rows.set(row, column, value);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
 
-        // determine which is the row index and use it to get the rows out
-        Integer rowIndex = getRowIndex();
-        return index.get(rowIndex);
+    /**
+     * Note that a row in this file has been changed directly, so that it is
+     * written by {@link #writeChanges()}.
+     * 
+     * @param row row
+     */
+    public void markDirty(List<String> row) {
+        synchronized (updateLock) {
+            lock.writeLock().lock();
+            try {
+                rows.markDirty(row);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
     }
 
     /**
@@ -306,8 +1152,11 @@ public abstract class AbstractFlatFile {
      * 
      * @return
      */
-    private Integer getRowIndex() {
-        return index.keySet().iterator().next();
+    private int getRowIndex() {
+        if (rowIndex == -1) {
+            rowIndex = rows.getIndexColumns().iterator().next();
+        }
+        return rowIndex;
     }
 
     /**
@@ -317,12 +1166,14 @@ public abstract class AbstractFlatFile {
      * @return
      */
     public boolean remove(String principalName) {
-        final List<String> row = getRowByKeyField(getRowIndex(), principalName);
-        if (!contents.remove(row)) {
-            return false;
+        synchronized (updateLock) {
+            lock.writeLock().lock();
+            try {
+                return rows.remove(getRowIndex(), principalName) != null;
+            } finally {
+                lock.writeLock().unlock();
+            }
         }
-        getAllRows().remove(principalName);
-        return true;
     }
 
     /**
@@ -331,11 +1182,30 @@ public abstract class AbstractFlatFile {
      * @return
      */
     public int size() {
-        return contents.size();
+        lock.readLock().lock();
+        try {
+            return rows.size();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
-     * Load the content of a file
+     * Get the number of rows added so far by the load in progress, or the
+     * size if not loading.
+     * 
+     * @return rows loaded
+     */
+    protected int getLoadedSize() {
+        RowStore target = loading;
+        return target == null ? rows.size() : target.size();
+    }
+
+    /**
+     * Load the content of a file. The file is read into a single array in one
+     * go, and the rows are then parsed straight from its bytes without any
+     * stream or reader buffering. Rows keep no hold on the file itself, so it
+     * can still be replaced or truncated while they are in memory.
      * 
      * @param file
      * @param charset
@@ -343,13 +1213,36 @@ public abstract class AbstractFlatFile {
      */
     public void load(File file, String charsetName) throws IOException {
         LOG.info("Loading flat file " + file);
-
-        InputStream in = new FileInputStream(file);
+        InputStream in = openFile(file);
         try {
             load(in, charsetName);
-
         } finally {
             in.close();
         }
     }
-}
\ No newline at end of file
+
+    private static InputStream openFile(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > MAX_ARRAY_SIZE) {
+                InputStream in = Channels.newInputStream(channel);
+                channel = null;
+                return in;
+            }
+            byte[] bytes = new byte[(int) size];
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) == -1) {
+                    break;
+                }
+            }
+            /* The file may have been truncated while it was read */
+            return new FileBytes(buf.hasRemaining() ? Arrays.copyOf(bytes, buf.position()) : bytes);
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
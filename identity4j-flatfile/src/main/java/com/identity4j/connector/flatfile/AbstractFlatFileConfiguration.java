@@ -38,6 +38,9 @@ public abstract class AbstractFlatFileConfiguration extends AbstractVFSConfigura
     public static final String KEY_FULL_NAME_FIELD_INDEX = "fullNameFieldIndex";
     public static final String KEY_PASSWORD_FIELD_INDEX = "passwordFieldIndex";
     public static final String KEY_IDENTITY_PASSWORD_ENCODING = "identityPasswordEncoding";
+    public static final String KEY_COMPACT_ROWS = "compactRows";
+    public static final String KEY_INCREMENTAL_RELOAD = "incrementalReload";
+    public static final String KEY_IDENTITY_CACHE_SIZE = "identityCacheSize";
 
     public AbstractFlatFileConfiguration(MultiMap configurationParameters) {
         super(configurationParameters);
@@ -66,6 +69,40 @@ public abstract class AbstractFlatFileConfiguration extends AbstractVFSConfigura
         return getConfigurationParameters().getStringOrDefault(KEY_CHARSET, "UTF-8");
     }
 
+    /**
+     * Whether rows should be held in memory in the compact representation,
+     * which uses much less memory for large files.
+     * 
+     * @return compact rows
+     * @see AbstractFlatFile#setCompactRows(boolean)
+     */
+    public boolean isCompactRows() {
+        return getConfigurationParameters().getBooleanOrDefault(KEY_COMPACT_ROWS, false);
+    }
+
+    /**
+     * Whether a file that has changed on disk should be compared with the
+     * rows already loaded, so that only identities whose rows changed are
+     * discarded, rather than all of them.
+     * 
+     * @return incremental reload
+     * @see AbstractFlatFile#reload(java.io.InputStream, String, int)
+     */
+    public boolean isIncrementalReload() {
+        return getConfigurationParameters().getBooleanOrDefault(KEY_INCREMENTAL_RELOAD, true);
+    }
+
+    /**
+     * The most identities created from the file to keep in memory, or zero
+     * to create them each time they are needed.
+     * 
+     * @return identity cache size
+     * @see IdentityCache
+     */
+    public int getIdentityCacheSize() {
+        return getConfigurationParameters().getIntegerOrDefault(KEY_IDENTITY_CACHE_SIZE, 10000);
+    }
+
     public int getKeyFieldIndex() {
         return getConfigurationParameters().getIntegerOrDefault(KEY_KEY_FIELD_INDEX, 0);
     }
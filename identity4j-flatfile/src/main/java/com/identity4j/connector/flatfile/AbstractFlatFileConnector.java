@@ -30,13 +30,13 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
-import org.apache.commons.vfs2.Capability;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.commons.vfs2.FileObject;
 
 import com.identity4j.connector.ConnectorCapability;
@@ -55,10 +55,13 @@ import com.identity4j.util.crypt.EncoderManager;
 import com.identity4j.util.crypt.impl.DefaultEncoderManager;
 
 public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration> extends AbstractVFSConnector<P> {
+	private final static Log LOG = LogFactory.getLog(AbstractFlatFileConnector.class);
 	private final static EncoderManager encoderManager = DefaultEncoderManager.getInstance();
 
 	private LocalDelimitedFlatFile flatFile;
-	private final Map<String, Identity> identityMap = new HashMap<String, Identity>();
+	private final Object loadLock = new Object();
+	private IdentityCache identityCache;
+	private boolean loaded;
 	private boolean open;
 	private final Collection<String> supportedEncoderTypes;
 
@@ -124,7 +127,7 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 			char[] password, PasswordResetType type) throws ConnectorException {
 		List<String> row = passwordFile.getRowByKeyField(keyFieldIndex, identity.getPrincipalName());
 		try {
-			row.set(
+			passwordFile.set(row,
 				passwordFieldIndex,
 				new String(encoderManager.encode(password, getConfiguration().getIdentityPasswordEncoding(), getConfiguration().getCharset(),
 					null, null), getConfiguration().getCharset()));
@@ -133,10 +136,11 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 		}
 
 		onSetPassword(passwordFile, passwordFieldIndex, keyFieldIndex, identity, password, type);
+		invalidateIdentity(identity.getPrincipalName());
 
 		// Store
 		try {
-			passwordFile.writeRows();
+			passwordFile.writeChanges();
 		} catch (IOException e) {
 			throw new ConnectorException("Write failure", e);
 		}
@@ -152,12 +156,8 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 		if (getConfiguration().getPasswordFieldIndex() > -1) {
 			char[] storedPassword = getPasswordForIdentity(identity);
 			try {
-				Encoder encoderForStoredPassword = getEncoderForStoredPassword(storedPassword);
-				if (encoderForStoredPassword == null) {
-					encoderForStoredPassword = encoderManager.getEncoderById(getConfiguration().getIdentityPasswordEncoding());
-				}
 				final String charset = getConfiguration().getCharset();
-				return encoderForStoredPassword.match(new String(storedPassword).getBytes(charset),
+				return getEncoderForMatch(storedPassword).match(new String(storedPassword).getBytes(charset),
 					new String(password).getBytes(charset), null, charset);
 			} catch (UnsupportedEncodingException e) {
 				throw new ConnectorException("Failed to check credentials.", e);
@@ -168,23 +168,50 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 		}
 	}
 
+	/**
+	 * Looks up the stored password and its encoder on the calling thread, and
+	 * only hands the hash check itself to the verification service, timed
+	 * under the ID of the encoder.
+	 */
+	@Override
+	protected CompletableFuture<Boolean> verifyCredentials(Identity identity, char[] password) {
+		if (getConfiguration().getPasswordFieldIndex() > -1) {
+			try {
+				checkLoaded();
+				char[] storedPassword = getPasswordForIdentity(identity);
+				final String charset = getConfiguration().getCharset();
+				return getVerificationService().match(getEncoderForMatch(storedPassword),
+					new String(storedPassword).getBytes(charset), new String(password).getBytes(charset), null, charset);
+			} catch (UnsupportedEncodingException e) {
+				CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+				future.completeExceptionally(new ConnectorException("Failed to check credentials.", e));
+				return future;
+			} catch (RuntimeException e) {
+				CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+				future.completeExceptionally(e);
+				return future;
+			}
+		} else {
+			return super.verifyCredentials(identity, password);
+		}
+	}
+
+	private Encoder getEncoderForMatch(char[] storedPassword) throws UnsupportedEncodingException {
+		Encoder encoderForStoredPassword = getEncoderForStoredPassword(storedPassword);
+		if (encoderForStoredPassword == null) {
+			encoderForStoredPassword = encoderManager.getEncoderById(getConfiguration().getIdentityPasswordEncoding());
+		}
+		return encoderForStoredPassword;
+	}
+
 	protected char[] getPasswordForIdentity(Identity identity) {
 		return flatFile.getRowByKeyField(getConfiguration().getKeyFieldIndex(), identity.getPrincipalName())
 			.get(getConfiguration().getPasswordFieldIndex()).toCharArray();
 	}
 
 	protected Encoder getEncoderForStoredPassword(char[] storedPassword) throws UnsupportedEncodingException {
-		byte[] storedPasswordBytes = new String(storedPassword).getBytes(getConfiguration().getCharset());
-
 		// Look for encoder based on current stored password
-		for (String encoderId : supportedEncoderTypes) {
-			Encoder encoder = encoderManager.getEncoderById(encoderId);
-			if (encoder.isOfType(storedPasswordBytes, getConfiguration().getCharset())) {
-				return encoder;
-			}
-		}
-
-		return null;
+		return encoderManager.getEncoderForEncodedString(storedPassword, getConfiguration().getCharset(), supportedEncoderTypes);
 	}
 
 	@Override
@@ -200,16 +227,68 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 	@Override
 	public Identity getIdentityByName(String keyFieldValue, boolean withGroups) {
 		checkLoaded();
-		Identity identity = identityMap.get(keyFieldValue);
-		if (identity == null) {
-			final List<String> row = flatFile.getRowByKeyField(getConfiguration().getKeyFieldIndex(), keyFieldValue);
+		return getLoadedIdentity(keyFieldValue);
+	}
+
+	/**
+	 * Get an identity without first checking whether the file needs to be
+	 * loaded again, for use while iterating over identities.
+	 * 
+	 * @param keyFieldValue principal name
+	 * @return identity
+	 */
+	Identity getLoadedIdentity(String keyFieldValue) {
+		return identityCache.get(keyFieldValue, principalName -> {
+			final List<String> row = flatFile.getRowByKeyField(getConfiguration().getKeyFieldIndex(), principalName);
 			if (row == null) {
-				throw new PrincipalNotFoundException("Principal " + keyFieldValue + " could not be found");
+				throw new PrincipalNotFoundException("Principal " + principalName + " could not be found");
 			}
-			identity = createIdentity(row);
-			identityMap.put(keyFieldValue, identity);
+			return createIdentity(row);
+		});
+	}
+
+	/**
+	 * Get the cache of identities created from the file, which also keeps
+	 * hit and miss counts.
+	 * 
+	 * @return identity cache
+	 */
+	public IdentityCache getIdentityCache() {
+		return identityCache;
+	}
+
+	/**
+	 * Discard the cached identity of a principal, after something it is
+	 * created from has changed.
+	 * 
+	 * @param principalName principal name
+	 */
+	protected void invalidateIdentity(String principalName) {
+		if (identityCache != null) {
+			identityCache.invalidate(principalName);
+		}
+	}
+
+	/**
+	 * Discard the cached identities of some principals, after something they
+	 * are created from has changed.
+	 * 
+	 * @param principalNames principal names
+	 */
+	protected void invalidateIdentities(Collection<String> principalNames) {
+		if (identityCache != null) {
+			identityCache.invalidate(principalNames);
+		}
+	}
+
+	/**
+	 * Discard all cached identities, after something they are all created from
+	 * has changed.
+	 */
+	protected void invalidateIdentities() {
+		if (identityCache != null) {
+			identityCache.clear();
 		}
-		return identity;
 	}
 
 	@Override
@@ -269,11 +348,7 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 		try {
 			onCreateUser(identity, row, password);
 			flatFile.add(row);
-			if (flatFile.getFile().getFileSystem().hasCapability(Capability.APPEND_CONTENT)) {
-				flatFile.appendRow(row);
-			} else {
-				flatFile.writeRows();
-			}
+			flatFile.writeChanges();
 			onCreatedUser(identity, password);
 		} catch (ConnectorException ce) {
 			flatFile.remove(row);
@@ -333,13 +408,13 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 
 		// if no guid is used by remote system then ignore
 		if (getConfiguration().getGuidFieldIndex() > -1) {
-			row.set(getConfiguration().getGuidFieldIndex(),
+			flatFile.set(row, getConfiguration().getGuidFieldIndex(),
 				(StringUtil.isNullOrEmpty(identity.getGuid()) ? String.valueOf(flatFile.size()) : identity.getGuid()));
 		}
 
 		// if fullname is not used by remote system then ignore
 		if (getConfiguration().getFullNameFieldIndex() > -1) {
-			row.set(getConfiguration().getFullNameFieldIndex(), identity.getFullName());
+			flatFile.set(row, getConfiguration().getFullNameFieldIndex(), identity.getFullName());
 		} else {
 			// write an empty string, write method should replace blank space
 			// with separator
@@ -348,10 +423,12 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 
 		// Give subclasses an oppurtunity to write their own row date
 		updateUserRow(row, identity);
+		flatFile.markDirty(row);
+		invalidateIdentity(identity.getPrincipalName());
 
-		// write the entire file
+		// write the changed row
 		try {
-			flatFile.writeRows();
+			flatFile.writeChanges();
 		} catch (IOException e) {
 			throw new ConnectorException("Write failure", e);
 		}
@@ -369,8 +446,9 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 	public void deleteIdentity(String principalName) throws ConnectorException {
 		checkLoaded();
 		flatFile.remove(principalName);
+		invalidateIdentity(principalName);
 		try {
-			flatFile.writeRows();
+			flatFile.writeChanges();
 		} catch (IOException e) {
 			throw new ConnectorException("delete user failure during write", e);
 		}
@@ -417,16 +495,40 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 			flatFile.addIndex(getConfiguration().getKeyFieldIndex());
 			flatFile.setFieldSeparator(getConfiguration().getFieldSeparator());
 			flatFile.setEscapeCharacter(getConfiguration().getEscapeCharacter());
+			flatFile.setCompactRows(getConfiguration().isCompactRows());
 			configureFlatFile(flatFile);
 		}
-		synchronized (identityMap) {
-			if (flatFile.isStale()) {
-				identityMap.clear();
+		if (identityCache == null) {
+			identityCache = new IdentityCache(getConfiguration().getIdentityCacheSize());
+		}
+		synchronized (loadLock) {
+			/* Changes gathered in a batch would be lost by a reload */
+			if (flatFile.isBatch()) {
+				return;
+			}
+			if (getConfiguration().isIncrementalReload() && loaded) {
+				FlatFileChanges changes;
+				try {
+					changes = flatFile.reloadIfStale(getConfiguration().getKeyFieldIndex());
+				} catch (IOException e) {
+					throw new ConnectorException("Failed to load " + flatFile.getFile(), e);
+				}
+				if (changes != null) {
+					identityCache.invalidate(changes.getChanged());
+					identityCache.invalidate(changes.getRemoved());
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Reloaded " + flatFile.getFile() + ", " + changes);
+					}
+					onReloaded(changes);
+				}
+			} else if (flatFile.isStale()) {
+				identityCache.clear();
 				try {
 					flatFile.load();
 				} catch (IOException e) {
 					throw new ConnectorException("Failed to load " + flatFile.getFile());
 				}
+				loaded = true;
 			}
 		}
 	}
@@ -434,12 +536,48 @@ public class AbstractFlatFileConnector<P extends AbstractFlatFileConfiguration>
 	protected void configureFlatFile(AbstractFlatFile flatFile) {
 	}
 
+	/**
+	 * Called when the file has changed on disk and been reloaded
+	 * incrementally, with the keys of the rows that were added, changed or
+	 * removed. Identities of changed and removed rows have already been
+	 * discarded.
+	 * 
+	 * @param changes changes
+	 * @see AbstractFlatFileConfiguration#isIncrementalReload()
+	 */
+	protected void onReloaded(FlatFileChanges changes) {
+	}
+
+	/**
+	 * Start gathering changes, so that any number of identity operations are
+	 * written to the file in one go when {@link #commit()} is called, rather
+	 * than each writing the file itself. The file is not reloaded while a
+	 * batch is in progress.
+	 */
+	public void beginBatch() {
+		checkLoaded();
+		flatFile.beginBatch();
+	}
+
+	/**
+	 * Write all changes gathered since {@link #beginBatch()}.
+	 * 
+	 * @throws ConnectorException on write failure
+	 */
+	public void commit() throws ConnectorException {
+		try {
+			flatFile.commit();
+		} catch (IOException e) {
+			throw new ConnectorException("Write failure", e);
+		}
+	}
+
 	protected String getFromRowOrDefault(List<String> row, int idx, String defaultValue) {
 		return idx < row.size() ? row.get(idx) : defaultValue;
 	}
 
 	protected void setOnRowOrAdd(List<String> row, int idx, String value) {
-		while (row.size() < idx) {
+		while (row.size() <= idx) {
 			row.add("");
 		}
 		row.set(idx, value);
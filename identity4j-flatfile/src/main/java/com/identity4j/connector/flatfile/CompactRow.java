@@ -0,0 +1,273 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A row held as a single string containing all of its fields end to end, and
+ * the offset at which each field ends. This costs one string and one
+ * <code>int</code> array per row, rather than a list and a string per field.
+ * Field strings are only created when a field is read.
+ * <p>
+ * A row read from a file as ASCII may instead hold on to the bytes of the
+ * file until it is changed, in which case fields are decoded straight from
+ * those bytes as they are read. Keys are compared and hashed against the
+ * bytes directly. Such a row keeps the separators between its fields, so each
+ * field starts one past the end of the previous one.
+ * <p>
+ * A <code>null</code> field is recorded as a negative end offset.
+ */
+final class CompactRow extends AbstractList<String> implements RandomAccess {
+
+    private String data;
+    private int[] ends;
+    private boolean separated;
+
+    // The ASCII line, until the row is changed
+    private volatile byte[] bytes;
+    private int offset;
+
+    CompactRow(List<String> fields) {
+        pack(fields);
+    }
+
+    private CompactRow(byte[] bytes, int offset, int[] ends) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.ends = ends;
+        this.separated = true;
+    }
+
+    /**
+     * Create a row from a line of ASCII bytes, splitting it into fields at a
+     * separator. The bytes are kept, not copied, so must not change. If the
+     * line is not all ASCII, or contains the escape character,
+     * <code>null</code> is returned and the line must be parsed some other
+     * way.
+     * 
+     * @param bytes bytes
+     * @param start start of line
+     * @param end end of line
+     * @param separator field separator
+     * @param escape escape character
+     * @return row or <code>null</code>
+     */
+    static CompactRow split(byte[] bytes, int start, int end, char separator, char escape) {
+        if (separator > 0x7f) {
+            return null;
+        }
+        int fields = 1;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b < 0 || b == escape) {
+                return null;
+            }
+            if (b == separator) {
+                fields++;
+            }
+        }
+        int[] ends = new int[fields];
+        int field = 0;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == separator) {
+                ends[field++] = i - start;
+            }
+        }
+        ends[field] = end - start;
+        return new CompactRow(bytes, start, ends);
+    }
+
+    private void pack(List<String> fields) {
+        int len = 0;
+        for (String field : fields) {
+            if (field != null) {
+                len += field.length();
+            }
+        }
+        StringBuilder buf = new StringBuilder(len);
+        int[] ends = new int[fields.size()];
+        int i = 0;
+        for (String field : fields) {
+            if (field == null) {
+                ends[i++] = -buf.length() - 1;
+            } else {
+                buf.append(field);
+                ends[i++] = buf.length();
+            }
+        }
+        this.data = buf.toString();
+        this.ends = ends;
+        this.separated = false;
+        this.bytes = null;
+        modCount++;
+    }
+
+    private int start(int index) {
+        return index == 0 ? 0 : separated ? end(index - 1) + 1 : end(index - 1);
+    }
+
+    private int end(int index) {
+        int end = ends[index];
+        return end < 0 ? -end - 1 : end;
+    }
+
+    @Override
+    public String get(int index) {
+        if (ends[index] < 0) {
+            return null;
+        }
+        byte[] bytes = this.bytes;
+        int start = start(index);
+        if (bytes == null) {
+            return data.substring(start, ends[index]);
+        }
+        return new String(bytes, offset + start, ends[index] - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private char charAt(byte[] bytes, int i) {
+        return bytes == null ? data.charAt(i) : (char) (bytes[offset + i] & 0xff);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CompactRow)) {
+            return super.equals(o);
+        }
+        if (o == this) {
+            return true;
+        }
+        CompactRow other = (CompactRow) o;
+        if (ends.length != other.ends.length) {
+            return false;
+        }
+        byte[] bytes = this.bytes;
+        byte[] otherBytes = other.bytes;
+        for (int index = 0; index < ends.length; index++) {
+            if (ends[index] < 0 || other.ends[index] < 0) {
+                if (ends[index] >= 0 || other.ends[index] >= 0) {
+                    return false;
+                }
+                continue;
+            }
+            int start = start(index);
+            int otherStart = other.start(index);
+            int len = ends[index] - start;
+            if (len != other.ends[index] - otherStart) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (charAt(bytes, start + i) != other.charAt(otherBytes, otherStart + i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    @Override
+    public int size() {
+        return ends.length;
+    }
+
+    @Override
+    public String set(int index, String element) {
+        List<String> fields = new ArrayList<String>(this);
+        String old = fields.set(index, element);
+        pack(fields);
+        return old;
+    }
+
+    @Override
+    public void add(int index, String element) {
+        List<String> fields = new ArrayList<String>(this);
+        fields.add(index, element);
+        pack(fields);
+    }
+
+    @Override
+    public String remove(int index) {
+        List<String> fields = new ArrayList<String>(this);
+        String old = fields.remove(index);
+        pack(fields);
+        return old;
+    }
+
+    /**
+     * Get whether a field equals a value, without creating a string for the
+     * field.
+     * 
+     * @param index field index
+     * @param value value
+     * @return equal
+     */
+    boolean fieldEquals(int index, String value) {
+        if (ends[index] < 0 || value == null) {
+            return ends[index] < 0 && value == null;
+        }
+        int start = start(index);
+        int len = ends[index] - start;
+        if (len != value.length()) {
+            return false;
+        }
+        byte[] bytes = this.bytes;
+        if (bytes == null) {
+            return data.regionMatches(start, value, 0, len);
+        }
+        for (int i = 0; i < len; i++) {
+            if (charAt(bytes, start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the hash code a field's value would have, without creating a string
+     * for the field.
+     * 
+     * @param index field index
+     * @return hash code
+     */
+    int fieldHashCode(int index) {
+        if (ends[index] < 0) {
+            return 0;
+        }
+        int h = 0;
+        byte[] bytes = this.bytes;
+        for (int i = start(index), end = ends[index]; i < end; i++) {
+            h = 31 * h + charAt(bytes, i);
+        }
+        return h;
+    }
+}
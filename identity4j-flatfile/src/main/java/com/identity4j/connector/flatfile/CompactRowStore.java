@@ -0,0 +1,49 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.util.List;
+
+/**
+ * Memory compact row store. Each row is held as a {@link CompactRow}, and
+ * keys are compared and hashed directly against the row's data, so looking up
+ * a row creates no strings.
+ */
+final class CompactRowStore extends SlotRowStore {
+
+    @Override
+    protected List<String> toStoredRow(List<String> row) {
+        return row instanceof CompactRow ? row : new CompactRow(row);
+    }
+
+    @Override
+    protected boolean fieldEquals(List<String> row, int column, String value) {
+        return ((CompactRow) row).fieldEquals(column, value);
+    }
+
+    @Override
+    protected int fieldHashCode(List<String> row, int column) {
+        return ((CompactRow) row).fieldHashCode(column);
+    }
+}
@@ -28,8 +28,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.LineIterator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -51,48 +49,68 @@ public abstract class DelimitedFlatFile extends AbstractFlatFile {
     }
 
     /**
-     * Load up a flatfile that is deliminated by field seperator
+     * Load up a flatfile that is deliminated by field seperator. When the file
+     * has been read into memory and compact rows are used, ASCII lines are
+     * split into rows straight from the file's bytes, and are not decoded
+     * until they are read.
      */
     @Override
     public void onLoad(InputStream inputStream, String charsetName) throws IOException {
         // take line at a time and parse
-        try(LineIterator it = IOUtils.lineIterator(inputStream, charsetName)) {
-            while (it.hasNext()) {
-                String line = it.nextLine();
-                LOG.debug("Parsing " + line);
-                List<String> row = new ArrayList<String>();
-                char fs= getFieldSeparator();
-                char esc = getEscapeCharacter();
-                int len = line.length();
-                char c;
-                boolean escaped = false;
-                StringBuilder col = new StringBuilder(line.length());
-                for(int i = 0 ; i < len ; i++) {
-                    c = line.charAt(i);
-                    if(c == fs && !escaped) {
-                        row.add(col.toString());
-                        col.setLength(0);
-                    }
-                    else {
-                        if(esc != -1 && c == esc) {
-                            escaped = true;
-                        }
-                        else {
-                            col.append(c);
-                            escaped = false;
-                        }
-                    }
+        try(LineReader it = openLines(inputStream, charsetName)) {
+            if (it.isBuffered() && isCompactRows()) {
+                while (it.next()) {
+                    List<String> row = CompactRow.split(it.getBytes(), it.getStart(), it.getEnd(),
+                            getFieldSeparator(), getEscapeCharacter());
+                    addRow(row == null ? parse(it.getLine()) : row);
                 }
-                row.add(col.toString());
+            } else {
+                String line;
+                while ((line = it.nextLine()) != null) {
+                    addRow(parse(line));
+                }
+            }
+        } 
+    }
 
-                if (isFirstRowIsHeading() && size() == 0) {
+    private void addRow(List<String> row) {
+        if (isFirstRowIsHeading() && getLoadedSize() == 0) {
 
-                    // add line to internal object called index
-                } else {
-                    add(row);
+            // add line to internal object called index
+        } else {
+            add(row);
+        }
+    }
+
+    private List<String> parse(String line) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Parsing " + line);
+        }
+        List<String> row = new ArrayList<String>();
+        char fs= getFieldSeparator();
+        char esc = getEscapeCharacter();
+        int len = line.length();
+        char c;
+        boolean escaped = false;
+        StringBuilder col = new StringBuilder(line.length());
+        for(int i = 0 ; i < len ; i++) {
+            c = line.charAt(i);
+            if(c == fs && !escaped) {
+                row.add(col.toString());
+                col.setLength(0);
+            }
+            else {
+                if(esc != -1 && c == esc) {
+                    escaped = true;
+                }
+                else {
+                    col.append(c);
+                    escaped = false;
                 }
             }
-        } 
+        }
+        row.add(col.toString());
+        return row;
     }
 
     /**
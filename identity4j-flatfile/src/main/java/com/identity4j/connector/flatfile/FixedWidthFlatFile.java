@@ -25,13 +25,9 @@ package com.identity4j.connector.flatfile;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.LineIterator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -75,13 +71,13 @@ public abstract class FixedWidthFlatFile extends AbstractFlatFile {
      */
     @Override
     public void onLoad(InputStream inputStream, String charsetName) throws IOException {
-        try(LineIterator it = IOUtils.lineIterator(inputStream, charsetName)) {
-            while (it.hasNext()) {
-                String line = it.nextLine();
+        try(LineReader it = openLines(inputStream, charsetName)) {
+            String line;
+            while ((line = it.nextLine()) != null) {
                 LOG.debug("Parsing " + line);
 
                 // Automatically determine column widths
-                if (size() == 0 && isAutoDetermineWidths() && getColumnCount() == 0) {
+                if (getLoadedSize() == 0 && isAutoDetermineWidths() && getColumnCount() == 0) {
                     autoDeterminColumns(line);
                     if (isFirstRowIsHeading()) {
                         continue;
@@ -105,26 +101,13 @@ public abstract class FixedWidthFlatFile extends AbstractFlatFile {
                         row.add(colVal);
                         idx += col.getWidth();
                     } else {
-                        throw new IOException("Too few columns on line " + size());
+                        throw new IOException("Too few columns on line " + getLoadedSize());
                     }
                 }
 
                 // once the file has be parsed using fixed width columns save
                 // them internally
-                Map<Integer, Map<String, List<String>>> index = getIndex();
-                for (Integer indexColumn : index.keySet()) {
-                    if (row.size() > indexColumn) {
-                        Map<String, List<String>> rowMap = index.get(indexColumn);
-                        if (rowMap == null) {
-                            rowMap = new HashMap<String, List<String>>();
-                            index.put(indexColumn, rowMap);
-                        }
-                        LOG.debug("Adding index " + indexColumn + "/" + row.get(indexColumn));
-                        rowMap.put(row.get(indexColumn), row);
-                        add(row);
-                    }
-
-                }
+                add(row);
             }
         } 
     }
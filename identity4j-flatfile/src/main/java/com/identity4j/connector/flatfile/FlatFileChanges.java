@@ -0,0 +1,87 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The rows added, changed and removed when a flat file is reloaded, each
+ * identified by the value of its key field, in file order.
+ * 
+ * @see AbstractFlatFile#reload(java.io.InputStream, String, int)
+ */
+public final class FlatFileChanges {
+
+    private final Set<String> added;
+    private final Set<String> changed;
+    private final Set<String> removed;
+
+    FlatFileChanges(Set<String> added, Set<String> changed, Set<String> removed) {
+        this.added = Collections.unmodifiableSet(added);
+        this.changed = Collections.unmodifiableSet(changed);
+        this.removed = Collections.unmodifiableSet(removed);
+    }
+
+    /**
+     * Get the keys of rows that are new.
+     * 
+     * @return added keys
+     */
+    public Set<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * Get the keys of rows that are still present, but with different
+     * content.
+     * 
+     * @return changed keys
+     */
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Get the keys of rows that are no longer present.
+     * 
+     * @return removed keys
+     */
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Get whether nothing changed.
+     * 
+     * @return empty
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "FlatFileChanges [added=" + added + ", changed=" + changed + ", removed=" + removed + "]";
+    }
+}
@@ -35,7 +35,7 @@ public class FlatFileConnectorIdentityIterator implements ResultIterator<Identit
         	throw new NoSuchElementException("No more identities.");
 		List<String> list = contents.get(row++);
         String keyFieldValue = list.get(keyFieldIndex);
-        return connector.getIdentityByName(keyFieldValue);
+        return connector.getLoadedIdentity(keyFieldValue);
     }
 
     public void remove() {
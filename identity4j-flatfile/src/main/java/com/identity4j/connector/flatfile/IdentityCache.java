@@ -0,0 +1,221 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.identity4j.connector.principal.Identity;
+
+/**
+ * A size bounded cache of identities, keyed on principal name, that may be
+ * used from many threads at once. Keys are spread over a number of
+ * independently locked segments, each holding its share of the maximum size
+ * and evicting its least recently used identity when full. Which identity is
+ * evicted is therefore only approximately the least recently used overall.
+ * <p>
+ * Identities are created outside of any lock. An identity created while its
+ * key was invalidated is returned but not cached, so an invalidation is never
+ * undone by a slower reader.
+ */
+public final class IdentityCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor.
+     * 
+     * @param maxSize maximum number of identities to hold, or zero to hold
+     *            none
+     */
+    public IdentityCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Cache size may not be negative.");
+        }
+        this.maxSize = maxSize;
+        int count = Math.max(1, Math.min(SEGMENTS, maxSize / SEGMENTS));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * Get an identity, creating it if it is not cached. Exceptions thrown when
+     * creating it are passed on, and nothing is cached.
+     * 
+     * @param principalName principal name
+     * @param creator creates the identity if it is not cached
+     * @return identity
+     */
+    public Identity get(String principalName, Function<String, Identity> creator) {
+        Segment segment = segmentFor(principalName);
+        long generation;
+        synchronized (segment) {
+            Identity identity = segment.get(principalName);
+            if (identity != null) {
+                hits.increment();
+                return identity;
+            }
+            generation = segment.generation;
+        }
+        misses.increment();
+        Identity identity = creator.apply(principalName);
+        if (identity != null && maxSize > 0) {
+            synchronized (segment) {
+                if (segment.generation == generation) {
+                    segment.put(principalName, identity);
+                }
+            }
+        }
+        return identity;
+    }
+
+    /**
+     * Discard the cached identity for a principal, if any.
+     * 
+     * @param principalName principal name
+     */
+    public void invalidate(String principalName) {
+        Segment segment = segmentFor(principalName);
+        synchronized (segment) {
+            segment.remove(principalName);
+            segment.generation++;
+        }
+    }
+
+    /**
+     * Discard the cached identities for some principals.
+     * 
+     * @param principalNames principal names
+     */
+    public void invalidate(Collection<String> principalNames) {
+        for (String principalName : principalNames) {
+            invalidate(principalName);
+        }
+    }
+
+    /**
+     * Discard all cached identities.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+                segment.generation++;
+            }
+        }
+    }
+
+    /**
+     * Get the number of identities cached.
+     * 
+     * @return size
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the maximum number of identities that will be cached.
+     * 
+     * @return maximum size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get how many times a cached identity was returned.
+     * 
+     * @return hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get how many times an identity had to be created.
+     * 
+     * @return misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get how many identities have been discarded to make room for others.
+     * 
+     * @return evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "IdentityCache [size=" + size() + ", maxSize=" + maxSize + ", hits=" + getHits() + ", misses="
+                + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+
+    private Segment segmentFor(String principalName) {
+        int h = principalName.hashCode();
+        h ^= h >>> 16;
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    @SuppressWarnings("serial")
+    private final class Segment extends LinkedHashMap<String, Identity> {
+        private final int capacity;
+        private long generation;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Identity> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.util.List;
+
+/**
+ * Row store that keeps each row as the list it was added as, so changes made
+ * to a row's fields are made in place.
+ */
+final class ListRowStore extends SlotRowStore {
+
+    @Override
+    protected List<String> toStoredRow(List<String> row) {
+        return row;
+    }
+
+    @Override
+    protected boolean fieldEquals(List<String> row, int column, String value) {
+        String field = row.get(column);
+        return field == null ? value == null : field.equals(value);
+    }
+
+    @Override
+    protected int fieldHashCode(List<String> row, int column) {
+        String field = row.get(column);
+        return field == null ? 0 : field.hashCode();
+    }
+}
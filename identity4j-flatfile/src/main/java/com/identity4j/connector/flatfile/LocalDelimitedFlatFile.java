@@ -22,11 +22,16 @@ package com.identity4j.connector.flatfile;
  * #L%
  */
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URISyntaxException;
 import java.util.List;
+import java.util.SortedMap;
 
+import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 
@@ -60,7 +65,17 @@ public class LocalDelimitedFlatFile extends DelimitedFlatFile {
         if (!file.exists()) {
             throw new FileNotFoundException(file.getName().getURI());
         }
-        load(file.getContent().getInputStream(), charsetName);
+        File localFile = getLocalFile();
+        if (localFile == null) {
+            InputStream in = file.getContent().getInputStream();
+            try {
+                load(in, charsetName);
+            } finally {
+                in.close();
+            }
+        } else {
+            load(localFile, charsetName);
+        }
         lastModified = file.getContent().getLastModifiedTime();
     }
 
@@ -74,20 +89,90 @@ public class LocalDelimitedFlatFile extends DelimitedFlatFile {
         }
     }
 
+    /**
+     * Load the file again if it has changed, and compare the new rows with
+     * those previously loaded.
+     * 
+     * @param keyColumn column of key field
+     * @return changes, or <code>null</code> if the file has not changed
+     * @throws IOException
+     * @see #reload(InputStream, String, int)
+     */
+    public FlatFileChanges reloadIfStale(int keyColumn) throws IOException {
+        if (!isStale()) {
+            return null;
+        }
+        FlatFileChanges changes;
+        File localFile = getLocalFile();
+        if (localFile == null) {
+            InputStream in = file.getContent().getInputStream();
+            try {
+                changes = reload(in, charsetName, keyColumn);
+            } finally {
+                in.close();
+            }
+        } else {
+            changes = reload(localFile, charsetName, keyColumn);
+        }
+        lastModified = file.getContent().getLastModifiedTime();
+        return changes;
+    }
+
+    @Override
+    protected boolean canAppend() {
+        return file.getFileSystem().hasCapability(Capability.APPEND_CONTENT);
+    }
+
+    @Override
+    protected boolean isChangedExternally() {
+        return isStale();
+    }
+
+    @Override
+    protected boolean writeLinesInPlace(SortedMap<Long, byte[]> lines, long expectedLength) throws IOException {
+        File localFile = getLocalFile();
+        if (localFile == null || !writeLinesInPlace(localFile, lines, expectedLength)) {
+            return false;
+        }
+        file.refresh();
+        lastModified = file.getContent().getLastModifiedTime();
+        return true;
+    }
+
     @Override
     protected void writeRows(List<List<String>> rows, boolean append) throws IOException {
         if (!file.exists()) {
             throw new FileNotFoundException(file.getName().getURI());
         }
+        File localFile = append ? null : getLocalFile();
+        if (localFile != null && writeAtomically(localFile, rows, charsetName)) {
+            file.refresh();
+            lastModified = file.getContent().getLastModifiedTime();
+            return;
+        }
         OutputStream output = getFile().getContent().getOutputStream(append);
         try {
 
             for (List<String> row : rows) {
                 write(output, row, charsetName);
             }
-            lastModified = file.getContent().getLastModifiedTime();
         } finally {
             output.close();
         }
+        file.refresh();
+        lastModified = file.getContent().getLastModifiedTime();
+    }
+
+    private File getLocalFile() {
+        if (!"file".equals(file.getName().getScheme())) {
+            return null;
+        }
+        try {
+            return new File(file.getURL().toURI());
+        } catch (FileSystemException e) {
+            return null;
+        } catch (URISyntaxException e) {
+            return null;
+        }
     }
 }
\ No newline at end of file
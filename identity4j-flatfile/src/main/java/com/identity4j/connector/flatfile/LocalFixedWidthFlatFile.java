@@ -30,6 +30,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.SortedMap;
 
 public class LocalFixedWidthFlatFile extends FixedWidthFlatFile {
 
@@ -88,11 +89,29 @@ public class LocalFixedWidthFlatFile extends FixedWidthFlatFile {
         }
     }
 
+    @Override
+    protected boolean isChangedExternally() {
+        return isStale();
+    }
+
+    @Override
+    protected boolean writeLinesInPlace(SortedMap<Long, byte[]> lines, long expectedLength) throws IOException {
+        if (!writeLinesInPlace(file, lines, expectedLength)) {
+            return false;
+        }
+        lastModified = file.lastModified();
+        return true;
+    }
+
     @Override
     protected void writeRows(List<List<String>> rows, boolean append) throws IOException {
         if (!file.exists()) {
             throw new FileNotFoundException(file.getAbsolutePath());
         }
+        if (!append && writeAtomically(file, rows, charsetName)) {
+            lastModified = file.lastModified();
+            return;
+        }
 
         OutputStream output = new FileOutputStream(file, append);
         try {
@@ -100,10 +119,10 @@ public class LocalFixedWidthFlatFile extends FixedWidthFlatFile {
             for (List<String> row : rows) {
                 write(output, row, charsetName);
             }
-            lastModified = file.lastModified();
         } finally {
             output.close();
         }
+        lastModified = file.lastModified();
     }
 
 }
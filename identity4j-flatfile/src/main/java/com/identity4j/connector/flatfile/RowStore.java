@@ -0,0 +1,190 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the rows of an {@link AbstractFlatFile} and the indexes used to find
+ * rows by the value of a key column. Rows are kept in file order.
+ */
+abstract class RowStore implements Iterable<List<String>> {
+
+    /**
+     * Start indexing rows on the given column. Rows already in the store are
+     * indexed too.
+     * 
+     * @param column column
+     */
+    abstract void addIndex(int column);
+
+    /**
+     * Get the indexed columns, lowest first.
+     * 
+     * @return indexed columns
+     */
+    abstract Collection<Integer> getIndexColumns();
+
+    /**
+     * Get a map view of the indexes, keyed on column.
+     * 
+     * @return indexes
+     */
+    abstract Map<Integer, Map<String, List<String>>> getIndex();
+
+    /**
+     * Given a key find the associated row.
+     * 
+     * @param indexColumn indexed column
+     * @param keyFieldValue value of key
+     * @return row or <code>null</code> if there is no such row
+     */
+    abstract List<String> getRowByKeyField(int indexColumn, String keyFieldValue);
+
+    /**
+     * Add a row to the end of the store.
+     * 
+     * @param row row
+     */
+    abstract void add(List<String> row);
+
+    /**
+     * Add a row read from the file.
+     * 
+     * @param row row
+     * @param location location of the row's line in the file, or -1 if not
+     *            known
+     */
+    abstract void add(List<String> row, long location);
+
+    /**
+     * Remove a row.
+     * 
+     * @param row row
+     * @return <code>true</code> if the row was found and removed
+     */
+    abstract boolean remove(List<String> row);
+
+    /**
+     * Remove the row with the given key.
+     * 
+     * @param indexColumn indexed column
+     * @param keyFieldValue value of key
+     * @return removed row or <code>null</code> if there was no such row
+     */
+    abstract List<String> remove(int indexColumn, String keyFieldValue);
+
+    /**
+     * Set a field of a stored row, keeping the indexes up to date if the
+     * field is indexed.
+     * 
+     * @param row stored row
+     * @param column column
+     * @param value value
+     * @return previous value
+     */
+    abstract String set(List<String> row, int column, String value);
+
+    /**
+     * Record that a stored row has been changed since it was last written.
+     * 
+     * @param row row
+     * @return <code>true</code> if the row is in the store
+     */
+    abstract boolean markDirty(List<String> row);
+
+    /**
+     * Get the rows that have been written before and changed since, in file
+     * order. This may include rows that have not yet been written at all.
+     * 
+     * @return changed rows
+     */
+    abstract List<List<String>> getDirtyRows();
+
+    /**
+     * Get the rows added since the rows were last written, in file order.
+     * 
+     * @return new rows
+     */
+    abstract List<List<String>> getNewRows();
+
+    /**
+     * Get whether any row that has been written has since been removed.
+     * 
+     * @return written row removed
+     */
+    abstract boolean isRemovedSinceWritten();
+
+    /**
+     * Get the location of a row's line in the file.
+     * 
+     * @param row row
+     * @return location, or -1 if the row has not been written or its location
+     *         is not known
+     */
+    abstract long getLocation(List<String> row);
+
+    /**
+     * Set the location of a row's line after it has been written, and mark it
+     * as unchanged.
+     * 
+     * @param row row
+     * @param location location
+     */
+    abstract void setLocation(List<String> row, long location);
+
+    /**
+     * Set the location of every row after the whole file has been written, and
+     * forget all changes.
+     * 
+     * @param locations locations, in file order
+     */
+    abstract void setLocations(long[] locations);
+
+    /**
+     * Forget all changes, treating every row as written.
+     */
+    abstract void clearChanges();
+
+    /**
+     * Get a positional view of the rows.
+     * 
+     * @return rows
+     */
+    abstract List<List<String>> asList();
+
+    /**
+     * Get whether rows can be read by position without the store first being
+     * rearranged, so that reading them changes nothing.
+     * 
+     * @return rows are in place
+     */
+    abstract boolean isPacked();
+
+    abstract int size();
+
+    abstract void clear();
+}
@@ -0,0 +1,618 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Row store that holds each row in a slot addressed by an <code>int</code> row
+ * id. Each index is an open addressing hash table of row ids that compares
+ * keys against the row's own field, so no key strings or map entries are
+ * kept, and a row can be found, added or removed in constant time.
+ * <p>
+ * Removing a row empties its slot; the slots are compacted (and the row ids
+ * renumbered) once enough of them are empty, or when the rows are accessed by
+ * position, so a batch of removals costs time linear in its size. The store
+ * should not be modified while it is being iterated other than through
+ * {@link Iterator#remove()}.
+ * <p>
+ * Alongside each row is the location of its line in the file, and whether it
+ * has been changed since it was last written, so that only changed lines need
+ * to be written.
+ */
+abstract class SlotRowStore extends RowStore {
+
+    private static final int MIN_COMPACT = 64;
+
+    private final Map<Integer, KeyIndex> index = new TreeMap<Integer, KeyIndex>();
+    @SuppressWarnings("unchecked")
+    private List<String>[] rows = new List[16];
+    private long[] locations = new long[16];
+    private final BitSet dirty = new BitSet();
+    private int written;
+    private boolean removedWritten;
+    private int high;
+    private int size;
+    private int compactions;
+
+    private final List<List<String>> view = new AbstractList<List<String>>() {
+        @Override
+        public List<String> get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            if (high != size) {
+                compact();
+            }
+            return rows[index];
+        }
+
+        @Override
+        public List<String> remove(int index) {
+            List<String> row = get(index);
+            removeAt(index);
+            return row;
+        }
+
+        @Override
+        public boolean add(List<String> row) {
+            SlotRowStore.this.add(row);
+            return true;
+        }
+
+        @Override
+        public Iterator<List<String>> iterator() {
+            return SlotRowStore.this.iterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    };
+
+    @Override
+    void addIndex(int column) {
+        KeyIndex keyIndex = new KeyIndex(column);
+        index.put(column, keyIndex);
+        keyIndex.rebuild();
+    }
+
+    @Override
+    Collection<Integer> getIndexColumns() {
+        return index.keySet();
+    }
+
+    @Override
+    Map<Integer, Map<String, List<String>>> getIndex() {
+        Map<Integer, Map<String, List<String>>> views = new TreeMap<Integer, Map<String, List<String>>>();
+        for (KeyIndex keyIndex : index.values()) {
+            views.put(keyIndex.column, keyIndex.view);
+        }
+        return Collections.unmodifiableMap(views);
+    }
+
+    @Override
+    List<String> getRowByKeyField(int indexColumn, String keyFieldValue) {
+        int id = getKeyIndex(indexColumn).get(keyFieldValue);
+        return id == -1 ? null : rows[id];
+    }
+
+    @Override
+    void add(List<String> row) {
+        add(row, -1);
+    }
+
+    @Override
+    void add(List<String> row, long location) {
+        List<String> stored = toStoredRow(row);
+        if (high == rows.length) {
+            if (size < high / 2) {
+                compact();
+            } else {
+                rows = Arrays.copyOf(rows, rows.length * 2);
+                locations = Arrays.copyOf(locations, rows.length);
+            }
+        }
+        int id = high++;
+        rows[id] = stored;
+        locations[id] = location;
+        size++;
+        for (KeyIndex keyIndex : index.values()) {
+            keyIndex.put(id);
+        }
+    }
+
+    @Override
+    boolean remove(List<String> row) {
+        int id = find(row);
+        if (id == -1) {
+            return false;
+        }
+        removeAt(id);
+        compactIfSparse();
+        return true;
+    }
+
+    @Override
+    List<String> remove(int indexColumn, String keyFieldValue) {
+        int id = getKeyIndex(indexColumn).get(keyFieldValue);
+        if (id == -1) {
+            return null;
+        }
+        List<String> row = rows[id];
+        removeAt(id);
+        compactIfSparse();
+        return row;
+    }
+
+    @Override
+    String set(List<String> row, int column, String value) {
+        int id = find(row);
+        if (id == -1) {
+            return row.set(column, value);
+        }
+        dirty.set(id);
+        KeyIndex keyIndex = index.get(column);
+        if (keyIndex == null) {
+            return rows[id].set(column, value);
+        }
+        keyIndex.remove(id, rows[id]);
+        try {
+            return rows[id].set(column, value);
+        } finally {
+            keyIndex.put(id);
+        }
+    }
+
+    @Override
+    boolean markDirty(List<String> row) {
+        int id = find(row);
+        if (id == -1) {
+            return false;
+        }
+        dirty.set(id);
+        return true;
+    }
+
+    @Override
+    List<List<String>> getDirtyRows() {
+        List<List<String>> dirtyRows = new ArrayList<List<String>>();
+        for (int id = dirty.nextSetBit(0); id >= 0 && id < high; id = dirty.nextSetBit(id + 1)) {
+            if (rows[id] != null) {
+                dirtyRows.add(rows[id]);
+            }
+        }
+        return dirtyRows;
+    }
+
+    @Override
+    List<List<String>> getNewRows() {
+        List<List<String>> newRows = new ArrayList<List<String>>();
+        for (int id = written; id < high; id++) {
+            if (rows[id] != null && locations[id] == -1) {
+                newRows.add(rows[id]);
+            }
+        }
+        return newRows;
+    }
+
+    @Override
+    boolean isRemovedSinceWritten() {
+        return removedWritten;
+    }
+
+    @Override
+    long getLocation(List<String> row) {
+        int id = find(row);
+        return id == -1 ? -1 : locations[id];
+    }
+
+    @Override
+    void setLocation(List<String> row, long location) {
+        int id = find(row);
+        if (id != -1) {
+            locations[id] = location;
+            dirty.clear(id);
+        }
+    }
+
+    @Override
+    void setLocations(long[] newLocations) {
+        if (high != size) {
+            compact();
+        }
+        System.arraycopy(newLocations, 0, locations, 0, size);
+        clearChanges();
+    }
+
+    @Override
+    void clearChanges() {
+        dirty.clear();
+        written = high;
+        removedWritten = false;
+    }
+
+    @Override
+    List<List<String>> asList() {
+        return view;
+    }
+
+    @Override
+    public Iterator<List<String>> iterator() {
+        return new Iterator<List<String>>() {
+            private final int expectedCompactions = compactions;
+            private int next;
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                checkForCompaction();
+                while (next < high && rows[next] == null) {
+                    next++;
+                }
+                return next < high;
+            }
+
+            @Override
+            public List<String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = next++;
+                return rows[last];
+            }
+
+            @Override
+            public void remove() {
+                if (last == -1 || rows[last] == null) {
+                    throw new IllegalStateException();
+                }
+                checkForCompaction();
+                removeAt(last);
+                last = -1;
+            }
+
+            private void checkForCompaction() {
+                if (compactions != expectedCompactions) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        };
+    }
+
+    @Override
+    boolean isPacked() {
+        return high == size;
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    void clear() {
+        Arrays.fill(rows, 0, high, null);
+        high = size = 0;
+        dirty.clear();
+        written = 0;
+        removedWritten = false;
+        for (KeyIndex keyIndex : index.values()) {
+            keyIndex.clear();
+        }
+    }
+
+    /**
+     * Get the row to store for a row being added.
+     * 
+     * @param row row being added
+     * @return row to store
+     */
+    protected abstract List<String> toStoredRow(List<String> row);
+
+    /**
+     * Get whether a field of a stored row equals a value.
+     * 
+     * @param row stored row
+     * @param column column
+     * @param value value
+     * @return equal
+     */
+    protected abstract boolean fieldEquals(List<String> row, int column, String value);
+
+    /**
+     * Get the hash code of the value of a field of a stored row.
+     * 
+     * @param row stored row
+     * @param column column
+     * @return hash code
+     */
+    protected abstract int fieldHashCode(List<String> row, int column);
+
+    private KeyIndex getKeyIndex(int column) {
+        KeyIndex keyIndex = index.get(column);
+        if (keyIndex == null) {
+            throw new IllegalArgumentException("No index on column " + column);
+        }
+        return keyIndex;
+    }
+
+    private int find(List<String> row) {
+        for (KeyIndex keyIndex : index.values()) {
+            if (row.size() > keyIndex.column) {
+                int id = keyIndex.get(row.get(keyIndex.column));
+                if (id != -1 && (rows[id] == row || rows[id].equals(row))) {
+                    return id;
+                }
+            }
+        }
+        for (int id = 0; id < high; id++) {
+            if (rows[id] != null && (rows[id] == row || rows[id].equals(row))) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int id) {
+        List<String> row = rows[id];
+        for (KeyIndex keyIndex : index.values()) {
+            keyIndex.remove(id, row);
+        }
+        rows[id] = null;
+        if (locations[id] != -1) {
+            removedWritten = true;
+        }
+        dirty.clear(id);
+        size--;
+        while (high > 0 && rows[high - 1] == null) {
+            high--;
+        }
+        written = Math.min(written, high);
+    }
+
+    private void compactIfSparse() {
+        if (high - size > MIN_COMPACT && size < high / 2) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        int to = 0;
+        int newWritten = 0;
+        for (int from = 0; from < high; from++) {
+            if (from == written) {
+                newWritten = to;
+            }
+            if (rows[from] != null) {
+                rows[to] = rows[from];
+                locations[to] = locations[from];
+                dirty.set(to, dirty.get(from));
+                to++;
+            }
+        }
+        if (written >= high) {
+            newWritten = to;
+        }
+        Arrays.fill(rows, to, high, null);
+        dirty.clear(to, Math.max(to, high));
+        high = to;
+        written = newWritten;
+        compactions++;
+        for (KeyIndex keyIndex : index.values()) {
+            keyIndex.rebuild();
+        }
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Open addressing hash table of row ids for one column. Each entry is the
+     * row id plus one, with zero for an empty entry and -1 for a removed one.
+     */
+    private final class KeyIndex {
+        private final int column;
+        private int[] table = new int[16];
+        private int count;
+        private int used;
+
+        private final Map<String, List<String>> view = new AbstractMap<String, List<String>>() {
+            @Override
+            public List<String> get(Object key) {
+                if (key != null && !(key instanceof String)) {
+                    return null;
+                }
+                int id = KeyIndex.this.get((String) key);
+                return id == -1 ? null : rows[id];
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public Set<Map.Entry<String, List<String>>> entrySet() {
+                return new AbstractSet<Map.Entry<String, List<String>>>() {
+                    @Override
+                    public Iterator<Map.Entry<String, List<String>>> iterator() {
+                        return new Iterator<Map.Entry<String, List<String>>>() {
+                            private int next;
+
+                            @Override
+                            public boolean hasNext() {
+                                while (next < table.length && table[next] <= 0) {
+                                    next++;
+                                }
+                                return next < table.length;
+                            }
+
+                            @Override
+                            public Map.Entry<String, List<String>> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                List<String> row = rows[table[next++] - 1];
+                                return new AbstractMap.SimpleImmutableEntry<String, List<String>>(row.get(column), row);
+                            }
+
+                            @Override
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return count;
+                    }
+                };
+            }
+        };
+
+        private KeyIndex(int column) {
+            this.column = column;
+        }
+
+        private int get(String key) {
+            int mask = table.length - 1;
+            for (int p = spread(key == null ? 0 : key.hashCode()) & mask;; p = (p + 1) & mask) {
+                int entry = table[p];
+                if (entry == 0) {
+                    return -1;
+                }
+                if (entry > 0 && fieldEquals(rows[entry - 1], column, key)) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        private void put(int id) {
+            List<String> row = rows[id];
+            if (row.size() <= column) {
+                return;
+            }
+            if ((used + 1) * 4 > table.length * 3) {
+                resize();
+            }
+            String key = row.get(column);
+            int mask = table.length - 1;
+            int free = -1;
+            for (int p = spread(fieldHashCode(row, column)) & mask;; p = (p + 1) & mask) {
+                int entry = table[p];
+                if (entry == 0) {
+                    if (free == -1) {
+                        free = p;
+                        used++;
+                    }
+                    table[free] = id + 1;
+                    count++;
+                    return;
+                } else if (entry == -1) {
+                    if (free == -1) {
+                        free = p;
+                    }
+                } else if (fieldEquals(rows[entry - 1], column, key)) {
+                    /* Later rows replace earlier ones with the same key */
+                    table[p] = id + 1;
+                    return;
+                }
+            }
+        }
+
+        private void remove(int id, List<String> row) {
+            if (row.size() <= column) {
+                return;
+            }
+            int mask = table.length - 1;
+            for (int p = spread(fieldHashCode(row, column)) & mask;; p = (p + 1) & mask) {
+                int entry = table[p];
+                if (entry == 0) {
+                    break;
+                }
+                if (entry == id + 1) {
+                    table[p] = -1;
+                    count--;
+                    return;
+                }
+            }
+            /* Not indexed under its current key, e.g. the key field was changed */
+            for (int p = 0; p < table.length; p++) {
+                if (table[p] == id + 1) {
+                    table[p] = -1;
+                    count--;
+                    return;
+                }
+            }
+        }
+
+        private void resize() {
+            int capacity = 16;
+            while (capacity * 3 < (count + 1) * 8) {
+                capacity <<= 1;
+            }
+            int[] old = table;
+            table = new int[capacity];
+            count = used = 0;
+            for (int entry : old) {
+                if (entry > 0) {
+                    put(entry - 1);
+                }
+            }
+        }
+
+        private void rebuild() {
+            clear();
+            for (int id = 0; id < high; id++) {
+                if (rows[id] != null) {
+                    put(id);
+                }
+            }
+        }
+
+        private void clear() {
+            Arrays.fill(table, 0);
+            count = used = 0;
+        }
+    }
+}
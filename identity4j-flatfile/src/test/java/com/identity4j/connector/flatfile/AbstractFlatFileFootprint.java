@@ -0,0 +1,99 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Compares the heap used and lookup time of the list and compact row
+ * representations for a large passwd style file, and of compact rows loaded
+ * lazily from a local file. Run with a fixed heap, e.g.
+ * <code>-Xmx1g</code>, passing the number of rows as the only argument.
+ */
+public class AbstractFlatFileFootprint {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            content.append("user").append(i).append(":x:").append(1000 + i).append(':').append(1000 + i % 50)
+                    .append(":User ").append(i).append(",,,:/home/user").append(i).append(":/bin/bash\n");
+        }
+        byte[] data = content.toString().getBytes("UTF-8");
+        content = null;
+        File localFile = File.createTempFile("footprint", ".passwd");
+        localFile.deleteOnExit();
+        Files.write(localFile.toPath(), data);
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (String mode : new String[] { "list", "compact", "local" }) {
+                boolean compact = !mode.equals("list");
+                long before = usedHeap();
+                long started = System.nanoTime();
+                AbstractFlatFileTest.TestFlatFile file = new AbstractFlatFileTest.TestFlatFile();
+                file.setFieldSeparator(':');
+                file.setEscapeCharacter((char) -1);
+                file.addIndex(0);
+                file.setCompactRows(compact);
+                if (mode.equals("local")) {
+                    file.load(localFile, "UTF-8");
+                } else {
+                    file.load(new ByteArrayInputStream(data), "UTF-8");
+                }
+                long loaded = System.nanoTime();
+                long used = usedHeap() - before;
+
+                long lookupStarted = System.nanoTime();
+                int found = 0;
+                for (int i = 0; i < rows; i++) {
+                    List<String> row = file.getRowByKeyField(0, "user" + i);
+                    if (row != null && row.get(6).length() > 0) {
+                        found++;
+                    }
+                }
+                long lookedUp = System.nanoTime();
+
+                if (pass == 1) {
+                    System.out.println(String.format(
+                            "%-8s %d rows: %,d bytes (%d per row), load %d ms, %d lookups %d ms",
+                            mode, file.size(), used, used / rows,
+                            (loaded - started) / 1000000, found, (lookedUp - lookupStarted) / 1000000));
+                }
+                file.clear();
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
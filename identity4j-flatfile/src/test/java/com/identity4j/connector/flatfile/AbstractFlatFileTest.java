@@ -0,0 +1,607 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.VFS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AbstractFlatFileTest {
+
+    private static final int ROWS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void listRows() throws IOException {
+        checkRows(createFile(false));
+    }
+
+    @Test
+    public void compactRows() throws IOException {
+        checkRows(createFile(true));
+    }
+
+    @Test
+    public void switchingRepresentationKeepsRows() throws IOException {
+        TestFlatFile file = createFile(false);
+        file.setCompactRows(true);
+        assertTrue(file.isCompactRows());
+        checkRows(file);
+        file.setCompactRows(false);
+        assertFalse(file.isCompactRows());
+        assertEquals(ROWS - 1, file.size());
+        assertEquals("user20", file.getRowByKeyField(2, "20").get(0));
+    }
+
+    @Test
+    public void compactRowFields() {
+        List<String> fields = Arrays.asList("root", "", null, "0", "/bin/bash");
+        CompactRow row = new CompactRow(fields);
+        assertEquals(fields, row);
+        assertEquals(fields.hashCode(), row.hashCode());
+        assertNull(row.get(2));
+        assertTrue(row.fieldEquals(2, null));
+        assertTrue(row.fieldEquals(4, "/bin/bash"));
+        assertFalse(row.fieldEquals(0, "roo"));
+        assertEquals("/bin/bash".hashCode(), row.fieldHashCode(4));
+
+        assertEquals("", row.set(1, "x"));
+        assertEquals(Arrays.asList("root", "x", null, "0", "/bin/bash"), row);
+        row.add("extra");
+        assertEquals(6, row.size());
+        assertEquals("extra", row.get(5));
+    }
+
+    @Test
+    public void compactRowsAreCompactedAfterRemoval() throws IOException {
+        TestFlatFile file = createFile(true);
+        for (int i = 0; i < ROWS; i += 2) {
+            assertTrue(file.remove("user" + i));
+        }
+        for (int i = 1; i < ROWS; i += 2) {
+            assertEquals(String.valueOf(i), file.getRowByKeyField(2, String.valueOf(i)).get(2));
+        }
+        Iterator<List<String>> it = file.getContents().iterator();
+        while (it.hasNext()) {
+            if (Integer.parseInt(it.next().get(2)) % 4 == 1) {
+                it.remove();
+            }
+        }
+        assertEquals(ROWS / 4, file.size());
+        for (int i = 0; i < file.size(); i++) {
+            assertEquals(String.valueOf(i * 4 + 3), file.getContents().get(i).get(2));
+        }
+        assertNull(file.getRowByKeyField(0, "user1"));
+        assertEquals("user3", file.getRowByKeyField(0, "user3").get(0));
+    }
+
+    @Test
+    public void batchRemoval() throws IOException {
+        for (boolean compact : new boolean[] { false, true }) {
+            TestFlatFile file = createFile(compact, 20000);
+            List<List<String>> toRemove = new ArrayList<List<String>>();
+            for (int i = 0; i < 20000; i += 2) {
+                toRemove.add(file.getRowByKeyField(0, "user" + i));
+            }
+            for (List<String> row : toRemove) {
+                assertTrue(file.remove(row));
+            }
+            assertEquals(10000, file.size());
+            assertNull(file.getRowByKeyField(0, "user0"));
+            assertEquals("user19999", file.getContents().get(9999).get(0));
+        }
+    }
+
+    @Test
+    public void settingIndexedField() throws IOException {
+        for (boolean compact : new boolean[] { false, true }) {
+            TestFlatFile file = createFile(compact);
+            List<String> row = file.getRowByKeyField(2, "10");
+            assertEquals("user10", file.set(row, 0, "renamed"));
+            assertNull(file.getRowByKeyField(0, "user10"));
+            assertEquals("10", file.getRowByKeyField(0, "renamed").get(2));
+            assertTrue(file.remove("renamed"));
+            assertNull(file.getRowByKeyField(2, "10"));
+        }
+    }
+
+    private void checkRows(TestFlatFile file) throws IOException {
+        assertEquals(ROWS, file.size());
+        assertEquals("user10", file.getRowByKeyField(0, "user10").get(0));
+        assertEquals("user10", file.getRowByKeyField(2, "10").get(0));
+        assertEquals("user10", file.getIndex().get(0).get("user10").get(0));
+        assertNull(file.getRowByKeyField(0, "nobody"));
+        assertEquals("user0", file.getContents().get(0).get(0));
+
+        /* Changing a field of a stored row */
+        file.getRowByKeyField(0, "user10").set(3, "/bin/false");
+        assertEquals("/bin/false", file.getRowByKeyField(0, "user10").get(3));
+
+        /* Remove by key, and by row */
+        assertTrue(file.remove("user10"));
+        assertFalse(file.remove("user10"));
+        assertNull(file.getRowByKeyField(2, "10"));
+        assertTrue(file.remove(new ArrayList<String>(file.getRowByKeyField(0, "user11"))));
+        assertNull(file.getRowByKeyField(0, "user11"));
+        assertEquals(ROWS - 2, file.size());
+
+        /* Add */
+        List<String> row = Arrays.asList("newuser", "x", "5000", "/bin/sh");
+        assertTrue(file.add(row));
+        assertEquals(row, file.getRowByKeyField(0, "newuser"));
+        assertEquals(row, file.getContents().get(file.size() - 1));
+
+        /* Iteration is in file order */
+        int count = 0;
+        String last = null;
+        for (List<String> r : file.getContents()) {
+            last = r.get(0);
+            count++;
+        }
+        assertEquals(file.size(), count);
+        assertEquals("newuser", last);
+    }
+
+    @Test
+    public void compactRowsSplitFromBytes() {
+        byte[] bytes = "xxroot:x:0::/bin/bash\r\n".getBytes(StandardCharsets.US_ASCII);
+        CompactRow row = CompactRow.split(bytes, 2, bytes.length - 2, ':', (char) -1);
+        assertEquals(Arrays.asList("root", "x", "0", "", "/bin/bash"), row);
+        assertTrue(row.fieldEquals(0, "root"));
+        assertFalse(row.fieldEquals(0, "roo"));
+        assertEquals("0".hashCode(), row.fieldHashCode(2));
+        assertEquals("".hashCode(), row.fieldHashCode(3));
+        row.set(1, "y");
+        assertEquals(Arrays.asList("root", "y", "0", "", "/bin/bash"), row);
+        assertTrue(row.fieldEquals(4, "/bin/bash"));
+
+        /* Lines that are not plain ASCII must be parsed */
+        assertNull(CompactRow.split("j\u00f6rg:x".getBytes(StandardCharsets.UTF_8), 0, 6, ':', (char) -1));
+        assertNull(CompactRow.split("a\\:b:x".getBytes(StandardCharsets.UTF_8), 0, 6, ':', '\\'));
+    }
+
+    @Test
+    public void localFilesLoadTheSameEitherWay() throws IOException {
+        File localFile = folder.newFile("mixed");
+        Files.write(localFile.toPath(), ("root:x:0:0::/root:/bin/bash\r\n" + "j\u00f6rg:x:1000:1000:J\u00f6rg:/home/j:/bin/sh\n"
+                + "\n" + "esc\\:aped:x:1001\n" + "last:x:1002").getBytes(StandardCharsets.UTF_8));
+        List<List<String>> expected = Arrays.asList(Arrays.asList("root", "x", "0", "0", "", "/root", "/bin/bash"),
+                Arrays.asList("j\u00f6rg", "x", "1000", "1000", "J\u00f6rg", "/home/j", "/bin/sh"), Arrays.asList(""),
+                Arrays.asList("esc:aped", "x", "1001"), Arrays.asList("last", "x", "1002"));
+        for (boolean compact : new boolean[] { false, true }) {
+            TestFlatFile file = new TestFlatFile();
+            file.setFieldSeparator(':');
+            file.setEscapeCharacter('\\');
+            file.addIndex(0);
+            file.setCompactRows(compact);
+            file.load(localFile, "UTF-8");
+            assertEquals(expected, new ArrayList<List<String>>(file.getContents()));
+            assertEquals("1000", file.getRowByKeyField(0, "j\u00f6rg").get(2));
+            assertEquals("1002", file.getRowByKeyField(0, "last").get(2));
+            assertNull(file.getRowByKeyField(0, "roo"));
+        }
+    }
+
+    @Test
+    public void sameLengthChangesAreWrittenInPlace() throws IOException {
+        for (boolean compact : new boolean[] { false, true }) {
+            CountingFlatFile file = createLocalFile(compact, 10);
+            file.set(file.getRowByKeyField(0, "user3"), 1, "y");
+            file.set(file.getRowByKeyField(0, "user7"), 3, "/bin/bosh");
+            file.writeChanges();
+            assertEquals(0, file.rewrites);
+            assertEquals(1, file.inPlace);
+            assertEquals(2, file.linesInPlace);
+
+            List<String> expected = lines(10);
+            expected.set(3, "user3:y:3:/bin/bash");
+            expected.set(7, "user7:x:7:/bin/bosh");
+            assertEquals(expected, Files.readAllLines(file.localFile.toPath(), StandardCharsets.UTF_8));
+            assertFalse(file.isStale());
+
+            /* Nothing left to write */
+            file.writeChanges();
+            assertEquals(1, file.inPlace);
+            assertEquals(0, file.rewrites);
+        }
+    }
+
+    @Test
+    public void directChangesMustBeMarkedDirty() throws IOException {
+        CountingFlatFile file = createLocalFile(false, 10);
+        List<String> row = file.getRowByKeyField(0, "user2");
+        row.set(1, "z");
+        file.writeChanges();
+        assertEquals(0, file.inPlace);
+        file.markDirty(row);
+        file.writeChanges();
+        assertEquals(1, file.inPlace);
+        assertEquals("user2:z:2:/bin/bash", Files.readAllLines(file.localFile.toPath(), StandardCharsets.UTF_8).get(2));
+    }
+
+    @Test
+    public void addedRowsAreAppended() throws IOException {
+        CountingFlatFile file = createLocalFile(true, 10);
+        file.add(new ArrayList<String>(Arrays.asList("new1", "x", "100", "/bin/sh")));
+        file.add(new ArrayList<String>(Arrays.asList("new2", "x", "101", "/bin/sh")));
+        file.writeChanges();
+        assertEquals(0, file.rewrites);
+        assertEquals(1, file.appends);
+
+        /* The appended rows can then be changed in place too */
+        file.set(file.getRowByKeyField(0, "new2"), 3, "/bin/zz");
+        file.writeChanges();
+        assertEquals(0, file.rewrites);
+        assertEquals(1, file.inPlace);
+
+        List<String> expected = lines(10);
+        expected.add("new1:x:100:/bin/sh");
+        expected.add("new2:x:101:/bin/zz");
+        assertEquals(expected, Files.readAllLines(file.localFile.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void otherChangesRewriteTheFile() throws IOException {
+        CountingFlatFile file = createLocalFile(false, 10);
+        Files.setPosixFilePermissions(file.localFile.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+
+        file.set(file.getRowByKeyField(0, "user4"), 3, "/usr/bin/zsh");
+        file.writeChanges();
+        assertEquals(1, file.rewrites);
+        assertEquals(0, file.inPlace);
+
+        file.remove("user5");
+        file.writeChanges();
+        assertEquals(2, file.rewrites);
+
+        List<String> expected = lines(10);
+        expected.set(4, "user4:x:4:/usr/bin/zsh");
+        expected.remove(5);
+        assertEquals(expected, Files.readAllLines(file.localFile.toPath(), StandardCharsets.UTF_8));
+        assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.localFile.toPath())));
+        assertEquals(1, file.localFile.getParentFile().list().length);
+
+        /* After a rewrite, changes can be written in place again */
+        file.set(file.getRowByKeyField(0, "user9"), 1, "q");
+        file.writeChanges();
+        assertEquals(2, file.rewrites);
+        assertEquals(1, file.inPlace);
+    }
+
+    @Test
+    public void externalChangesRewriteTheFile() throws IOException {
+        CountingFlatFile file = createLocalFile(false, 10);
+        Files.write(file.localFile.toPath(), "other:x:1:/bin/sh\n".getBytes(StandardCharsets.UTF_8));
+        file.localFile.setLastModified(file.localFile.lastModified() - 10000);
+        file.getFile().refresh();
+        file.set(file.getRowByKeyField(0, "user1"), 1, "y");
+        file.writeChanges();
+        assertEquals(0, file.inPlace);
+        assertEquals(1, file.rewrites);
+    }
+
+    @Test
+    public void batchIsWrittenOnCommit() throws IOException {
+        CountingFlatFile file = createLocalFile(false, 10);
+        file.beginBatch();
+        assertTrue(file.isBatch());
+        for (int i = 0; i < 5; i++) {
+            file.set(file.getRowByKeyField(0, "user" + i), 1, "b");
+            file.writeChanges();
+        }
+        file.add(new ArrayList<String>(Arrays.asList("new", "x", "100", "/bin/sh")));
+        file.writeChanges();
+        assertEquals(lines(10), Files.readAllLines(file.localFile.toPath(), StandardCharsets.UTF_8));
+
+        file.commit();
+        assertFalse(file.isBatch());
+        assertEquals(1, file.inPlace);
+        assertEquals(5, file.linesInPlace);
+        assertEquals(1, file.appends);
+        assertEquals(0, file.rewrites);
+
+        List<String> expected = lines(10);
+        for (int i = 0; i < 5; i++) {
+            expected.set(i, "user" + i + ":b:" + i + ":/bin/bash");
+        }
+        expected.add("new:x:100:/bin/sh");
+        assertEquals(expected, Files.readAllLines(file.localFile.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void switchingRepresentationRewritesTheFile() throws IOException {
+        CountingFlatFile file = createLocalFile(false, 10);
+        file.setCompactRows(true);
+        file.set(file.getRowByKeyField(0, "user1"), 1, "y");
+        file.writeChanges();
+        assertEquals(1, file.rewrites);
+        List<String> expected = lines(10);
+        expected.set(1, "user1:y:1:/bin/bash");
+        assertEquals(expected, Files.readAllLines(file.localFile.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void reloadReportsChanges() throws IOException {
+        for (boolean compact : new boolean[] { false, true }) {
+            CountingFlatFile file = createLocalFile(compact, 10);
+            assertNull(file.reloadIfStale(0));
+
+            List<String> lines = lines(10);
+            lines.set(2, "user2:x:2:/bin/sh");
+            lines.remove(5);
+            lines.add("user10:x:10:/bin/bash");
+            lines.add(0, "user11:x:11:/bin/bash");
+            Files.write(file.localFile.toPath(), lines, StandardCharsets.UTF_8);
+            file.localFile.setLastModified(file.localFile.lastModified() - 10000);
+            file.getFile().refresh();
+
+            FlatFileChanges changes = file.reloadIfStale(0);
+            assertEquals(Arrays.asList("user11", "user10"), new ArrayList<String>(changes.getAdded()));
+            assertEquals(Arrays.asList("user2"), new ArrayList<String>(changes.getChanged()));
+            assertEquals(Arrays.asList("user5"), new ArrayList<String>(changes.getRemoved()));
+            assertFalse(changes.isEmpty());
+            assertEquals("/bin/sh", file.getRowByKeyField(0, "user2").get(3));
+            assertNull(file.getRowByKeyField(0, "user5"));
+            assertEquals(11, file.size());
+            assertNull(file.reloadIfStale(0));
+
+            /* Changes are still written in place after a reload */
+            file.set(file.getRowByKeyField(0, "user10"), 1, "y");
+            file.writeChanges();
+            assertEquals(1, file.inPlace);
+            assertEquals("user10:y:10:/bin/bash",
+                    Files.readAllLines(file.localFile.toPath(), StandardCharsets.UTF_8).get(10));
+        }
+    }
+
+    @Test
+    public void rowsCanBeReadWhileOthersChange() throws Exception {
+        for (boolean compact : new boolean[] { false, true }) {
+            final TestFlatFile file = createFile(compact);
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+                for (int r = 0; r < 3; r++) {
+                    readers.add(executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            int found = 0;
+                            for (int pass = 0; pass < 20; pass++) {
+                                /* Odd rows are never touched by the writer */
+                                for (int i = 1; i < ROWS; i += 2) {
+                                    if (file.getRowByKeyField(0, "user" + i).get(2).equals(String.valueOf(i))) {
+                                        found++;
+                                    }
+                                }
+                                for (List<String> row : file.getContents()) {
+                                    assertEquals(4, row.size());
+                                }
+                            }
+                            return found;
+                        }
+                    }));
+                }
+                for (int pass = 0; pass < 20; pass++) {
+                    for (int i = 0; i < ROWS; i += 2) {
+                        List<String> row = file.getRowByKeyField(0, "user" + i);
+                        if (row == null) {
+                            file.add(new ArrayList<String>(Arrays.asList("user" + i, "x", String.valueOf(i), "/bin/sh")));
+                        } else if (pass % 3 == 0) {
+                            file.remove(row);
+                        } else {
+                            file.set(row, 1, "y" + pass);
+                        }
+                    }
+                }
+                for (Future<Integer> reader : readers) {
+                    assertEquals(Integer.valueOf(20 * ROWS / 2), reader.get(30, TimeUnit.SECONDS));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void previousRowsAreReadableWhileReloading() throws IOException {
+        final CountingFlatFile file = createLocalFile(true, 10);
+        Files.write(file.localFile.toPath(), lines(5), StandardCharsets.UTF_8);
+        final List<Integer> seen = new ArrayList<Integer>();
+        file.setFilter(new Filter() {
+            @Override
+            public boolean include(List<String> row) {
+                /* Still the complete previous rows until the reload is done */
+                seen.add(file.size());
+                return file.getRowByKeyField(0, "user9") != null;
+            }
+        });
+
+        FlatFileChanges changes = file.reload(file.localFile, "UTF-8", 0);
+        assertEquals(Arrays.asList(10, 10, 10, 10, 10), seen);
+        assertEquals(5, file.size());
+        assertEquals(5, changes.getRemoved().size());
+        assertNull(file.getRowByKeyField(0, "user9"));
+    }
+
+    @Test
+    public void rowsAddedWhileReloadingAreKept() throws Exception {
+        final CountingFlatFile file = createLocalFile(true, 10);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final List<Future<Boolean>> adding = new ArrayList<Future<Boolean>>();
+        try {
+            file.setFilter(new Filter() {
+                @Override
+                public boolean include(List<String> row) {
+                    if (adding.isEmpty()) {
+                        adding.add(executor.submit(new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() {
+                                return file.add(new ArrayList<String>(Arrays.asList("new1", "x", "100", "/bin/sh")));
+                            }
+                        }));
+                        try {
+                            /* Give the other thread time to try adding its row */
+                            Thread.sleep(200);
+                        } catch (InterruptedException ie) {
+                            throw new IllegalStateException(ie);
+                        }
+                    }
+                    return true;
+                }
+            });
+            file.reload(file.localFile, "UTF-8", 0);
+            assertTrue(adding.get(0).get(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(11, file.size());
+        assertEquals("100", file.getRowByKeyField(0, "new1").get(2));
+        file.writeChanges();
+        List<String> expected = lines(10);
+        expected.add("new1:x:100:/bin/sh");
+        assertEquals(expected, Files.readAllLines(file.localFile.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void compactRowsFromBytesEqualPackedRows() {
+        byte[] bytes = "root:x::/bin/bash".getBytes(StandardCharsets.US_ASCII);
+        CompactRow split = CompactRow.split(bytes, 0, bytes.length, ':', (char) -1);
+        CompactRow packed = new CompactRow(Arrays.asList("root", "x", "", "/bin/bash"));
+        assertEquals(split, packed);
+        assertEquals(packed, split);
+        assertEquals(packed.hashCode(), split.hashCode());
+        assertFalse(split.equals(new CompactRow(Arrays.asList("root", "x", null, "/bin/bash"))));
+        assertFalse(split.equals(new CompactRow(Arrays.asList("root", "x", "", "/bin/bas"))));
+        assertFalse(split.equals(new CompactRow(Arrays.asList("root", "x", "", "/bin/bash", ""))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void commitWithoutBatch() throws IOException {
+        createFile(false, 1).commit();
+    }
+
+    private CountingFlatFile createLocalFile(boolean compact, int rows) throws IOException {
+        File localFile = new File(folder.newFolder("flatfile" + compact + rows + System.nanoTime()), "passwd");
+        Files.write(localFile.toPath(), lines(rows), StandardCharsets.UTF_8);
+        CountingFlatFile file = new CountingFlatFile(localFile);
+        file.setFieldSeparator(':');
+        file.setEscapeCharacter((char) -1);
+        file.addIndex(0);
+        file.setCompactRows(compact);
+        file.load();
+        return file;
+    }
+
+    private static List<String> lines(int rows) {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < rows; i++) {
+            lines.add("user" + i + ":x:" + i + ":/bin/bash");
+        }
+        return lines;
+    }
+
+    private TestFlatFile createFile(boolean compact) throws IOException {
+        return createFile(compact, ROWS);
+    }
+
+    private TestFlatFile createFile(boolean compact, int rows) throws IOException {
+        TestFlatFile file = new TestFlatFile();
+        file.setFieldSeparator(':');
+        file.setEscapeCharacter((char) -1);
+        file.addIndex(0);
+        file.addIndex(2);
+        file.setCompactRows(compact);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            content.append("user" + i + ":x:" + i + ":/bin/bash\n");
+        }
+        file.load(new ByteArrayInputStream(content.toString().getBytes("UTF-8")), "UTF-8");
+        return file;
+    }
+
+    static class TestFlatFile extends DelimitedFlatFile {
+        @Override
+        protected void writeRows(List<List<String>> rows, boolean append) throws IOException {
+        }
+    }
+
+    static class CountingFlatFile extends LocalDelimitedFlatFile {
+        final File localFile;
+        int rewrites;
+        int appends;
+        int inPlace;
+        int linesInPlace;
+
+        CountingFlatFile(File localFile) throws IOException {
+            super(VFS.getManager().toFileObject(localFile), "UTF-8");
+            this.localFile = localFile;
+        }
+
+        @Override
+        protected void writeRows(List<List<String>> rows, boolean append) throws IOException {
+            if (append) {
+                appends++;
+            } else {
+                rewrites++;
+            }
+            super.writeRows(rows, append);
+        }
+
+        @Override
+        protected boolean writeLinesInPlace(SortedMap<Long, byte[]> lines, long expectedLength) throws IOException {
+            boolean written = super.writeLinesInPlace(lines, expectedLength);
+            if (written) {
+                inPlace++;
+                linesInPlace += lines.size();
+            }
+            return written;
+        }
+    }
+}
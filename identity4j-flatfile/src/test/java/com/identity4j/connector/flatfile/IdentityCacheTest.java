@@ -0,0 +1,159 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+
+public class IdentityCacheTest {
+
+    @Test
+    public void hitsAndMisses() {
+        IdentityCache cache = new IdentityCache(100);
+        Identity user1 = cache.get("user1", IdentityImpl::new);
+        assertSame(user1, cache.get("user1", IdentityImpl::new));
+        assertSame(user1, cache.get("user1", IdentityImpl::new));
+        cache.get("user2", IdentityImpl::new);
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void invalidation() {
+        IdentityCache cache = new IdentityCache(100);
+        Identity user1 = cache.get("user1", IdentityImpl::new);
+        Identity user2 = cache.get("user2", IdentityImpl::new);
+        cache.invalidate("user1");
+        assertNotSame(user1, cache.get("user1", IdentityImpl::new));
+        assertSame(user2, cache.get("user2", IdentityImpl::new));
+        cache.invalidate(Arrays.asList("user2"));
+        assertNotSame(user2, cache.get("user2", IdentityImpl::new));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidatedWhileCreatingIsNotCached() {
+        final IdentityCache cache = new IdentityCache(100);
+        Identity stale = cache.get("user1", name -> {
+            cache.invalidate(name);
+            return new IdentityImpl(name);
+        });
+        assertNotSame(stale, cache.get("user1", IdentityImpl::new));
+    }
+
+    @Test
+    public void failuresAreNotCached() {
+        IdentityCache cache = new IdentityCache(100);
+        try {
+            cache.get("nobody", name -> {
+                throw new PrincipalNotFoundException(name);
+            });
+            fail("Expected exception");
+        } catch (PrincipalNotFoundException pnfe) {
+        }
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        IdentityCache cache = new IdentityCache(256);
+        for (int i = 0; i < 10000; i++) {
+            cache.get("user" + i, IdentityImpl::new);
+        }
+        assertTrue(cache.size() <= 256);
+        assertEquals(10000 - cache.size(), cache.getEvictions());
+
+        /* Recently used identities are kept */
+        Identity recent = cache.get("user9999", IdentityImpl::new);
+        assertEquals(1, cache.getHits());
+        assertSame(recent, cache.get("user9999", IdentityImpl::new));
+    }
+
+    @Test
+    public void zeroSizeCachesNothing() {
+        IdentityCache cache = new IdentityCache(0);
+        assertNotSame(cache.get("user1", IdentityImpl::new), cache.get("user1", IdentityImpl::new));
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void concurrentUse() throws InterruptedException {
+        final IdentityCache cache = new IdentityCache(500);
+        final AtomicInteger created = new AtomicInteger();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            String name = "user" + ((i * 31 + seed) % 1000);
+                            Identity identity = cache.get(name, n -> {
+                                created.incrementAndGet();
+                                return new IdentityImpl(n);
+                            });
+                            assertEquals(name, identity.getPrincipalName());
+                            if (i % 100 == 0) {
+                                cache.invalidate(name);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<Throwable>(), errors);
+        assertEquals(8 * 20000, cache.getHits() + cache.getMisses());
+        assertEquals(created.get(), cache.getMisses());
+        assertTrue(cache.size() <= 500);
+    }
+}
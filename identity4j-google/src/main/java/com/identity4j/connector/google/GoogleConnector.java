@@ -86,6 +86,7 @@ import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.util.CollectionUtil;
 import com.identity4j.util.StringUtil;
+import com.identity4j.util.http.RateLimiter;
 import com.identity4j.util.passwords.PasswordCharacteristics;
 
 /**
@@ -128,6 +129,8 @@ public class GoogleConnector extends AbstractConnector<GoogleConfiguration> {
 
 	private long lastRequestTime = 0L;
 
+	private boolean rateLimited;
+
 	static Set<ConnectorCapability> capabilities = new HashSet<ConnectorCapability>(
 			Arrays.asList(new ConnectorCapability[] { ConnectorCapability.passwordChange,
 					ConnectorCapability.passwordSet, ConnectorCapability.createUser, ConnectorCapability.deleteUser,
@@ -147,7 +150,14 @@ public class GoogleConnector extends AbstractConnector<GoogleConfiguration> {
 		return capabilities;
 	}
 
+	/**
+	 * Wait for the configured interval since the last request. Only needed
+	 * when the transport does not rate limit requests itself, otherwise the
+	 * transport adapts to the highest rate Google will accept.
+	 */
 	protected void checkRequestInterval() {
+		if (rateLimited)
+			return;
 		if (lastRequestTime > 0) {
 			long sinceLastRequest = System.currentTimeMillis() - lastRequestTime;
 			if (sinceLastRequest > 0 && sinceLastRequest < getConfiguration().getRequestInterval()) {
@@ -294,14 +304,14 @@ public class GoogleConnector extends AbstractConnector<GoogleConfiguration> {
 			checkRequestInterval();
 			directory.users().patch(userKey, GoogleModelConvertor.googleIdentityToUser(identity)).execute();
 			
-			/* I know ... But there IS a delay, and Google says it can be up to 10 minutes. In practice
-			 * though it doesn't seem to be more than 1 minute.  */
-			try {
-                Thread.sleep(1000 * 60 * 2);
-            } catch (InterruptedException e) {
-            }
-			
 			if (getConfiguration().getFetchRoles()) {
+				/* I know ... But there IS a delay, and Google says it can be up to 10 minutes. In practice
+				 * though it doesn't seem to be more than 1 minute. Only the role adjustment needs
+				 * to see the update, so only wait if it is going to happen. */
+				try {
+	                Thread.sleep(1000 * 60 * 2);
+	            } catch (InterruptedException e) {
+	            }
 				adjustAdditionRemovalOfRoleOnIdentityUpdate(identity);
 			}
 		} catch (GoogleJsonResponseException e) {
@@ -1123,8 +1133,14 @@ public class GoogleConnector extends AbstractConnector<GoogleConfiguration> {
 				}
 			});
 
+			// requests start at the configured interval and adapt from there
+			RateLimiter rateLimiter = new RateLimiter();
+			rateLimiter.setInitialRate(1000d / Math.max(1, getConfiguration().getRequestInterval()));
+			HttpTransport directoryTransport = createTransport(rateLimiter, getConfiguration().getGoogleCustomerDomain());
+			rateLimited = directoryTransport instanceof Identity4JHTTPTransport;
+
 			// directory instance provides API for remote methods
-			directory = new Directory.Builder(createTransport(), JSON_FACTORY, credential)
+			directory = new Directory.Builder(directoryTransport, JSON_FACTORY, credential)
 					.setApplicationName("Identity4J").build();
 
 			log.info("Directory instance created");
@@ -1160,8 +1176,13 @@ public class GoogleConnector extends AbstractConnector<GoogleConfiguration> {
 	}
 
 	public static HttpTransport createTransport() throws GeneralSecurityException, IOException {
+		return createTransport(RateLimiter.getDefault(), null);
+	}
+
+	public static HttpTransport createTransport(RateLimiter rateLimiter, String rateLimitScope)
+			throws GeneralSecurityException, IOException {
 		return "true".equals(System.getProperty("identity4j.google.useIdentity4JTransport", "true"))
-				? new Identity4JHTTPTransport()
+				? new Identity4JHTTPTransport(rateLimiter, rateLimitScope)
 				: ("true".equals(System.getProperty("identity4j.google.useApacheTransport"))
 						? new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClient())
 						: GoogleNetHttpTransport.newTrustedTransport());
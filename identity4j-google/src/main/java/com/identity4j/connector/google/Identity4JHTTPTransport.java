@@ -25,6 +25,7 @@ package com.identity4j.connector.google;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URL;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -37,9 +38,29 @@ import com.identity4j.util.http.HttpData;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpProviderClient;
 import com.identity4j.util.http.HttpResponse;
+import com.identity4j.util.http.RateLimiter;
 
 public class Identity4JHTTPTransport extends HttpTransport {
 
+	private final RateLimiter rateLimiter;
+	private final String rateLimitScope;
+
+	public Identity4JHTTPTransport() {
+		this(RateLimiter.getDefault(), null);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param rateLimiter rate limiter, or <code>null</code> to not limit requests
+	 * @param rateLimitScope scope (e.g. customer domain) requests are rate
+	 *            limited in along with the host
+	 */
+	public Identity4JHTTPTransport(RateLimiter rateLimiter, String rateLimitScope) {
+		this.rateLimiter = rateLimiter;
+		this.rateLimitScope = rateLimitScope;
+	}
+
 	@Override
 	protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
 		if (method.equals(HttpMethods.DELETE)) {
@@ -90,7 +111,14 @@ public class Identity4JHTTPTransport extends HttpTransport {
 				client.setConnectTimeout(connectTimeout);
 			if (readTimeout != -1)
 				client.setSocketTimeout(readTimeout);
-			final HttpResponse resp = doMethod(client, headers);
+			final HttpResponse resp;
+			if (rateLimiter == null) {
+				resp = doMethod(client, headers);
+			} else {
+				String host = new URL(url).getHost();
+				resp = rateLimiter.execute(rateLimitScope == null ? host : rateLimitScope + "@" + host, isIdempotent(),
+						() -> doMethod(client, headers));
+			}
 			return new LowLevelHttpResponse() {
 
 				@Override
@@ -146,6 +174,10 @@ public class Identity4JHTTPTransport extends HttpTransport {
 		}
 
 		abstract HttpResponse doMethod(HttpProviderClient client, List<HttpPair> headers);
+
+		boolean isIdempotent() {
+			return true;
+		}
 	}
 
 	class DeleteReq extends Req {
@@ -230,5 +262,10 @@ public class Identity4JHTTPTransport extends HttpTransport {
 		HttpResponse doMethodStream(HttpProviderClient client, List<HttpPair> headers, HttpData data) {
 			return client.post(null, data, headers.toArray(new HttpPair[0]));
 		}
+
+		@Override
+		boolean isIdempotent() {
+			return false;
+		}
 	}
 }
@@ -33,8 +33,6 @@ import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.SSLSession;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -58,11 +56,6 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.config.Registry;
-import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.conn.socket.PlainConnectionSocketFactory;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.entity.ContentProducer;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.EntityTemplate;
@@ -71,12 +64,8 @@ import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.ssl.SSLContexts;
 import org.apache.http.util.EntityUtils;
 
 import com.identity4j.util.http.HttpData;
@@ -101,13 +90,14 @@ public class HttpClientImpl implements HttpProviderClient {
 		private Resp(CloseableHttpClient httpClient, HttpRequestBase method) {
 			this.method = method;
 			this.httpClient = httpClient;
+			method.setConfig(requestConfig);
 		}
 
 		void checkDone() throws HttpException {
 			if (!done) {
 				try {
 					try {
-						response = httpClient.execute(method, context);
+						response = httpClient.execute(method, createContext());
 						status = new HttpStatus(response.getStatusLine().getStatusCode(),
 								response.getStatusLine().getReasonPhrase(),
 								response.getStatusLine().getProtocolVersion().getProtocol());
@@ -188,20 +178,32 @@ public class HttpClientImpl implements HttpProviderClient {
 	private String url;
 	//private HttpClientBuilder cl;
 	private CloseableHttpClient httpClient;
-	private HttpClientContext context;
-	private int connectionRequestTimeout = -1;
+	private RequestConfig requestConfig;
+	private CredentialsProvider credsProvider;
+	private AuthCache authCache;
+	private int connectionRequestTimeout = HttpConnectionPool.DEFAULT_CONNECTION_REQUEST_TIMEOUT;
 	private int connectTimeout = -1;
 	private int soTimeout = -1;
+	private int maxConnections = HttpConnectionPool.DEFAULT_MAX_CONNECTIONS;
+	private int maxConnectionsPerRoute = HttpConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+	private int idleConnectionTimeout = HttpConnectionPool.DEFAULT_IDLE_TIMEOUT;
+	private int keepAlive = HttpConnectionPool.DEFAULT_KEEP_ALIVE;
 	private CertificateRequirements certRequirments = CertificateRequirements.DEFAULT;
 	private String username;
 	private char[] password;
 	private String realm;
+	private HttpConnectionPool pool;
 
 	public HttpClientImpl(String urlStr, String username, char[] password, String realm) {
+		this(urlStr, username, password, realm, HttpConnectionPool.getDefault());
+	}
+
+	public HttpClientImpl(String urlStr, String username, char[] password, String realm, HttpConnectionPool pool) {
 		this.username = username;
 		this.password = password;
 		this.realm = realm;
 		this.url = urlStr;
+		this.pool = pool;
 	}
 
 	public String getUrl() {
@@ -244,6 +246,22 @@ public class HttpClientImpl implements HttpProviderClient {
 		return connectTimeout;
 	}
 
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public int getIdleConnectionTimeout() {
+		return idleConnectionTimeout;
+	}
+
+	public int getKeepAlive() {
+		return keepAlive;
+	}
+
 	public HttpResponse get(String uri, HttpPair... header) throws HttpException {
 		checkClient();
 		final HttpGet method = new HttpGet(HttpUtil.concatenateUriParts(url, uri));
@@ -365,6 +383,34 @@ public class HttpClientImpl implements HttpProviderClient {
 		this.certRequirments = certRequirments;
 	}
 
+	@Override
+	public void setMaxConnections(int max) {
+		if (httpClient != null)
+			throw new IllegalStateException("Cannot set maximum connections after client has been created.");
+		maxConnections = max;
+	}
+
+	@Override
+	public void setMaxConnectionsPerRoute(int max) {
+		if (httpClient != null)
+			throw new IllegalStateException("Cannot set maximum connections per route after client has been created.");
+		maxConnectionsPerRoute = max;
+	}
+
+	@Override
+	public void setIdleConnectionTimeout(int ms) {
+		if (httpClient != null)
+			throw new IllegalStateException("Cannot set idle connection timeout after client has been created.");
+		idleConnectionTimeout = ms;
+	}
+
+	@Override
+	public void setKeepAlive(int ms) {
+		if (httpClient != null)
+			throw new IllegalStateException("Cannot set keep alive after client has been created.");
+		keepAlive = ms;
+	}
+
 	private HttpResponse doContentRequest(String data, final HttpEntityEnclosingRequestBase method,
 			HttpPair... header) {
 		addHeaders(method, header);
@@ -442,27 +488,18 @@ public class HttpClientImpl implements HttpProviderClient {
 	}
 
 	protected void createHttpClient() throws IOException {
-		HttpClientBuilder cl = HttpClients.custom();
-
-		// Add AuthCache to the execution context
-		context = HttpClientContext.create();
-		
 		try {
 			URL url = new URL(this.url);
 			if (username != null && username.length() > 0) {
-				CredentialsProvider credsProvider = new BasicCredentialsProvider();
+				credsProvider = new BasicCredentialsProvider();
 				int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
 				credsProvider.setCredentials(
 						new AuthScope(url.getHost(), port,
 								realm == null || realm.length() == 0 ? AuthScope.ANY_REALM : realm),
 						new UsernamePasswordCredentials(username, password == null ? null : new String(password)));
-				cl.setDefaultCredentialsProvider(credsProvider);
 				HttpHost targetHost = new HttpHost(url.getHost(), port, url.getProtocol());
-				AuthCache authCache = new BasicAuthCache();
+				authCache = new BasicAuthCache();
 				authCache.put(targetHost, new BasicScheme());
-				
-				context.setCredentialsProvider(credsProvider);
-				context.setAuthCache(authCache);
 			}
 		} catch (MalformedURLException mrle) {
 			throw new IllegalArgumentException(mrle);
@@ -475,47 +512,25 @@ public class HttpClientImpl implements HttpProviderClient {
 			builder.setConnectTimeout(connectTimeout);
 		if (connectionRequestTimeout != -1)
 			builder.setConnectionRequestTimeout(connectionRequestTimeout);
+		requestConfig = builder.build();
 
-		switch (certRequirments) {
-		case STRICT:
-			Registry<ConnectionSocketFactory> reg = RegistryBuilder.<ConnectionSocketFactory> create()
-					.register("http", new PlainConnectionSocketFactory())
-					.register("https", new SSLConnectionSocketFactory(SSLContexts.createSystemDefault())).build();
-			cl.setConnectionManager(new BasicHttpClientConnectionManager(reg));
-			break;
-		case LOOSE:
-			reg = RegistryBuilder.<ConnectionSocketFactory> create()
-					.register("http", new PlainConnectionSocketFactory()).register("https",
-							new SSLConnectionSocketFactory(SSLContexts.createSystemDefault(), new HostnameVerifier() {
-
-								@Override
-								public boolean verify(String hostname, SSLSession session) {
-									return true;
-								}
-							}))
-					.build();
-			cl.setConnectionManager(new BasicHttpClientConnectionManager(reg));
-			break; 
-		case NONE:
-			reg = RegistryBuilder.<ConnectionSocketFactory> create()
-					.register("http", new PlainConnectionSocketFactory()).register("https",
-							new SSLConnectionSocketFactory(SSLContexts.createSystemDefault(), new HostnameVerifier() {
-
-								@Override
-								public boolean verify(String hostname, SSLSession session) {
-									return true;
-								}
-							}))
-					.build();
-			cl.setConnectionManager(new BasicHttpClientConnectionManager(reg));
-			break;
-		case DEFAULT:
-			break;
-		}
+		httpClient = pool.getClient(certRequirments, maxConnections, maxConnectionsPerRoute, idleConnectionTimeout,
+				keepAlive);
+	}
 
-		RequestConfig client = builder.build();
-		cl.setDefaultRequestConfig(client);
-		httpClient = cl.build();
+	/**
+	 * The pooled client is shared with other threads and other clients, so
+	 * each request gets its own context carrying this client's credentials.
+	 * 
+	 * @return context
+	 */
+	protected HttpClientContext createContext() {
+		HttpClientContext context = HttpClientContext.create();
+		if (credsProvider != null) {
+			context.setCredentialsProvider(credsProvider);
+			context.setAuthCache(authCache);
+		}
+		return context;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,193 @@
+package com.identity4j.http;
+
+/*
+ * #%L
+ * Identity4J default HTTP implementation.
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpResponse;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+
+import com.identity4j.util.http.HttpProviderClient.CertificateRequirements;
+
+/**
+ * Shares pooled Apache HTTP clients between {@link HttpClientImpl} instances.
+ * <p>
+ * Connectors usually create a new {@link HttpClientImpl} for every request, so
+ * any pooling must live longer than the client. One pooled client is kept for
+ * each distinct combination of certificate requirements and pool settings.
+ * Timeouts and credentials are applied per request, so clients with
+ * different URLs or users still share connections to the same route. Each
+ * pooled client also shares its TLS socket factory, and so its SSL session
+ * cache, letting new connections resume sessions rather than perform a full
+ * handshake.
+ * <p>
+ * Idle and expired connections are evicted by a background thread for each
+ * pooled client. Responses must be consumed or released for their
+ * connection to be returned to the pool. Should one leak, requests wait at
+ * most {@link #DEFAULT_CONNECTION_REQUEST_TIMEOUT} milliseconds for a
+ * connection (unless the client sets its own timeout) rather than forever.
+ */
+public class HttpConnectionPool implements Closeable {
+	private final static Log LOG = LogFactory.getLog(HttpConnectionPool.class);
+
+	public final static int DEFAULT_MAX_CONNECTIONS = 50;
+	public final static int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+	public final static int DEFAULT_IDLE_TIMEOUT = 30000;
+	public final static int DEFAULT_KEEP_ALIVE = 60000;
+	public final static int DEFAULT_VALIDATE_AFTER_INACTIVITY = 2000;
+	public final static int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 60000;
+
+	private static class DefaultHolder {
+		private final static HttpConnectionPool INSTANCE = new HttpConnectionPool();
+	}
+
+	private final Map<List<Object>, CloseableHttpClient> clients = new HashMap<List<Object>, CloseableHttpClient>();
+	private SSLContext systemSslContext;
+	private SSLConnectionSocketFactory defaultSslSocketFactory;
+	private boolean closed;
+
+	/**
+	 * Get the pool shared by all clients that are not given one explicitly.
+	 * 
+	 * @return default pool
+	 */
+	public static HttpConnectionPool getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/**
+	 * Get (creating if required) the pooled client for the given settings.
+	 * 
+	 * @param certRequirements certificate requirements
+	 * @param maxConnections maximum connections in total
+	 * @param maxConnectionsPerRoute maximum connections to any single route
+	 * @param idleTimeout milliseconds after which idle connections are closed
+	 * @param keepAlive maximum milliseconds to keep a connection alive when the
+	 *            server does not say otherwise
+	 * @return client
+	 */
+	public synchronized CloseableHttpClient getClient(CertificateRequirements certRequirements, int maxConnections,
+			int maxConnectionsPerRoute, int idleTimeout, int keepAlive) {
+		if (closed)
+			throw new IllegalStateException("Connection pool has been closed.");
+		List<Object> key = Arrays.<Object> asList(certRequirements, maxConnections, maxConnectionsPerRoute, idleTimeout,
+				keepAlive);
+		CloseableHttpClient client = clients.get(key);
+		if (client == null) {
+			client = createClient(certRequirements, maxConnections, maxConnectionsPerRoute, idleTimeout, keepAlive);
+			clients.put(key, client);
+		}
+		return client;
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+		}
+		for (CloseableHttpClient client : clients.values()) {
+			try {
+				client.close();
+			} catch (IOException ioe) {
+				LOG.warn("Failed to close pooled HTTP client.", ioe);
+			}
+		}
+		clients.clear();
+	}
+
+	protected CloseableHttpClient createClient(CertificateRequirements certRequirements, int maxConnections,
+			int maxConnectionsPerRoute, int idleTimeout, final int keepAlive) {
+		Registry<ConnectionSocketFactory> reg = RegistryBuilder.<ConnectionSocketFactory> create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", getSslSocketFactory(certRequirements)).build();
+
+		PoolingHttpClientConnectionManager mgr = new PoolingHttpClientConnectionManager(reg);
+		mgr.setMaxTotal(maxConnections);
+		mgr.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+		mgr.setValidateAfterInactivity(DEFAULT_VALIDATE_AFTER_INACTIVITY);
+
+		if (LOG.isDebugEnabled())
+			LOG.debug(String.format("Creating HTTP connection pool for %s certificates (max %d, %d per route)",
+					certRequirements, maxConnections, maxConnectionsPerRoute));
+
+		return HttpClients.custom().setConnectionManager(mgr).evictExpiredConnections()
+				.evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+				.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+					@Override
+					public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+						long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response,
+								context);
+						return duration < 0 || duration > keepAlive ? keepAlive : duration;
+					}
+				}).build();
+	}
+
+	private SSLConnectionSocketFactory getSslSocketFactory(CertificateRequirements certRequirements) {
+		switch (certRequirements) {
+		case STRICT:
+			return new SSLConnectionSocketFactory(getSystemSslContext());
+		case LOOSE:
+		case NONE:
+			return new SSLConnectionSocketFactory(getSystemSslContext(), new HostnameVerifier() {
+
+				@Override
+				public boolean verify(String hostname, SSLSession session) {
+					return true;
+				}
+			});
+		default:
+			if (defaultSslSocketFactory == null)
+				defaultSslSocketFactory = SSLConnectionSocketFactory.getSocketFactory();
+			return defaultSslSocketFactory;
+		}
+	}
+
+	private SSLContext getSystemSslContext() {
+		if (systemSslContext == null)
+			systemSslContext = SSLContexts.createSystemDefault();
+		return systemSslContext;
+	}
+}
@@ -26,11 +26,26 @@ import com.identity4j.util.http.HttpProvider;
 import com.identity4j.util.http.HttpProviderClient;
 
 /**
- * Quite a dumb {@link HttpProvider} based on Apache HTTP that doesn't do any
- * connection pooling or anything smart with clients.
+ * {@link HttpProvider} based on Apache HTTP. Clients are cheap to create, the
+ * connections they use are pooled and shared through a
+ * {@link HttpConnectionPool}.
  */
 public class HttpProviderImpl implements HttpProvider {
 
+	private final HttpConnectionPool pool;
+
+	public HttpProviderImpl() {
+		this(HttpConnectionPool.getDefault());
+	}
+
+	public HttpProviderImpl(HttpConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	public HttpConnectionPool getPool() {
+		return pool;
+	}
+
 	@Override
 	public HttpProviderClient getClient(String urlStr) {
 		return getClient(urlStr, null, null, null);
@@ -38,7 +53,7 @@ public class HttpProviderImpl implements HttpProvider {
 
 	@Override
 	public HttpProviderClient getClient(String urlStr, String username, char[] password, String realm) {
-		return new HttpClientImpl(urlStr, username, password, realm);
+		return new HttpClientImpl(urlStr, username, password, realm, pool);
 	}
 
-}
\ No newline at end of file
+}
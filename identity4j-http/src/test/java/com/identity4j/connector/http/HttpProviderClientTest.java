@@ -23,6 +23,7 @@ package com.identity4j.connector.http;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -31,7 +32,15 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -44,8 +53,11 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.identity4j.http.HttpClientImpl;
+import com.identity4j.http.HttpConnectionPool;
 import com.identity4j.util.http.Http;
 import com.identity4j.util.http.HttpData;
+import com.identity4j.util.http.HttpException;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpProviderClient;
 import com.identity4j.util.http.HttpResponse;
@@ -84,6 +96,8 @@ public class HttpProviderClientTest {
 		webAppContext.addServlet(PostServlet.class, "/post");
 		webAppContext.addServlet(PostJsonServlet.class, "/post-json");
 		webAppContext.addServlet(GetServlet.class, "/get");
+		webAppContext.addServlet(PortServlet.class, "/port");
+		webAppContext.addServlet(BarrierServlet.class, "/barrier");
 		server.setHandler(webAppContext);
 		server.start();
 	}
@@ -135,6 +149,68 @@ public class HttpProviderClientTest {
 		assertEquals(38, Http.getContentLength(r));
 	}
 
+	@Test
+	public void testConnectionReusedAcrossClients() throws IOException {
+		String first = Http.getProvider().getClient("http://localhost:" + port + "/test/port").get(null).contentString();
+		String second = Http.getProvider().getClient("http://localhost:" + port + "/test/port").get(null).contentString();
+		assertEquals(first, second);
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		final HttpProviderClient c = Http.getProvider().getClient("http://localhost:" + port + "/test/barrier");
+		c.setMaxConnectionsPerRoute(BarrierServlet.PARTIES);
+		ExecutorService executor = Executors.newFixedThreadPool(BarrierServlet.PARTIES);
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < BarrierServlet.PARTIES; i++) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						HttpResponse r = c.get(null);
+						try {
+							return r.status().getCode();
+						} finally {
+							r.release();
+						}
+					}
+				}));
+			}
+			for (Future<Integer> f : results)
+				assertEquals(200, f.get(30, TimeUnit.SECONDS).intValue());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testLeakedConnectionTimesOut() throws IOException {
+		assertEquals(HttpConnectionPool.DEFAULT_CONNECTION_REQUEST_TIMEOUT,
+				new HttpClientImpl("http://localhost:" + port, null, null, null).getConnectionRequestTimeout());
+
+		HttpConnectionPool pool = new HttpConnectionPool();
+		try {
+			HttpResponse leaked = client(pool).get("/test/port");
+			assertEquals(200, leaked.status().getCode());
+			try {
+				client(pool).get("/test/port").status();
+				fail("Expected to time out waiting for a connection");
+			} catch (HttpException he) {
+			}
+			leaked.release();
+			assertEquals(200, client(pool).get("/test/port").status().getCode());
+		} finally {
+			pool.close();
+		}
+	}
+
+	private HttpProviderClient client(HttpConnectionPool pool) {
+		HttpProviderClient c = new HttpClientImpl("http://localhost:" + port, null, null, null, pool);
+		c.setMaxConnectionsPerRoute(1);
+		c.setConnectionRequestTimeout(500);
+		return c;
+	}
+
 	@After
 	public void shutdownServer() throws Exception {
 		server.stop();
@@ -209,4 +285,36 @@ public class HttpProviderClientTest {
 		}
 
 	}
+
+	@SuppressWarnings("serial")
+	public final static class PortServlet extends HttpServlet {
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			resp.setContentType("text/plain");
+			resp.getWriter().print(req.getRemotePort());
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	public final static class BarrierServlet extends HttpServlet {
+		final static int PARTIES = 4;
+		final static CyclicBarrier barrier = new CyclicBarrier(PARTIES);
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			/* Only answers once all requests have arrived, so they must be in
+			 * flight at the same time */
+			try {
+				barrier.await(20, TimeUnit.SECONDS);
+			} catch (Exception e) {
+				resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Requests were not concurrent");
+				return;
+			}
+			resp.setContentType("text/plain");
+			resp.getWriter().print("OK");
+		}
+
+	}
 }
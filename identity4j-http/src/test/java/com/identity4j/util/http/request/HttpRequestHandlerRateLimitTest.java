@@ -0,0 +1,198 @@
+package com.identity4j.util.http.request;
+
+/*
+ * #%L
+ * Identity4J default HTTP implementation.
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.util.http.HttpPair;
+import com.identity4j.util.http.HttpResponse;
+import com.identity4j.util.http.RateLimiter;
+
+/**
+ * Runs {@link HttpRequestHandler} against a local stub that throttles
+ * requests the way cloud APIs do.
+ */
+public class HttpRequestHandlerRateLimitTest {
+	private final static HttpPair JSON = new HttpPair("Content-Type", "application/json");
+
+	private Server server;
+	private int port;
+	private RateLimiter limiter;
+	private HttpRequestHandler handler;
+
+	int findPort() {
+		int start = (int) (Math.random() * 40000) + 20000;
+		for (int i = start; i < start + 1000; i++) {
+			try {
+				ServerSocket ss = new ServerSocket(i);
+				try {
+					ss.setReuseAddress(true);
+					return i;
+				} finally {
+					ss.close();
+				}
+			} catch (IOException ioe) {
+
+			}
+
+		}
+		throw new IllegalStateException("Could not find a port to listen on for HTTP.");
+	}
+
+	@Before
+	public void startServer() throws Exception {
+		ThrottlingServlet.requests.set(0);
+		server = new Server(port = findPort());
+		server.setStopAtShutdown(true);
+		WebAppContext webAppContext = new WebAppContext();
+		webAppContext.setContextPath("/test");
+		webAppContext.setResourceBase("src/test/webapp");
+		webAppContext.setClassLoader(getClass().getClassLoader());
+		webAppContext.addServlet(ThrottlingServlet.class, "/throttle");
+		server.setHandler(webAppContext);
+		server.start();
+
+		limiter = new RateLimiter();
+		limiter.setBaseBackoff(50);
+		limiter.setMaxRetries(3);
+		handler = new HttpRequestHandler("tenant");
+		handler.setRateLimiter(limiter);
+	}
+
+	@After
+	public void shutdownServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testRetriesAfterTooManyRequests() throws Exception {
+		long started = System.currentTimeMillis();
+		HttpResponse r = handler.handleRequestGet(uri("status=429&times=2&retryAfter=1"));
+		try {
+			assertEquals(200, r.status().getCode());
+			assertEquals("OK after 3", r.contentString());
+		} finally {
+			r.release();
+		}
+		/* Honoured Retry-After twice, limited the rate then halved it before
+		 * the success nudged it back up */
+		assertTrue(System.currentTimeMillis() - started >= 2000);
+		double rate = RateLimiter.DEFAULT_THROTTLED_RATE * RateLimiter.DEFAULT_DECREASE;
+		assertEquals(rate + RateLimiter.DEFAULT_INCREASE / rate, limiter.getRate("tenant@localhost"), 0.0001);
+	}
+
+	@Test
+	public void testUnlimitedUntilThrottled() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			handler.handleRequestGet(uri("status=429&times=0")).release();
+		}
+		assertEquals(RateLimiter.UNLIMITED, limiter.getRate("tenant@localhost"), 0);
+	}
+
+	@Test
+	public void testPostRetriedOnlyOnTooManyRequests() throws Exception {
+		HttpResponse r = handler.handleRequestPost(uri("status=503&times=1"), "{}", JSON);
+		try {
+			assertEquals(503, r.status().getCode());
+		} finally {
+			r.release();
+		}
+		assertEquals(1, ThrottlingServlet.requests.get());
+
+		ThrottlingServlet.requests.set(0);
+		r = handler.handleRequestPost(uri("status=429&times=1"), "{}", JSON);
+		try {
+			assertEquals(200, r.status().getCode());
+		} finally {
+			r.release();
+		}
+		assertEquals(2, ThrottlingServlet.requests.get());
+	}
+
+	@Test
+	public void testBacksOffOnServiceUnavailable() throws Exception {
+		HttpResponse r = handler.handleRequestGet(uri("status=503&times=1"));
+		try {
+			assertEquals(200, r.status().getCode());
+		} finally {
+			r.release();
+		}
+		assertEquals(2, ThrottlingServlet.requests.get());
+	}
+
+	@Test
+	public void testGivesUpAfterMaxRetries() throws Exception {
+		HttpResponse r = handler.handleRequestGet(uri("status=429&times=100"));
+		try {
+			assertEquals(429, r.status().getCode());
+		} finally {
+			r.release();
+		}
+		assertEquals(4, ThrottlingServlet.requests.get());
+	}
+
+	URI uri(String query) throws Exception {
+		return new URI("http://localhost:" + port + "/test/throttle?" + query);
+	}
+
+	@SuppressWarnings("serial")
+	public final static class ThrottlingServlet extends HttpServlet {
+		final static AtomicInteger requests = new AtomicInteger();
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			int request = requests.incrementAndGet();
+			if (request <= Integer.parseInt(req.getParameter("times"))) {
+				if (req.getParameter("retryAfter") != null)
+					resp.setHeader("Retry-After", req.getParameter("retryAfter"));
+				resp.sendError(Integer.parseInt(req.getParameter("status")), "Slow down");
+				return;
+			}
+			resp.setContentType("text/plain");
+			resp.getWriter().print("OK after " + request);
+		}
+
+		@Override
+		protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			doGet(req, resp);
+		}
+
+	}
+}
@@ -25,6 +25,7 @@ package com.identity4j.connector.jdbc;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
@@ -47,6 +48,14 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 	public static final String JDBC_USERNAME = "jdbcUsername";
 	public static final String JDBC_PASSWORD = "jdbcPassword";
 	public static final String JDBC_DATABASE = "jdbcDatabase";
+	public static final String JDBC_FETCH_SIZE = "jdbcFetchSize";
+	public static final String JDBC_ROLE_BATCH_SIZE = "jdbcRoleBatchSize";
+	public static final String JDBC_POOL_SIZE = "jdbcPoolSize";
+	public static final String JDBC_POOL_TIMEOUT = "jdbcPoolTimeout";
+	public static final String JDBC_VALIDATION_QUERY = "jdbcValidationQuery";
+	public static final String JDBC_MAX_LIFETIME = "jdbcMaxLifetime";
+	public static final String JDBC_LEAK_DETECTION_THRESHOLD = "jdbcLeakDetectionThreshold";
+	public static final String JDBC_STATEMENT_CACHE_SIZE = "jdbcStatementCacheSize";
 
 	// Identity Table
 	public static final String SQL_IDENTITY_TABLE = "sqlIdentityTable";
@@ -95,6 +104,7 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 	public static final String SQL_ROLE_IDENTITY_TABLE_IDENTITY_GUID = "sqlRoleIdentityTableIdentityGuid";
 	public static final String SQL_ROLE_IDENTITY_TABLE_ROLE_GUID = "sqlRoleIdentityTableRoleGuid";
 	public static final String SQL_ROLE_IDENTITY_TABLE_SELECT_BY_IDENTITY = "sqlRoleIdentityTableSelectByIdentity";
+	public static final String SQL_ROLE_IDENTITY_TABLE_SELECT_BY_IDENTITIES = "sqlRoleIdentityTableSelectByIdentities";
 	public static final String SQL_ROLE_IDENTITY_REVOKE_FROM_ROLE = "sqlRoleIdentityTableRevokeFromRole";
 	public static final String SQL_ROLE_IDENTITY_GRANT_TO_ROLE = "sqlRoleIdentityTableGrantToRole";
 
@@ -370,6 +380,109 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 				"${principalName}", principalName);
 	}
 
+	/**
+	 * Get the query used to look up an identity by name, with the principal
+	 * name as the named parameter <code>:principalName</code> so it can be
+	 * prepared once and executed many times. A token inside a longer string
+	 * (e.g. <code>LIKE '${principalName}%'</code>) is left for
+	 * {@link JDBCConnector#prepareQuery} to bind.
+	 * 
+	 * @return query
+	 */
+	public String getSelectIdentityQuery() {
+		return toNamedParameters(replaceTokens(configurationParameters.getStringOrDefault(
+				SQL_IDENTITY_TABLE_IDENTITY_SELECT,
+				"SELECT * FROM ${identityTable} WHERE ${identityTablePrincipalName} = '${principalName}'")),
+				"principalName");
+	}
+
+	/**
+	 * Get the query used to check a password, with <code>:principalName</code>,
+	 * <code>:guid</code>, <code>:encodedPassword</code> and
+	 * <code>:password</code> as named parameters, or left as tokens inside a
+	 * longer string for {@link JDBCConnector#prepareQuery} to bind. Any other
+	 * tokens are substituted from the identity. An empty string is returned if
+	 * no password query is configured.
+	 * 
+	 * @param identity identity
+	 * @return query
+	 */
+	public String getSelectPasswordQuery(Identity identity) {
+		String str = configurationParameters.getString(SQL_PASSWORD_SELECT);
+		if (StringUtil.isNullOrEmpty(str))
+			return "";
+		return replaceUnboundTokens(
+				toNamedParameters(replaceTokens(str), "principalName", "guid", "encodedPassword", "password"), identity);
+	}
+
+	/**
+	 * Get the query used to select the roles granted to an identity, with
+	 * <code>:guid</code> and <code>:principalName</code> as named parameters
+	 * (or tokens inside a longer string, bound by
+	 * {@link JDBCConnector#prepareQuery}). An empty string is returned if
+	 * there is no role identity table.
+	 * 
+	 * @param identity identity
+	 * @return query
+	 */
+	public String getSelectIdentitiesRolesQuery(Identity identity) {
+		String str = configurationParameters.getString(SQL_ROLE_IDENTITY_TABLE_SELECT_BY_IDENTITY);
+		if (StringUtil.isNullOrEmpty(str)) {
+			if (getRoleTable().length() == 0 || getRoleIdentityTable().length() == 0)
+				return "";
+			str = "SELECT * FROM ${roleIdentityTable} WHERE ${roleIdentityTable.identityGuid} = ${guid}";
+		}
+		return replaceUnboundTokens(toNamedParameters(replaceTokens(str), "guid", "principalName"), identity);
+	}
+
+	/**
+	 * Substitute the identity's tokens that are not bound as parameters, i.e.
+	 * its attributes and the double quoted identifier tokens.
+	 */
+	private String replaceUnboundTokens(String str, Principal identity) {
+		str = str.replace("#{guid}", escapeStringDouble(identity.getGuid()));
+		str = str.replace("#{principalName}", escapeStringDouble(getProcessedPrincipalName(identity)));
+		return replaceTokensDouble(replaceAttributeTokens(str, identity));
+	}
+
+	/**
+	 * Turn the tokens for the given names into named parameters. A token is
+	 * converted when it is not inside a quoted string, or when it is the whole
+	 * of a single quoted string (e.g. <code>'${principalName}'</code>). Tokens
+	 * used as part of a longer string are left in place, and
+	 * {@link JDBCConnector#prepareQuery} binds the whole string as one
+	 * parameter.
+	 * 
+	 * @param sql SQL
+	 * @param names token names
+	 * @return SQL with named parameters
+	 */
+	protected String toNamedParameters(String sql, String... names) {
+		for (String name : names) {
+			sql = sql.replace("'${" + name + "}'", ":" + name);
+		}
+		StringBuilder buf = new StringBuilder(sql.length());
+		boolean inSingleQuote = false;
+		boolean inDoubleQuote = false;
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (c == '\'' && !inDoubleQuote) {
+				inSingleQuote = !inSingleQuote;
+			} else if (c == '"' && !inSingleQuote) {
+				inDoubleQuote = !inDoubleQuote;
+			} else if (c == '$' && !inSingleQuote && !inDoubleQuote && sql.startsWith("${", i)) {
+				int end = sql.indexOf('}', i);
+				if (end != -1 && Arrays.asList(names).contains(sql.substring(i + 2, end))) {
+					buf.append(':').append(sql.substring(i + 2, end));
+					i = end;
+					continue;
+				}
+			}
+			buf.append(c);
+		}
+		return buf.toString();
+	}
+
 	public String getSelectIdentitiesRolesSQL(Identity identity) {
 		String str = configurationParameters.getString(SQL_ROLE_IDENTITY_TABLE_SELECT_BY_IDENTITY);
 		if (StringUtil.isNullOrEmpty(str)) {
@@ -381,6 +494,39 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 				configurationParameters.getStringOrDefault(SQL_ROLE_IDENTITY_TABLE_SELECT_BY_IDENTITY, str), identity);
 	}
 
+	/**
+	 * Get the SQL used to select the roles granted to a batch of identities.
+	 * The token <code>${guids}</code> is replaced with one <code>?</code>
+	 * parameter per identity GUID, and each row returned must include the
+	 * identity GUID column of the role identity table so it can be attributed
+	 * to the right identity. An empty string is returned if batched lookups
+	 * are not possible, i.e. there is no role identity table, or a custom per
+	 * identity query has been configured without a batch equivalent.
+	 * 
+	 * @param count number of identity GUIDs that will be bound
+	 * @return SQL or empty string
+	 */
+	public String getSelectIdentitiesRolesSQL(int count) {
+		String str = configurationParameters.getStringOrNull(SQL_ROLE_IDENTITY_TABLE_SELECT_BY_IDENTITIES);
+		if (StringUtil.isNullOrEmpty(str)) {
+			if (!StringUtil.isNullOrEmpty(configurationParameters.getStringOrNull(SQL_ROLE_IDENTITY_TABLE_SELECT_BY_IDENTITY))
+					|| getRoleTable().length() == 0 || getRoleIdentityTable().length() == 0)
+				return "";
+			str = "SELECT * FROM ${roleIdentityTable} WHERE ${roleIdentityTable.identityGuid} IN (${guids})";
+		}
+		StringBuilder params = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				params.append(',');
+			params.append('?');
+		}
+		return replaceTokens(str.replace("${guids}", params.toString()));
+	}
+
+	public String getRoleIdentityIdentityGuidColumn() {
+		return configurationParameters.getString(SQL_ROLE_IDENTITY_TABLE_IDENTITY_GUID);
+	}
+
 	public String getRoleIdentityTable() {
 		return configurationParameters.getString(SQL_ROLE_IDENTITY_TABLE);
 	}
@@ -493,6 +639,89 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 		return configurationParameters.getString(SQL_ROLE_TABLE_PRINCIPAL_NAME);
 	}
 
+	/**
+	 * The number of rows the driver should fetch at a time when listing
+	 * identities, the default is 1000. This is ignored for MySQL, where rows are
+	 * streamed one at a time unless <code>useCursorFetch=true</code> is set on
+	 * the URL.
+	 * 
+	 * @return fetch size
+	 */
+	public int getFetchSize() {
+		return configurationParameters.getIntegerOrDefault(JDBC_FETCH_SIZE, 1000);
+	}
+
+	/**
+	 * The number of identities whose roles are looked up with a single query
+	 * when listing identities, the default is 500. Zero disables batching, and
+	 * roles are then queried for each identity.
+	 * 
+	 * @return role batch size
+	 */
+	public int getRoleBatchSize() {
+		return configurationParameters.getIntegerOrDefault(JDBC_ROLE_BATCH_SIZE, 500);
+	}
+
+	/**
+	 * The maximum number of connections the connector may have open at once,
+	 * the default is 10.
+	 * 
+	 * @return pool size
+	 */
+	public int getPoolSize() {
+		return configurationParameters.getIntegerOrDefault(JDBC_POOL_SIZE, 10);
+	}
+
+	/**
+	 * The number of seconds to wait for a connection when all are in use, the
+	 * default is 30.
+	 * 
+	 * @return pool timeout
+	 */
+	public int getPoolTimeout() {
+		return configurationParameters.getIntegerOrDefault(JDBC_POOL_TIMEOUT, 30);
+	}
+
+	/**
+	 * The query used to check a pooled connection is still usable. When not
+	 * set, the driver's own validity check is used.
+	 * 
+	 * @return validation query
+	 */
+	public String getValidationQuery() {
+		return configurationParameters.getStringOrNull(JDBC_VALIDATION_QUERY);
+	}
+
+	/**
+	 * The number of seconds a pooled connection is kept before it is replaced,
+	 * the default is 1800. Zero keeps connections for ever.
+	 * 
+	 * @return maximum connection lifetime
+	 */
+	public int getMaxLifetime() {
+		return configurationParameters.getIntegerOrDefault(JDBC_MAX_LIFETIME, 1800);
+	}
+
+	/**
+	 * The number of seconds a connection may be held before a possible leak is
+	 * logged, the default is 0 which disables leak detection.
+	 * 
+	 * @return leak detection threshold
+	 */
+	public int getLeakDetectionThreshold() {
+		return configurationParameters.getIntegerOrDefault(JDBC_LEAK_DETECTION_THRESHOLD, 0);
+	}
+
+	/**
+	 * The number of prepared statements cached for each pooled connection, the
+	 * default is 50. Zero disables statement caching.
+	 * 
+	 * @return statement cache size
+	 */
+	public int getStatementCacheSize() {
+		return configurationParameters.getIntegerOrDefault(JDBC_STATEMENT_CACHE_SIZE, 50);
+	}
+
 	public String getCharset() {
 		return configurationParameters.getStringOrDefault(CHARSET, "UTF-8");
 	}
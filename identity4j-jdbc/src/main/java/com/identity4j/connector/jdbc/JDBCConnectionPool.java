@@ -0,0 +1,597 @@
+package com.identity4j.connector.jdbc;
+
+/*
+ * #%L
+ * Identity4J JDBC
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.util.StringUtil;
+
+/**
+ * A small bounded JDBC connection pool. Connections are created on demand up
+ * to a maximum size, validated before they are handed out, retired once they
+ * reach their maximum lifetime, and a warning (including the stack of the
+ * borrower) is logged for any connection held longer than the leak detection
+ * threshold.
+ * <p>
+ * Each connection also keeps a small least recently used cache of prepared
+ * statements, keyed by their SQL. Closing a statement obtained with
+ * {@link Connection#prepareStatement(String)} returns it to the cache, so the
+ * same query prepared again on that connection reuses the server side plan.
+ * <p>
+ * Connections returned by {@link #getConnection()} must be closed to return
+ * them to the pool.
+ */
+public class JDBCConnectionPool implements DataSource, Closeable {
+
+	static Log log = LogFactory.getLog(JDBCConnectionPool.class);
+
+	/**
+	 * Creates new physical connections for the pool.
+	 */
+	public interface ConnectionFactory {
+		Connection createConnection() throws SQLException;
+	}
+
+	private final ConnectionFactory factory;
+	private final int maxSize;
+	private final Semaphore permits;
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+	private final Map<PooledConnection, Boolean> leased = new ConcurrentHashMap<PooledConnection, Boolean>();
+
+	private long timeout = 30000;
+	private long maxLifetime = 1800000;
+	private long leakDetectionThreshold;
+	private String validationQuery;
+	private int validationTimeout = 5;
+	private int statementCacheSize = 50;
+	private volatile boolean closed;
+	private PrintWriter logWriter;
+	private int loginTimeout;
+
+	public JDBCConnectionPool(ConnectionFactory factory, int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1.");
+		}
+		this.factory = factory;
+		this.maxSize = maxSize;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Set how long to wait for a connection when all are in use, in
+	 * milliseconds.
+	 *
+	 * @param timeout timeout
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Set the age in milliseconds after which a connection is closed rather
+	 * than reused. Zero means connections live for ever.
+	 *
+	 * @param maxLifetime maximum lifetime
+	 */
+	public void setMaxLifetime(long maxLifetime) {
+		this.maxLifetime = maxLifetime;
+	}
+
+	/**
+	 * Set how long in milliseconds a connection may be held before it is
+	 * reported as a possible leak. Zero disables leak detection.
+	 *
+	 * @param leakDetectionThreshold threshold
+	 */
+	public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold;
+	}
+
+	/**
+	 * Set the query used to check an idle connection is still usable before it
+	 * is handed out. When not set, {@link Connection#isValid(int)} is used.
+	 *
+	 * @param validationQuery validation query
+	 */
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	/**
+	 * Set the number of seconds to wait for a connection to be validated.
+	 *
+	 * @param validationTimeout validation timeout
+	 */
+	public void setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+	}
+
+	/**
+	 * Set the number of prepared statements cached for each connection. Zero
+	 * disables statement caching.
+	 *
+	 * @param statementCacheSize statement cache size
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Get the number of connections currently borrowed from the pool.
+	 *
+	 * @return active connections
+	 */
+	public int getActiveCount() {
+		return leased.size();
+	}
+
+	/**
+	 * Get the number of open connections waiting in the pool.
+	 *
+	 * @return idle connections
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed.");
+		}
+		checkForLeaks();
+		try {
+			if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+				throw new SQLTimeoutException(
+						String.format("Timed out after %dms waiting for one of %d connections.", timeout, maxSize));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a connection.", e);
+		}
+
+		try {
+			PooledConnection pooled;
+			while ((pooled = idle.pollFirst()) != null) {
+				if (!isExpired(pooled) && isValid(pooled.connection)) {
+					break;
+				}
+				closeQuietly(pooled.connection);
+			}
+			if (pooled == null) {
+				pooled = new PooledConnection(factory.createConnection());
+			}
+			return pooled.lease();
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Pooled connections all use the same credentials.");
+	}
+
+	/**
+	 * Close all idle connections and refuse any further requests. Connections
+	 * currently borrowed are closed when they are returned.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		PooledConnection pooled;
+		while ((pooled = idle.pollFirst()) != null) {
+			closeQuietly(pooled.connection);
+		}
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		this.logWriter = out;
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		this.loginTimeout = seconds;
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return loginTimeout;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("Not a wrapper for " + iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	/**
+	 * Log a warning for every borrowed connection that has been held longer
+	 * than the leak detection threshold. Each connection is only reported
+	 * once.
+	 */
+	public void checkForLeaks() {
+		if (leakDetectionThreshold > 0) {
+			long now = System.currentTimeMillis();
+			for (PooledConnection pooled : leased.keySet()) {
+				if (!pooled.leakReported && now - pooled.leasedAt > leakDetectionThreshold) {
+					pooled.leakReported = true;
+					log.warn(String.format("Connection has been held for more than %dms, it may have been leaked.",
+							leakDetectionThreshold), pooled.borrower);
+				}
+			}
+		}
+	}
+
+	private boolean isExpired(PooledConnection pooled) {
+		return maxLifetime > 0 && System.currentTimeMillis() - pooled.created > maxLifetime;
+	}
+
+	private boolean isValid(Connection connection) {
+		try {
+			if (connection.isClosed()) {
+				return false;
+			}
+			if (StringUtil.isNullOrEmpty(validationQuery)) {
+				return connection.isValid(validationTimeout);
+			}
+			Statement statement = connection.createStatement();
+			try {
+				statement.setQueryTimeout(validationTimeout);
+				statement.execute(validationQuery);
+				return true;
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			log.debug("Pooled connection failed validation.", e);
+			return false;
+		}
+	}
+
+	private void release(PooledConnection pooled) {
+		try {
+			leased.remove(pooled);
+			boolean reuse = !closed && !isExpired(pooled) && !pooled.connection.isClosed();
+			if (reuse) {
+				try {
+					if (!pooled.connection.getAutoCommit()) {
+						pooled.connection.rollback();
+						pooled.connection.setAutoCommit(true);
+					}
+				} catch (SQLException e) {
+					reuse = false;
+				}
+			}
+			if (reuse) {
+				idle.offerFirst(pooled);
+			} else {
+				closeQuietly(pooled.connection);
+			}
+		} catch (SQLException e) {
+			closeQuietly(pooled.connection);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+		}
+	}
+
+	/**
+	 * A physical connection along with its pool bookkeeping.
+	 */
+	private final class PooledConnection {
+		private final Connection connection;
+		private final long created = System.currentTimeMillis();
+		private long leasedAt;
+		private Throwable borrower;
+		private volatile boolean leakReported;
+		private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(
+				16, 0.75f, true);
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * Get a prepared statement for the SQL, reusing an idle cached one if
+		 * there is one. If the cached statement is already in use (the same
+		 * query open twice on one connection), an uncached statement is
+		 * returned instead.
+		 */
+		private PreparedStatement prepareStatement(String sql) throws SQLException {
+			CachedStatement cached;
+			synchronized (statements) {
+				cached = statements.get(sql);
+				if (cached != null && !cached.inUse && cached.statement.isClosed()) {
+					/* Closed behind our back, e.g. through ResultSet.getStatement() */
+					statements.remove(sql);
+					cached = null;
+				}
+				if (cached != null) {
+					if (cached.inUse) {
+						return connection.prepareStatement(sql);
+					}
+					cached.inUse = true;
+					return cached.open();
+				}
+			}
+			PreparedStatement statement = connection.prepareStatement(sql);
+			try {
+				cached = new CachedStatement(statement);
+			} catch (SQLException e) {
+				statement.close();
+				throw e;
+			}
+			cached.inUse = true;
+			synchronized (statements) {
+				if (!statements.containsKey(sql)) {
+					statements.put(sql, cached);
+					evictStatements();
+				} else {
+					cached.evicted = true;
+				}
+			}
+			return cached.open();
+		}
+
+		private void evictStatements() {
+			Iterator<CachedStatement> it = statements.values().iterator();
+			while (statements.size() > statementCacheSize && it.hasNext()) {
+				CachedStatement eldest = it.next();
+				it.remove();
+				eldest.evicted = true;
+				if (!eldest.inUse) {
+					eldest.closeQuietly();
+				}
+			}
+		}
+
+		/**
+		 * A prepared statement kept open for reuse, and the proxy handed out
+		 * for it while it is in use. Settings a borrower changes are put back
+		 * when it is returned, so the next borrower starts with the driver's
+		 * defaults. A statement changed in a way that cannot be undone is
+		 * closed instead of being reused.
+		 */
+		private final class CachedStatement implements InvocationHandler {
+			private final PreparedStatement statement;
+			private final int fetchSize;
+			private final int fetchDirection;
+			private final int maxRows;
+			private final int maxFieldSize;
+			private final int queryTimeout;
+			private boolean inUse;
+			private boolean evicted;
+			private boolean configured;
+			private boolean tainted;
+			private PreparedStatement handle;
+
+			private CachedStatement(PreparedStatement statement) throws SQLException {
+				this.statement = statement;
+				fetchSize = statement.getFetchSize();
+				fetchDirection = statement.getFetchDirection();
+				maxRows = statement.getMaxRows();
+				maxFieldSize = statement.getMaxFieldSize();
+				queryTimeout = statement.getQueryTimeout();
+			}
+
+			private void reset() throws SQLException {
+				statement.clearParameters();
+				statement.clearWarnings();
+				if (configured) {
+					/* Rows first, some drivers refuse a fetch size above it */
+					statement.setMaxRows(maxRows);
+					statement.setFetchSize(fetchSize);
+					statement.setFetchDirection(fetchDirection);
+					statement.setMaxFieldSize(maxFieldSize);
+					statement.setQueryTimeout(queryTimeout);
+					configured = false;
+				}
+			}
+
+			private PreparedStatement open() {
+				handle = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+						new Class<?>[] { PreparedStatement.class }, this);
+				return handle;
+			}
+
+			private void closeQuietly() {
+				try {
+					statement.close();
+				} catch (SQLException e) {
+				}
+			}
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("close")) {
+					synchronized (statements) {
+						if (proxy != handle) {
+							return null;
+						}
+						handle = null;
+						if (evicted) {
+							inUse = false;
+							closeQuietly();
+							return null;
+						}
+					}
+					boolean reusable = !tainted;
+					if (reusable) {
+						try {
+							reset();
+						} catch (SQLException e) {
+							reusable = false;
+						}
+					}
+					synchronized (statements) {
+						inUse = false;
+						if (!reusable || evicted) {
+							statements.values().remove(this);
+							closeQuietly();
+						}
+					}
+					return null;
+				} else if (name.equals("isClosed")) {
+					return proxy != handle || statement.isClosed();
+				} else if (name.equals("equals")) {
+					return proxy == args[0];
+				} else if (name.equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				} else if (proxy != handle) {
+					throw new SQLException("Statement is closed.");
+				} else if (name.equals("setFetchSize") || name.equals("setFetchDirection") || name.equals("setMaxRows")
+						|| name.equals("setLargeMaxRows") || name.equals("setMaxFieldSize")
+						|| name.equals("setQueryTimeout")) {
+					configured = true;
+				} else if (name.equals("setCursorName") || name.equals("setEscapeProcessing")
+						|| name.equals("setPoolable") || name.equals("closeOnCompletion")) {
+					tainted = true;
+				}
+				try {
+					return method.invoke(statement, args);
+				} catch (InvocationTargetException ite) {
+					throw ite.getTargetException();
+				}
+			}
+		}
+
+		private Connection lease() {
+			leasedAt = System.currentTimeMillis();
+			leakReported = false;
+			borrower = leakDetectionThreshold > 0 ? new Exception("Connection borrowed here") : null;
+			leased.put(this, Boolean.TRUE);
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new Handle(this));
+		}
+	}
+
+	/**
+	 * The connection handed to callers. Closing it returns the physical
+	 * connection to the pool, after which the handle may no longer be used.
+	 */
+	private final class Handle implements InvocationHandler {
+		private volatile PooledConnection pooled;
+
+		private Handle(PooledConnection pooled) {
+			this.pooled = pooled;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("close")) {
+				PooledConnection p;
+				synchronized (this) {
+					p = pooled;
+					pooled = null;
+				}
+				if (p != null) {
+					release(p);
+				}
+				return null;
+			} else if (name.equals("isClosed")) {
+				return pooled == null || pooled.connection.isClosed();
+			} else if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (name.equals("toString")) {
+				return "Pooled" + (pooled == null ? "[closed]" : pooled.connection.toString());
+			}
+			PooledConnection p = pooled;
+			if (p == null) {
+				throw new SQLException("Connection has been returned to the pool.");
+			}
+			if (statementCacheSize > 0 && name.equals("prepareStatement") && args.length == 1) {
+				return p.prepareStatement((String) args[0]);
+			}
+			try {
+				return method.invoke(p.connection, args);
+			} catch (InvocationTargetException ite) {
+				throw ite.getTargetException();
+			}
+		}
+	}
+}
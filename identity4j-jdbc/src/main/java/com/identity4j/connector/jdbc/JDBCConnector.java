@@ -22,9 +22,12 @@ package com.identity4j.connector.jdbc;
  * #L%
  */
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -35,14 +38,20 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -69,8 +78,12 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 
 	protected final static EncoderManager encoderManager = DefaultEncoderManager.getInstance();
 
-	protected Connection connect = null;
+	private DataSource dataSource;
+	private final ThreadLocal<Lease> lease = new ThreadLocal<Lease>();
 	protected JDBCConfiguration configuration = null;
+	private final ThreadLocal<Columns> columns = new ThreadLocal<Columns>();
+	private final ThreadLocal<Map<String, Role>> listingRoles = new ThreadLocal<Map<String, Role>>();
+	private final ThreadLocal<Boolean> rolesDeferred = new ThreadLocal<Boolean>();
 
 	static Log log = LogFactory.getLog(JDBCConnector.class);
 
@@ -118,48 +131,95 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		return caps;
 	}
 
+	/**
+	 * Streams all identities from an open forward only, read only cursor. The
+	 * statement and result set stay open until the iterator is exhausted or
+	 * closed. When a role batch size is configured, the roles for each batch
+	 * of identities are looked up with a single query before the identities
+	 * are returned.
+	 * <p>
+	 * Role lookups never use the cursor's connection, as some drivers (e.g.
+	 * MySQL when streaming) allow no other statement on a connection until its
+	 * result set has been read. A listing therefore uses two connections from
+	 * the pool.
+	 */
 	@Override
 	public ResultIterator<Identity> allIdentities(OperationContext opContext) throws ConnectorException {
-
-		List<Identity> identities = new ArrayList<Identity>();
+		Connection connection = null;
 		Statement statement = null;
 		ResultSet resultSet = null;
 		try {
-			statement = connect.createStatement();
+			/*
+			 * The cursor outlives this call, so it gets a connection of its own
+			 * that is returned to the pool when the iterator is closed.
+			 */
+			connection = getDataSource().getConnection();
+			statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			configureCursor(connection, statement);
 			String sql = configuration.getSelectIdentitiesSQL();
 			resultSet = statement.executeQuery(sql);
-
-			while (resultSet.next()) {
-				identities.add(createIdentity(resultSet));
+			IdentityMapper mapper = new IdentityMapper();
+			int batchSize = configuration.getRoleBatchSize();
+			if (batchSize > 0 && configuration.getSelectIdentitiesRolesSQL(1).length() > 0) {
+				return new RoleBatchIterator(connection,
+						new ResultSetIterator<Identity>(statement, resultSet, mapper, opContext.getTag()), mapper,
+						batchSize);
 			}
+			return new ResultSetIterator<Identity>(connection, statement, resultSet, mapper, opContext.getTag());
 		} catch (SQLException e) {
-			throw new ConnectorException(e);
-		} finally {
-			closeStatement(statement);
 			closeResultSet(resultSet);
+			closeStatement(statement);
+			closeConnection(connection);
+			throw new ConnectorException(e);
 		}
+	}
 
-		return ResultIterator.createDefault(identities.iterator(), opContext.getTag());
+	/**
+	 * Configure the connection and statement of an identity listing so the
+	 * driver streams rows rather than reading the whole result. Most drivers
+	 * just need a fetch size, but MySQL Connector/J only streams with a fetch
+	 * size of {@link Integer#MIN_VALUE} (unless <code>useCursorFetch=true</code>
+	 * is set on the URL), and the PostgreSQL driver ignores the fetch size
+	 * unless auto commit is off.
+	 * 
+	 * @param connection connection the listing has to itself
+	 * @param statement statement
+	 * @throws SQLException on error
+	 */
+	protected void configureCursor(Connection connection, Statement statement) throws SQLException {
+		String driver = configuration.getDriverClassName();
+		if (driver.startsWith("com.mysql.") && !configuration.generateJDBCUrl().contains("useCursorFetch=true")) {
+			statement.setFetchSize(Integer.MIN_VALUE);
+		} else {
+			statement.setFetchSize(configuration.getFetchSize());
+		}
+		if (driver.startsWith("org.postgresql.")) {
+			/* The pool rolls back and restores auto commit when the connection is returned */
+			connection.setAutoCommit(false);
+		}
 	}
 
 	public Identity getIdentityByName(String name, boolean withGroups) throws PrincipalNotFoundException, ConnectorException {
-		String sql = configuration.getSelectIdentitySQL(name);
+		String sql = configuration.getSelectIdentityQuery();
 		if (sql.equals("")) {
 			return super.getIdentityByName(name);
 		} else {
-			Statement statement = null;
+			NamedParameterStatement statement = null;
 			ResultSet resultSet = null;
+			Connection connection = null;
 			try {
-				statement = connect.createStatement();
-				resultSet = statement.executeQuery(sql);
+				connection = getConnection();
+				statement = prepareQuery(connection, sql, Collections.singletonMap("principalName", name));
+				resultSet = statement.executeQuery();
 				if (resultSet.next()) {
 					return createIdentity(resultSet);
 				}
 			} catch (SQLException e) {
 				throw new ConnectorException(e);
 			} finally {
-				closeStatement(statement);
 				closeResultSet(resultSet);
+				closeStatement(statement);
+				releaseConnection(connection);
 			}
 		}
 		throw new PrincipalNotFoundException(name + " not found.");
@@ -168,23 +228,29 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	protected List<Role> getGrantedRoles(Identity identity) {
 
 		List<Role> roles = new ArrayList<Role>();
-		Statement statement = null;
+		NamedParameterStatement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.createStatement();
-			String sql = configuration.getSelectIdentitiesRolesSQL(identity);
+			String sql = configuration.getSelectIdentitiesRolesQuery(identity);
 			if (sql.length() > 0) {
-				resultSet = statement.executeQuery(sql);
+				Map<String, String> parameters = new HashMap<String, String>();
+				parameters.put("guid", identity.getGuid());
+				parameters.put("principalName", configuration.getProcessedPrincipalName(identity));
+				connection = getConnection();
+				statement = prepareQuery(connection, sql, parameters);
+				resultSet = statement.executeQuery();
 
 				while (resultSet.next()) {
-					roles.add(createRoleFromGrantResults(resultSet));
+					roles.add(getCachedRole(createRoleFromGrantResults(resultSet)));
 				}
 			}
 		} catch (SQLException e) {
 			throw new ConnectorException(e);
 		} finally {
-			closeStatement(statement);
 			closeResultSet(resultSet);
+			closeStatement(statement);
+			releaseConnection(connection);
 		}
 
 		return roles;
@@ -194,10 +260,78 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		return createRole(resultSet);
 	}
 
+	/**
+	 * Look up the roles granted to a batch of identities using a single
+	 * query, and set them on each identity.
+	 * 
+	 * @param identities identities
+	 */
+	protected void setGrantedRoles(List<Identity> identities) {
+		Map<String, List<Role>> roles = new HashMap<String, List<Role>>();
+		for (Identity identity : identities) {
+			roles.put(identity.getGuid(), new ArrayList<Role>());
+		}
+
+		PreparedStatement statement = null;
+		ResultSet resultSet = null;
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			statement = connection.prepareStatement(configuration.getSelectIdentitiesRolesSQL(roles.size()));
+			ParameterMetaData metaData = NamedParameterStatement.getParameterMetaData(statement);
+			int idx = 1;
+			for (String guid : roles.keySet()) {
+				NamedParameterStatement.setValue(statement, metaData, idx++, guid);
+			}
+			resultSet = statement.executeQuery();
+			String guidColumn = configuration.getRoleIdentityIdentityGuidColumn();
+			while (resultSet.next()) {
+				List<Role> granted = roles.get(resultSet.getString(guidColumn));
+				if (granted != null) {
+					granted.add(getCachedRole(createRoleFromGrantResults(resultSet)));
+				}
+			}
+		} catch (SQLException e) {
+			throw new ConnectorException(e);
+		} finally {
+			closeStatement(statement);
+			closeResultSet(resultSet);
+			releaseConnection(connection);
+		}
+
+		for (Identity identity : identities) {
+			List<Role> granted = roles.get(identity.getGuid());
+			identity.setRoles(granted.toArray(new Role[0]));
+		}
+	}
+
+	/**
+	 * Get the role instance already seen with the same name during the
+	 * current identity listing, so identities that share a role share the
+	 * same object. Outside of a listing the role is returned as is, so
+	 * single lookups always see the current state of the role.
+	 * 
+	 * @param role role
+	 * @return cached role
+	 */
+	protected Role getCachedRole(Role role) {
+		Map<String, Role> roleCache = listingRoles.get();
+		if (roleCache == null || role.getPrincipalName() == null) {
+			return role;
+		}
+		Role cached = roleCache.get(role.getPrincipalName());
+		if (cached == null) {
+			roleCache.put(role.getPrincipalName(), role);
+			cached = role;
+		}
+		return cached;
+	}
+
 	protected Date getAsDate(ResultSet resultSet, int colidx) throws SQLException {
 		// TODO This makes some big assumptions and will need tweaking
 		// once we get some real use
-		int columnType = resultSet.getMetaData().getColumnType(colidx);
+		Columns c = columns.get();
+		int columnType = c == null ? resultSet.getMetaData().getColumnType(colidx) : c.types[colidx];
 		if (columnType == Types.DATE) {
 			java.sql.Date date = resultSet.getDate(colidx);
 			if (date != null)
@@ -250,7 +384,9 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 			}
 		}
 
-		i.setRoles(getGrantedRoles(i));
+		if (rolesDeferred.get() == null) {
+			i.setRoles(getGrantedRoles(i));
+		}
 
 		AccountStatus status = new AccountStatus();
 		if (!StringUtil.isNullOrEmpty(configuration.getIdentityEnabledColumn())) {
@@ -304,12 +440,74 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	}
 
 	private int getColumnIndex(String name, ResultSet resultSet) throws SQLException {
-		ResultSetMetaData metaData = resultSet.getMetaData();
-		for (int i = 0; i < metaData.getColumnCount(); i++) {
-			if (metaData.getColumnName(i + 1).equals(name))
-				return i;
+		Columns c = columns.get();
+		if (c == null) {
+			c = new Columns(resultSet.getMetaData());
+		}
+		Integer idx = c.indexes.get(name);
+		return idx == null ? -1 : idx;
+	}
+
+	/**
+	 * Column names and types of a result set, read from its meta-data once
+	 * rather than for every row.
+	 */
+	private final static class Columns {
+		private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+		private final int[] types;
+
+		private Columns(ResultSetMetaData metaData) throws SQLException {
+			types = new int[metaData.getColumnCount() + 1];
+			for (int i = 1; i < types.length; i++) {
+				String name = metaData.getColumnName(i);
+				if (!indexes.containsKey(name)) {
+					indexes.put(name, i);
+				}
+				types[i] = metaData.getColumnType(i);
+			}
+		}
+	}
+
+	/**
+	 * Maps the rows of one identity listing. The column meta-data is read
+	 * from the first row and kept for the rest of the listing, as are the
+	 * roles seen so far. Unless roles are looked up in batches, the roles of
+	 * each identity are looked up on a second connection held until the
+	 * listing is closed.
+	 */
+	private final class IdentityMapper implements JDBCResultsetBlock<Identity>, Closeable {
+		private final Map<String, Role> roles = new HashMap<String, Role>();
+		private Columns listingColumns;
+		private Connection lookupConnection;
+
+		@Override
+		public Identity apply(ResultSet resultSet) throws SQLException {
+			if (listingColumns == null) {
+				listingColumns = new Columns(resultSet.getMetaData());
+			}
+			if (lookupConnection == null && rolesDeferred.get() == null) {
+				lookupConnection = getDataSource().getConnection();
+			}
+			boolean bound = lookupConnection != null;
+			Lease previous = bound ? bindConnection(lookupConnection) : null;
+			columns.set(listingColumns);
+			listingRoles.set(roles);
+			try {
+				return createIdentity(resultSet);
+			} finally {
+				listingRoles.remove();
+				columns.remove();
+				if (bound) {
+					unbindConnection(previous);
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			closeConnection(lookupConnection);
+			lookupConnection = null;
 		}
-		return -1;
 	}
 
 	protected Role createRole(ResultSet resultSet) throws SQLException {
@@ -322,6 +520,169 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		return r;
 	}
 
+	/**
+	 * Reads identities from the cursor a batch at a time, attaching the roles
+	 * of the whole batch before any of its identities are returned.
+	 */
+	private final class RoleBatchIterator implements ResultIterator<Identity>, Closeable {
+		private final Connection connection;
+		private final ResultSetIterator<Identity> source;
+		private final IdentityMapper mapper;
+		private final int batchSize;
+		private Iterator<Identity> batch = Collections.<Identity>emptyList().iterator();
+
+		private RoleBatchIterator(Connection connection, ResultSetIterator<Identity> source, IdentityMapper mapper,
+				int batchSize) {
+			this.connection = connection;
+			this.source = source;
+			this.mapper = mapper;
+			this.batchSize = batchSize;
+		}
+
+		@Override
+		public String tag() {
+			return source.tag();
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (!batch.hasNext()) {
+				List<Identity> identities = new ArrayList<Identity>(batchSize);
+				rolesDeferred.set(Boolean.TRUE);
+				try {
+					while (identities.size() < batchSize && source.hasNext()) {
+						identities.add(source.next());
+					}
+				} finally {
+					rolesDeferred.remove();
+				}
+				if (!identities.isEmpty()) {
+					/* Looked up on a connection of its own, not the cursor's */
+					listingRoles.set(mapper.roles);
+					try {
+						setGrantedRoles(identities);
+					} catch (RuntimeException re) {
+						close();
+						throw re;
+					} finally {
+						listingRoles.remove();
+					}
+				}
+				if (identities.size() < batchSize) {
+					close();
+				}
+				batch = identities.iterator();
+			}
+			return batch.hasNext();
+		}
+
+		@Override
+		public Identity next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return batch.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			source.close();
+			closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Prepare a query that uses named parameters, binding those of the given
+	 * values that the query actually uses. With a pooled data source the
+	 * underlying statement is taken from the connection's statement cache, so
+	 * the statement should be closed as soon as it has been used.
+	 * <p>
+	 * A quoted string that contains tokens for any of the values, such as
+	 * <code>'${principalName}%'</code>, is bound as a single parameter with
+	 * the tokens replaced, so values are never spliced into the SQL. Values
+	 * are bound as numbers where the database describes the parameter as
+	 * numeric (see {@link NamedParameterStatement#setValue(String, String)}),
+	 * so numeric key columns work as they did when values were spliced in.
+	 * 
+	 * @param connection connection
+	 * @param sql query with named parameters
+	 * @param parameters parameter values
+	 * @return statement
+	 * @throws SQLException on error
+	 */
+	protected NamedParameterStatement prepareQuery(Connection connection, String sql, Map<String, String> parameters)
+			throws SQLException {
+		if (sql.indexOf("${") != -1) {
+			parameters = new HashMap<String, String>(parameters);
+			sql = bindLiterals(sql, parameters);
+		}
+		NamedParameterStatement statement = new NamedParameterStatement(connection, sql);
+		try {
+			for (Map.Entry<String, String> en : parameters.entrySet()) {
+				if (statement.hasParameter(en.getKey())) {
+					statement.setValue(en.getKey(), en.getValue());
+				}
+			}
+			return statement;
+		} catch (SQLException e) {
+			closeStatement(statement);
+			throw e;
+		}
+	}
+
+	/**
+	 * Replace each single quoted string containing tokens for the given values
+	 * with a named parameter, adding the string's value (tokens replaced) to
+	 * the values.
+	 */
+	static String bindLiterals(String sql, Map<String, String> parameters) {
+		StringBuilder buf = new StringBuilder(sql.length());
+		int literals = 0;
+		boolean inDoubleQuote = false;
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (c == '"') {
+				inDoubleQuote = !inDoubleQuote;
+			} else if (c == '\'' && !inDoubleQuote) {
+				int end = i + 1;
+				while (end < sql.length()
+						&& (sql.charAt(end) != '\'' || (end + 1 < sql.length() && sql.charAt(end + 1) == '\''))) {
+					end += sql.charAt(end) == '\'' ? 2 : 1;
+				}
+				String literal = sql.substring(i + 1, Math.min(end, sql.length())).replace("''", "'");
+				String value = literal;
+				for (Map.Entry<String, String> en : parameters.entrySet()) {
+					value = value.replace("${" + en.getKey() + "}", StringUtil.nonNull(en.getValue()));
+				}
+				if (value.equals(literal)) {
+					buf.append(sql, i, Math.min(end + 1, sql.length()));
+				} else {
+					String name = "literal" + literals++;
+					parameters.put(name, value);
+					buf.append(':').append(name);
+				}
+				i = end;
+				continue;
+			}
+			buf.append(c);
+		}
+		return buf.toString();
+	}
+
+	protected void closeStatement(NamedParameterStatement statement) {
+		if (statement != null) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+			}
+		}
+	}
+
 	protected void closeStatement(Statement statement) {
 		if (statement != null) {
 			try {
@@ -331,6 +692,15 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		}
 	}
 
+	protected void closeConnection(Connection connection) {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+			}
+		}
+	}
+
 	protected void closeResultSet(ResultSet resultSet) {
 		if (resultSet != null) {
 			try {
@@ -345,8 +715,10 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		List<Role> roles = new ArrayList<Role>();
 		Statement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.createStatement();
+			connection = getConnection();
+			statement = connection.createStatement();
 			resultSet = statement.executeQuery(configuration.getSelectRolesSQL());
 
 			while (resultSet.next()) {
@@ -357,31 +729,142 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 
 		return ResultIterator.createDefault(roles.iterator(), opContext.getTag());
 	}
 
 	public boolean isOpen() {
-		try {
-			return connect != null && !connect.isClosed();
-		} catch (SQLException e) {
-			return false;
-		}
+		return dataSource != null;
 	}
 
 	public void onClose() {
 		if (isOpen()) {
 			try {
-				connect.close();
-			} catch (SQLException e) {
+				if (dataSource instanceof Closeable) {
+					((Closeable) dataSource).close();
+				}
+			} catch (IOException e) {
 			} finally {
-				connect = null;
+				dataSource = null;
 				configuration = null;
 			}
 		}
 	}
 
+	/**
+	 * Get the data source connections are borrowed from.
+	 * 
+	 * @return data source
+	 * @throws ConnectorException if the connector is not open
+	 */
+	protected DataSource getDataSource() {
+		DataSource ds = dataSource;
+		if (ds == null) {
+			throw new ConnectorException("Connector is not open.");
+		}
+		return ds;
+	}
+
+	/**
+	 * Create the data source used for all connections. The default is a
+	 * bounded {@link JDBCConnectionPool} configured from the connector
+	 * configuration. Override to supply a different pool.
+	 * 
+	 * @param configuration configuration
+	 * @return data source
+	 * @throws SQLException on error
+	 */
+	protected DataSource createDataSource(final JDBCConfiguration configuration) throws SQLException {
+		final String url = configuration.generateJDBCUrl();
+		final String username = configuration.getJDBCUsername();
+		final char[] password = configuration.getJDBCPassword();
+		JDBCConnectionPool pool = new JDBCConnectionPool(new JDBCConnectionPool.ConnectionFactory() {
+			@Override
+			public Connection createConnection() throws SQLException {
+				if (username != null) {
+					return DriverManager.getConnection(url, username, password == null ? null : new String(password));
+				} else
+					return DriverManager.getConnection(url);
+			}
+		}, configuration.getPoolSize());
+		pool.setTimeout(configuration.getPoolTimeout() * 1000l);
+		pool.setValidationQuery(configuration.getValidationQuery());
+		pool.setMaxLifetime(configuration.getMaxLifetime() * 1000l);
+		pool.setLeakDetectionThreshold(configuration.getLeakDetectionThreshold() * 1000l);
+		pool.setStatementCacheSize(configuration.getStatementCacheSize());
+		return pool;
+	}
+
+	/**
+	 * Get a connection for the current thread. If the thread already holds
+	 * one (for example because it is part way through a transaction), the
+	 * same connection is returned. Every call must be paired with a call to
+	 * {@link #releaseConnection(Connection)}.
+	 * 
+	 * @return connection
+	 * @throws SQLException if a connection cannot be obtained
+	 */
+	protected Connection getConnection() throws SQLException {
+		Lease l = lease.get();
+		if (l == null) {
+			l = new Lease(getDataSource().getConnection(), true);
+			lease.set(l);
+		}
+		l.depth++;
+		return l.connection;
+	}
+
+	/**
+	 * Release a connection obtained from {@link #getConnection()}. It is
+	 * returned to the pool once the outermost caller on this thread has
+	 * released it.
+	 * 
+	 * @param connection connection, may be <code>null</code>
+	 */
+	protected void releaseConnection(Connection connection) {
+		Lease l = lease.get();
+		if (connection == null || l == null || l.connection != connection) {
+			return;
+		}
+		if (--l.depth == 0) {
+			lease.remove();
+			if (l.owned) {
+				closeConnection(connection);
+			}
+		}
+	}
+
+	private Lease bindConnection(Connection connection) {
+		Lease previous = lease.get();
+		lease.set(new Lease(connection, false));
+		return previous;
+	}
+
+	private void unbindConnection(Lease previous) {
+		if (previous == null) {
+			lease.remove();
+		} else {
+			lease.set(previous);
+		}
+	}
+
+	/**
+	 * A connection held by a thread, and how many callers on that thread are
+	 * currently using it.
+	 */
+	private final static class Lease {
+		private final Connection connection;
+		private final boolean owned;
+		private int depth;
+
+		private Lease(Connection connection, boolean owned) {
+			this.connection = connection;
+			this.owned = owned;
+		}
+	}
+
 	public boolean isReadOnly() {
 		// TODO Auto-generated method stub
 		return false;
@@ -390,8 +873,10 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	public Role createRole(Role role) throws ConnectorException {
 		Statement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.createStatement();
+			connection = getConnection();
+			statement = connection.createStatement();
 			String sql = configuration.getCreateRoleSQL(role);
 			statement.executeUpdate(sql);
 		} catch (SQLException e) {
@@ -399,6 +884,7 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 		return getRoleByName(role.getPrincipalName());
 	}
@@ -414,14 +900,17 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} else {
 			Statement statement = null;
 			ResultSet resultSet = null;
+			Connection connection = null;
 			try {
-				statement = connect.createStatement();
+				connection = getConnection();
+				statement = connection.createStatement();
 				statement.executeUpdate(sql);
 			} catch (SQLException e) {
 				throw new ConnectorException(e);
 			} finally {
 				closeStatement(statement);
 				closeResultSet(resultSet);
+				releaseConnection(connection);
 			}
 		}
 	}
@@ -435,14 +924,9 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 
 			// This will load the MySQL driver, each DB has its own driver
 			Class.forName(configuration.getDriverClassName());
-			// Setup the connection with the DB
-			String username = configuration.getJDBCUsername();
-			if (username != null) {
-				char[] password = configuration.getJDBCPassword();
-				connect = DriverManager.getConnection(configuration.generateJDBCUrl(), username,
-						password == null ? null : new String(password));
-			} else
-				connect = DriverManager.getConnection(configuration.generateJDBCUrl());
+			// Setup the connections with the DB, and check one can be made now
+			dataSource = createDataSource(configuration);
+			closeConnection(dataSource.getConnection());
 
 		} catch (Exception e) {
 			log.error("Failed to open JDBC connection " + configuration.generateJDBCUrl(), e);
@@ -451,6 +935,16 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 
 	}
 
+	/**
+	 * The password is encoded and usually compared locally, so the check is
+	 * run on the verification service, timed under the name of the connector
+	 * class.
+	 */
+	@Override
+	protected CompletableFuture<Boolean> verifyCredentials(final Identity identity, final char[] password) {
+		return getVerificationService().verify(getClass().getSimpleName(), () -> areCredentialsValid(identity, password));
+	}
+
 	@Override
 	protected boolean areCredentialsValid(Identity identity, char[] password) throws ConnectorException {
 
@@ -459,17 +953,25 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		String encodedPassword = new String(encoderManager.encode(password, configuration.getIdentityPasswordEncoding(),
 				configuration.getCharset(), null, null));
 
-		Statement statement = null;
+		NamedParameterStatement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.createStatement();
-			String sql = configuration.getSelectPasswordSQL(identity, encodedPassword, new String(password));
+			connection = getConnection();
+			String sql = configuration.getSelectPasswordQuery(identity);
 			if (sql.length() > 0) {
-				resultSet = statement.executeQuery(sql);
+				Map<String, String> parameters = new HashMap<String, String>();
+				parameters.put("principalName", configuration.getProcessedPrincipalName(identity));
+				parameters.put("guid", identity.getGuid());
+				parameters.put("encodedPassword", encodedPassword);
+				parameters.put("password", new String(password));
+				statement = prepareQuery(connection, sql, parameters);
+				resultSet = statement.executeQuery();
 				return resultSet.next();
 			} else {
-				sql = configuration.getSelectIdentitySQL(identity.getPrincipalName());
-				resultSet = statement.executeQuery(sql);
+				statement = prepareQuery(connection, configuration.getSelectIdentityQuery(),
+						Collections.singletonMap("principalName", identity.getPrincipalName()));
+				resultSet = statement.executeQuery();
 				if (resultSet.next()) {
 					String val = resultSet.getString(configuration.getIdentityPasswordColumn());
 					boolean ok = encoderManager.getEncoderById(configuration.getIdentityPasswordEncoding())
@@ -490,8 +992,9 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} catch (UnsupportedEncodingException e) {
 			throw new ConnectorException(e);
 		} finally {
-			closeStatement(statement);
 			closeResultSet(resultSet);
+			closeStatement(statement);
+			releaseConnection(connection);
 		}
 	}
 
@@ -503,8 +1006,10 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 
 		Statement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.createStatement();
+			connection = getConnection();
+			statement = connection.createStatement();
 			String sql = configuration.getUpdatePasswordSQL(identity, encodedPassword, new String(password),
 					forcePasswordChangeAtLogon, type);
 			statement.executeUpdate(sql);
@@ -513,6 +1018,7 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 
 	}
@@ -524,8 +1030,10 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 
 		Statement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.createStatement();
+			connection = getConnection();
+			statement = connection.createStatement();
 			String sql = configuration.getCreateSQL(identity, encodedPassword, new String(password));
 			statement.executeUpdate(sql);
 		} catch (SQLException e) {
@@ -533,6 +1041,7 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 		return getIdentityByName(identity.getPrincipalName());
 	}
@@ -541,54 +1050,63 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	public void updateIdentity(Identity identity) throws ConnectorException {
 		Statement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			connect.setAutoCommit(false);
+			connection = getConnection();
+			connection.setAutoCommit(false);
 			Identity existingIdentity = getIdentityByName(identity.getPrincipalName());
-			statement = connect.createStatement();
+			statement = connection.createStatement();
 			String sql = configuration.getUpdateSQL(identity);
 			statement.executeUpdate(sql);
 			updateIdentityRoles(existingIdentity, identity);
-			connect.commit();
+			connection.commit();
 		} catch (SQLException e) {
 			throw new ConnectorException(e);
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
-			try {
-				connect.setAutoCommit(true);
-			} catch (SQLException e) {
+			if (connection != null) {
+				try {
+					connection.setAutoCommit(true);
+				} catch (SQLException e) {
+				}
 			}
+			releaseConnection(connection);
 		}
 	}
 
 	protected void updateIdentityRoles(Identity oldIdentity, Identity newIdentity) throws SQLException {
 		Map<String, Role> oldRoles = getRoleNames(oldIdentity);
 		Map<String, Role> newRoles = getRoleNames(newIdentity);
-
-		/* Revoke any roles that are no longer valid */
-		for (Map.Entry<String, Role> n : oldRoles.entrySet()) {
-			if (!newRoles.containsKey(n.getKey())) {
-				Statement statement = connect.createStatement();
-				try {
-					String sql = configuration.getRevokeFromRoleSQL(oldIdentity, n.getValue());
-					statement.executeUpdate(sql);
-				} finally {
-					statement.close();
+		Connection connection = getConnection();
+		try {
+			/* Revoke any roles that are no longer valid */
+			for (Map.Entry<String, Role> n : oldRoles.entrySet()) {
+				if (!newRoles.containsKey(n.getKey())) {
+					Statement statement = connection.createStatement();
+					try {
+						String sql = configuration.getRevokeFromRoleSQL(oldIdentity, n.getValue());
+						statement.executeUpdate(sql);
+					} finally {
+						statement.close();
+					}
 				}
 			}
-		}
-		
-		/* Add any roles that are now granted */
-		for (Map.Entry<String, Role> n : newRoles.entrySet()) {
-			if (!oldRoles.containsKey(n.getKey())) {
-				Statement statement = connect.createStatement();
-				try {
-					String sql = configuration.getGrantToRoleSQL(newIdentity, n.getValue());
-					statement.executeUpdate(sql);
-				} finally {
-					statement.close();
+
+			/* Add any roles that are now granted */
+			for (Map.Entry<String, Role> n : newRoles.entrySet()) {
+				if (!oldRoles.containsKey(n.getKey())) {
+					Statement statement = connection.createStatement();
+					try {
+						String sql = configuration.getGrantToRoleSQL(newIdentity, n.getValue());
+						statement.executeUpdate(sql);
+					} finally {
+						statement.close();
+					}
 				}
 			}
+		} finally {
+			releaseConnection(connection);
 		}
 	}
 
@@ -609,14 +1127,17 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} else {
 			Statement statement = null;
 			ResultSet resultSet = null;
+			Connection connection = null;
 			try {
-				statement = connect.createStatement();
+				connection = getConnection();
+				statement = connection.createStatement();
 				statement.executeUpdate(sql);
 			} catch (SQLException e) {
 				throw new ConnectorException(e);
 			} finally {
 				closeStatement(statement);
 				closeResultSet(resultSet);
+				releaseConnection(connection);
 			}
 		}
 
@@ -626,8 +1147,10 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	public void lockIdentity(Identity identity) throws ConnectorException {
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.prepareStatement(
+			connection = getConnection();
+			statement = connection.prepareStatement(
 					configuration.getSql(String.format("UPDATE ${identityTable} SET ${identityTableLocked} = ?")));
 			statement.setObject(1, configuration.getIdentityLockedValue());
 			statement.executeUpdate();
@@ -636,6 +1159,7 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 
 	}
@@ -644,8 +1168,10 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	public void disableIdentity(Identity identity) {
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.prepareStatement(
+			connection = getConnection();
+			statement = connection.prepareStatement(
 					configuration.getSql(String.format("UPDATE ${identityTable} SET ${identityTableEnabled} = ?")));
 			statement.setObject(1, configuration.getIdentityDisabledValue());
 			statement.executeUpdate();
@@ -654,6 +1180,7 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 
 	}
@@ -662,8 +1189,10 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	public void enableIdentity(Identity identity) {
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.prepareStatement(
+			connection = getConnection();
+			statement = connection.prepareStatement(
 					configuration.getSql(String.format("UPDATE ${identityTable} SET ${identityTableEnabled} = ?")));
 			statement.setObject(1, configuration.getIdentityEnabledValue());
 			statement.executeUpdate();
@@ -672,6 +1201,7 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 	}
 
@@ -679,9 +1209,11 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	public void unlockIdentity(Identity identity) throws ConnectorException {
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
+			connection = getConnection();
 			String sql = configuration.getSql(String.format("UPDATE ${identityTable} SET ${identityTableLocked} = ?"));
-			statement = connect.prepareStatement(sql);
+			statement = connection.prepareStatement(sql);
 			statement.setObject(1, configuration.getIdentityUnlockedValue());
 			statement.executeUpdate();
 		} catch (SQLException e) {
@@ -689,6 +1221,7 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 
 	}
@@ -715,8 +1248,11 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	 * @param connection
 	 */
 	protected void autoCommitTrue(Connection connection) {
+		if (connection == null) {
+			return;
+		}
 		try {
-			connect.setAutoCommit(true);
+			connection.setAutoCommit(true);
 		} catch (SQLException e) {
 			throw new ConnectorException("Problem in setting auto commit to true.", e);
 		}
@@ -728,8 +1264,11 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	 * @param connection
 	 */
 	protected void rollback(Connection connection) {
+		if (connection == null) {
+			return;
+		}
 		try {
-			connect.rollback();
+			connection.rollback();
 		} catch (SQLException e) {
 			throw new ConnectorException("Problem in rollback.", e);
 		}
@@ -751,8 +1290,10 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	protected <T> T jdbcAction(String sql, Object[] params, JDBCResultsetBlock<T> block) {
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.prepareStatement(sql);
+			connection = getConnection();
+			statement = connection.prepareStatement(sql);
 
 			for (int i = 0; i < params.length; i++) {
 				statement.setObject(i + 1, params[i]);
@@ -766,6 +1307,7 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 		} finally {
 			closeResultSet(resultSet);
 			closeStatement(statement);
+			releaseConnection(connection);
 		}
 	}
 
@@ -780,8 +1322,10 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	 */
 	protected void updateHelper(String sql, Object... params) {
 		PreparedStatement statement = null;
+		Connection connection = null;
 		try {
-			statement = connect.prepareStatement(sql);
+			connection = getConnection();
+			statement = connection.prepareStatement(sql);
 			for (int i = 0; i < params.length; i++) {
 				statement.setObject(i + 1, params[i]);
 			}
@@ -791,6 +1335,7 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 			throw new ConnectorException(e);
 		} finally {
 			closeStatement(statement);
+			releaseConnection(connection);
 		}
 	}
 	/**
@@ -799,15 +1344,18 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	 * @param block
 	 */
 	protected void inTransaction(JDBCTransaction tx) {
+		Connection connection = null;
 		try {
-			connect.setAutoCommit(false);
-			tx.apply(connect);
-			connect.commit();
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			tx.apply(connection);
+			connection.commit();
 		} catch (SQLException e) {
-			rollback(connect);
+			rollback(connection);
 			throw new ConnectorException(e);
 		} finally {
-			autoCommitTrue(connect);
+			autoCommitTrue(connection);
+			releaseConnection(connection);
 		}
 	}
 	/**
@@ -816,11 +1364,14 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	 * @param block
 	 */
 	protected <T> T jdbcAction(JDBCAction<T> tx) {
+		Connection connection = null;
 		try {
-			return tx.apply(connect);
+			connection = getConnection();
+			return tx.apply(connection);
 		} catch (SQLException e) {
 			throw new ConnectorException(e);
 		} finally {
+			releaseConnection(connection);
 		}
 	}
 
@@ -835,12 +1386,14 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 	 */
 	protected void inTransaction(String sql, JDBCBlock block) {
 		Statement statement = null;
+		Connection connection = null;
 		try {
-			connect.setAutoCommit(false);
+			connection = getConnection();
+			connection.setAutoCommit(false);
 			if (!StringUtil.isNullOrEmpty(sql)) {
-				statement = connect.prepareStatement(sql);
+				statement = connection.prepareStatement(sql);
 			} else {
-				statement = connect.createStatement();
+				statement = connection.createStatement();
 			}
 
 			block.apply(statement);
@@ -849,13 +1402,14 @@ public abstract class JDBCConnector<P extends ConnectorConfigurationParameters>
 
 			checkBatchCommit(codes);
 
-			connect.commit();
+			connection.commit();
 		} catch (SQLException e) {
-			rollback(connect);
+			rollback(connection);
 			throw new ConnectorException(e);
 		} finally {
-			autoCommitTrue(connect);
+			autoCommitTrue(connection);
 			closeStatement(statement);
+			releaseConnection(connection);
 		}
 	}
 
@@ -1,12 +1,17 @@
 package com.identity4j.connector.jdbc;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -18,10 +23,28 @@ public class NamedParameterStatement {
 	/**
 	 * Maps parameter names to arrays of ints which are the parameter indices.
 	 */
-	private final Map<String, List<Integer>> indexMap;
+	private Map<String, List<Integer>> indexMap;
 
 	private Connection connection;
 
+	/** Types of the parameters, when they have been looked up. */
+	private ParameterMetaData parameterMetaData;
+	private boolean parameterMetaDataRead;
+
+	/**
+	 * Queries that have already been parsed, so the same configured SQL is only
+	 * parsed once however many times it is prepared.
+	 */
+	private final static Map<String, ParsedQuery> parsedQueries = Collections
+			.synchronizedMap(new LinkedHashMap<String, ParsedQuery>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, ParsedQuery> eldest) {
+					return size() > 256;
+				}
+			});
+
 	/**
 	 * Creates a NamedParameterStatement. Wraps a call to
 	 * c.{@link Connection#prepareStatement(java.lang.String) prepareStatement}.
@@ -34,9 +57,9 @@ public class NamedParameterStatement {
 	 *             if the statement could not be created
 	 */
 	public NamedParameterStatement(Connection connection, String query) throws SQLException {
-		indexMap = new HashMap<String, List<Integer>>();
-		String parsedQuery = parse(query, indexMap);
-		statement = connection.prepareStatement(parsedQuery);
+		ParsedQuery parsedQuery = getParsedQuery(query);
+		indexMap = parsedQuery.indexMap;
+		statement = connection.prepareStatement(parsedQuery.query);
 	}
 	/**
 	 * Creates a NamedParameterStatement. Wraps a call to
@@ -49,7 +72,7 @@ public class NamedParameterStatement {
 	 *             if the statement could not be created
 	 */
 	public NamedParameterStatement(Connection connection) throws SQLException {
-		indexMap = new HashMap<String, List<Integer>>();
+		indexMap = Collections.emptyMap();
 		this.connection = connection;
 	}
 	
@@ -62,9 +85,41 @@ public class NamedParameterStatement {
 	public void parse(String query) throws SQLException {
 		if(this.connection == null)
 			throw new IllegalStateException("NamedParameterStatement was constructed with a query.");
-		String parsedQuery = parse(query, indexMap);
-		System.out.println("SQL: " + parsedQuery);
-		statement = connection.prepareStatement(parsedQuery);
+		ParsedQuery parsedQuery = getParsedQuery(query);
+		indexMap = parsedQuery.indexMap;
+		statement = connection.prepareStatement(parsedQuery.query);
+		parameterMetaData = null;
+		parameterMetaDataRead = false;
+	}
+
+	/**
+	 * Get whether the parsed query uses a parameter.
+	 * 
+	 * @param name parameter name
+	 * @return parameter is used
+	 */
+	public boolean hasParameter(String name) {
+		return indexMap.containsKey(name);
+	}
+
+	private static ParsedQuery getParsedQuery(String query) {
+		ParsedQuery parsedQuery = parsedQueries.get(query);
+		if (parsedQuery == null) {
+			Map<String, List<Integer>> paramMap = new HashMap<String, List<Integer>>();
+			parsedQuery = new ParsedQuery(parse(query, paramMap), Collections.unmodifiableMap(paramMap));
+			parsedQueries.put(query, parsedQuery);
+		}
+		return parsedQuery;
+	}
+
+	private final static class ParsedQuery {
+		private final String query;
+		private final Map<String, List<Integer>> indexMap;
+
+		private ParsedQuery(String query, Map<String, List<Integer>> indexMap) {
+			this.query = query;
+			this.indexMap = indexMap;
+		}
 	}
 
 	/**
@@ -103,6 +158,10 @@ public class NamedParameterStatement {
 					inSingleQuote = true;
 				} else if (c == '"') {
 					inDoubleQuote = true;
+				} else if (c == ':' && i + 1 < length && query.charAt(i + 1) == ':') {
+					// a cast such as ::text, not a parameter
+					parsedQuery.append(c);
+					i++;
 				} else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(query.charAt(i + 1))) {
 					int j = i + 2;
 					while (j < length && Character.isJavaIdentifierPart(query.charAt(j))) {
@@ -199,6 +258,94 @@ public class NamedParameterStatement {
 		}
 	}
 
+	/**
+	 * Sets a parameter from a string, converted to a number when the database
+	 * describes the parameter as numeric, so that for example a GUID can be
+	 * compared with an integer key column. Otherwise, or if the driver cannot
+	 * describe its parameters, the string is set as is.
+	 * 
+	 * @param name
+	 *            parameter name
+	 * @param value
+	 *            parameter value
+	 * @throws SQLException
+	 *             if an error occurred
+	 * @throws IllegalArgumentException
+	 *             if the parameter does not exist
+	 */
+	public void setValue(String name, String value) throws SQLException {
+		if (!parameterMetaDataRead) {
+			parameterMetaData = getParameterMetaData(statement);
+			parameterMetaDataRead = true;
+		}
+		for (Integer index : getIndexes(name)) {
+			setValue(statement, parameterMetaData, index, value);
+		}
+	}
+
+	/**
+	 * Get the types of a statement's parameters, if the driver can describe
+	 * them.
+	 * 
+	 * @param statement statement
+	 * @return parameter types, or <code>null</code> if not known
+	 */
+	static ParameterMetaData getParameterMetaData(PreparedStatement statement) {
+		try {
+			return statement.getParameterMetaData();
+		} catch (SQLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Set a parameter of a statement from a string, converted to a number if
+	 * the parameter is numeric.
+	 * 
+	 * @param statement statement
+	 * @param metaData parameter types, or <code>null</code> if not known
+	 * @param index parameter index
+	 * @param value value
+	 * @throws SQLException if an error occurred
+	 */
+	static void setValue(PreparedStatement statement, ParameterMetaData metaData, int index, String value)
+			throws SQLException {
+		int type = Types.VARCHAR;
+		if (metaData != null) {
+			try {
+				type = metaData.getParameterType(index);
+			} catch (SQLException e) {
+				/* Not described, so set as a string */
+			}
+		}
+		if (value != null) {
+			try {
+				switch (type) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+				case Types.BIGINT:
+					statement.setObject(index, Long.valueOf(value.trim()), type);
+					return;
+				case Types.DECIMAL:
+				case Types.NUMERIC:
+					statement.setObject(index, new BigDecimal(value.trim()), type);
+					return;
+				case Types.REAL:
+				case Types.FLOAT:
+				case Types.DOUBLE:
+					statement.setObject(index, Double.valueOf(value.trim()), type);
+					return;
+				default:
+					break;
+				}
+			} catch (NumberFormatException nfe) {
+				/* Not a number, leave the database to report the mismatch */
+			}
+		}
+		statement.setString(index, value);
+	}
+
 	/**
 	 * Sets a parameter.
 	 * 
@@ -310,7 +457,8 @@ public class NamedParameterStatement {
 	 * @see Statement#close()
 	 */
 	public void close() throws SQLException {
-		statement.close();
+		if (statement != null)
+			statement.close();
 	}
 
 	/**
@@ -0,0 +1,152 @@
+package com.identity4j.connector.jdbc;
+
+/*
+ * #%L
+ * Identity4J JDBC
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.NoSuchElementException;
+
+import com.identity4j.connector.ResultIterator;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.jdbc.JDBCConnector.JDBCResultsetBlock;
+
+/**
+ * Iterates over an open {@link ResultSet}, mapping one row at a time so the
+ * whole result never has to be held in memory. The result set and its
+ * statement (and the connection, if one was supplied) are closed when the last
+ * row has been read, when an error occurs or when {@link #close()} is called.
+ * A mapper that holds resources of its own may implement {@link Closeable} to
+ * be closed at the same time.
+ *
+ * @param <T> type of object each row is mapped to
+ */
+public class ResultSetIterator<T> implements ResultIterator<T>, Closeable {
+
+	private final JDBCResultsetBlock<T> mapper;
+	private final String tag;
+	private Connection connection;
+	private Statement statement;
+	private ResultSet resultSet;
+	private Boolean hasRow;
+
+	public ResultSetIterator(Statement statement, ResultSet resultSet, JDBCResultsetBlock<T> mapper, String tag) {
+		this(null, statement, resultSet, mapper, tag);
+	}
+
+	public ResultSetIterator(Connection connection, Statement statement, ResultSet resultSet,
+			JDBCResultsetBlock<T> mapper, String tag) {
+		this.connection = connection;
+		this.statement = statement;
+		this.resultSet = resultSet;
+		this.mapper = mapper;
+		this.tag = tag;
+	}
+
+	@Override
+	public String tag() {
+		return tag;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (hasRow == null) {
+			if (resultSet == null) {
+				hasRow = false;
+			} else {
+				try {
+					hasRow = resultSet.next();
+				} catch (SQLException e) {
+					close();
+					throw new ConnectorException(e);
+				}
+				if (!hasRow) {
+					close();
+				}
+			}
+		}
+		return hasRow;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		hasRow = null;
+		try {
+			return mapper.apply(resultSet);
+		} catch (SQLException e) {
+			close();
+			throw new ConnectorException(e);
+		} catch (RuntimeException re) {
+			close();
+			throw re;
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Close the result set, statement and connection. This is called automatically when the
+	 * results are exhausted, but should be called by anything that abandons the
+	 * iterator early.
+	 */
+	@Override
+	public void close() {
+		hasRow = false;
+		if (mapper instanceof Closeable) {
+			try {
+				((Closeable) mapper).close();
+			} catch (IOException e) {
+			}
+		}
+		if (resultSet != null) {
+			try {
+				resultSet.close();
+			} catch (SQLException e) {
+			}
+			resultSet = null;
+		}
+		if (statement != null) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+			}
+			statement = null;
+		}
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+			}
+			connection = null;
+		}
+	}
+}
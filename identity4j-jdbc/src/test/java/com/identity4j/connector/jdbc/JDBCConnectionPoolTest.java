@@ -0,0 +1,431 @@
+package com.identity4j.connector.jdbc;
+
+/*
+ * #%L
+ * Identity4J JDBC
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.OperationContext;
+import com.identity4j.connector.ResultIterator;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.util.MultiMap;
+
+public class JDBCConnectionPoolTest {
+
+	private static final String URL = "jdbc:h2:mem:identity4j;DB_CLOSE_DELAY=-1";
+	private static final int USERS = 1200;
+
+	private final AtomicInteger created = new AtomicInteger();
+	private final JDBCConnectionPool.ConnectionFactory factory = new JDBCConnectionPool.ConnectionFactory() {
+		@Override
+		public Connection createConnection() throws SQLException {
+			created.incrementAndGet();
+			return DriverManager.getConnection(URL);
+		}
+	};
+
+	private Connection keepAlive;
+
+	@Before
+	public void createDatabase() throws SQLException {
+		keepAlive = DriverManager.getConnection(URL);
+		Statement statement = keepAlive.createStatement();
+		try {
+			statement.execute("CREATE TABLE users (guid VARCHAR(20), name VARCHAR(50), password VARCHAR(50))");
+			statement.execute("CREATE TABLE roles (guid VARCHAR(20), name VARCHAR(50))");
+			statement.execute("CREATE TABLE user_roles (user_guid VARCHAR(20), role_guid VARCHAR(20), role_name VARCHAR(50))");
+			statement.execute("INSERT INTO roles VALUES ('r0', 'even'), ('r1', 'odd')");
+			for (int i = 0; i < USERS; i++) {
+				statement.execute(String.format("INSERT INTO users VALUES ('%d', 'user%d', 'pw%d')", i, i, i));
+				statement.execute(String.format("INSERT INTO user_roles VALUES ('%d', 'r%d', '%s')", i, i % 2,
+						i % 2 == 0 ? "even" : "odd"));
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	@After
+	public void dropDatabase() throws SQLException {
+		Statement statement = keepAlive.createStatement();
+		try {
+			statement.execute("DROP ALL OBJECTS");
+		} finally {
+			statement.close();
+			keepAlive.close();
+		}
+	}
+
+	@Test
+	public void connectionsAreReturnedAndReused() throws SQLException {
+		JDBCConnectionPool pool = new JDBCConnectionPool(factory, 2);
+		try {
+			Connection connection = pool.getConnection();
+			assertEquals(1, pool.getActiveCount());
+			connection.close();
+			assertTrue(connection.isClosed());
+			assertEquals(0, pool.getActiveCount());
+			assertEquals(1, pool.getIdleCount());
+
+			pool.getConnection().close();
+			assertEquals(1, created.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void poolIsBounded() throws SQLException {
+		JDBCConnectionPool pool = new JDBCConnectionPool(factory, 2);
+		pool.setTimeout(100);
+		try {
+			Connection c1 = pool.getConnection();
+			Connection c2 = pool.getConnection();
+			try {
+				pool.getConnection();
+				fail("Expected pool to be exhausted");
+			} catch (SQLTimeoutException ste) {
+			}
+			c1.close();
+			pool.getConnection().close();
+			c2.close();
+			assertEquals(2, created.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void invalidAndExpiredConnectionsAreReplaced() throws Exception {
+		JDBCConnectionPool pool = new JDBCConnectionPool(factory, 1);
+		try {
+			pool.setValidationQuery("SELECT * FROM no_such_table");
+			pool.getConnection().close();
+			pool.getConnection().close();
+			assertEquals(2, created.get());
+
+			pool.setValidationQuery("SELECT 1");
+			pool.getConnection().close();
+			assertEquals(2, created.get());
+
+			pool.setMaxLifetime(1);
+			Thread.sleep(10);
+			pool.getConnection().close();
+			assertEquals(3, created.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void returnedConnectionIsRolledBack() throws SQLException {
+		JDBCConnectionPool pool = new JDBCConnectionPool(factory, 1);
+		try {
+			Connection connection = pool.getConnection();
+			connection.setAutoCommit(false);
+			connection.createStatement().execute("DELETE FROM users");
+			connection.close();
+
+			connection = pool.getConnection();
+			assertTrue(connection.getAutoCommit());
+			assertEquals(USERS, count(connection, "users"));
+			connection.close();
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void preparedStatementsAreCached() throws SQLException {
+		JDBCConnectionPool pool = new JDBCConnectionPool(factory, 1);
+		pool.setStatementCacheSize(1);
+		try {
+			Connection connection = pool.getConnection();
+			NamedParameterStatement statement = new NamedParameterStatement(connection,
+					"SELECT * FROM users WHERE name = :name");
+			PreparedStatement first = unwrap(statement);
+			statement.setString("name", "user1");
+			assertTrue(statement.executeQuery().next());
+			statement.close();
+			connection.close();
+
+			connection = pool.getConnection();
+			statement = new NamedParameterStatement(connection, "SELECT * FROM users WHERE name = :name");
+			assertTrue(unwrap(statement) == first);
+
+			/* Same query while the cached one is in use gets its own statement */
+			NamedParameterStatement other = new NamedParameterStatement(connection,
+					"SELECT * FROM users WHERE name = :name");
+			assertFalse(unwrap(other) == first);
+			other.close();
+			statement.close();
+
+			/* A different query evicts the first from a cache of one */
+			new NamedParameterStatement(connection, "SELECT * FROM roles").close();
+			assertTrue(first.isClosed());
+			connection.close();
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void cachedStatementSettingsAreReset() throws SQLException {
+		JDBCConnectionPool pool = new JDBCConnectionPool(factory, 1);
+		try {
+			Connection connection = pool.getConnection();
+			PreparedStatement statement = connection.prepareStatement("SELECT * FROM users");
+			PreparedStatement first = statement.unwrap(PreparedStatement.class);
+			int fetchSize = statement.getFetchSize();
+			statement.setFetchSize(fetchSize + 10);
+			statement.setMaxRows(1);
+			statement.setQueryTimeout(30);
+			statement.close();
+
+			statement = connection.prepareStatement("SELECT * FROM users");
+			assertTrue(statement.unwrap(PreparedStatement.class) == first);
+			assertEquals(fetchSize, statement.getFetchSize());
+			assertEquals(0, statement.getMaxRows());
+			assertEquals(0, statement.getQueryTimeout());
+			ResultSet resultSet = statement.executeQuery();
+			int rows = 0;
+			while (resultSet.next()) {
+				rows++;
+			}
+			assertEquals(USERS, rows);
+			resultSet.close();
+
+			/* A setting that cannot be put back keeps it out of the cache */
+			statement.setEscapeProcessing(false);
+			statement.close();
+			assertTrue(first.isClosed());
+			connection.close();
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void tokensInsideStringsAreBound() {
+		MultiMap parameters = new MultiMap();
+		parameters.set(JDBCConfiguration.SQL_IDENTITY_TABLE_IDENTITY_SELECT,
+				"SELECT * FROM ${identityTable} WHERE name LIKE '${principalName}%' ORDER BY guid");
+		parameters.set(JDBCConfiguration.SQL_PASSWORD_SELECT,
+				"SELECT * FROM ${identityTable} WHERE name = '${principalName}' AND password = 'p${password}'");
+		TestConnector connector = open(1, 0, parameters);
+		try {
+			assertEquals("1", connector.getIdentityByName("user1").getGuid());
+			assertEquals("user12", connector.getIdentityByName("user12").getPrincipalName());
+			assertTrue(connector.checkCredentials("user3", "w3".toCharArray()));
+			assertFalse(connector.checkCredentials("user3", "' OR '1' = '1".toCharArray()));
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void literalsAreBoundOnlyWhenTheyContainTokens() {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("principalName", "o'brien");
+		assertEquals("SELECT * FROM \"it's\" WHERE a = 'x''y' AND b LIKE :literal0",
+				JDBCConnector.bindLiterals("SELECT * FROM \"it's\" WHERE a = 'x''y' AND b LIKE '${principalName}''%'",
+						values));
+		assertEquals("o'brien'%", values.get("literal0"));
+	}
+
+	@Test
+	public void credentialsAreBoundAsParameters() {
+		TestConnector connector = open(1, 0);
+		try {
+			assertTrue(connector.checkCredentials("user3", "pw3".toCharArray()));
+			assertFalse(connector.checkCredentials("user3", "' OR '1' = '1".toCharArray()));
+			assertEquals("3", connector.getIdentityByName("user3").getGuid());
+			assertEquals("odd", connector.getIdentityByName("user3").getRoles()[0].getPrincipalName());
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void credentialsCanBeCheckedWhileListing() throws Exception {
+		final TestConnector connector = open(2, 500);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			ResultIterator<Identity> it = connector.allIdentities(OperationContext.createDefault());
+			assertTrue(it.hasNext());
+			it.next();
+
+			/* The listing holds one connection, the check uses the other */
+			Future<Boolean> check = executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					return connector.checkCredentials("user7", "pw7".toCharArray());
+				}
+			});
+			assertTrue(check.get(10, TimeUnit.SECONDS));
+			assertFalse(connector.checkCredentials("user7", "wrong".toCharArray()));
+
+			int read = 1;
+			while (it.hasNext()) {
+				Identity identity = it.next();
+				int idx = Integer.parseInt(identity.getGuid());
+				assertEquals(1, identity.getRoles().length);
+				assertEquals(idx % 2 == 0 ? "even" : "odd", identity.getRoles()[0].getPrincipalName());
+				read++;
+			}
+			assertEquals(USERS, read);
+			assertEquals(0, ((JDBCConnectionPool) connector.getDataSource()).getActiveCount());
+		} finally {
+			executor.shutdownNow();
+			connector.close();
+		}
+	}
+
+	@Test
+	public void rolesAreNotLookedUpOnTheCursorConnection() throws Exception {
+		for (int batchSize : new int[] { 0, 100 }) {
+			TestConnector connector = open(2, batchSize);
+			try {
+				ResultIterator<Identity> it = connector.allIdentities(OperationContext.createDefault());
+				int read = 0;
+				while (it.hasNext()) {
+					assertEquals(1, it.next().getRoles().length);
+					read++;
+				}
+				/* The cursor's connection and the one the roles were looked up on */
+				assertEquals(2, ((JDBCConnectionPool) connector.getDataSource()).getIdleCount());
+				assertEquals(USERS, read);
+				assertEquals(0, ((JDBCConnectionPool) connector.getDataSource()).getActiveCount());
+			} finally {
+				connector.close();
+			}
+		}
+	}
+
+	private TestConnector open(int poolSize, int roleBatchSize) {
+		return open(poolSize, roleBatchSize, new MultiMap());
+	}
+
+	private TestConnector open(int poolSize, int roleBatchSize, MultiMap overrides) {
+		MultiMap parameters = new MultiMap();
+		parameters.set(JDBCConfiguration.JDBC_POOL_SIZE, String.valueOf(poolSize));
+		parameters.set(JDBCConfiguration.JDBC_POOL_TIMEOUT, "5");
+		parameters.set(JDBCConfiguration.JDBC_ROLE_BATCH_SIZE, String.valueOf(roleBatchSize));
+		parameters.set(JDBCConfiguration.SQL_IDENTITY_TABLE, "users");
+		parameters.set(JDBCConfiguration.SQL_IDENTITY_TABLE_GUID, "guid");
+		parameters.set(JDBCConfiguration.SQL_IDENTITY_TABLE_PRINCIPAL_NAME, "name");
+		parameters.set(JDBCConfiguration.SQL_IDENTITY_TABLE_PASSWORD, "password");
+		parameters.set(JDBCConfiguration.SQL_IDENTITY_PASSWORD_ENCODING, "plain");
+		parameters.set(JDBCConfiguration.SQL_PASSWORD_SELECT,
+				"SELECT * FROM ${identityTable} WHERE name = '${principalName}' AND password = '${password}'");
+		parameters.set(JDBCConfiguration.SQL_ROLE_TABLE, "roles");
+		parameters.set(JDBCConfiguration.SQL_ROLE_TABLE_GUID, "role_guid");
+		parameters.set(JDBCConfiguration.SQL_ROLE_TABLE_PRINCIPAL_NAME, "role_name");
+		parameters.set(JDBCConfiguration.SQL_ROLE_IDENTITY_TABLE, "user_roles");
+		parameters.set(JDBCConfiguration.SQL_ROLE_IDENTITY_TABLE_IDENTITY_GUID, "user_guid");
+		parameters.set(JDBCConfiguration.SQL_ROLE_IDENTITY_TABLE_ROLE_GUID, "role_guid");
+		parameters.putAll(overrides);
+
+		TestConnector connector = new TestConnector();
+		connector.open(new TestConfiguration(parameters));
+		return connector;
+	}
+
+	private static PreparedStatement unwrap(NamedParameterStatement statement) throws SQLException {
+		return statement.getStatement().unwrap(PreparedStatement.class);
+	}
+
+	private static int count(Connection connection, String table) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table);
+			rs.next();
+			return rs.getInt(1);
+		} finally {
+			statement.close();
+		}
+	}
+
+	static class TestConnector extends JDBCConnector<TestConfiguration> {
+	}
+
+	static class TestConfiguration extends JDBCConfiguration {
+
+		TestConfiguration(MultiMap configurationParameters) {
+			super(configurationParameters);
+		}
+
+		@Override
+		public String generateJDBCUrl() {
+			return URL;
+		}
+
+		@Override
+		public String getJDBUrlProperties(boolean safe) {
+			return "";
+		}
+
+		@Override
+		public String getJDBCDriverName() {
+			return "h2";
+		}
+
+		@Override
+		public Integer getDefaultPort() {
+			return 0;
+		}
+
+		@Override
+		public String getDriverClassName() {
+			return "org.h2.Driver";
+		}
+
+		@Override
+		public Class<? extends Connector<?>> getConnectorClass() {
+			return TestConnector.class;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.identity4j.connector.jdbc;
+
+/*
+ * #%L
+ * Identity4J JDBC
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NamedParameterStatementTest {
+
+	private static final String URL = "jdbc:h2:mem:identity4j-params;DB_CLOSE_DELAY=-1";
+
+	private Connection connection;
+	private final List<String> bound = new ArrayList<String>();
+
+	@Before
+	public void createDatabase() throws SQLException {
+		connection = DriverManager.getConnection(URL);
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute("CREATE TABLE users (id INTEGER, guid VARCHAR(20), name VARCHAR(50))");
+			statement.execute("INSERT INTO users VALUES (7, '7', 'user7')");
+		} finally {
+			statement.close();
+		}
+	}
+
+	@After
+	public void dropDatabase() throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute("DROP ALL OBJECTS");
+		} finally {
+			statement.close();
+			connection.close();
+		}
+	}
+
+	@Test
+	public void valuesAreBoundAsTheParameterType() throws SQLException {
+		NamedParameterStatement statement = new NamedParameterStatement(recording(connection),
+				"SELECT name FROM users WHERE id = :id AND guid = :guid AND name LIKE :name");
+		try {
+			statement.setValue("id", "7");
+			statement.setValue("guid", "7");
+			statement.setValue("name", "user%");
+			assertEquals(Arrays.asList("setObject Long", "setString String", "setString String"), bound);
+			ResultSet resultSet = statement.executeQuery();
+			try {
+				resultSet.next();
+				assertEquals("user7", resultSet.getString(1));
+			} finally {
+				resultSet.close();
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	@Test
+	public void valuesThatAreNotNumbersAreBoundAsStrings() throws SQLException {
+		NamedParameterStatement statement = new NamedParameterStatement(recording(connection),
+				"SELECT name FROM users WHERE id = :id");
+		try {
+			statement.setValue("id", "seven");
+			assertEquals(Arrays.asList("setString String"), bound);
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Wrap a connection so the setters called on its prepared statements are
+	 * recorded, along with the type of value each was given.
+	 */
+	private Connection recording(final Connection connection) {
+		return proxy(Connection.class, connection, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Object result = call(connection, method, args);
+				if (method.getName().equals("prepareStatement")) {
+					final PreparedStatement statement = (PreparedStatement) result;
+					return proxy(PreparedStatement.class, statement, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							if (method.getName().startsWith("set") && args != null && args.length > 1) {
+								bound.add(method.getName() + " " + args[1].getClass().getSimpleName());
+							}
+							return call(statement, method, args);
+						}
+					});
+				}
+				return result;
+			}
+		});
+	}
+
+	private static <T> T proxy(Class<T> type, T target, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(NamedParameterStatementTest.class.getClassLoader(),
+				new Class<?>[] { type }, handler));
+	}
+
+	private static Object call(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException ite) {
+			throw ite.getCause();
+		}
+	}
+}
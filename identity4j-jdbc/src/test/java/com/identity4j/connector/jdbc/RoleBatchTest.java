@@ -0,0 +1,232 @@
+package com.identity4j.connector.jdbc;
+
+/*
+ * #%L
+ * Identity4J JDBC
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.OperationContext;
+import com.identity4j.connector.ResultIterator;
+import com.identity4j.connector.jdbc.JDBCConnectionPoolTest.TestConfiguration;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.util.MultiMap;
+
+public class RoleBatchTest {
+
+	private static final String URL = "jdbc:h2:mem:identity4j;DB_CLOSE_DELAY=-1";
+	private static final int USERS = 25;
+
+	private Connection keepAlive;
+
+	@Before
+	public void createDatabase() throws SQLException {
+		keepAlive = DriverManager.getConnection(URL);
+		Statement statement = keepAlive.createStatement();
+		try {
+			statement.execute("CREATE TABLE users (guid VARCHAR(20), name VARCHAR(50))");
+			statement.execute("CREATE TABLE roles (guid VARCHAR(20), name VARCHAR(50))");
+			statement.execute("CREATE TABLE user_roles (user_guid VARCHAR(20), role_guid VARCHAR(20), role_name VARCHAR(50))");
+			for (int i = 0; i < USERS; i++) {
+				statement.execute(String.format("INSERT INTO users VALUES ('%d', 'user%d')", i, i));
+				/* Every third user has no roles, the others one or two */
+				if (i % 3 != 0) {
+					statement.execute(String.format("INSERT INTO user_roles VALUES ('%d', 'r0', 'all')", i));
+				}
+				if (i % 3 == 2) {
+					statement.execute(String.format("INSERT INTO user_roles VALUES ('%d', 'r1', 'some')", i));
+				}
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	@After
+	public void dropDatabase() throws SQLException {
+		Statement statement = keepAlive.createStatement();
+		try {
+			statement.execute("DROP ALL OBJECTS");
+		} finally {
+			statement.close();
+			keepAlive.close();
+		}
+	}
+
+	@Test
+	public void batchedRolesMatchSingleLookups() {
+		CountingConnector connector = open(0);
+		Map<String, TreeSet<String>> single;
+		try {
+			single = roles(list(connector));
+		} finally {
+			connector.close();
+		}
+		connector = open(10);
+		Map<String, TreeSet<String>> batched;
+		try {
+			batched = roles(list(connector));
+		} finally {
+			connector.close();
+		}
+
+		assertEquals(USERS, batched.size());
+		assertEquals(single, batched);
+		assertEquals(new TreeSet<String>(), batched.get("0"));
+		assertEquals(2, batched.get("2").size());
+		assertEquals(3, connector.batches.size());
+		assertEquals(10, (int) connector.batches.get(0));
+		assertEquals(5, (int) connector.batches.get(2));
+	}
+
+	@Test
+	public void rolesAreSharedWithinOneListingOnly() throws SQLException {
+		CountingConnector connector = open(10);
+		try {
+			List<Identity> first = list(connector);
+			assertSame(role(first, "1", "all"), role(first, "22", "all"));
+
+			Statement statement = keepAlive.createStatement();
+			try {
+				statement.execute("UPDATE user_roles SET role_name = 'everyone' WHERE role_guid = 'r0'");
+			} finally {
+				statement.close();
+			}
+
+			List<Identity> second = list(connector);
+			assertNotSame(role(first, "1", "all"), role(second, "1", "everyone"));
+			assertEquals("everyone", connector.getIdentityByName("user4").getRoles()[0].getPrincipalName());
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void integerKeysAreBoundAsNumbers() throws SQLException {
+		Statement statement = keepAlive.createStatement();
+		try {
+			statement.execute("CREATE TABLE int_users (guid INTEGER, name VARCHAR(50))");
+			statement.execute("CREATE TABLE int_user_roles (user_guid INTEGER, role_guid VARCHAR(20), role_name VARCHAR(50))");
+			statement.execute("INSERT INTO int_users SELECT CAST(guid AS INTEGER), name FROM users");
+			statement.execute("INSERT INTO int_user_roles SELECT CAST(user_guid AS INTEGER), role_guid, role_name FROM user_roles");
+		} finally {
+			statement.close();
+		}
+
+		for (int roleBatchSize : new int[] { 0, 10 }) {
+			CountingConnector connector = open(roleBatchSize, "int_users", "int_user_roles");
+			try {
+				Map<String, TreeSet<String>> roles = roles(list(connector));
+				assertEquals(USERS, roles.size());
+				assertEquals(new TreeSet<String>(), roles.get("0"));
+				assertEquals(2, roles.get("2").size());
+				assertEquals("all", connector.getIdentityByName("user4").getRoles()[0].getPrincipalName());
+			} finally {
+				connector.close();
+			}
+		}
+	}
+
+	private static Role role(List<Identity> identities, String guid, String name) {
+		for (Identity identity : identities) {
+			if (identity.getGuid().equals(guid)) {
+				for (Role role : identity.getRoles()) {
+					if (role.getPrincipalName().equals(name)) {
+						return role;
+					}
+				}
+			}
+		}
+		throw new AssertionError("No role " + name + " for " + guid);
+	}
+
+	private static List<Identity> list(CountingConnector connector) {
+		List<Identity> identities = new ArrayList<Identity>();
+		ResultIterator<Identity> it = connector.allIdentities(OperationContext.createDefault());
+		while (it.hasNext()) {
+			identities.add(it.next());
+		}
+		return identities;
+	}
+
+	private static Map<String, TreeSet<String>> roles(List<Identity> identities) {
+		Map<String, TreeSet<String>> roles = new HashMap<String, TreeSet<String>>();
+		for (Identity identity : identities) {
+			TreeSet<String> names = new TreeSet<String>();
+			for (Role role : identity.getRoles()) {
+				names.add(role.getPrincipalName());
+			}
+			roles.put(identity.getGuid(), names);
+		}
+		return roles;
+	}
+
+	private CountingConnector open(int roleBatchSize) {
+		return open(roleBatchSize, "users", "user_roles");
+	}
+
+	private CountingConnector open(int roleBatchSize, String identityTable, String roleIdentityTable) {
+		MultiMap parameters = new MultiMap();
+		parameters.set(JDBCConfiguration.JDBC_POOL_SIZE, "2");
+		parameters.set(JDBCConfiguration.JDBC_POOL_TIMEOUT, "5");
+		parameters.set(JDBCConfiguration.JDBC_ROLE_BATCH_SIZE, String.valueOf(roleBatchSize));
+		parameters.set(JDBCConfiguration.SQL_IDENTITY_TABLE, identityTable);
+		parameters.set(JDBCConfiguration.SQL_IDENTITY_TABLE_GUID, "guid");
+		parameters.set(JDBCConfiguration.SQL_IDENTITY_TABLE_PRINCIPAL_NAME, "name");
+		parameters.set(JDBCConfiguration.SQL_ROLE_TABLE, "roles");
+		parameters.set(JDBCConfiguration.SQL_ROLE_TABLE_GUID, "role_guid");
+		parameters.set(JDBCConfiguration.SQL_ROLE_TABLE_PRINCIPAL_NAME, "role_name");
+		parameters.set(JDBCConfiguration.SQL_ROLE_IDENTITY_TABLE, roleIdentityTable);
+		parameters.set(JDBCConfiguration.SQL_ROLE_IDENTITY_TABLE_IDENTITY_GUID, "user_guid");
+		parameters.set(JDBCConfiguration.SQL_ROLE_IDENTITY_TABLE_ROLE_GUID, "role_guid");
+
+		CountingConnector connector = new CountingConnector();
+		connector.open(new TestConfiguration(parameters));
+		return connector;
+	}
+
+	static class CountingConnector extends JDBCConnectionPoolTest.TestConnector {
+		private final List<Integer> batches = new ArrayList<Integer>();
+
+		@Override
+		protected void setGrantedRoles(List<Identity> identities) {
+			batches.add(identities.size());
+			super.setGrantedRoles(identities);
+		}
+	}
+}
@@ -165,6 +165,61 @@ public abstract class AbstractDirectoryConfiguration extends AbstractConnectorCo
 	 */
 	public static final String DIRECTORY_MAX_PAGE_SIZE = "directory.maxPageSize";
 
+	/**
+	 * Search each include DN in parallel
+	 */
+	public static final String DIRECTORY_PARALLEL_SEARCH = "directory.parallelSearch";
+
+	/**
+	 * Maximum number of concurrent searches
+	 */
+	public static final String DIRECTORY_SEARCH_THREADS = "directory.searchThreads";
+
+	/**
+	 * Request the next page of results in the background
+	 */
+	public static final String DIRECTORY_PREFETCH = "directory.prefetch";
+
+	/**
+	 * Number of pages to request ahead
+	 */
+	public static final String DIRECTORY_PREFETCH_DEPTH = "directory.prefetchDepth";
+
+	/**
+	 * Pool service account connections
+	 */
+	public static final String DIRECTORY_POOL_ENABLED = "directory.pool.enabled";
+
+	/**
+	 * Maximum number of pooled connections
+	 */
+	public static final String DIRECTORY_POOL_MAX_SIZE = "directory.pool.maxSize";
+
+	/**
+	 * Time (ms) a pooled connection may be idle before it is evicted
+	 */
+	public static final String DIRECTORY_POOL_IDLE_TIMEOUT = "directory.pool.idleTimeout";
+
+	/**
+	 * Maximum time (ms) a pooled connection may be used for
+	 */
+	public static final String DIRECTORY_POOL_MAX_LIFETIME = "directory.pool.maxLifetime";
+
+	/**
+	 * Maximum time (ms) to wait for a pooled connection
+	 */
+	public static final String DIRECTORY_POOL_BORROW_TIMEOUT = "directory.pool.borrowTimeout";
+
+	/**
+	 * Validate idle pooled connections before use
+	 */
+	public static final String DIRECTORY_POOL_VALIDATE_ON_BORROW = "directory.pool.validateOnBorrow";
+
+	/**
+	 * Time (ms) a borrowed connection may go unused before it is reclaimed
+	 */
+	public static final String DIRECTORY_POOL_ABANDON_TIMEOUT = "directory.pool.abandonTimeout";
+
 	/**
 	 */
 	public static final char PORT_SEPARATOR = ':';
@@ -420,6 +475,123 @@ public abstract class AbstractDirectoryConfiguration extends AbstractConnectorCo
 		return configurationParameters.getIntegerOrDefault(DIRECTORY_MAX_PAGE_SIZE, 1000);
 	}
 
+	/**
+	 * Whether searches that are filtered by the include DNs should search each
+	 * include DN concurrently, each with its own connection and paged search,
+	 * rather than searching from the base DN. The default is <code>false</code>.
+	 * 
+	 * @return parallel search
+	 */
+	public boolean isParallelSearch() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_PARALLEL_SEARCH, Boolean.FALSE);
+	}
+
+	/**
+	 * The maximum number of include DNs that will be searched concurrently when
+	 * {@link #isParallelSearch()} is enabled, or the number of searches that may
+	 * read ahead when {@link #isPrefetch()} is enabled. The default is 4.
+	 * 
+	 * @return search threads
+	 */
+	public int getSearchThreads() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_SEARCH_THREADS, 4);
+	}
+
+	/**
+	 * Whether searches should request the next page of results on a background
+	 * thread while the current page is being processed. The default is
+	 * <code>false</code>.
+	 * 
+	 * @return prefetch
+	 */
+	public boolean isPrefetch() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_PREFETCH, Boolean.FALSE);
+	}
+
+	/**
+	 * The number of pages that may be read ahead when {@link #isPrefetch()} is
+	 * enabled. At most this many pages of entries are held waiting to be
+	 * processed, the default is 1.
+	 * 
+	 * @return prefetch depth
+	 */
+	public int getPrefetchDepth() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_PREFETCH_DEPTH, 1);
+	}
+
+	/**
+	 * Whether service account connections should be pooled and reused between
+	 * operations rather than a new connection (and bind) being made for every
+	 * operation. The default is <code>false</code>.
+	 * 
+	 * @return pool connections
+	 */
+	public boolean isPoolEnabled() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_POOL_ENABLED, Boolean.FALSE);
+	}
+
+	/**
+	 * The maximum number of pooled connections, the default is 8.
+	 * 
+	 * @return maximum pool size
+	 */
+	public int getPoolMaxSize() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_MAX_SIZE, 8);
+	}
+
+	/**
+	 * The time in milliseconds a pooled connection may be idle before it is
+	 * closed, the default is 5 minutes. Zero disables idle eviction.
+	 * 
+	 * @return idle timeout
+	 */
+	public int getPoolIdleTimeout() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_IDLE_TIMEOUT, 300000);
+	}
+
+	/**
+	 * The maximum time in milliseconds a pooled connection will be used for
+	 * before it is closed, the default is 30 minutes. Zero means no limit.
+	 * 
+	 * @return maximum lifetime
+	 */
+	public int getPoolMaxLifetime() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_MAX_LIFETIME, 1800000);
+	}
+
+	/**
+	 * The maximum time in milliseconds to wait for a pooled connection when all
+	 * are in use, the default is 30 seconds.
+	 * 
+	 * @return borrow timeout
+	 */
+	public int getPoolBorrowTimeout() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_BORROW_TIMEOUT, 30000);
+	}
+
+	/**
+	 * Whether an idle pooled connection should be checked with a RootDSE read
+	 * before it is used, the default is <code>true</code>.
+	 * 
+	 * @return validate on borrow
+	 */
+	public boolean isPoolValidateOnBorrow() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_POOL_VALIDATE_ON_BORROW, Boolean.TRUE);
+	}
+
+	/**
+	 * The time in milliseconds a borrowed connection may go unused before it is
+	 * assumed to have been abandoned by its borrower, and is closed and its slot
+	 * in the pool reclaimed. This must be longer than the longest pause while
+	 * reading a search result. The default is 30 minutes. Zero means borrowed
+	 * connections are only reclaimed once garbage collected.
+	 * 
+	 * @return abandon timeout
+	 */
+	public int getPoolAbandonTimeout() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_ABANDON_TIMEOUT, 1800000);
+	}
+
 	/**
 	 * The value to use for <code>java.naming.ldap.version</code>, the default is 3.
 	 * 
@@ -37,6 +37,7 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeSet;
 
 import javax.naming.CommunicationException;
 import javax.naming.InvalidNameException;
@@ -168,6 +169,17 @@ public class AbstractDirectoryConnector<P extends AbstractDirectoryConfiguration
 		return ldapService != null;
 	}
 
+	/**
+	 * Get the service account connection pool, for example to inspect its
+	 * statistics. This will be <code>null</code> if the connector is not open or
+	 * pooling is disabled.
+	 * 
+	 * @return connection pool
+	 */
+	public LdapContextPool getConnectionPool() {
+		return ldapService == null ? null : ldapService.getPool();
+	}
+
 	@Override
 	protected void onClose() {
 		ldapService.close();
@@ -725,7 +737,7 @@ public class AbstractDirectoryConnector<P extends AbstractDirectoryConfiguration
 				public boolean isApplyFilters() {
 					return true;
 				}
-			}, configureSearchControls(ldapService.getSearchControls()), opContext);
+			}, configureSearchControls(ldapService.getSearchControls(), opContext), opContext);
 		} catch (NamingException e) {
 			processNamingException(e);
 			throw new IllegalStateException("Unreachable code");
@@ -752,7 +764,8 @@ public class AbstractDirectoryConnector<P extends AbstractDirectoryConfiguration
 		while (ne.hasMoreElements()) {
 			Attribute a = ne.next();
 			if (!a.getID().equals(getConfiguration().getIdentityGuidAttribute())
-					&& !a.getID().equals(getConfiguration().getIdentityNameAttribute())) {
+					&& !a.getID().equals(getConfiguration().getIdentityNameAttribute())
+					&& isAttributeRequested(a.getID(), opContext)) {
 				List<String> vals = new ArrayList<String>();
 				NamingEnumeration<?> ane = a.getAll();
 				while (ane.hasMoreElements()) {
@@ -1035,6 +1048,68 @@ public class AbstractDirectoryConnector<P extends AbstractDirectoryConfiguration
 		return searchControls;
 	}
 
+	/**
+	 * Configure the search controls for an identity search, limiting the
+	 * returned attributes to those requested by the operation (if any) plus those
+	 * returned by {@link #getRequiredIdentityAttributes()}.
+	 * 
+	 * @param searchControls search controls
+	 * @param opContext operation context
+	 * @return search controls
+	 */
+	protected SearchControls configureSearchControls(SearchControls searchControls, OperationContext opContext) {
+		searchControls = configureSearchControls(searchControls);
+		Set<String> requested = opContext.getAttributes();
+		if (requested != null) {
+			Set<String> attributes = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+			attributes.addAll(requested);
+			attributes.addAll(getRequiredIdentityAttributes());
+			searchControls.setReturningAttributes(attributes.toArray(new String[0]));
+		}
+		return searchControls;
+	}
+
+	/**
+	 * Get the attributes that are needed to map an identity, and so must be
+	 * retrieved even when the operation requests only some attributes.
+	 * 
+	 * @return required attributes
+	 */
+	protected Collection<String> getRequiredIdentityAttributes() {
+		List<String> attributes = new ArrayList<String>();
+		for (String attr : new String[] { getConfiguration().getIdentityGuidAttribute(),
+				getConfiguration().getIdentityNameAttribute(), getConfiguration().getIdentityRoleGuidAttribute(),
+				getConfiguration().getIdentityRoleNameAttribute(), getConfiguration().getMemberOfAttribute() }) {
+			if (StringUtils.isNotBlank(attr)) {
+				attributes.add(attr);
+			}
+		}
+		return attributes;
+	}
+
+	/**
+	 * Get whether an attribute should be copied to a principal, i.e. the
+	 * operation requested it or did not limit the attributes. LDAP attribute
+	 * names are case insensitive, and so is the match, whatever kind of set
+	 * the operation supplied.
+	 * 
+	 * @param attribute attribute name
+	 * @param opContext operation context
+	 * @return requested
+	 */
+	protected boolean isAttributeRequested(String attribute, OperationContext opContext) {
+		Set<String> requested = opContext.getAttributes();
+		if (requested == null || requested.contains(attribute)) {
+			return true;
+		}
+		for (String name : requested) {
+			if (name.equalsIgnoreCase(attribute)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	protected SearchControls configureRoleSearchControls(SearchControls searchControls) {
 		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
 		// searchControls.setCountLimit(0);
@@ -0,0 +1,560 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.CommunicationException;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A bounded, thread-safe pool of bound {@link LdapContext}s for a single set of
+ * controller hosts (i.e. one provider URL).
+ * <p>
+ * Contexts handed out by {@link #borrow(Control...)} are proxies, calling
+ * {@link LdapContext#close()} on them returns the underlying context to the
+ * pool rather than unbinding it. Contexts that fail with a communication error
+ * are discarded instead of being returned. Idle contexts are evicted after
+ * {@link AbstractDirectoryConfiguration#getPoolIdleTimeout()}, any context is
+ * retired after {@link AbstractDirectoryConfiguration#getPoolMaxLifetime()},
+ * and when enabled an idle context is validated with a cheap RootDSE read
+ * before it is handed out.
+ * <p>
+ * Borrowed contexts that are never closed (for example an abandoned search
+ * iterator) are reclaimed when they have not been used for
+ * {@link AbstractDirectoryConfiguration#getPoolAbandonTimeout()}, or sooner
+ * if the proxy has been garbage collected. Reading an enumeration returned by
+ * the context counts as using it, and a context is never reclaimed while a
+ * call on it or one of its enumerations is still in progress. Reclaiming happens whenever a
+ * context is borrowed or returned, and on {@link #evict()}.
+ */
+public class LdapContextPool {
+
+	final static Log LOG = LogFactory.getLog(LdapContextPool.class);
+
+	private static final String[] VALIDATION_ATTRIBUTES = new String[] { "supportedLDAPVersion" };
+
+	/**
+	 * Creates new, bound contexts for the pool.
+	 */
+	public interface ContextFactory {
+		LdapContext create() throws NamingException;
+	}
+
+	private final ContextFactory factory;
+	private final int maxSize;
+	private final long idleTimeout;
+	private final long maxLifetime;
+	private final long borrowTimeout;
+	private final boolean validateOnBorrow;
+	private final long abandonTimeout;
+
+	private final Semaphore permits;
+	private final LinkedBlockingDeque<PooledContext> idle = new LinkedBlockingDeque<PooledContext>();
+	private final Map<Reference<LdapContext>, PooledContext> borrowed = new ConcurrentHashMap<Reference<LdapContext>, PooledContext>();
+	private final ReferenceQueue<LdapContext> abandoned = new ReferenceQueue<LdapContext>();
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+	private final AtomicLong validationFailures = new AtomicLong();
+	private final AtomicLong reclaimed = new AtomicLong();
+
+	private volatile boolean closed;
+
+	public LdapContextPool(ContextFactory factory, AbstractDirectoryConfiguration configuration) {
+		this(factory, configuration.getPoolMaxSize(), configuration.getPoolIdleTimeout(),
+				configuration.getPoolMaxLifetime(), configuration.getPoolBorrowTimeout(),
+				configuration.isPoolValidateOnBorrow(), configuration.getPoolAbandonTimeout());
+	}
+
+	public LdapContextPool(ContextFactory factory, int maxSize, long idleTimeout, long maxLifetime,
+			long borrowTimeout, boolean validateOnBorrow) {
+		this(factory, maxSize, idleTimeout, maxLifetime, borrowTimeout, validateOnBorrow, 0);
+	}
+
+	public LdapContextPool(ContextFactory factory, int maxSize, long idleTimeout, long maxLifetime,
+			long borrowTimeout, boolean validateOnBorrow, long abandonTimeout) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1.");
+		}
+		this.factory = factory;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+		this.maxLifetime = maxLifetime;
+		this.borrowTimeout = borrowTimeout;
+		this.validateOnBorrow = validateOnBorrow;
+		this.abandonTimeout = abandonTimeout;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Borrow a context from the pool, creating a new one if there are no idle
+	 * contexts and the pool is not yet at its maximum size. The context must be
+	 * returned by calling {@link LdapContext#close()}.
+	 *
+	 * @param controls request controls to set on the context
+	 * @return context
+	 * @throws NamingException if a context cannot be created or the pool is
+	 *                         exhausted
+	 */
+	public LdapContext borrow(Control... controls) throws NamingException {
+		if (closed) {
+			throw new ServiceUnavailableException("LDAP context pool is closed.");
+		}
+		reclaimAbandoned();
+
+		long started = System.nanoTime();
+		boolean acquired;
+		try {
+			acquired = permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedNamingException("Interrupted waiting for a pooled LDAP connection.");
+		} finally {
+			recordWait(System.nanoTime() - started);
+		}
+		if (!acquired) {
+			throw new ServiceUnavailableException(String.format(
+					"Timed out after %dms waiting for one of %d pooled LDAP connections.", borrowTimeout, maxSize));
+		}
+
+		try {
+			PooledContext pooled = takeIdle();
+			if (pooled == null) {
+				pooled = new PooledContext(factory.create());
+				created.incrementAndGet();
+			}
+			pooled.context.setRequestControls(controls);
+			borrows.incrementAndGet();
+			return wrap(pooled);
+		} catch (NamingException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Evict any contexts that have been idle for too long or have exceeded their
+	 * maximum lifetime, and reclaim any abandoned contexts.
+	 */
+	public void evict() {
+		reclaimAbandoned();
+		long now = System.currentTimeMillis();
+		for (Iterator<PooledContext> it = idle.descendingIterator(); it.hasNext();) {
+			PooledContext pooled = it.next();
+			if (pooled.isExpired(now) && idle.remove(pooled)) {
+				destroy(pooled);
+			}
+		}
+	}
+
+	/**
+	 * Close the pool. All idle contexts are closed immediately, borrowed contexts
+	 * are closed as they are returned.
+	 */
+	public void close() {
+		closed = true;
+		PooledContext pooled;
+		while ((pooled = idle.pollFirst()) != null) {
+			destroy(pooled);
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Closed " + this);
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Get the number of contexts currently borrowed from the pool.
+	 *
+	 * @return borrowed
+	 */
+	public int getBorrowed() {
+		return maxSize - permits.availablePermits();
+	}
+
+	/**
+	 * Get the number of contexts currently idle in the pool.
+	 *
+	 * @return idle
+	 */
+	public int getIdle() {
+		return idle.size();
+	}
+
+	/**
+	 * Get the total number of contexts (and so binds) created by this pool.
+	 *
+	 * @return created
+	 */
+	public long getCreated() {
+		return created.get();
+	}
+
+	/**
+	 * Get the total number of contexts closed by this pool.
+	 *
+	 * @return destroyed
+	 */
+	public long getDestroyed() {
+		return destroyed.get();
+	}
+
+	/**
+	 * Get the total number of times a context has been borrowed.
+	 *
+	 * @return borrow count
+	 */
+	public long getBorrowCount() {
+		return borrows.get();
+	}
+
+	/**
+	 * Get the total time in milliseconds spent waiting for a free slot in the
+	 * pool.
+	 *
+	 * @return total wait time
+	 */
+	public long getTotalWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+	}
+
+	/**
+	 * Get the longest time in milliseconds spent waiting for a free slot in the
+	 * pool.
+	 *
+	 * @return maximum wait time
+	 */
+	public long getMaxWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+	}
+
+	/**
+	 * Get the number of idle contexts that failed validation when borrowed.
+	 *
+	 * @return validation failures
+	 */
+	public long getValidationFailures() {
+		return validationFailures.get();
+	}
+
+	/**
+	 * Get the number of borrowed contexts that were never returned and were
+	 * reclaimed, either because they were unused for longer than the abandon
+	 * timeout or because they were garbage collected.
+	 *
+	 * @return reclaimed
+	 */
+	public long getReclaimed() {
+		return reclaimed.get();
+	}
+
+	@Override
+	public String toString() {
+		return "LdapContextPool [maxSize=" + maxSize + ", borrowed=" + getBorrowed() + ", idle=" + getIdle()
+				+ ", created=" + getCreated() + ", destroyed=" + getDestroyed() + ", borrows=" + getBorrowCount()
+				+ ", totalWaitTime=" + getTotalWaitTime() + "ms, maxWaitTime=" + getMaxWaitTime()
+				+ "ms, validationFailures=" + getValidationFailures() + ", reclaimed=" + getReclaimed() + "]";
+	}
+
+	private PooledContext takeIdle() {
+		PooledContext pooled;
+		while ((pooled = idle.pollFirst()) != null) {
+			if (pooled.isExpired(System.currentTimeMillis())) {
+				destroy(pooled);
+			} else if (validateOnBorrow && !validate(pooled)) {
+				validationFailures.incrementAndGet();
+				destroy(pooled);
+			} else {
+				return pooled;
+			}
+		}
+		return null;
+	}
+
+	private boolean validate(PooledContext pooled) {
+		try {
+			pooled.context.getAttributes("", VALIDATION_ATTRIBUTES);
+			return true;
+		} catch (NamingException e) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Pooled LDAP context failed validation, discarding.", e);
+			}
+			return false;
+		}
+	}
+
+	private void release(PooledContext pooled, boolean broken) {
+		pooled.handler = null;
+		borrowed.remove(pooled.reference);
+		pooled.reference = null;
+		try {
+			if (closed || broken || pooled.isRetired(System.currentTimeMillis())) {
+				destroy(pooled);
+			} else {
+				try {
+					pooled.context.setRequestControls(null);
+					pooled.lastUsed = System.currentTimeMillis();
+					idle.offerFirst(pooled);
+				} catch (NamingException e) {
+					destroy(pooled);
+				}
+			}
+		} finally {
+			permits.release();
+		}
+		evict();
+	}
+
+	private void reclaimAbandoned() {
+		Reference<? extends LdapContext> ref;
+		while ((ref = abandoned.poll()) != null) {
+			PooledContext pooled = borrowed.remove(ref);
+			if (pooled != null) {
+				reclaim(pooled, "was not closed by its borrower");
+			}
+		}
+		if (abandonTimeout > 0) {
+			long now = System.currentTimeMillis();
+			for (PooledContext pooled : borrowed.values()) {
+				PooledContextHandler handler = pooled.handler;
+				if (handler != null && handler.inUse.get() == 0 && now - pooled.lastUsed > abandonTimeout
+						&& handler.released.compareAndSet(false, true)) {
+					borrowed.remove(pooled.reference);
+					reclaim(pooled, String.format("has not been used for %dms", now - pooled.lastUsed));
+				}
+			}
+		}
+	}
+
+	private void reclaim(PooledContext pooled, String reason) {
+		reclaimed.incrementAndGet();
+		LOG.warn(String.format("A borrowed LDAP context %s, reclaiming it.", reason));
+		pooled.handler = null;
+		pooled.reference = null;
+		destroy(pooled);
+		permits.release();
+	}
+
+	private void destroy(PooledContext pooled) {
+		destroyed.incrementAndGet();
+		try {
+			pooled.context.close();
+		} catch (NamingException e) {
+		}
+	}
+
+	private void recordWait(long nanos) {
+		waitTime.addAndGet(nanos);
+		long max;
+		while (nanos > (max = maxWaitTime.get()) && !maxWaitTime.compareAndSet(max, nanos))
+			;
+	}
+
+	private LdapContext wrap(PooledContext pooled) {
+		pooled.handler = new PooledContextHandler(pooled);
+		pooled.lastUsed = System.currentTimeMillis();
+		LdapContext proxy = (LdapContext) Proxy.newProxyInstance(LdapContextPool.class.getClassLoader(),
+				new Class<?>[] { LdapContext.class }, pooled.handler);
+		pooled.reference = new WeakReference<LdapContext>(proxy, abandoned);
+		borrowed.put(pooled.reference, pooled);
+		return proxy;
+	}
+
+	private final class PooledContext {
+		private final LdapContext context;
+		private final long created = System.currentTimeMillis();
+		private volatile long lastUsed = created;
+		private Reference<LdapContext> reference;
+		private volatile PooledContextHandler handler;
+
+		private PooledContext(LdapContext context) {
+			this.context = context;
+		}
+
+		private boolean isRetired(long now) {
+			return maxLifetime > 0 && now - created > maxLifetime;
+		}
+
+		private boolean isExpired(long now) {
+			return isRetired(now) || (idleTimeout > 0 && now - lastUsed > idleTimeout);
+		}
+	}
+
+	private final class PooledContextHandler implements InvocationHandler {
+		private final PooledContext pooled;
+		private final AtomicBoolean released = new AtomicBoolean();
+		private final AtomicInteger inUse = new AtomicInteger();
+		private volatile boolean broken;
+
+		private PooledContextHandler(PooledContext pooled) {
+			this.pooled = pooled;
+		}
+
+		private void enter() {
+			inUse.incrementAndGet();
+			pooled.lastUsed = System.currentTimeMillis();
+		}
+
+		private void exit(Throwable error) {
+			if (error instanceof CommunicationException || error instanceof ServiceUnavailableException) {
+				broken = true;
+			}
+			pooled.lastUsed = System.currentTimeMillis();
+			inUse.decrementAndGet();
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					return "Pooled[" + pooled.context + "]";
+				}
+			}
+			if ("close".equals(method.getName())) {
+				if (released.compareAndSet(false, true)) {
+					release(pooled, broken);
+				}
+				return null;
+			}
+			if (released.get()) {
+				throw new IllegalStateException("Pooled LDAP context has already been returned to the pool.");
+			}
+			Throwable error = null;
+			enter();
+			try {
+				Object result = method.invoke(pooled.context, args);
+				return result instanceof NamingEnumeration
+						? new PooledEnumeration<Object>(this, (NamingEnumeration<?>) result)
+						: result;
+			} catch (InvocationTargetException ite) {
+				throw error = ite.getCause();
+			} finally {
+				exit(error);
+			}
+		}
+	}
+
+	/**
+	 * Wraps an enumeration returned by a borrowed context, so that a long
+	 * search being read slowly keeps the context from being reclaimed.
+	 */
+	private static final class PooledEnumeration<T> implements NamingEnumeration<T> {
+		private final PooledContextHandler handler;
+		private final NamingEnumeration<? extends T> enumeration;
+
+		private PooledEnumeration(PooledContextHandler handler, NamingEnumeration<? extends T> enumeration) {
+			this.handler = handler;
+			this.enumeration = enumeration;
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			handler.enter();
+			try {
+				return enumeration.hasMoreElements();
+			} finally {
+				handler.exit(null);
+			}
+		}
+
+		@Override
+		public T nextElement() {
+			handler.enter();
+			try {
+				return enumeration.nextElement();
+			} finally {
+				handler.exit(null);
+			}
+		}
+
+		@Override
+		public T next() throws NamingException {
+			NamingException error = null;
+			handler.enter();
+			try {
+				return enumeration.next();
+			} catch (NamingException ne) {
+				throw error = ne;
+			} finally {
+				handler.exit(error);
+			}
+		}
+
+		@Override
+		public boolean hasMore() throws NamingException {
+			NamingException error = null;
+			handler.enter();
+			try {
+				return enumeration.hasMore();
+			} catch (NamingException ne) {
+				throw error = ne;
+			} finally {
+				handler.exit(error);
+			}
+		}
+
+		@Override
+		public void close() throws NamingException {
+			enumeration.close();
+		}
+	}
+}
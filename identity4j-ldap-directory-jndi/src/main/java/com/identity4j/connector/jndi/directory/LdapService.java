@@ -25,8 +25,14 @@ package com.identity4j.connector.jndi.directory;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.Context;
 import javax.naming.Name;
@@ -66,9 +72,16 @@ public class LdapService {
 
 	public static final String OBJECT_CLASS_ATTRIBUTE = "objectClass";
 
+	/**
+	 * Special attribute list that requests no attributes (RFC 4511)
+	 */
+	public static final String NO_ATTRIBUTES = "1.1";
+
 	private AbstractDirectoryConfiguration configuration;
 	private SocketFactory socketFactory;
 	private Hashtable<String, String> env = new Hashtable<String, String>();
+	private LdapContextPool pool;
+	private ExecutorService searchExecutor;
 
 	public void openConnection() throws NamingException, IOException {
 		checkLDAPHost();
@@ -80,6 +93,14 @@ public class LdapService {
 						configuration.getSecurityProtocol().equalsIgnoreCase(DirectoryConfiguration.SSL),
 						configuration.getControllerHosts()));
 		configureSocket(env);
+		if (configuration.isPoolEnabled()) {
+			pool = new LdapContextPool(new LdapContextPool.ContextFactory() {
+				@Override
+				public LdapContext create() throws NamingException {
+					return createConnection();
+				}
+			}, configuration);
+		}
 		lookupContext(configuration.getBaseDn());
 	}
 
@@ -98,16 +119,40 @@ public class LdapService {
 		this.socketFactory = socketFactory;
 	}
 
+	/**
+	 * Get the connection pool, or <code>null</code> if pooling is disabled.
+	 * 
+	 * @return pool
+	 */
+	public LdapContextPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Get a service account connection. When pooling is enabled this is borrowed
+	 * from the pool, and closing it returns it to the pool.
+	 * 
+	 * @param controls request controls
+	 * @return connection
+	 * @throws NamingException
+	 */
 	public LdapContext getConnection(Control... controls) throws NamingException {
+		if (pool != null) {
+			return pool.borrow(controls);
+		}
+		LdapContext ctx = createConnection();
+		ctx.setRequestControls(controls);
+		return ctx;
+	}
+
+	private LdapContext createConnection() throws NamingException {
 		if (socketFactory != null) {
 			env.put(LDAP_SOCKET_FACTORY, ThreadLocalSocketFactory.class.getName());
 			ThreadLocalSocketFactory.set(socketFactory);
 		}
 		configureSocket(env);
 		try {
-			InitialLdapContext ctx = new InitialLdapContext(env, null);
-			ctx.setRequestControls(controls);
-			return ctx;
+			return new InitialLdapContext(env, null);
 		} finally {
 			if (socketFactory != null) {
 				ThreadLocalSocketFactory.remove();
@@ -174,6 +219,19 @@ public class LdapService {
 	}
 
 	public void close() {
+		synchronized (this) {
+			if (searchExecutor != null) {
+				searchExecutor.shutdownNow();
+				searchExecutor = null;
+			}
+		}
+		if (pool != null) {
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Closing " + pool);
+			}
+			pool.close();
+			pool = null;
+		}
 	}
 
 	private void close(DirContext ctx) {
@@ -190,7 +248,7 @@ public class LdapService {
 		return searchControls;
 	}
 
-	LdapService() {
+	protected LdapService() {
 	}
 
 	public void init(AbstractDirectoryConfiguration configuration) {
@@ -218,13 +276,159 @@ public class LdapService {
 		});
 	}
 
+	public Attributes getAttributes(Name dn, String... attrIds) throws NamingException, IOException {
+		return processBlock(new Block<Attributes>() {
+
+			@Override
+			public Attributes apply(LdapContext context) throws NamingException, IOException {
+				return context.getAttributes(dn, attrIds);
+			}
+		});
+	}
+
 	public <T> ResultIterator<T> search(Filter filter, ResultMapper<T> resultMapper, SearchControls searchControls, OperationContext opContext)
 			throws NamingException, IOException {
+		if (configuration.isParallelSearch() && resultMapper.isApplyFilters() && isBackgroundSearch()) {
+			List<Name> dns = getSearchBases();
+			if (dns.size() > 1) {
+				return new ParallelSearchResultsIterator<T>(this, dns, filter, searchControls, configuration,
+						resultMapper, opContext, getSearchExecutor(), getReadAhead());
+			}
+		}
 		return search(configuration.getBaseDn(), filter, resultMapper, searchControls, opContext);
 	}
 
+	/**
+	 * Count the entries matching a filter without retrieving any attributes or
+	 * mapping any results. The same paged (and if configured, parallel) search
+	 * as {@link #search(Filter, ResultMapper, SearchControls, OperationContext)}
+	 * is used, so the include and exclude DNs are honoured when
+	 * <code>applyFilters</code> is set.
+	 * 
+	 * @param filter filter
+	 * @param searchControls search controls, only the scope and limits are used
+	 * @param applyFilters apply include and exclude DNs
+	 * @param opContext operation context
+	 * @return number of matching entries
+	 * @throws NamingException
+	 * @throws IOException
+	 */
+	public long count(Filter filter, SearchControls searchControls, final boolean applyFilters,
+			OperationContext opContext) throws NamingException, IOException {
+		SearchControls countControls = new SearchControls(searchControls.getSearchScope(),
+				searchControls.getCountLimit(), searchControls.getTimeLimit(), new String[] { NO_ATTRIBUTES }, false,
+				false);
+		ResultIterator<Boolean> it = search(filter, new ResultMapper<Boolean>() {
+			@Override
+			public Boolean apply(SearchResult result) {
+				return Boolean.TRUE;
+			}
+
+			@Override
+			public boolean isApplyFilters() {
+				return applyFilters;
+			}
+		}, countControls, opContext);
+		long count = 0;
+		for (; it.hasNext(); count++) {
+			it.next();
+		}
+		return count;
+	}
+
+	/**
+	 * Get the DNs to search when results are filtered by the configured
+	 * includes. Any include that is inside another include is dropped so no
+	 * entry is returned twice.
+	 * 
+	 * @return search bases
+	 */
+	protected List<Name> getSearchBases() {
+		List<Name> dns = new ArrayList<Name>();
+		for (Name include : configuration.getIncludes()) {
+			if (dns.contains(include)) {
+				continue;
+			}
+			boolean nested = false;
+			for (Name other : configuration.getIncludes()) {
+				if (other.size() < include.size() && include.startsWith(other)) {
+					nested = true;
+					break;
+				}
+			}
+			if (!nested) {
+				dns.add(include);
+			}
+		}
+		return dns;
+	}
+
+	/**
+	 * Get the maximum number of entries a background search may read ahead of
+	 * the consumer.
+	 * 
+	 * @return read ahead
+	 */
+	protected int getReadAhead() {
+		int depth = configuration.isPrefetch() ? Math.max(1, configuration.getPrefetchDepth()) : 1;
+		return configuration.getMaxPageSize() * depth;
+	}
+
+	/**
+	 * Get whether a search should read ahead on a background thread. Only
+	 * listings that may span more than one page are worth it, lookups of a
+	 * single object or a handful of entries are run on the caller's thread.
+	 * 
+	 * @param searchControls search controls
+	 * @return prefetch
+	 */
+	protected boolean isPrefetch(SearchControls searchControls) {
+		return configuration.isPrefetch() && searchControls.getSearchScope() != SearchControls.OBJECT_SCOPE
+				&& (searchControls.getCountLimit() == 0
+						|| searchControls.getCountLimit() > configuration.getMaxPageSize());
+	}
+
+	/**
+	 * Get whether a search may run on the search executor. Not when the caller
+	 * is mapping the results of a background search, whose workers may fill
+	 * the executor and hold pooled connections while they wait for it, so a
+	 * nested search is run on the caller's thread instead. Nor when the pool
+	 * has a single connection, as a worker would hold it while the result
+	 * mapper needs it.
+	 * 
+	 * @return background search
+	 */
+	protected boolean isBackgroundSearch() {
+		LdapContextPool pool = getPool();
+		return !ParallelSearchResultsIterator.isInSearch() && (pool == null || pool.getMaxSize() > 1);
+	}
+
+	protected synchronized ExecutorService getSearchExecutor() {
+		if (searchExecutor == null) {
+			int threads = configuration.getSearchThreads();
+			if (pool != null) {
+				/* Leave at least one pooled connection for the result mapper */
+				threads = Math.min(threads, pool.getMaxSize() - 1);
+			}
+			final AtomicInteger counter = new AtomicInteger();
+			searchExecutor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "LdapSearch-" + counter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return searchExecutor;
+	}
+
 	public <T> ResultIterator<T> search(final Name baseDN, final Filter filter, final ResultMapper<T> resultMapper,
 			final SearchControls searchControls, OperationContext opContext) throws NamingException, IOException {
+		if (isPrefetch(searchControls) && isBackgroundSearch()) {
+			return new ParallelSearchResultsIterator<T>(this, Arrays.asList(baseDN), filter, searchControls,
+					configuration, resultMapper, opContext, getSearchExecutor(), getReadAhead());
+		}
 		return processBlockNoClose(new Block<ResultIterator<T>>() {
 
 			public ResultIterator<T> apply(LdapContext context) throws IOException, NamingException {
@@ -0,0 +1,308 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.OperationContext;
+import com.identity4j.connector.ResultIterator;
+import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
+import com.identity4j.connector.jndi.directory.filter.Filter;
+
+/**
+ * Searches several base DNs at once. Each DN is searched on its own context
+ * with its own paged search, running on a bounded executor. Raw results are
+ * placed on a bounded queue which this iterator drains, so include/exclude
+ * filtering and the {@link ResultMapper} still run on the consuming thread.
+ * <p>
+ * Results are returned in the order they arrive, so entries from different
+ * base DNs will be interleaved.
+ * <p>
+ * With a single base DN this acts as a read-ahead iterator, the next page is
+ * requested in the background while the current page is being mapped. The
+ * queue capacity bounds how many entries may be read ahead.
+ * <p>
+ * If results are not consumed for longer than the read timeout the searches
+ * are stopped, and the consumer gets an error rather than a truncated result
+ * when it next asks for more.
+ * <p>
+ * While a result is being mapped, and on the worker threads, the thread is
+ * marked as {@link #isInSearch()} so that any search started there is run
+ * on that thread rather than queued behind the workers waiting for it.
+ */
+public class ParallelSearchResultsIterator<T> implements ResultIterator<T>, Closeable {
+
+	final static Log LOG = LogFactory.getLog(ParallelSearchResultsIterator.class);
+
+	private static final Object END = new Object();
+
+	private static final ThreadLocal<Boolean> IN_SEARCH = new ThreadLocal<Boolean>();
+
+	private static final ResultMapper<SearchResult> RAW_MAPPER = new ResultMapper<SearchResult>() {
+		@Override
+		public SearchResult apply(SearchResult result) {
+			return result;
+		}
+
+		@Override
+		public boolean isApplyFilters() {
+			return false;
+		}
+	};
+
+	private final LdapService ldapService;
+	private final Filter filter;
+	private final SearchControls searchControls;
+	private final AbstractDirectoryConfiguration configuration;
+	private final ResultMapper<T> filteredMapper;
+	private final OperationContext opContext;
+	private final BlockingQueue<Object> queue;
+	private final List<Future<?>> tasks = new ArrayList<Future<?>>();
+	private final long offerTimeout;
+
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private volatile boolean cancelled;
+	private T next;
+
+	public ParallelSearchResultsIterator(LdapService ldapService, Collection<? extends Name> dns, Filter filter,
+			SearchControls searchControls, AbstractDirectoryConfiguration configuration,
+			ResultMapper<T> filteredMapper, OperationContext opContext, ExecutorService executor) {
+		this(ldapService, dns, filter, searchControls, configuration, filteredMapper, opContext, executor,
+				configuration.getMaxPageSize());
+	}
+
+	public ParallelSearchResultsIterator(LdapService ldapService, Collection<? extends Name> dns, Filter filter,
+			SearchControls searchControls, AbstractDirectoryConfiguration configuration,
+			ResultMapper<T> filteredMapper, OperationContext opContext, ExecutorService executor, int capacity) {
+		this.ldapService = ldapService;
+		this.filter = filter;
+		this.searchControls = searchControls;
+		this.configuration = configuration;
+		this.filteredMapper = filteredMapper;
+		this.opContext = opContext;
+		this.queue = new ArrayBlockingQueue<Object>(Math.max(1, capacity));
+		this.offerTimeout = Math.max(configuration.getReadTimeout(), 1000);
+
+		LOG.info(String.format("New background search iterator using filter: %s for DNs: %s (read ahead %d)",
+				filter == null ? "<none>" : filter.encode(), dns, capacity));
+
+		running.set(dns.size());
+		for (Name dn : dns) {
+			tasks.add(executor.submit(new DnSearch(dn)));
+		}
+	}
+
+	/**
+	 * Get whether the current thread is mapping the results of, or running, a
+	 * background search.
+	 * 
+	 * @return in search
+	 */
+	static boolean isInSearch() {
+		return Boolean.TRUE.equals(IN_SEARCH.get());
+	}
+
+	@Override
+	public String tag() {
+		return opContext.getTag();
+	}
+
+	@Override
+	public boolean hasNext() {
+		fetchNext();
+		return next != null;
+	}
+
+	@Override
+	public T next() {
+		try {
+			fetchNext();
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			return next;
+		} finally {
+			next = null;
+		}
+	}
+
+	@Override
+	public void remove() {
+	}
+
+	/**
+	 * Stop all searches that are still running and discard any queued results.
+	 */
+	@Override
+	public void close() {
+		cancelled = true;
+		for (Future<?> task : tasks) {
+			task.cancel(true);
+		}
+		running.set(0);
+		queue.clear();
+	}
+
+	void fetchNext() {
+		while (next == null) {
+			Throwable t = failure.get();
+			if (t != null) {
+				close();
+				if (t instanceof RuntimeException) {
+					throw (RuntimeException) t;
+				}
+				throw new IllegalStateException(t.getMessage(), t);
+			}
+
+			/*
+			 * Workers count down before their final wake up, so once none are
+			 * running everything they found is already on the queue
+			 */
+			boolean finished = running.get() == 0;
+			Object item;
+			try {
+				item = finished ? queue.poll() : queue.poll(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new IllegalStateException("Interrupted waiting for search results.", e);
+			}
+
+			if (item == null) {
+				if (finished) {
+					return;
+				}
+			} else if (item != END) {
+				SearchResult result = (SearchResult) item;
+				Boolean wasInSearch = IN_SEARCH.get();
+				IN_SEARCH.set(Boolean.TRUE);
+				try {
+					if (filteredMapper.isApplyFilters() && !SearchResultsIterator.isIncluded(configuration, result)) {
+						continue;
+					}
+					next = filteredMapper.apply(result);
+				} catch (NamingException e) {
+					LOG.error("Failed to get results", e);
+					close();
+					throw new IllegalStateException(e.getMessage(), e);
+				} catch (IOException e) {
+					LOG.error("Failed to get results", e);
+					close();
+					throw new IllegalStateException(e.getMessage(), e);
+				} finally {
+					IN_SEARCH.set(wasInSearch);
+				}
+			}
+		}
+	}
+
+	private boolean offer(Object item) {
+		long waited = 0;
+		try {
+			while (!cancelled) {
+				if (queue.offer(item, 1, TimeUnit.SECONDS)) {
+					return true;
+				}
+				waited += 1000;
+				if (waited >= offerTimeout) {
+					LOG.warn("Parallel search results have not been consumed for " + waited
+							+ "ms, stopping the search.");
+					fail(new IllegalStateException(
+							"Search results were not consumed for " + waited + "ms, the search was stopped."));
+				}
+			}
+		} catch (InterruptedException ie) {
+			cancelled = true;
+		}
+		return false;
+	}
+
+	private void fail(Throwable t) {
+		failure.compareAndSet(null, t);
+		cancelled = true;
+	}
+
+	private final class DnSearch implements Runnable {
+		private final Name dn;
+
+		private DnSearch(Name dn) {
+			this.dn = dn;
+		}
+
+		@Override
+		public void run() {
+			LdapContext context = null;
+			SearchResultsIterator<SearchResult> it = null;
+			IN_SEARCH.set(Boolean.TRUE);
+			try {
+				context = ldapService.getConnection();
+				it = new SearchResultsIterator<SearchResult>(Arrays.asList(dn), filter, searchControls,
+						configuration, RAW_MAPPER, context, opContext);
+				while (!cancelled && it.hasNext()) {
+					if (!offer(it.next())) {
+						break;
+					}
+				}
+			} catch (Throwable t) {
+				LOG.error("Failed to search " + dn, t);
+				fail(t);
+			} finally {
+				if (it != null) {
+					it.close();
+				} else if (context != null) {
+					try {
+						context.close();
+					} catch (NamingException e) {
+					}
+				}
+				IN_SEARCH.remove();
+				running.decrementAndGet();
+				/* Wake the consumer, it also polls so this may be dropped */
+				queue.offer(END);
+			}
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.identity4j.connector.jndi.directory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Arrays;
 
@@ -40,7 +41,7 @@ import com.identity4j.connector.ResultIterator;
 import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
 import com.identity4j.connector.jndi.directory.filter.Filter;
 
-public class SearchResultsIterator<T extends Object> implements ResultIterator<T> {
+public class SearchResultsIterator<T extends Object> implements ResultIterator<T>, Closeable {
 
 	final static Log LOG = LogFactory.getLog(LdapService.class);
 
@@ -83,7 +84,14 @@ public class SearchResultsIterator<T extends Object> implements ResultIterator<T
 		return next != null;
 	}
 
-	private void close() {
+	/**
+	 * Stop the search and release the context. This is called automatically
+	 * when the results are exhausted, but should be called by anything that
+	 * abandons the iterator early so a pooled context is returned promptly.
+	 */
+	@Override
+	public void close() {
+		closeListIterator();
 		if (context != null) {
 			try {
 				context.close();
@@ -200,29 +208,8 @@ public class SearchResultsIterator<T extends Object> implements ResultIterator<T
 							
 
 							
-							if (filteredMapper.isApplyFilters()) {
-
-								Name resultName = new LdapName(result.getNameInNamespace());
-								boolean include = configuration.getIncludes().isEmpty();
-								if (!include) {
-									for (Name name : configuration.getIncludes()) {
-										if (resultName.startsWith(name)) {
-											include = true;
-											break;
-										}
-									}
-								}
-			
-								for (Name name : configuration.getExcludes()) {
-									if (resultName.startsWith(name)) {
-										include = false;
-										break;
-									}
-								}
-			
-								if (!include) {
-									continue;
-								}
+							if (filteredMapper.isApplyFilters() && !isIncluded(configuration, result)) {
+								continue;
 							}
 							next = filteredMapper.apply(result);
 						}
@@ -296,6 +283,37 @@ public class SearchResultsIterator<T extends Object> implements ResultIterator<T
 		}
 	}
 
+	/**
+	 * Get whether a search result falls within the configured include DNs and
+	 * outside of the configured exclude DNs.
+	 * 
+	 * @param configuration configuration
+	 * @param result result
+	 * @return included
+	 * @throws NamingException
+	 */
+	public static boolean isIncluded(AbstractDirectoryConfiguration configuration, SearchResult result)
+			throws NamingException {
+		Name resultName = new LdapName(result.getNameInNamespace());
+		boolean include = configuration.getIncludes().isEmpty();
+		if (!include) {
+			for (Name name : configuration.getIncludes()) {
+				if (resultName.startsWith(name)) {
+					include = true;
+					break;
+				}
+			}
+		}
+
+		for (Name name : configuration.getExcludes()) {
+			if (resultName.startsWith(name)) {
+				include = false;
+				break;
+			}
+		}
+		return include;
+	}
+
 	protected void closeListIterator() {
 		if (listIterator != null) {
 			try {
@@ -0,0 +1,199 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapContext;
+
+import org.junit.Test;
+
+public class LdapContextPoolTest {
+
+	private final AtomicInteger closed = new AtomicInteger();
+	private volatile boolean failValidation;
+
+	@Test
+	public void contextIsReused() throws NamingException {
+		LdapContextPool pool = new LdapContextPool(factory(), 2, 0, 0, 1000, true);
+		LdapContext ctx = pool.borrow();
+		assertEquals(1, pool.getBorrowed());
+		ctx.close();
+		assertEquals(0, pool.getBorrowed());
+		assertEquals(1, pool.getIdle());
+
+		pool.borrow().close();
+		assertEquals(1, pool.getCreated());
+		assertEquals(2, pool.getBorrowCount());
+		assertEquals(0, closed.get());
+	}
+
+	@Test
+	public void exhaustedPoolTimesOut() throws NamingException {
+		LdapContextPool pool = new LdapContextPool(factory(), 1, 0, 0, 50, false);
+		LdapContext ctx = pool.borrow();
+		try {
+			pool.borrow();
+			fail("Expected pool to be exhausted");
+		} catch (ServiceUnavailableException sue) {
+		}
+		ctx.close();
+		pool.borrow().close();
+		assertTrue(pool.getTotalWaitTime() >= 50);
+	}
+
+	@Test
+	public void brokenContextIsDiscarded() throws NamingException {
+		LdapContextPool pool = new LdapContextPool(factory(), 2, 0, 0, 1000, false);
+		LdapContext ctx = pool.borrow();
+		try {
+			ctx.lookup("fail");
+			fail("Expected communication failure");
+		} catch (CommunicationException ce) {
+		}
+		ctx.close();
+		assertEquals(0, pool.getIdle());
+		assertEquals(1, closed.get());
+	}
+
+	@Test
+	public void invalidContextIsReplaced() throws NamingException {
+		LdapContextPool pool = new LdapContextPool(factory(), 2, 0, 0, 1000, true);
+		pool.borrow().close();
+		failValidation = true;
+		LdapContext ctx = pool.borrow();
+		assertEquals(1, pool.getValidationFailures());
+		assertEquals(2, pool.getCreated());
+		ctx.close();
+	}
+
+	@Test
+	public void closedPoolClosesContexts() throws NamingException {
+		LdapContextPool pool = new LdapContextPool(factory(), 2, 0, 0, 1000, false);
+		LdapContext ctx1 = pool.borrow();
+		pool.borrow().close();
+		pool.close();
+		assertEquals(1, closed.get());
+		ctx1.close();
+		assertEquals(2, closed.get());
+	}
+
+	@Test
+	public void abandonedContextIsReclaimed() throws NamingException, InterruptedException {
+		LdapContextPool pool = new LdapContextPool(factory(), 1, 0, 0, 1000, false, 50);
+		LdapContext ctx = pool.borrow();
+		Thread.sleep(100);
+		LdapContext ctx2 = pool.borrow();
+		assertEquals(1, pool.getReclaimed());
+		assertEquals(1, closed.get());
+		ctx.close();
+		assertEquals(1, pool.getBorrowed());
+		ctx2.close();
+		assertEquals(0, pool.getBorrowed());
+	}
+
+	@Test
+	public void contextBeingEnumeratedIsNotReclaimed() throws NamingException, InterruptedException {
+		LdapContextPool pool = new LdapContextPool(factory(), 2, 0, 0, 1000, false, 50);
+		LdapContext ctx = pool.borrow();
+		NamingEnumeration<?> results = ctx.search("", "(objectClass=*)", null);
+		for (int i = 0; i < 4; i++) {
+			Thread.sleep(30);
+			assertTrue(results.hasMore());
+			results.next();
+			pool.evict();
+		}
+		assertEquals(0, pool.getReclaimed());
+		ctx.close();
+		assertEquals(0, closed.get());
+	}
+
+	private LdapContextPool.ContextFactory factory() {
+		return new LdapContextPool.ContextFactory() {
+			@Override
+			public LdapContext create() throws NamingException {
+				return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+						new Class<?>[] { LdapContext.class }, new InvocationHandler() {
+							@Override
+							public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+								switch (method.getName()) {
+								case "close":
+									closed.incrementAndGet();
+									return null;
+								case "getAttributes":
+									if (failValidation) {
+										failValidation = false;
+										throw new CommunicationException("Gone");
+									}
+									return new BasicAttributes();
+								case "lookup":
+									throw new CommunicationException("Gone");
+								case "search":
+									return new NamingEnumerationStub();
+								default:
+									return null;
+								}
+							}
+						});
+			}
+		};
+	}
+
+	static class NamingEnumerationStub implements NamingEnumeration<Object> {
+		@Override
+		public boolean hasMoreElements() {
+			return true;
+		}
+
+		@Override
+		public Object nextElement() {
+			return new Object();
+		}
+
+		@Override
+		public Object next() {
+			return nextElement();
+		}
+
+		@Override
+		public boolean hasMore() {
+			return hasMoreElements();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
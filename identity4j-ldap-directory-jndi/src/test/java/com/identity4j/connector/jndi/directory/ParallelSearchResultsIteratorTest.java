@@ -0,0 +1,365 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.naming.Name;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.identity4j.connector.OperationContext;
+import com.identity4j.connector.ResultIterator;
+import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
+import com.identity4j.connector.jndi.directory.filter.Eq;
+import com.identity4j.util.MultiMap;
+
+public class ParallelSearchResultsIteratorTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void searchesAllIncludesAndAppliesExcludes() {
+		MultiMap parameters = new MultiMap();
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_INCLUDES, "ou=a", "ou=b", "ou=c");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_EXCLUDES, "cn=user1,ou=b");
+		DirectoryConfiguration configuration = new DirectoryConfiguration(parameters);
+
+		LdapService service = new LdapService() {
+			@Override
+			public LdapContext getConnection(Control... controls) {
+				return fakeContext();
+			}
+		};
+		service.init(configuration);
+
+		List<Name> dns = service.getSearchBases();
+		assertEquals(3, dns.size());
+
+		ParallelSearchResultsIterator<String> it = new ParallelSearchResultsIterator<String>(service, dns,
+				new Eq("objectClass", "*"), service.getSearchControls(), configuration, new ResultMapper<String>() {
+					@Override
+					public String apply(SearchResult result) {
+						return result.getNameInNamespace().toLowerCase();
+					}
+
+					@Override
+					public boolean isApplyFilters() {
+						return true;
+					}
+				}, OperationContext.createDefault(), executor);
+
+		Set<String> names = new HashSet<String>();
+		while (it.hasNext()) {
+			names.add(it.next());
+		}
+		assertFalse(it.hasNext());
+		assertEquals(8, names.size());
+		assertFalse(names.contains("cn=user1,ou=b,dc=example,dc=com"));
+	}
+
+	@Test
+	public void prefetchSearchesBaseDn() throws Exception {
+		MultiMap parameters = new MultiMap();
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_MAX_PAGE_SIZE, "2");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_PREFETCH, "true");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_PREFETCH_DEPTH, "2");
+		DirectoryConfiguration configuration = new DirectoryConfiguration(parameters);
+
+		LdapService service = new LdapService() {
+			@Override
+			public LdapContext getConnection(Control... controls) {
+				return fakeContext();
+			}
+
+			@Override
+			protected synchronized ExecutorService getSearchExecutor() {
+				return executor;
+			}
+		};
+		service.init(configuration);
+		assertEquals(4, service.getReadAhead());
+
+		ResultIterator<String> it = service.search(new Eq("objectClass", "*"), new ResultMapper<String>() {
+			@Override
+			public String apply(SearchResult result) {
+				return result.getNameInNamespace().toLowerCase();
+			}
+
+			@Override
+			public boolean isApplyFilters() {
+				return false;
+			}
+		}, service.getSearchControls(), OperationContext.createDefault());
+		assertTrue(it instanceof ParallelSearchResultsIterator);
+
+		List<String> names = new ArrayList<String>();
+		while (it.hasNext()) {
+			names.add(it.next());
+		}
+		assertEquals(Arrays.asList("cn=user0,dc=example,dc=com", "cn=user1,dc=example,dc=com",
+				"cn=user2,dc=example,dc=com"), names);
+	}
+
+	@Test
+	public void nestedSearchRunsOnCallerThread() throws Exception {
+		MultiMap parameters = new MultiMap();
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_PREFETCH, "true");
+		DirectoryConfiguration configuration = new DirectoryConfiguration(parameters);
+		final LdapService service = new LdapService() {
+			@Override
+			public LdapContext getConnection(Control... controls) {
+				return fakeContext();
+			}
+
+			@Override
+			protected synchronized ExecutorService getSearchExecutor() {
+				return executor;
+			}
+		};
+		service.init(configuration);
+
+		final List<ResultIterator<String>> nested = new ArrayList<ResultIterator<String>>();
+		ResultIterator<String> it = service.search(new Eq("objectClass", "*"), new ResultMapper<String>() {
+			@Override
+			public String apply(SearchResult result) throws NamingException, IOException {
+				ResultIterator<String> members = service.search(new Eq("objectClass", "*"), nameMapper(),
+						service.getSearchControls(), OperationContext.createDefault());
+				nested.add(members);
+				while (members.hasNext()) {
+					members.next();
+				}
+				return result.getNameInNamespace();
+			}
+
+			@Override
+			public boolean isApplyFilters() {
+				return false;
+			}
+		}, service.getSearchControls(), OperationContext.createDefault());
+		assertTrue(it instanceof ParallelSearchResultsIterator);
+
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		assertEquals(3, count);
+		assertEquals(3, nested.size());
+		for (ResultIterator<String> members : nested) {
+			assertFalse(members instanceof ParallelSearchResultsIterator);
+		}
+		assertFalse(ParallelSearchResultsIterator.isInSearch());
+	}
+
+	@Test
+	public void singleConnectionPoolSearchesOnCallerThread() throws Exception {
+		MultiMap parameters = new MultiMap();
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_PREFETCH, "true");
+		DirectoryConfiguration configuration = new DirectoryConfiguration(parameters);
+		final LdapContextPool pool = new LdapContextPool(new LdapContextPool.ContextFactory() {
+			@Override
+			public LdapContext create() {
+				return fakeContext();
+			}
+		}, 1, 0, 0, 1000, false);
+		LdapService service = new LdapService() {
+			@Override
+			public LdapContextPool getPool() {
+				return pool;
+			}
+
+			@Override
+			public LdapContext getConnection(Control... controls) throws NamingException {
+				return pool.borrow(controls);
+			}
+		};
+		service.init(configuration);
+
+		ResultIterator<String> it = service.search(new Eq("objectClass", "*"), nameMapper(),
+				service.getSearchControls(), OperationContext.createDefault());
+		assertFalse(it instanceof ParallelSearchResultsIterator);
+	}
+
+	@Test
+	public void prefetchSkipsSingleObjectSearches() throws Exception {
+		MultiMap parameters = new MultiMap();
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_PREFETCH, "true");
+		DirectoryConfiguration configuration = new DirectoryConfiguration(parameters);
+		LdapService service = fakeService(configuration);
+
+		SearchControls controls = service.getSearchControls();
+		assertTrue(service.isPrefetch(controls));
+		controls.setSearchScope(SearchControls.OBJECT_SCOPE);
+		assertFalse(service.isPrefetch(controls));
+		controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		controls.setCountLimit(1);
+		assertFalse(service.isPrefetch(controls));
+	}
+
+	@Test
+	public void stalledConsumerGetsAnError() throws Exception {
+		MultiMap parameters = new MultiMap();
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_READ_TIMEOUT, "1000");
+		DirectoryConfiguration configuration = new DirectoryConfiguration(parameters);
+		LdapService service = fakeService(configuration);
+
+		ParallelSearchResultsIterator<String> it = new ParallelSearchResultsIterator<String>(service,
+				service.getSearchBases(), new Eq("objectClass", "*"), service.getSearchControls(), configuration,
+				nameMapper(), OperationContext.createDefault(), executor, 1);
+		Thread.sleep(2500);
+		try {
+			while (it.hasNext()) {
+				it.next();
+			}
+			fail("Expected the stalled search to fail rather than be truncated");
+		} catch (IllegalStateException ise) {
+		}
+	}
+
+	@Test
+	public void closeEndsIteration() throws Exception {
+		MultiMap parameters = new MultiMap();
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_INCLUDES, "ou=a", "ou=b", "ou=c");
+		DirectoryConfiguration configuration = new DirectoryConfiguration(parameters);
+		LdapService service = fakeService(configuration);
+
+		ParallelSearchResultsIterator<String> it = new ParallelSearchResultsIterator<String>(service,
+				service.getSearchBases(), new Eq("objectClass", "*"), service.getSearchControls(), configuration,
+				nameMapper(), OperationContext.createDefault(), executor, 1);
+		assertTrue(it.hasNext());
+		it.next();
+		it.close();
+		assertFalse(it.hasNext());
+	}
+
+	private LdapService fakeService(DirectoryConfiguration configuration) {
+		LdapService service = new LdapService() {
+			@Override
+			public LdapContext getConnection(Control... controls) {
+				return fakeContext();
+			}
+		};
+		service.init(configuration);
+		return service;
+	}
+
+	private static ResultMapper<String> nameMapper() {
+		return new ResultMapper<String>() {
+			@Override
+			public String apply(SearchResult result) {
+				return result.getNameInNamespace().toLowerCase();
+			}
+
+			@Override
+			public boolean isApplyFilters() {
+				return false;
+			}
+		};
+	}
+
+	private LdapContext fakeContext() {
+		return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LdapContext.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("search")) {
+							List<SearchResult> results = new ArrayList<SearchResult>();
+							for (int i = 0; i < 3; i++) {
+								SearchResult result = new SearchResult("cn=user" + i, null, new BasicAttributes());
+								result.setNameInNamespace("cn=user" + i + "," + args[0]);
+								results.add(result);
+							}
+							return enumeration(results);
+						}
+						return null;
+					}
+				});
+	}
+
+	private static NamingEnumeration<SearchResult> enumeration(final List<SearchResult> results) {
+		final Iterator<SearchResult> it = Collections.unmodifiableList(results).iterator();
+		return new NamingEnumeration<SearchResult>() {
+			@Override
+			public boolean hasMoreElements() {
+				return it.hasNext();
+			}
+
+			@Override
+			public SearchResult nextElement() {
+				return it.next();
+			}
+
+			@Override
+			public SearchResult next() throws NamingException {
+				return it.next();
+			}
+
+			@Override
+			public boolean hasMore() throws NamingException {
+				return it.hasNext();
+			}
+
+			@Override
+			public void close() throws NamingException {
+			}
+		};
+	}
+}
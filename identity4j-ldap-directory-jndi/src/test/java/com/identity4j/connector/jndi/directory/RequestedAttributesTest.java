@@ -0,0 +1,120 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.naming.directory.SearchControls;
+
+import org.junit.Test;
+
+import com.identity4j.connector.OperationContext;
+import com.identity4j.connector.UserGroupRelationshipCache;
+import com.identity4j.util.MultiMap;
+
+public class RequestedAttributesTest {
+
+	@Test
+	public void allAttributesRequestedByDefault() {
+		DirectoryConnector connector = connector();
+		OperationContext opContext = OperationContext.createDefault();
+		assertTrue(connector.isAttributeRequested("mail", opContext));
+		assertNull(connector.configureSearchControls(new SearchControls(), opContext).getReturningAttributes());
+	}
+
+	@Test
+	public void requestedAttributesMatchIgnoringCase() {
+		DirectoryConnector connector = connector();
+		OperationContext opContext = withAttributes(new HashSet<String>(Arrays.asList("mail", "TelephoneNumber")));
+		assertTrue(connector.isAttributeRequested("Mail", opContext));
+		assertTrue(connector.isAttributeRequested("telephoneNumber", opContext));
+		assertFalse(connector.isAttributeRequested("description", opContext));
+
+		opContext = OperationContext.createWithAttributes(OperationContext.createDefault(), "MAIL");
+		assertTrue(connector.isAttributeRequested("mail", opContext));
+	}
+
+	@Test
+	public void searchReturnsRequestedAndRequiredAttributes() {
+		DirectoryConnector connector = connector();
+		OperationContext opContext = withAttributes(new HashSet<String>(Arrays.asList("mail", "MAIL")));
+		Set<String> returned = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		returned.addAll(Arrays.asList(
+				connector.configureSearchControls(new SearchControls(), opContext).getReturningAttributes()));
+		assertTrue(returned.contains("mail"));
+		assertTrue(returned.containsAll(connector.getRequiredIdentityAttributes()));
+		assertEquals(connector.getRequiredIdentityAttributes().size() + 1, returned.size());
+	}
+
+	private static DirectoryConnector connector() {
+		MultiMap parameters = new MultiMap();
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_IDENTITY_GUID_ATTRIBUTE, "entryUUID");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_IDENTITY_NAME_ATTRIBUTE, "uid");
+		parameters.set(AbstractDirectoryConfiguration.DIRECTORY_MEMBER_OF_ATTRIBUTE, "memberOf");
+		DirectoryConnector connector = new DirectoryConnector() {
+			@Override
+			protected void onOpen(DirectoryConfiguration parameters) {
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+		};
+		connector.open(new DirectoryConfiguration(parameters));
+		return connector;
+	}
+
+	private static OperationContext withAttributes(final Set<String> attributes) {
+		return new OperationContext() {
+			@Override
+			public String getTag() {
+				return null;
+			}
+
+			@Override
+			public UserGroupRelationshipCache getRelationshipCache() {
+				return null;
+			}
+
+			@Override
+			public boolean isGroups() {
+				return false;
+			}
+
+			@Override
+			public Set<String> getAttributes() {
+				return attributes;
+			}
+		};
+	}
+}
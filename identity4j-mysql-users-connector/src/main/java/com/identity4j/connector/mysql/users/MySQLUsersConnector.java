@@ -101,15 +101,15 @@ public class MySQLUsersConnector extends JDBCConnector<MySQLUsersConfiguration>
 			@Override
 			public void apply(Connection connection) throws SQLException {
 				UserHost userHost = UserHost.get(identity.getPrincipalName());
-				getMySQLUserConfiguration().prepareCreateIdentity(new NamedParameterStatement(connection),
-						userHost.user, userHost.host, new String(password)).execute();
+				execute(getMySQLUserConfiguration().prepareCreateIdentity(new NamedParameterStatement(connection),
+						userHost.user, userHost.host, new String(password)));
 				// grant all access
 				List<String> accesses = StringUtil.toList(identity.getAttribute(MySqlUsersConstants.USER_ACCESS),
 						MySqlUsersConstants.NEW_LINE);
 
 				for (String a : accesses)
-					getMySQLUserConfiguration().prepareGrantIdentity(new NamedParameterStatement(connection), a,
-							userHost.user, userHost.host).execute();
+					execute(getMySQLUserConfiguration().prepareGrantIdentity(new NamedParameterStatement(connection), a,
+							userHost.user, userHost.host));
 			}
 		});
 
@@ -156,9 +156,9 @@ public class MySQLUsersConnector extends JDBCConnector<MySQLUsersConfiguration>
 
 			@Override
 			public Identity apply(Connection connection) throws SQLException {
-				ResultSet resultSet = getMySQLUserConfiguration()
-						.prepareSelectIdentity(new NamedParameterStatement(connection), userHost.user, userHost.host)
-						.executeQuery();
+				NamedParameterStatement statement = getMySQLUserConfiguration()
+						.prepareSelectIdentity(new NamedParameterStatement(connection), userHost.user, userHost.host);
+				ResultSet resultSet = statement.executeQuery();
 				try {
 
 					JDBCIdentity identity = null;
@@ -183,12 +183,21 @@ public class MySQLUsersConnector extends JDBCConnector<MySQLUsersConfiguration>
 					return identity;
 				} finally {
 					resultSet.close();
+					statement.close();
 				}
 			}
 		});
 
 	}
 
+	private void execute(NamedParameterStatement statement) throws SQLException {
+		try {
+			statement.execute();
+		} finally {
+			statement.close();
+		}
+	}
+
 	/**
 	 * Helper method which sets the properties of identity from JDBC result set.
 	 * 
@@ -347,8 +356,10 @@ public class MySQLUsersConnector extends JDBCConnector<MySQLUsersConfiguration>
 		if (sv == SchemaVersion.AUTO) {
 			PreparedStatement statement = null;
 			ResultSet resultSet = null;
+			Connection connection = null;
 			try {
-				statement = connect.prepareStatement("SHOW COLUMNS FROM user");
+				connection = getConnection();
+				statement = connection.prepareStatement("SHOW COLUMNS FROM user");
 				try {
 					resultSet = statement.executeQuery();
 					while (resultSet.next()) {
@@ -365,6 +376,8 @@ public class MySQLUsersConnector extends JDBCConnector<MySQLUsersConfiguration>
 				}
 			} catch (SQLException e) {
 				throw new ConnectorException(e);
+			} finally {
+				releaseConnection(connection);
 			}
 		}
 		return sv;
@@ -381,8 +394,9 @@ public class MySQLUsersConnector extends JDBCConnector<MySQLUsersConfiguration>
 		return jdbcAction(new JDBCAction<String>() {
 			@Override
 			public String apply(Connection connection) throws SQLException {
-				ResultSet resultSet = getMySQLUserConfiguration()
-						.prepareShowGrants(new NamedParameterStatement(connection), user, host).executeQuery();
+				NamedParameterStatement statement = getMySQLUserConfiguration()
+						.prepareShowGrants(new NamedParameterStatement(connection), user, host);
+				ResultSet resultSet = statement.executeQuery();
 				try {
 					List<String> grants = new ArrayList<String>();
 					while (resultSet.next()) {
@@ -391,6 +405,7 @@ public class MySQLUsersConnector extends JDBCConnector<MySQLUsersConfiguration>
 					return parseGrants(grants);
 				} finally {
 					resultSet.close();
+					statement.close();
 				}
 			}
 		});
@@ -474,9 +489,11 @@ public class MySQLUsersConnector extends JDBCConnector<MySQLUsersConfiguration>
 	private void enableDisableHelper(UserHost userHost, String newHostName) {
 		PreparedStatement statementEnableDisable = null;
 		Statement flush = null;
+		Connection connection = null;
 		try {
-			connect.setAutoCommit(false);
-			statementEnableDisable = connect
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			statementEnableDisable = connection
 					.prepareStatement(getMySQLUserConfiguration().getEnableDisableIdentitySQL());
 
 			statementEnableDisable.setString(1, newHostName);
@@ -488,18 +505,19 @@ public class MySQLUsersConnector extends JDBCConnector<MySQLUsersConfiguration>
 			// We need to flush privileges, else latest updates made to mysql.user tables
 			// are not reflected
 			// in mysql space
-			flush = connect.createStatement();
+			flush = connection.createStatement();
 			flush.execute(getMySQLUserConfiguration().getFlushPrivilegesSQL());
 
-			connect.commit();
+			connection.commit();
 
 		} catch (SQLException e) {
-			rollback(connect);
+			rollback(connection);
 			throw new ConnectorException(e);
 		} finally {
-			autoCommitTrue(connect);
+			autoCommitTrue(connection);
 			closeStatement(statementEnableDisable);
 			closeStatement(flush);
+			releaseConnection(connection);
 		}
 	}
 
@@ -551,13 +569,13 @@ public class MySQLUsersConnector extends JDBCConnector<MySQLUsersConfiguration>
 			public void apply(Connection connection) throws SQLException {
 				// grant all access
 				for (String g : newGrantsToAdd)
-					getMySQLUserConfiguration().prepareGrantIdentity(new NamedParameterStatement(connection), g,
-							userHost.user, userHost.host).execute();
+					execute(getMySQLUserConfiguration().prepareGrantIdentity(new NamedParameterStatement(connection), g,
+							userHost.user, userHost.host));
 
 				// revoke all access
 				for (String g : grantsToRemove)
-					getMySQLUserConfiguration().prepareRevokeIdentity(new NamedParameterStatement(connection), g,
-							userHost.user, userHost.host).execute();
+					execute(getMySQLUserConfiguration().prepareRevokeIdentity(new NamedParameterStatement(connection), g,
+							userHost.user, userHost.host));
 
 			}
 		});
@@ -0,0 +1,210 @@
+package com.identity4j.connector.office365;
+
+/*
+ * #%L
+ * Identity4J OFFICE 365
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.office365.entity.Group;
+import com.identity4j.connector.office365.entity.Principal;
+import com.identity4j.connector.office365.entity.Principals;
+import com.identity4j.connector.office365.services.GroupService;
+import com.identity4j.util.json.JsonArrayIterator;
+
+/**
+ * Group memberships of users, maintained locally from group delta queries.
+ * User delta queries do not report changes to memberships, so these are
+ * tracked here.
+ * <p>
+ * The memberships are shared by all listings, but each listing asks for the
+ * changes since the group delta link in its own tag. The users changed by
+ * each recent sync are kept, keyed on the link the sync started from, so
+ * the changes since any recent link can be given however many listings have
+ * synced since, and a listing that is retried from the same tag gets the
+ * same changes again.
+ */
+class DeltaMemberships {
+	private static final Log log = LogFactory.getLog(DeltaMemberships.class);
+
+	static final String USER_TYPE = "#microsoft.graph.user";
+
+	/** How many syncs to keep the changed users of */
+	static final int MAX_HISTORY = 100;
+
+	private final Map<String, Set<String>> memberOf = new HashMap<String, Set<String>>();
+	private final LinkedHashMap<String, Set<String>> history = new LinkedHashMap<String, Set<String>>();
+	private String deltaLink;
+
+	/**
+	 * The result of a sync.
+	 */
+	static final class Changes {
+		private final Set<String> users;
+		private final String deltaLink;
+
+		private Changes(Set<String> users, String deltaLink) {
+			this.users = users;
+			this.deltaLink = deltaLink;
+		}
+
+		/**
+		 * Get the object ids of users whose memberships changed since the
+		 * link the changes were asked for.
+		 *
+		 * @return users, or <code>null</code> if the changes since that link
+		 *         are not known
+		 */
+		Set<String> getUsers() {
+			return users;
+		}
+
+		/**
+		 * Get the group delta link the memberships are now up to date with,
+		 * to ask for the changes since on a later sync.
+		 *
+		 * @return delta link
+		 */
+		String getDeltaLink() {
+			return deltaLink;
+		}
+	}
+
+	/**
+	 * Apply changes since the previous sync, or build all memberships if this
+	 * is the first or the delta link has expired, and get the users whose
+	 * memberships changed since the given link.
+	 *
+	 * @param groupService group service
+	 * @param since group delta link of a previous sync, or <code>null</code>
+	 * @return changes
+	 */
+	synchronized Changes sync(GroupService groupService, String since) {
+		String from = deltaLink;
+		Set<String> changed = new HashSet<String>();
+		String link = from;
+		while (true) {
+			JsonArrayIterator<Group> it = groupService.delta(link, true);
+			if (it == null) {
+				if (link == null)
+					throw new ConnectorException("Could not start group delta query.");
+				log.info("Group delta link has expired, rebuilding memberships.");
+				memberOf.clear();
+				from = link = null;
+				continue;
+			}
+			try {
+				while (it.hasNext()) {
+					apply(it.next(), changed);
+				}
+			} finally {
+				closeQuietly(it);
+			}
+
+			link = (String) it.getProperty(Principals.NEXT_LINK);
+			if (link == null) {
+				deltaLink = (String) it.getProperty(Principals.DELTA_LINK);
+				break;
+			}
+		}
+
+		if (from == null) {
+			/* Built afresh, so changes since any earlier link are unknown */
+			history.clear();
+		} else {
+			Set<String> users = history.get(from);
+			if (users == null)
+				history.put(from, changed);
+			else
+				users.addAll(changed);
+			for (Iterator<String> it = history.keySet().iterator(); history.size() > MAX_HISTORY;) {
+				it.next();
+				it.remove();
+			}
+		}
+		if (log.isDebugEnabled())
+			log.debug(String.format("Memberships of %d users changed, %d users are members of groups.",
+					changed.size(), memberOf.size()));
+		return new Changes(since == null ? null : changedSince(since), deltaLink);
+	}
+
+	synchronized void clear() {
+		memberOf.clear();
+		history.clear();
+		deltaLink = null;
+	}
+
+	private Set<String> changedSince(String link) {
+		if (link.equals(deltaLink))
+			return new HashSet<String>();
+		Set<String> changed = null;
+		for (Map.Entry<String, Set<String>> en : history.entrySet()) {
+			if (changed == null && en.getKey().equals(link))
+				changed = new HashSet<String>();
+			if (changed != null)
+				changed.addAll(en.getValue());
+		}
+		return changed;
+	}
+
+	private void apply(Group group, Set<String> changed) {
+		String id = group.getObjectId();
+		if (group.isRemoved()) {
+			for (Map.Entry<String, Set<String>> en : memberOf.entrySet()) {
+				if (en.getValue().remove(id))
+					changed.add(en.getKey());
+			}
+			return;
+		}
+
+		if (group.getMembersDelta() != null) {
+			for (Principal member : group.getMembersDelta()) {
+				if (member.getODataType() != null && !USER_TYPE.equals(member.getODataType()))
+					continue;
+				Set<String> ids = memberOf.get(member.getObjectId());
+				if (ids == null) {
+					ids = new HashSet<String>();
+					memberOf.put(member.getObjectId(), ids);
+				}
+				if (member.isRemoved() ? ids.remove(id) : ids.add(id))
+					changed.add(member.getObjectId());
+			}
+		}
+	}
+
+	static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException ioe) {
+		}
+	}
+}
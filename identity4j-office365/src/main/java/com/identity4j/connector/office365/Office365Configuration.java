@@ -99,6 +99,10 @@ public class Office365Configuration extends AbstractConnectorConfiguration {
 	 * Configuration property key for preload groups users
 	 */
 	public static final String OFFICE365_PRELOAD_GROUPS_USERS = "office365PreloadGroupsUser";
+	/**
+	 * Configuration property key for using delta queries
+	 */
+	public static final String OFFICE365_DELTA_QUERY = "office365DeltaQuery";
 	
 	/**
 	 * During authentication authority required, a URI with tenant name
@@ -271,6 +275,18 @@ public class Office365Configuration extends AbstractConnectorConfiguration {
 	public boolean isPreloadGroupsUsers() {
 		return "true".equals(configurationParameters.getStringOrDefault(OFFICE365_PRELOAD_GROUPS_USERS, "true"));
 	}
+
+	/**
+	 * Whether identities and roles should be listed using delta queries, so
+	 * that when the tag of a previous listing is supplied only the principals
+	 * that have changed or been removed since are returned. The default is
+	 * <code>false</code>.
+	 * 
+	 * @return use delta queries
+	 */
+	public boolean isDeltaQuery() {
+		return "true".equals(configurationParameters.getStringOrDefault(OFFICE365_DELTA_QUERY, "false"));
+	}
 	
 	public Set<String> getIncludedGroups() {
 		String[] vals = configurationParameters.getStringArrayOrDefault(OFFICE365_INCLUDED_GROUPS);
@@ -22,14 +22,19 @@ package com.identity4j.connector.office365;
  * #L%
  */
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -49,23 +54,23 @@ import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PrincipalAlreadyExistsException;
 import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.office365.entity.Group;
-import com.identity4j.connector.office365.entity.Groups;
 import com.identity4j.connector.office365.entity.Principals;
 import com.identity4j.connector.office365.entity.User;
-import com.identity4j.connector.office365.entity.Users;
 import com.identity4j.connector.office365.filter.And;
 import com.identity4j.connector.office365.filter.Eq;
 import com.identity4j.connector.office365.filter.Filter;
 import com.identity4j.connector.office365.filter.Or;
 import com.identity4j.connector.office365.filter.Value;
+import com.identity4j.connector.office365.services.Batch;
+import com.identity4j.connector.office365.services.BatchException;
 import com.identity4j.connector.office365.services.Directory;
 import com.identity4j.connector.office365.services.GroupService.GroupMember;
-import com.identity4j.connector.office365.services.GroupService.GroupMembers;
 import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.Principal;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.util.CollectionUtil;
 import com.identity4j.util.StringUtil;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.passwords.PasswordCharacteristics;
 
 import reactor.core.publisher.Mono;
@@ -99,19 +104,17 @@ import reactor.core.publisher.Mono;
  */
 public class Office365Connector extends AbstractConnector<Office365Configuration> {
 
-	private abstract class PrincipalFilterIterator<P extends Principal> implements ResultIterator<P> {
+	private abstract class PrincipalFilterIterator<P extends Principal> implements ResultIterator<P>, Closeable {
 		private P current;
-		private Iterator<P> source;
-		private final OperationContext opContext;
+		private ResultIterator<P> source;
 
-		PrincipalFilterIterator(Iterator<P> source, OperationContext opContext) {
+		PrincipalFilterIterator(ResultIterator<P> source) {
 			this.source = source;
-			this.opContext = opContext;
 		}
 
 		@Override
 		public String tag() {
-			return opContext.getTag();
+			return source.tag();
 		}
 
 		@Override
@@ -137,7 +140,7 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 				while (true) {
 					if (source.hasNext()) {
 						current = source.next();
-						if (matches(current))
+						if (isDeleted(current) || matches(current))
 							return;
 						else
 							// Try next user
@@ -155,12 +158,18 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 		public final void remove() {
 			throw new UnsupportedOperationException();
 		}
+
+		@Override
+		public void close() throws IOException {
+			current = null;
+			closeQuietly(source);
+		}
 	}
 
 	private final class IdentityFilterIterator extends PrincipalFilterIterator<Identity> {
 
-		IdentityFilterIterator(Iterator<Identity> source, OperationContext opContext) {
-			super(source, opContext);
+		IdentityFilterIterator(ResultIterator<Identity> source) {
+			super(source);
 		}
 
 		protected boolean matches(Identity identity) {
@@ -205,23 +214,25 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 
 	private final class RoleFilterIterator extends PrincipalFilterIterator<Role> {
 
+		Set<String> inc = getConfiguration().isDeltaQuery() ? getConfiguration().getIncludedGroups() : Collections.<String>emptySet();
 		Set<String> exc = getConfiguration().getExcludedGroups();
 
-		RoleFilterIterator(Iterator<Role> source, OperationContext opContext) {
-			super(source, opContext);
+		RoleFilterIterator(ResultIterator<Role> source) {
+			super(source);
 		}
 
 		protected boolean matches(Role group) {
-			return exc.isEmpty() || !matchesGroups(group, exc);
+			/* Included groups are filtered server side, except for delta queries */
+			return (inc.isEmpty() || matchesGroups(group, inc)) && (exc.isEmpty() || !matchesGroups(group, exc));
 
 		}
 	}
 
-	private abstract class PrincipalIterator<P extends Principal, R extends com.identity4j.connector.office365.entity.Principal, L extends Principals<R>>
-			implements ResultIterator<P> {
-		private L list;
+	private abstract class PrincipalIterator<P extends Principal, R extends com.identity4j.connector.office365.entity.Principal>
+			implements ResultIterator<P>, Closeable {
 		private String nextLink;
-		private Iterator<R> inner;
+		private JsonArrayIterator<R> inner;
+		private LinkedList<R> batch = new LinkedList<R>();
 		private R current;
 		private boolean eof;
 		protected final OperationContext opContext;
@@ -260,7 +271,7 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 
 		protected abstract P convert(R current);
 
-		protected abstract L all(String nextLink);
+		protected abstract JsonArrayIterator<R> all(String nextLink);
 
 		private void checkNext() {
 			if (current != null)
@@ -268,42 +279,56 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 				return;
 
 			while (!eof && current == null) {
-				while (!eof && current == null) {
-					if (list == null) {
-						// Get the next batch
-						list = all(nextLink);
-						nextLink = list.getNextLink();
-						inner = list.getPrincipals() == null ? null : list.getPrincipals().iterator();
-					}
+				if (!batch.isEmpty()) {
+					current = batch.removeFirst();
+					break;
+				}
 
-					if (inner != null && inner.hasNext()) {
-						break;
-					}
+				if (inner == null) {
+					// Start streaming the next page
+					inner = all(nextLink);
+				}
 
-					// Finished inner iterator,
-					list = null;
+				if (inner.hasNext()) {
+					// Gather enough to post-process with one batch request
+					while (batch.size() < Batch.MAX_SIZE && inner.hasNext()) {
+						batch.add(inner.next());
+					}
+					postIterate(batch);
+				} else {
+					// Finished this page, the link to the next follows the principals
+					nextLink = (String) inner.getProperty(Principals.NEXT_LINK);
 					inner = null;
-
 					if (nextLink == null) {
-						eof = true;
 						// No more
-						break;
+						eof = true;
 					}
 				}
-
-				if (inner != null && inner.hasNext()) {
-					current = inner.next();
-					postIterate(current);
-				}
-
 			}
 
 		}
 
-		protected abstract void postIterate(R current);
+		protected abstract void postIterate(List<R> batch);
+
+		/**
+		 * Stop iterating, releasing the response of the page being streamed.
+		 */
+		@Override
+		public void close() throws IOException {
+			eof = true;
+			current = null;
+			batch.clear();
+			if (inner != null) {
+				try {
+					inner.close();
+				} finally {
+					inner = null;
+				}
+			}
+		}
 	}
 
-	private final class IdentityIterator extends PrincipalIterator<Identity, User, Users> {
+	private final class IdentityIterator extends PrincipalIterator<Identity, User> {
 
 		IdentityIterator(OperationContext opContext) {
 			super(opContext);
@@ -325,23 +350,26 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 					Iterator<Role> roleIt = new RoleIterator(opContext);
 					
 					while(roleIt.hasNext()) {
-						Role role = roleIt.next();
-						log.info(String.format("Pre-loading groups users for %s (%s)", role.getGuid(), role.getPrincipalName()));
-						int members = 0;
-						GroupMembersIterator membersIterator = new GroupMembersIterator(role.getGuid());
-						while(membersIterator.hasNext()) {
-							GroupMember member = membersIterator.next();
-							List<Role> r = roleMap.get(member.getId());
-							if(r == null) {
-								r = new ArrayList<Role>();
-								roleMap.put(member.getId(), r);
+						Map<String, Role> batch = new LinkedHashMap<String, Role>();
+						while(roleIt.hasNext() && batch.size() < Batch.MAX_SIZE) {
+							Role role = roleIt.next();
+							batch.put(role.getGuid(), role);
+						}
+						log.info(String.format("Pre-loading groups users for %d groups", batch.size()));
+						for(Map.Entry<String, List<GroupMember>> en : directory.groups().members(batch.keySet()).entrySet()) {
+							Role role = batch.get(en.getKey());
+							for(GroupMember member : en.getValue()) {
+								List<Role> r = roleMap.get(member.getId());
+								if(r == null) {
+									r = new ArrayList<Role>();
+									roleMap.put(member.getId(), r);
+								}
+								r.add(role);
+								userRelationships++;
 							}
-							r.add(role);
-							members++;
-							userRelationships++;
+							log.info(String.format("Group %s (%s) has %d members", role.getGuid(), role.getPrincipalName(), en.getValue().size()));
+							groups++;
 						}
-						log.info(String.format("Group %s (%s) has %d members", role.getGuid(), role.getPrincipalName(), members));
-						groups++;
 					}
 					log.info(String.format("Pre-loaded %d users, %d user relationships in %d groups", roleMap.size(), userRelationships, groups));
 				}
@@ -354,7 +382,7 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 		}
 
 		@Override
-		protected Users all(String nextLink) {
+		protected JsonArrayIterator<User> all(String nextLink) {
 			Filter f = null;
 			if(!getConfiguration().getIncludedUsers().isEmpty()) {
 				Or or = new Or();
@@ -383,19 +411,32 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 			}
 			
 			
-			return directory.users().all(nextLink, f);
+			return directory.users().stream(nextLink, f);
 		}
 
 		@Override
-		protected void postIterate(User current) {
+		protected void postIterate(List<User> batch) {
 			if (!getConfiguration().isPreloadGroupsUsers()) {
-				directory.users().probeGroupsAndRoles(current);
-				log.info(String.format("User %s (%s) has %d roles, is member of %d", current.getUserPrincipalName(), current.getObjectId(), current.getRoles().size(), current.getMemberOf().size()));
+				try {
+					directory.users().probeGroupsAndRoles(batch);
+				}
+				catch(BatchException be) {
+					for(Map.Entry<String, ConnectorException> en : be.getFailures().entrySet()) {
+						log.warn(String.format("Failed to get roles of user %s. %s", en.getKey(), en.getValue().getMessage()));
+					}
+				}
+				for(User current : batch) {
+					if(current.getMemberOf() == null) {
+						current.setMemberOf(Collections.emptyList());
+						current.setRoles(Collections.emptyList());
+					}
+					log.info(String.format("User %s (%s) has %d roles, is member of %d", current.getUserPrincipalName(), current.getObjectId(), current.getRoles().size(), current.getMemberOf().size()));
+				}
 			}
 		}
 	}
 
-	private final class RoleIterator extends PrincipalIterator<Role, Group, Groups> {
+	private final class RoleIterator extends PrincipalIterator<Role, Group> {
 
 		RoleIterator(OperationContext opContext) {
 			super(opContext);
@@ -407,7 +448,7 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 		}
 
 		@Override
-		protected Groups all(String nextLink) {
+		protected JsonArrayIterator<Group> all(String nextLink) {
 			Filter f = null;
 			
 			/** We can only do Include filtering server side, as the 
@@ -431,26 +472,52 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 					f = new And(f, new Value(getConfiguration().getGroupFilterExpression()));
 			}
 			
-			return directory.groups().all(nextLink, f);
+			return directory.groups().stream(nextLink, f);
 		}
 
 		@Override
-		protected void postIterate(Group current) {
+		protected void postIterate(List<Group> batch) {
 		}
 	}
 	
 	
-	private final class GroupMembersIterator implements Iterator<GroupMember> {
-		
-		private GroupMembers list;
-		private String nextLink;
-		private Iterator<GroupMember> inner;
-		private GroupMember current;
+	private abstract class DeltaIterator<P extends Principal, R extends com.identity4j.connector.office365.entity.Principal>
+			implements ResultIterator<P>, Closeable {
+		private String link;
+		private String deltaLink;
+		private JsonArrayIterator<R> inner;
+		private LinkedList<P> converted = new LinkedList<P>();
+		private Iterator<P> remaining;
+		private P current;
 		private boolean eof;
-		private String guid; // group guid whose members to fetch
-		
-		public GroupMembersIterator(String guid) {
-			this.guid = guid;
+		private boolean closed;
+		protected final OperationContext opContext;
+		protected boolean incremental;
+
+		/**
+		 * Continues from the delta link of a previous listing if that starts
+		 * the tag, otherwise starts afresh.
+		 */
+		DeltaIterator(OperationContext opContext, String function) {
+			this.opContext = opContext;
+			String tag = tagPart(opContext.getTag(), 0);
+			incremental = tag != null && tag.contains(function);
+			link = incremental ? tag : null;
+		}
+
+		@Override
+		public String tag() {
+			return eof ? toTag(deltaLink) : opContext.getTag();
+		}
+
+		/**
+		 * Get the tag for the next listing to continue from.
+		 * 
+		 * @param deltaLink delta link
+		 * @return tag
+		 */
+		protected String toTag(String deltaLink) {
+			return deltaLink;
 		}
 
 		@Override
@@ -465,7 +532,7 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 		}
 
 		@Override
-		public final GroupMember next() {
+		public final P next() {
 			checkNext();
 			if (current == null)
 				throw new NoSuchElementException();
@@ -476,47 +543,267 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 			}
 		}
 
+		protected void startAfresh() {
+			link = null;
+			incremental = false;
+		}
+
+		/**
+		 * Convert a batch of changed or removed principals, read together so
+		 * they may be completed with one batch request.
+		 * 
+		 * @return principals, leaving out any to skip
+		 */
+		protected abstract List<P> convert(List<R> batch);
+
+		protected abstract JsonArrayIterator<R> delta(String link);
+
+		/**
+		 * Get any further principals to return once the delta query is done.
+		 * 
+		 * @return principals, which may be <code>null</code> to skip them
+		 */
+		protected Iterator<P> remaining() {
+			return Collections.<P>emptyList().iterator();
+		}
+
+		/**
+		 * Stop iterating, releasing the response of the page being streamed.
+		 * The tag stays that of the listing this continued from, as the
+		 * changes were not all read.
+		 */
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			current = null;
+			converted.clear();
+			remaining = null;
+			if (inner != null) {
+				try {
+					inner.close();
+				} finally {
+					inner = null;
+				}
+			}
+		}
+
 		private void checkNext() {
-			if (current != null)
-				// Already have an unconsumed user
-				return;
+			while (!eof && !closed && current == null) {
+				if (!converted.isEmpty()) {
+					current = converted.removeFirst();
+					continue;
+				}
 
-			while (!eof && current == null) {
-				while (!eof && current == null) {
-					if (list == null) {
-						// Get the next batch
-						list = directory.groups().members(nextLink, guid);
-						nextLink = list.getNextLink();
-						inner = list.getValue() == null ? null : list.getValue().iterator();
-					}
+				if (remaining != null) {
+					if (remaining.hasNext())
+						current = remaining.next();
+					else
+						eof = true;
+					continue;
+				}
 
-					if (inner != null && inner.hasNext()) {
-						break;
+				if (inner == null) {
+					inner = delta(link);
+					if (inner == null) {
+						if (link == null)
+							throw new ConnectorException("Could not start delta query.");
+						log.info("Delta link has expired, listing all principals.");
+						startAfresh();
+						continue;
 					}
+				}
 
-					// Finished inner iterator,
-					list = null;
+				if (inner.hasNext()) {
+					// Gather enough to convert with one batch request
+					List<R> batch = new ArrayList<R>();
+					while (batch.size() < Batch.MAX_SIZE && inner.hasNext()) {
+						batch.add(inner.next());
+					}
+					converted.addAll(convert(batch));
+				} else {
+					// Finished this page, follow the next link or keep the delta link for the next listing
+					link = (String) inner.getProperty(Principals.NEXT_LINK);
+					if (link == null) {
+						deltaLink = (String) inner.getProperty(Principals.DELTA_LINK);
+						remaining = remaining();
+					}
 					inner = null;
+				}
+			}
+		}
+	}
 
-					if (nextLink == null) {
-						eof = true;
-						// No more
-						break;
+	/**
+	 * Lists users, tagged with both the user and the group delta links so the
+	 * next listing gets the membership changes since this one, whatever other
+	 * listings have run in between.
+	 */
+	private final class DeltaIdentityIterator extends DeltaIterator<Identity, User> {
+		private Set<String> changed = new HashSet<String>();
+		private final String groupsDeltaLink;
+
+		DeltaIdentityIterator(OperationContext opContext) {
+			super(opContext, "/users/delta");
+			DeltaMemberships.Changes changes = memberships.sync(directory.groups(),
+					incremental ? tagPart(opContext.getTag(), 1) : null);
+			groupsDeltaLink = changes.getDeltaLink();
+			if (incremental) {
+				if (changes.getUsers() == null) {
+					log.info("Membership changes since the previous listing are not known, listing all users.");
+					startAfresh();
+				} else
+					changed.addAll(changes.getUsers());
+			}
+			if (!StringUtil.isNullOrEmpty(getConfiguration().getUserFilterExpression()))
+				log.warn("The user filter expression is not supported by delta queries and is ignored.");
+		}
+
+		@Override
+		protected void startAfresh() {
+			super.startAfresh();
+			changed.clear();
+		}
+
+		@Override
+		protected JsonArrayIterator<User> delta(String link) {
+			return directory.users().delta(link);
+		}
+
+		@Override
+		protected String toTag(String deltaLink) {
+			return deltaLink + " " + groupsDeltaLink;
+		}
+
+		/**
+		 * After the first round, changed users carry only the properties that
+		 * changed, so get them in full.
+		 */
+		@Override
+		protected List<Identity> convert(List<User> batch) {
+			List<Identity> identities = new ArrayList<Identity>();
+			List<User> users = new ArrayList<User>();
+			List<String> partial = new ArrayList<String>();
+			for (User user : batch) {
+				changed.remove(user.getObjectId());
+				if (user.isRemoved())
+					identities.add(Office365ModelConvertor.removedUserToIdentity(user));
+				else if (incremental)
+					partial.add(user.getObjectId());
+				else
+					users.add(user);
+			}
+			if (!partial.isEmpty())
+				users.addAll(directory.users().get(partial));
+			identities.addAll(toIdentities(users));
+			return identities;
+		}
+
+		/**
+		 * Users whose memberships changed but nothing else are not in the
+		 * delta, so get them separately.
+		 */
+		@Override
+		protected Iterator<Identity> remaining() {
+			final Iterator<String> it = new ArrayList<String>(changed).iterator();
+			changed.clear();
+			return new Iterator<Identity>() {
+				private Iterator<Identity> identities = Collections.<Identity>emptyList().iterator();
+
+				@Override
+				public boolean hasNext() {
+					while (!identities.hasNext() && it.hasNext()) {
+						List<String> objectIds = new ArrayList<String>();
+						while (objectIds.size() < Batch.MAX_SIZE && it.hasNext()) {
+							objectIds.add(it.next());
+						}
+						identities = toIdentities(directory.users().get(objectIds)).iterator();
 					}
+					return identities.hasNext();
+				}
+
+				@Override
+				public Identity next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return identities.next();
 				}
+			};
+		}
 
-				if (inner != null && inner.hasNext()) {
-					current = inner.next();
+		/**
+		 * Convert complete users, probing their groups and roles with one batch
+		 * request. Unlike a full listing, a failed probe fails the listing, so
+		 * the next continues from the same tag rather than clearing the
+		 * memberships of the user.
+		 */
+		private List<Identity> toIdentities(List<User> users) {
+			Set<String> inc = getConfiguration().getIncludedUsers();
+			Set<String> exc = getConfiguration().getExcludedUsers();
+			List<User> included = new ArrayList<User>();
+			for (User user : users) {
+				if ((inc.isEmpty() || inc.contains(user.getDisplayName())) && !exc.contains(user.getDisplayName()))
+					included.add(user);
+			}
+			try {
+				directory.users().probeGroupsAndRoles(included);
+			} catch (BatchException be) {
+				for (ConnectorException ce : be.getFailures().values()) {
+					if (!(ce instanceof PrincipalNotFoundException))
+						throw be;
 				}
+			}
 
+			List<Identity> identities = new ArrayList<Identity>();
+			for (User user : included) {
+				/* Deleted since, so will be in the next delta */
+				if (user.getMemberOf() == null)
+					continue;
+				identities.add(Office365ModelConvertor.convertOffice365UserToOfficeIdentity(user));
 			}
+			return identities;
+		}
+	}
+
+	private final class DeltaRoleIterator extends DeltaIterator<Role, Group> {
+
+		DeltaRoleIterator(OperationContext opContext) {
+			super(opContext, "/groups/delta");
+			if (!StringUtil.isNullOrEmpty(getConfiguration().getGroupFilterExpression()))
+				log.warn("The group filter expression is not supported by delta queries and is ignored.");
+		}
 
+		@Override
+		protected JsonArrayIterator<Group> delta(String link) {
+			return directory.groups().delta(link, false);
 		}
 
+		@Override
+		protected List<Role> convert(List<Group> batch) {
+			List<Role> roles = new ArrayList<Role>();
+			for (Group group : batch) {
+				roles.add(group.isRemoved() ? Office365ModelConvertor.removedGroupToRole(group)
+						: Office365ModelConvertor.groupToRole(group));
+			}
+			return roles;
+		}
 	}
 
+	/**
+	 * Get a space separated part of a delta listing tag.
+	 * 
+	 * @param tag tag
+	 * @param index index of part
+	 * @return part or <code>null</code> if there is no such part
+	 */
+	private static String tagPart(String tag, int index) {
+		if (tag == null)
+			return null;
+		String[] parts = tag.split(" ");
+		return index < parts.length ? parts[index] : null;
+	}
 
 	private Directory directory;
+	private final DeltaMemberships memberships = new DeltaMemberships();
 	private static final Log log = LogFactory.getLog(Office365Connector.class);
 	private boolean isDeletePrivilege = true;
 
@@ -574,7 +861,8 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 	 */
 	@Override
 	public ResultIterator<Role> allRoles(OperationContext opContext) throws ConnectorException {
-		return isGroupFilterInUse() ? new RoleFilterIterator(new RoleIterator(opContext), opContext) : new RoleIterator(opContext);
+		ResultIterator<Role> it = getConfiguration().isDeltaQuery() ? new DeltaRoleIterator(opContext) : new RoleIterator(opContext);
+		return isGroupFilterInUse() ? new RoleFilterIterator(it) : it;
 	}
 
 	/**
@@ -716,7 +1004,8 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 	 */
 	@Override
 	public ResultIterator<Identity> allIdentities(OperationContext opContext) throws ConnectorException {
-		return isGroupFilterInUse() ? new IdentityFilterIterator(new IdentityIterator(opContext), opContext) : new IdentityIterator(opContext);
+		ResultIterator<Identity> it = getConfiguration().isDeltaQuery() ? new DeltaIdentityIterator(opContext) : new IdentityIterator(opContext);
+		return isGroupFilterInUse() ? new IdentityFilterIterator(it) : it;
 	}
 
 	/**
@@ -962,11 +1251,11 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 	@Override
 	protected void onOpen(Office365Configuration parameters) throws ConnectorException {
 
-		directory = new Directory();
+		memberships.clear();
 
-		log.info("Directory instance created.");
 		try {
-			directory.init(parameters);
+			directory = openDirectory(parameters);
+			log.info("Directory instance created.");
 			/*isDeletePrivilege = directory.users().isDeletePrivilege(parameters.getAppPrincipalObjectId(),
 					parameters.getAppDeletePrincipalRole());
 			log.info("Delete privilege found as " + isDeletePrivilege);*/
@@ -976,6 +1265,19 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 
 	}
 
+	/**
+	 * Create the directory and initialise its REST API services.
+	 * 
+	 * @param parameters configuration
+	 * @return directory
+	 * @throws IOException if a token could not be obtained
+	 */
+	protected Directory openDirectory(Office365Configuration parameters) throws IOException {
+		Directory directory = new Directory();
+		directory.init(parameters);
+		return directory;
+	}
+
 	/**
 	 * Helper utility method to adjust addition and removal of roles from an
 	 * identity. It compares the roles currently assigned and new set of roles sent
@@ -1054,16 +1356,24 @@ public class Office365Connector extends AbstractConnector<Office365Configuration
 	 */
 	private boolean isRolePresent(String roleName) {
 		Iterator<Role> roles = allRoles(OperationContext.createDefault());
-		Role role = null;
-		while (roles.hasNext()) {
-			role = roles.next();
-			if (role.getPrincipalName().equals(roleName)) {
-				return true;
+		try {
+			Role role = null;
+			while (roles.hasNext()) {
+				role = roles.next();
+				if (role.getPrincipalName().equals(roleName)) {
+					return true;
+				}
 			}
+		} finally {
+			closeQuietly(roles);
 		}
 		return false;
 	}
 
+	private boolean isDeleted(Principal principal) {
+		return "TRUE".equals(principal.getAttribute(Office365ModelConvertor.ATTR_IS_DELETED));
+	}
+
 	private boolean isGroupFilterInUse() {
 		return !getConfiguration().getIncludedGroups().isEmpty() || !getConfiguration().getExcludedGroups().isEmpty();
 	}
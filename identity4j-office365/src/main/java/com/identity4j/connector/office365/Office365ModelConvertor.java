@@ -64,6 +64,10 @@ public class Office365ModelConvertor {
 	public static final String ATTR_COUNTRY = "country";
 	public static final String ATTR_TELEPHONE = "telephone";
 	public static final String ATTR_FAX = "fax";
+	/**
+	 * Set to <code>TRUE</code> on principals a delta query reports as removed
+	 */
+	public static final String ATTR_IS_DELETED = "isDeleted";
 	
 	/**
 	 * Helper utility which converts Identity instance to Office365 data store user instance.
@@ -258,4 +262,33 @@ public class Office365ModelConvertor {
 		role.setAttribute("description", group.getDescription());
 		return role;
 	}
+
+	/**
+	 * Helper utility which converts a user a delta query reports as removed to
+	 * an Identity instance. Only the guid is known, so this is also used as the
+	 * principal name, and the identity has the attribute
+	 * {@link #ATTR_IS_DELETED}.
+	 * 
+	 * @param user removed user
+	 * @return deleted Office365Identity instance
+	 */
+	public static Office365Identity removedUserToIdentity(User user) {
+		Office365Identity identity = new Office365Identity(user.getObjectId(), user.getObjectId());
+		identity.setAttribute(ATTR_IS_DELETED, "TRUE");
+		return identity;
+	}
+
+	/**
+	 * Helper utility which converts a group a delta query reports as removed to
+	 * a Role instance. Only the guid is known, so this is also used as the
+	 * principal name, and the role has the attribute {@link #ATTR_IS_DELETED}.
+	 * 
+	 * @param group removed group
+	 * @return deleted Role instance
+	 */
+	public static Role removedGroupToRole(Group group) {
+		Role role = new RoleImpl(group.getObjectId(), group.getObjectId());
+		role.setAttribute(ATTR_IS_DELETED, "TRUE");
+		return role;
+	}
 }
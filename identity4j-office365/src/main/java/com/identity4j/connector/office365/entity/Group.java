@@ -22,7 +22,10 @@ package com.identity4j.connector.office365.entity;
  * #L%
  */
 
+import java.util.List;
+
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
  * This class represents a Group Object of the WAAD top level entity Group. Also this class gives a publicly available
@@ -40,6 +43,12 @@ public class Group extends Principal {
 	 * MS Graph API
 	 */
 	private String onPremisesLastSyncDateTime;
+
+	/**
+	 * Changes to the members, only present in delta query responses
+	 */
+	@JsonProperty(value = "members@delta", access = JsonProperty.Access.WRITE_ONLY)
+	private List<Principal> membersDelta;
 	
 	/**
 	 * @return The description of the Group.
@@ -84,6 +93,12 @@ public class Group extends Principal {
 	public void setOnPremisesLastSyncDateTime(String onPremisesLastSyncDateTime) {
 		this.onPremisesLastSyncDateTime = onPremisesLastSyncDateTime;
 	}
-	
 
+	/**
+	 * @return members added or removed since the previous delta query, only
+	 *         present in delta query responses
+	 */
+	public List<Principal> getMembersDelta() {
+		return membersDelta;
+	}
 }
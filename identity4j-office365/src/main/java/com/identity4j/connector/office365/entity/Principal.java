@@ -1,6 +1,10 @@
 package com.identity4j.connector.office365.entity;
 
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Principal {
@@ -11,6 +15,14 @@ public class Principal {
 	private String displayName;
 	private String mail;
 	private String mailNickname;
+
+	/**
+	 * Only present in delta query responses
+	 */
+	@JsonProperty(value = "@odata.type", access = JsonProperty.Access.WRITE_ONLY)
+	private String odataType;
+	@JsonProperty(value = "@removed", access = JsonProperty.Access.WRITE_ONLY)
+	private Map<String, Object> removed;
 	
 	protected Principal() {
 	}
@@ -94,4 +106,28 @@ public class Principal {
 	public void setMailNickname(String mailNickname) {
 		this.mailNickname = mailNickname;
 	}
+
+	/**
+	 * @return the OData type, only present in delta query responses
+	 */
+	public String getODataType() {
+		return odataType;
+	}
+
+	/**
+	 * @return the reason a principal was removed, only present in delta query
+	 *         responses
+	 */
+	public Map<String, Object> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return the principal has been deleted (or is no longer in scope) since
+	 *         the previous delta query
+	 */
+	@JsonIgnore
+	public boolean isRemoved() {
+		return removed != null;
+	}
 }
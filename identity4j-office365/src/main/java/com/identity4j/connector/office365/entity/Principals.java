@@ -7,7 +7,11 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 public abstract class Principals<P extends Principal> {
 
-	@JsonProperty("@odata.nextLink")
+	public static final String NEXT_LINK = "@odata.nextLink";
+
+	public static final String DELTA_LINK = "@odata.deltaLink";
+
+	@JsonProperty(NEXT_LINK)
 	private String nextLink;
 	
 	public String getNextLink() {
@@ -22,9 +22,13 @@ package com.identity4j.connector.office365.services;
  * #L%
  */
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -32,12 +36,18 @@ import java.util.concurrent.Callable;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.identity4j.connector.PrincipalType;
 import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.PrincipalAlreadyExistsException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.office365.Office365Configuration;
+import com.identity4j.connector.office365.entity.Principals;
 import com.identity4j.connector.office365.services.token.handler.ADToken;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpResponse;
+import com.identity4j.util.http.RateLimiter;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -50,6 +60,10 @@ import com.identity4j.util.json.JsonMapperService;
 public abstract class AbstractRestAPIService {
 	private static final Log log = LogFactory.getLog(AbstractRestAPIService.class);
 
+	private static final List<String> CONFLICT_MESSAGES = Arrays.asList(
+			"A conflicting object with one or more of the specified property values is present in the directory.",
+			"Another object with the same value for property userPrincipalName already exists.");
+
 	protected HttpRequestHandler httpRequestHandler;
 	protected Office365Configuration office365Configuration;
 	protected ADToken token;
@@ -87,11 +101,17 @@ public abstract class AbstractRestAPIService {
 		try {
 			HttpResponse response = callable.call();
 			if(response.status().getCode() == 401) {
+				/* Release the connection before retrying, or it is never returned to the pool */
+				response.release();
 				log.info(String.format("Apparently stale token %s, getting a new one", token.getBearerAccessToken()));
 				TokenHolder.refreshToken(token, office365Configuration);
 				response = callable.call();
 				if(response.status().getCode() == 401) {
-					throw new IllegalStateException(String.format("Failed to get new token. %s", response.status().getError()));
+					try {
+						throw new IllegalStateException(String.format("Failed to get new token. %s", response.status().getError()));
+					} finally {
+						response.release();
+					}
 				}
 				log.info(String.format("New token is %s", token.getBearerAccessToken()));
 			}
@@ -123,6 +143,202 @@ public abstract class AbstractRestAPIService {
 		}
 	}
 	
+	/**
+	 * Utility function to stream the principals in the <code>value</code> array
+	 * of a list response, rather than reading the whole page into memory. The
+	 * response is released once the array has been read or the iterator is
+	 * closed.
+	 * 
+	 * @param response response
+	 * @param type principal type
+	 * @return principals
+	 */
+	protected <T> JsonArrayIterator<T> streamValues(final HttpResponse response, Class<T> type) {
+		try {
+			return JsonMapperService.getInstance().getObjects(type, response.contentStream(), "value", new Closeable() {
+				@Override
+				public void close() {
+					response.release();
+				}
+			});
+		} catch (IOException e) {
+			response.release();
+			throw new ConnectorException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Utility function to stream a page of a delta query. The first page is
+	 * requested from the path, later pages and later queries from the next or
+	 * delta link returned with the previous page. Once the page has been read,
+	 * the {@link Principals#NEXT_LINK} or {@link Principals#DELTA_LINK}
+	 * property of the iterator holds the link to continue with.
+	 * 
+	 * @param path path of delta function, e.g. <code>/users/delta</code>
+	 * @param query query for first page
+	 * @param link next or delta link, or <code>null</code> to start afresh
+	 * @param type principal type
+	 * @return principals, or <code>null</code> if the link has expired and a
+	 *         new delta query must be started
+	 */
+	protected <T> JsonArrayIterator<T> streamDelta(final String path, final String query, final String link,
+			Class<T> type) {
+		HttpResponse response = retryIfTokenFails(new Callable<HttpResponse>() {
+			@Override
+			public HttpResponse call() throws Exception {
+				URI uri = link == null ? constructURI(path, query) : new URI(link);
+				return httpRequestHandler.handleRequestGet(uri, getHeaders().toArray(new HttpPair[0]));
+			}
+		});
+		if (response.status().getCode() == 410) {
+			response.release();
+			return null;
+		} else if (response.status().getCode() != 200) {
+			try {
+				throw new ConnectorException(String.format("Unexpected response code %d. %s",
+						response.status().getCode(), response.status().getError()));
+			} finally {
+				response.release();
+			}
+		}
+		return streamValues(response, type);
+	}
+
+	/**
+	 * Utility function to send sub-requests in JSON batches of up to
+	 * {@link Batch#MAX_SIZE}, so many small requests cost only a few round
+	 * trips. Sub-requests the server throttles (429, or 503 for idempotent
+	 * methods) are sent again in a later batch, backing off using the rate
+	 * limiter of the request handler. The responses are returned in the same order as the requests,
+	 * whatever their status, to be checked by the caller.
+	 * 
+	 * @param requests sub-requests
+	 * @return sub-responses
+	 */
+	protected List<Batch.Response> batch(List<Batch.Request> requests) {
+		if (requests.isEmpty())
+			return Collections.emptyList();
+
+		Batch.Response[] responses = new Batch.Response[requests.size()];
+		for (int i = 0; i < requests.size(); i++) {
+			requests.get(i).setId(String.valueOf(i));
+		}
+
+		URI uri = constructURI("/$batch", null);
+		RateLimiter rateLimiter = httpRequestHandler.getRateLimiter();
+		List<Batch.Request> pending = requests;
+		for (int attempt = 0; !pending.isEmpty(); attempt++) {
+			List<Batch.Request> throttled = new ArrayList<Batch.Request>();
+			long retryAfter = -1;
+			for (int from = 0; from < pending.size(); from += Batch.MAX_SIZE) {
+				Batch batch = new Batch();
+				batch.setRequests(pending.subList(from, Math.min(pending.size(), from + Batch.MAX_SIZE)));
+				for (Batch.Response response : post(uri, batch)) {
+					int index = Integer.parseInt(response.getId());
+					if (rateLimiter != null
+							&& RateLimiter.isRetryable(response.getStatus(), isIdempotent(requests.get(index)))
+							&& attempt < rateLimiter.getMaxRetries()) {
+						throttled.add(requests.get(index));
+						String header = response.getHeader("Retry-After");
+						if (header != null)
+							retryAfter = Math.max(retryAfter,
+									RateLimiter.parseRetryAfter(header, System.currentTimeMillis()));
+					} else
+						responses[index] = response;
+				}
+			}
+
+			if (!throttled.isEmpty()) {
+				long delay = rateLimiter.throttled(httpRequestHandler.getRateLimitKey(uri), attempt, retryAfter);
+				log.info(String.format("%d batched requests throttled, retrying in %dms.", throttled.size(), delay));
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ConnectorException("Interrupted waiting to retry batched requests.", e);
+				}
+			}
+			pending = throttled;
+		}
+
+		for (int i = 0; i < responses.length; i++) {
+			if (responses[i] == null)
+				throw new ConnectorException(String.format("No response to batched request %s %s.",
+						requests.get(i).getMethod(), requests.get(i).getUrl()));
+		}
+		return Arrays.asList(responses);
+	}
+
+	private static boolean isIdempotent(Batch.Request request) {
+		return !"POST".equalsIgnoreCase(request.getMethod()) && !"PATCH".equalsIgnoreCase(request.getMethod());
+	}
+
+	private List<Batch.Response> post(final URI uri, Batch batch) {
+		final String json;
+		try {
+			json = JsonMapperService.getInstance().getJson(batch);
+		} catch (IOException e) {
+			throw new ConnectorException(e.getMessage(), e);
+		}
+
+		HttpResponse response = retryIfTokenFails(new Callable<HttpResponse>() {
+			@Override
+			public HttpResponse call() throws Exception {
+				return httpRequestHandler.handleRequestPost(uri, json, getHeaders().toArray(new HttpPair[0]));
+			}
+		});
+
+		try {
+			if (response.status().getCode() == 400)
+				throwAppException(response);
+			else if (response.status().getCode() != 200)
+				throw new ConnectorException(String.format("Unexpected response code %d. %s",
+						response.status().getCode(), response.status().getError()));
+			List<Batch.Response> responses = JsonMapperService.getInstance()
+					.getObject(Batch.Responses.class, response.contentString()).getResponses();
+			return responses == null ? Collections.<Batch.Response>emptyList() : responses;
+		} finally {
+			response.release();
+		}
+	}
+
+	/**
+	 * Utility function to map a failed sub-response to the exception the
+	 * equivalent single request would throw.
+	 * 
+	 * @param response sub-response
+	 * @param principal object id or name of principal the request was for
+	 * @param type principal type
+	 * @return exception
+	 */
+	protected ConnectorException toException(Batch.Response response, String principal, PrincipalType type) {
+		AppErrorMessage.Error error = response.getError();
+		if (response.getStatus() == 404) {
+			return new PrincipalNotFoundException(principal + " not found.", null, type);
+		} else if (error == null) {
+			return new ConnectorException(String.format("Unexpected response code %d.", response.getStatus()));
+		} else if (response.getStatus() == 400 && CONFLICT_MESSAGES.contains(error.getMessage())) {
+			return new PrincipalAlreadyExistsException(
+					"Principal contains conflicting properties which already exists, " + principal);
+		} else {
+			return new ConnectorException(error.getCode() + ":" + error.getMessage());
+		}
+	}
+
+	/**
+	 * Utility function to turn an absolute link returned by the API, such as
+	 * a next link, into one relative to the API version as sub-requests
+	 * require.
+	 * 
+	 * @param link link
+	 * @return relative link
+	 */
+	protected String toRelativeLink(String link) {
+		String version = "/" + office365Configuration.getApiVersion() + "/";
+		int idx = link.indexOf(version);
+		return idx == -1 ? link : link.substring(idx + version.length() - 1);
+	}
+
 	/**
 	 * Utility function to construct error object from response error JSON.
 	 * @param httpResponse
@@ -0,0 +1,228 @@
+package com.identity4j.connector.office365.services;
+
+/*
+ * #%L
+ * Identity4J OFFICE 365
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.identity4j.util.json.JsonMapperService;
+
+/**
+ * Classes encapsulating a JSON batch, as posted to the Graph API
+ * <code>$batch</code> endpoint. Each {@link Request} is a sub-request with a
+ * URL relative to the API version, and each {@link Response} carries the
+ * status, headers and body of one sub-request.
+ *
+ * @see AbstractRestAPIService#batch(List)
+ */
+public class Batch {
+
+	/**
+	 * The most sub-requests the Graph API accepts in one batch.
+	 */
+	public final static int MAX_SIZE = 20;
+
+	private List<Request> requests = new ArrayList<Request>();
+
+	public List<Request> getRequests() {
+		return requests;
+	}
+
+	public void setRequests(List<Request> requests) {
+		this.requests = requests;
+	}
+
+	public static class Request {
+		private String id;
+		private String method;
+		private String url;
+		private Map<String, String> headers;
+		private Object body;
+
+		public Request() {
+		}
+
+		public Request(String method, String url) {
+			this(method, url, null);
+		}
+
+		/**
+		 * Create a sub-request. A JSON body will be sent with the
+		 * appropriate content type.
+		 *
+		 * @param method method
+		 * @param url url relative to the API version, e.g.
+		 *            <code>/users/{id}/memberOf</code>
+		 * @param body object to send as JSON or <code>null</code>
+		 */
+		public Request(String method, String url, Object body) {
+			this.method = method;
+			this.url = url;
+			this.body = body;
+			if (body != null) {
+				headers = new LinkedHashMap<String, String>();
+				headers.put("Content-Type", "application/json");
+			}
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public void setId(String id) {
+			this.id = id;
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public void setMethod(String method) {
+			this.method = method;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public void setUrl(String url) {
+			this.url = url;
+		}
+
+		public Map<String, String> getHeaders() {
+			return headers;
+		}
+
+		public void setHeaders(Map<String, String> headers) {
+			this.headers = headers;
+		}
+
+		public Object getBody() {
+			return body;
+		}
+
+		public void setBody(Object body) {
+			this.body = body;
+		}
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Response {
+		private String id;
+		private int status;
+		private Map<String, String> headers;
+		private Object body;
+
+		public String getId() {
+			return id;
+		}
+
+		public void setId(String id) {
+			this.id = id;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public void setStatus(int status) {
+			this.status = status;
+		}
+
+		public Map<String, String> getHeaders() {
+			return headers;
+		}
+
+		public void setHeaders(Map<String, String> headers) {
+			this.headers = headers;
+		}
+
+		public Object getBody() {
+			return body;
+		}
+
+		public void setBody(Object body) {
+			this.body = body;
+		}
+
+		/**
+		 * Get a header, ignoring the case of its name.
+		 *
+		 * @param name name
+		 * @return value or <code>null</code> if there is no such header
+		 */
+		public String getHeader(String name) {
+			if (headers != null) {
+				for (Map.Entry<String, String> en : headers.entrySet()) {
+					if (en.getKey().equalsIgnoreCase(name))
+						return en.getValue();
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Map the body of this sub-response to an object.
+		 *
+		 * @param type type
+		 * @return object or <code>null</code> if there is no body
+		 */
+		public <T> T getBody(Class<T> type) {
+			return body == null ? null : JsonMapperService.getInstance().convert(body, type);
+		}
+
+		/**
+		 * Get the error in the body of a failed sub-response.
+		 *
+		 * @return error or <code>null</code> if there is none
+		 */
+		@JsonIgnore
+		public AppErrorMessage.Error getError() {
+			if (!(body instanceof Map) || !((Map<?, ?>) body).containsKey("error"))
+				return null;
+			return getBody(AppErrorMessage.class).getError();
+		}
+
+		@JsonIgnore
+		public boolean isSuccess() {
+			return status >= 200 && status < 300;
+		}
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Responses {
+		private List<Response> responses;
+
+		public List<Response> getResponses() {
+			return responses;
+		}
+
+		public void setResponses(List<Response> responses) {
+			this.responses = responses;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.identity4j.connector.office365.services;
+
+/*
+ * #%L
+ * Identity4J OFFICE 365
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.identity4j.connector.exception.ConnectorException;
+
+/**
+ * Thrown when one or more sub-requests of a bulk operation fail. Every
+ * sub-request is still attempted, and the failures are available keyed by
+ * the object id (or principal name) they were for, each mapped to the same
+ * exception the equivalent single operation would throw.
+ */
+public class BatchException extends ConnectorException {
+	private static final long serialVersionUID = 2473880615429390714L;
+
+	private final Map<String, ConnectorException> failures;
+
+	public BatchException(Map<String, ConnectorException> failures) {
+		super(String.format("%d of the batched requests failed. %s", failures.size(),
+				failures.values().iterator().next().getMessage()), failures.values().iterator().next());
+		this.failures = Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * Get the failures, keyed by the object id (or principal name) of the
+	 * principal each was for.
+	 *
+	 * @return failures
+	 */
+	public Map<String, ConnectorException> getFailures() {
+		return failures;
+	}
+}
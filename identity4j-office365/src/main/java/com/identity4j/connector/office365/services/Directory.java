@@ -48,8 +48,20 @@ public class Directory {
 	 * @throws IOException
 	 */
 	public void init(Office365Configuration configuration) throws IOException{
-		httpRequestHandler = new HttpRequestHandler();
-		ADToken token = TokenHolder.refreshToken(null, configuration);
+		init(TokenHolder.refreshToken(null, configuration),
+				new HttpRequestHandler(configuration.getTenantDomainName()), configuration);
+	}
+
+	/**
+	 * Initializes all the REST API services to use the given token and request
+	 * handler.
+	 * 
+	 * @param token
+	 * @param httpRequestHandler
+	 * @param configuration
+	 */
+	public void init(ADToken token, HttpRequestHandler httpRequestHandler, Office365Configuration configuration) {
+		this.httpRequestHandler = httpRequestHandler;
 		userServices = new UserService(token, httpRequestHandler,configuration);
 		groupService = new GroupService(token, httpRequestHandler, configuration);
 	}
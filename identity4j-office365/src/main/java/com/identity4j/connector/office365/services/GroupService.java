@@ -1,7 +1,11 @@
 package com.identity4j.connector.office365.services;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -12,11 +16,13 @@ import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.office365.Office365Configuration;
 import com.identity4j.connector.office365.entity.Group;
 import com.identity4j.connector.office365.entity.Groups;
+import com.identity4j.connector.office365.entity.Principals;
 import com.identity4j.connector.office365.filter.Filter;
 import com.identity4j.connector.office365.services.token.handler.ADToken;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpResponse;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -27,7 +33,7 @@ import com.identity4j.util.json.JsonMapperService;
  */
 public class GroupService extends AbstractRestAPIService {
 
-	GroupService(ADToken token, HttpRequestHandler httpRequestHandler, Office365Configuration office365Configuration) {
+	public GroupService(ADToken token, HttpRequestHandler httpRequestHandler, Office365Configuration office365Configuration) {
 		super(token, httpRequestHandler, office365Configuration);
 	}
 
@@ -137,6 +143,58 @@ public class GroupService extends AbstractRestAPIService {
 	 * @return users list
 	 */
 	public Groups all(String nextLink, Filter filter) {
+		HttpResponse response = list(nextLink, filter);
+
+		try {
+			String string = response.contentString();
+			checkResponse(response, 200);
+			return JsonMapperService.getInstance().getObject(Groups.class, string);
+		} finally {
+			response.release();
+		}
+	}
+
+	/**
+	 * This method streams a page of groups present in the data store, mapping
+	 * each only as it is requested rather than reading the whole page first.
+	 * Paging and filtering are the same as {@link #all(String, Filter)}. Once
+	 * the page has been read, the link to the next page (if any) is available
+	 * as the {@link Principals#NEXT_LINK} property of the iterator.
+	 * 
+	 * @return groups
+	 */
+	public JsonArrayIterator<Group> stream(String nextLink, Filter filter) {
+		HttpResponse response = list(nextLink, filter);
+		try {
+			checkResponse(response, 200);
+		} catch (RuntimeException re) {
+			response.release();
+			throw re;
+		}
+		return streamValues(response, Group.class);
+	}
+
+	/**
+	 * This method streams a page of the groups that have changed since a
+	 * previous delta query, or of all groups if starting afresh. Removed groups
+	 * have only an object id and are {@link Group#isRemoved()}. If members are
+	 * requested, the members added or removed are in
+	 * {@link Group#getMembersDelta()}, and a group with many members may be
+	 * returned more than once. Delta queries do not support filters.
+	 * 
+	 * @param link next or delta link, or <code>null</code> to start afresh
+	 * @param withMembers include member changes
+	 * @return groups, or <code>null</code> if the link has expired
+	 * @see AbstractRestAPIService#streamDelta(String, String, String, Class)
+	 */
+	public JsonArrayIterator<Group> delta(String link, boolean withMembers) {
+		return streamDelta("/groups/delta",
+				"$select=displayName,description,mail,mailNickname,mailEnabled,securityEnabled"
+						+ (withMembers ? ",members" : ""),
+				link, Group.class);
+	}
+
+	private HttpResponse list(String nextLink, Filter filter) {
 		final StringBuilder q = new StringBuilder();
 		q.append("$top=");
 		q.append(office365Configuration.getRequestSizeLimit());
@@ -149,21 +207,13 @@ public class GroupService extends AbstractRestAPIService {
 			q.append(nextLink.substring(nextLink.indexOf("$skiptoken=") + 11));
 		}
 
-		HttpResponse response = retryIfTokenFails(new Callable<HttpResponse>() {
+		return retryIfTokenFails(new Callable<HttpResponse>() {
 			@Override
 			public HttpResponse call() throws Exception {
 				return httpRequestHandler.handleRequestGet(constructURI("/groups", q.toString()),
 						getHeaders().toArray(new HttpPair[0]));
 			}
 		});
-
-		try {
-			String string = response.contentString();
-			checkResponse(response, 200);
-			return JsonMapperService.getInstance().getObject(Groups.class, string);
-		} finally {
-			response.release();
-		}
 	}
 
 	public GroupMembers members(String guid) {
@@ -197,6 +247,52 @@ public class GroupService extends AbstractRestAPIService {
 	}
 	
 	
+	/**
+	 * Get the members of many groups, sending the requests for each page of
+	 * members in batches rather than one group at a time.
+	 * 
+	 * @param guids group object ids
+	 * @return members of each group, keyed by group object id in the same
+	 *         order
+	 * @throws BatchException if the members of any group could not be found
+	 */
+	public Map<String, List<GroupMember>> members(Collection<String> guids) {
+		Map<String, List<GroupMember>> members = new LinkedHashMap<String, List<GroupMember>>();
+		List<String> pending = new ArrayList<String>();
+		List<Batch.Request> requests = new ArrayList<Batch.Request>();
+		for (String guid : guids) {
+			members.put(guid, new ArrayList<GroupMember>());
+			pending.add(guid);
+			requests.add(new Batch.Request("GET", String.format("/groups/%s/members?$top=%d", guid,
+					office365Configuration.getRequestSizeLimit())));
+		}
+
+		Map<String, ConnectorException> failures = new LinkedHashMap<String, ConnectorException>();
+		while (!requests.isEmpty()) {
+			List<Batch.Response> responses = batch(requests);
+			List<String> more = new ArrayList<String>();
+			requests = new ArrayList<Batch.Request>();
+			for (int i = 0; i < pending.size(); i++) {
+				String guid = pending.get(i);
+				Batch.Response response = responses.get(i);
+				if (response.isSuccess()) {
+					GroupMembers page = response.getBody(GroupMembers.class);
+					if (page.getValue() != null)
+						members.get(guid).addAll(page.getValue());
+					if (page.getNextLink() != null) {
+						more.add(guid);
+						requests.add(new Batch.Request("GET", toRelativeLink(page.getNextLink())));
+					}
+				} else
+					failures.put(guid, toException(response, guid, PrincipalType.role));
+			}
+			pending = more;
+		}
+		if (!failures.isEmpty())
+			throw new BatchException(failures);
+		return members;
+	}
+
 	public static class GroupMembers {
 		private List<GroupMember> value;
 		
@@ -248,18 +344,22 @@ public class GroupService extends AbstractRestAPIService {
 			}
 		});
 
-		if (response.status().getCode() == 400) {
-			AppErrorMessage errorMessage = JsonMapperService.getInstance().getObject(AppErrorMessage.class,
-					response.contentString().replaceAll("odata.error", "error"));
-			if ("A conflicting object with one or more of the specified property values is present in the directory."
-					.equals(errorMessage.getError().getMessage())) {
-				throw new PrincipalAlreadyExistsException(
-						"Principal contains conflicting properties which already exists, " + group.getDisplayName());
+		try {
+			if (response.status().getCode() == 400) {
+				AppErrorMessage errorMessage = JsonMapperService.getInstance().getObject(AppErrorMessage.class,
+						response.contentString().replaceAll("odata.error", "error"));
+				if ("A conflicting object with one or more of the specified property values is present in the directory."
+						.equals(errorMessage.getError().getMessage())) {
+					throw new PrincipalAlreadyExistsException(
+							"Principal contains conflicting properties which already exists, " + group.getDisplayName());
+				}
 			}
+			else
+				checkResponse(response, 201);
+			return JsonMapperService.getInstance().getObject(Group.class, response.contentString());
+		} finally {
+			response.release();
 		}
-		else
-			checkResponse(response, 201);
-		return JsonMapperService.getInstance().getObject(Group.class, response.contentString());
 	}
 
 	/**
@@ -282,11 +382,15 @@ public class GroupService extends AbstractRestAPIService {
 			}
 		});
 
-		if (response.status().getCode() == 404) {
-			throw new PrincipalNotFoundException(group.getObjectId() + " not found.", null, PrincipalType.role);
+		try {
+			if (response.status().getCode() == 404) {
+				throw new PrincipalNotFoundException(group.getObjectId() + " not found.", null, PrincipalType.role);
+			}
+			else
+				checkResponse(response, 204);
+		} finally {
+			response.release();
 		}
-		else
-			checkResponse(response, 204);
 	}
 
 	/**
@@ -306,11 +410,95 @@ public class GroupService extends AbstractRestAPIService {
 			}
 		});
 
-		if (response.status().getCode() == 404) {
-			throw new PrincipalNotFoundException(objectId + " not found.", null, PrincipalType.role);
+		try {
+			if (response.status().getCode() == 404) {
+				throw new PrincipalNotFoundException(objectId + " not found.", null, PrincipalType.role);
+			}
+			else
+				checkResponse(response, 204);
+		} finally {
+			response.release();
 		}
-		else
-			checkResponse(response, 204);
+	}
+
+	/**
+	 * Saves groups into active directory, sending the requests in batches.
+	 * Every group is attempted, even if some fail.
+	 * 
+	 * @param groups
+	 * @throws BatchException if any group could not be saved, with each
+	 *                        failure mapped as {@link #save(Group)} would and
+	 *                        keyed by display name.
+	 * @return saved groups, in the same order
+	 */
+	public List<Group> save(List<Group> groups) {
+		List<Batch.Request> requests = new ArrayList<Batch.Request>();
+		for (Group group : groups) {
+			requests.add(new Batch.Request("POST", "/groups", group));
+		}
+		List<Batch.Response> responses = batch(requests);
+
+		List<Group> saved = new ArrayList<Group>();
+		Map<String, ConnectorException> failures = new LinkedHashMap<String, ConnectorException>();
+		for (int i = 0; i < groups.size(); i++) {
+			Batch.Response response = responses.get(i);
+			if (response.isSuccess())
+				saved.add(response.getBody(Group.class));
+			else
+				failures.put(groups.get(i).getDisplayName(),
+						toException(response, groups.get(i).getDisplayName(), PrincipalType.role));
+		}
+		if (!failures.isEmpty())
+			throw new BatchException(failures);
+		return saved;
+	}
+
+	/**
+	 * Updates the properties of groups, sending the requests in batches.
+	 * Every group is attempted, even if some fail.
+	 * 
+	 * @param groups
+	 * @throws BatchException if any group could not be updated, with each
+	 *                        failure mapped as {@link #update(Group)} would
+	 *                        and keyed by object id.
+	 */
+	public void update(Collection<Group> groups) {
+		List<Batch.Request> requests = new ArrayList<Batch.Request>();
+		for (Group group : groups) {
+			requests.add(new Batch.Request("PATCH", String.format("/groups/%s", group.getObjectId()), group));
+		}
+		checkResponses(requests, batch(requests));
+	}
+
+	/**
+	 * Deletes groups by specified object ids, sending the requests in
+	 * batches. Every group is attempted, even if some fail.
+	 * 
+	 * @param objectIds
+	 * @throws BatchException if any group could not be deleted, with each
+	 *                        failure mapped as {@link #delete(String)} would
+	 *                        and keyed by object id.
+	 */
+	public void delete(Collection<String> objectIds) {
+		List<Batch.Request> requests = new ArrayList<Batch.Request>();
+		for (String objectId : objectIds) {
+			requests.add(new Batch.Request("DELETE", String.format("/groups/%s", objectId)));
+		}
+		checkResponses(requests, batch(requests));
+	}
+
+	private void checkResponses(List<Batch.Request> requests, List<Batch.Response> responses) {
+		Map<String, ConnectorException> failures = new LinkedHashMap<String, ConnectorException>();
+		for (int i = 0; i < requests.size(); i++) {
+			Batch.Response response = responses.get(i);
+			if (!response.isSuccess()) {
+				String url = requests.get(i).getUrl();
+				String objectId = url.substring(url.lastIndexOf('/') + 1);
+				failures.put(objectId, toException(response, objectId, PrincipalType.role));
+			}
+		}
+		if (!failures.isEmpty())
+			throw new BatchException(failures);
 	}
 
 	/**
@@ -336,21 +524,25 @@ public class GroupService extends AbstractRestAPIService {
 			}
 		});
 
-		if (response.status().getCode() == 404) {
-			throw new PrincipalNotFoundException(
-					"Principal '" + userOjectId + "' in  '" + groupObjectId + "' not found.", null, PrincipalType.role);
-		}
-
-		if (response.status().getCode() == 400) {
-			AppErrorMessage errorMessage = JsonMapperService.getInstance().getObject(AppErrorMessage.class,
-					response.contentString().replaceAll("odata.error", "error"));
-			if (errorMessage.getError().getMessage().contains("Invalid object identifier")) {
+		try {
+			if (response.status().getCode() == 404) {
 				throw new PrincipalNotFoundException(
-						"Principal '" + userOjectId + "' in  '" + groupObjectId + "' not found.", null,
-						PrincipalType.role);
+						"Principal '" + userOjectId + "' in  '" + groupObjectId + "' not found.", null, PrincipalType.role);
 			}
+
+			if (response.status().getCode() == 400) {
+				AppErrorMessage errorMessage = JsonMapperService.getInstance().getObject(AppErrorMessage.class,
+						response.contentString().replaceAll("odata.error", "error"));
+				if (errorMessage.getError().getMessage().contains("Invalid object identifier")) {
+					throw new PrincipalNotFoundException(
+							"Principal '" + userOjectId + "' in  '" + groupObjectId + "' not found.", null,
+							PrincipalType.role);
+				}
+			}
+			checkResponse(response, 204);
+		} finally {
+			response.release();
 		}
-		checkResponse(response, 204);
 	}
 
 	/**
@@ -372,9 +564,13 @@ public class GroupService extends AbstractRestAPIService {
 			}
 		});
 
-		if (response.status().getCode() != 204) {
-			throw new ConnectorException("Problem in removing user from group as status code is not 204 is "
-					+ response.status().getCode() + " : " + response.contentString());
+		try {
+			if (response.status().getCode() != 204) {
+				throw new ConnectorException("Problem in removing user from group as status code is not 204 is "
+						+ response.status().getCode() + " : " + response.contentString());
+			}
+		} finally {
+			response.release();
 		}
 	}
 
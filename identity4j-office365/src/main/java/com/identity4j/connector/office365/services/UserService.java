@@ -4,6 +4,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -17,6 +19,7 @@ import com.identity4j.connector.exception.PrincipalAlreadyExistsException;
 import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.office365.Office365Configuration;
 import com.identity4j.connector.office365.entity.Group;
+import com.identity4j.connector.office365.entity.Principals;
 import com.identity4j.connector.office365.entity.Role;
 import com.identity4j.connector.office365.entity.User;
 import com.identity4j.connector.office365.entity.Users;
@@ -25,6 +28,7 @@ import com.identity4j.connector.office365.services.token.handler.ADToken;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpResponse;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -135,6 +139,52 @@ public class UserService extends AbstractRestAPIService {
 	 * @return users list
 	 */
 	public Users all(String nextLink, Filter filter) {
+		HttpResponse response = list(nextLink, filter);
+		
+		try {
+			String string = response.contentString();
+			checkResponse(response, 200);
+			return JsonMapperService.getInstance().getObject(Users.class, string);
+		} finally {
+			response.release();
+		}
+	}
+
+	/**
+	 * This method streams a page of users present in the data store, mapping
+	 * each only as it is requested rather than reading the whole page first.
+	 * Paging and filtering are the same as {@link #all(String, Filter)}. Once
+	 * the page has been read, the link to the next page (if any) is available
+	 * as the {@link Principals#NEXT_LINK} property of the iterator.
+	 * 
+	 * @return users
+	 */
+	public JsonArrayIterator<User> stream(String nextLink, Filter filter) {
+		HttpResponse response = list(nextLink, filter);
+		try {
+			checkResponse(response, 200);
+		} catch (RuntimeException re) {
+			response.release();
+			throw re;
+		}
+		return streamValues(response, User.class);
+	}
+
+	/**
+	 * This method streams a page of the users that have changed since a
+	 * previous delta query, or of all users if starting afresh. Removed users
+	 * have only an object id and are {@link User#isRemoved()}. Delta queries
+	 * do not support filters.
+	 * 
+	 * @param link next or delta link, or <code>null</code> to start afresh
+	 * @return users, or <code>null</code> if the link has expired
+	 * @see AbstractRestAPIService#streamDelta(String, String, String, Class)
+	 */
+	public JsonArrayIterator<User> delta(String link) {
+		return streamDelta("/users/delta", selectList(), link, User.class);
+	}
+
+	private HttpResponse list(String nextLink, Filter filter) {
 		final StringBuilder q = new StringBuilder();
 		q.append(selectList());
 		q.append("&$top=");
@@ -153,21 +203,13 @@ public class UserService extends AbstractRestAPIService {
 			q.append(nextLink.substring(nextLink.indexOf("$skiptoken=") + 11));
 		}
 		
-		HttpResponse response = retryIfTokenFails(new Callable<HttpResponse>() {
+		return retryIfTokenFails(new Callable<HttpResponse>() {
 			@Override
 			public HttpResponse call() throws Exception {
 				return httpRequestHandler.handleRequestGet(constructURI("/users", q.toString()),
 						getHeaders().toArray(new HttpPair[0]));
 			}
 		});
-		
-		try {
-			String string = response.contentString();
-			checkResponse(response, 200);
-			return JsonMapperService.getInstance().getObject(Users.class, string);
-		} finally {
-			response.release();
-		}
 	}
 
 	/**
@@ -189,27 +231,31 @@ public class UserService extends AbstractRestAPIService {
 						json, getHeaders().toArray(new HttpPair[0]));
 			}
 		});
-		
-		if (response.status().getCode() == 400) {
-			AppErrorMessage errorMessage = JsonMapperService.getInstance().getObject(AppErrorMessage.class,
-					response.contentString().replaceAll("odata.error", "error"));
-			String err = errorMessage.getError().getMessage();
-
-			// TODO is there not a better way to test for error messages?
-			// This seems crazy
-
-			if ("A conflicting object with one or more of the specified property values is present in the directory."
-					.equals(err)
-					|| "Another object with the same value for property userPrincipalName already exists."
-							.equals(err)) {
-				throw new PrincipalAlreadyExistsException(
-						"Principal contains conflicting properties which already exists, "
-								+ user.getUserPrincipalName());
-			} else {
-				throw new ConnectorException(err);
+
+		try {
+			if (response.status().getCode() == 400) {
+				AppErrorMessage errorMessage = JsonMapperService.getInstance().getObject(AppErrorMessage.class,
+						response.contentString().replaceAll("odata.error", "error"));
+				String err = errorMessage.getError().getMessage();
+
+				// TODO is there not a better way to test for error messages?
+				// This seems crazy
+
+				if ("A conflicting object with one or more of the specified property values is present in the directory."
+						.equals(err)
+						|| "Another object with the same value for property userPrincipalName already exists."
+								.equals(err)) {
+					throw new PrincipalAlreadyExistsException(
+							"Principal contains conflicting properties which already exists, "
+									+ user.getUserPrincipalName());
+				} else {
+					throw new ConnectorException(err);
+				}
 			}
+			return JsonMapperService.getInstance().getObject(User.class, response.contentString());
+		} finally {
+			response.release();
 		}
-		return JsonMapperService.getInstance().getObject(User.class, response.contentString());
 	}
 
 	/**
@@ -237,12 +283,16 @@ public class UserService extends AbstractRestAPIService {
 						json, getHeaders().toArray(new HttpPair[0]));
 			}
 		});
-		
-		if (response.status().getCode() == 404) {
-			throw new PrincipalNotFoundException(user.getObjectId() + " not found.", null, PrincipalType.user);
+
+		try {
+			if (response.status().getCode() == 404) {
+				throw new PrincipalNotFoundException(user.getObjectId() + " not found.", null, PrincipalType.user);
+			}
+			else
+				checkResponse(response, 204);
+		} finally {
+			response.release();
 		}
-		else
-			checkResponse(response, 204);
 	}
 
 	/**
@@ -264,12 +314,130 @@ public class UserService extends AbstractRestAPIService {
 			}
 		});
 
-		if (response.status().getCode() == 404) {
-			throw new PrincipalNotFoundException(objectId + " not found.", null, PrincipalType.user);
+		try {
+			if (response.status().getCode() == 404) {
+				throw new PrincipalNotFoundException(objectId + " not found.", null, PrincipalType.user);
+			}
+			else
+				checkResponse(response, 204);
+		} finally {
+			response.release();
+		}
+	}
+	
+	/**
+	 * Retrieves users by object id, sending the requests in batches rather
+	 * than one at a time. Users that are not found are left out.
+	 * 
+	 * @param objectIds
+	 * @throws BatchException
+	 *             if any other user could not be retrieved, keyed by object id.
+	 * @return users found, in the same order
+	 */
+	public List<User> get(Collection<String> objectIds) {
+		List<String> list = new ArrayList<String>(objectIds);
+		List<Batch.Request> requests = new ArrayList<Batch.Request>();
+		for (String objectId : list) {
+			requests.add(new Batch.Request("GET", String.format("/users/%s?%s", objectId, selectList())));
+		}
+		List<Batch.Response> responses = batch(requests);
+
+		List<User> users = new ArrayList<User>();
+		Map<String, ConnectorException> failures = new LinkedHashMap<String, ConnectorException>();
+		for (int i = 0; i < list.size(); i++) {
+			Batch.Response response = responses.get(i);
+			if (response.isSuccess())
+				users.add(response.getBody(User.class));
+			else if (response.getStatus() != 404)
+				failures.put(list.get(i), toException(response, list.get(i), PrincipalType.user));
+		}
+		if (!failures.isEmpty())
+			throw new BatchException(failures);
+		return users;
+	}
+
+	/**
+	 * Saves users into active directory, sending the requests in batches.
+	 * Every user is attempted, even if some fail.
+	 * 
+	 * @param users
+	 * @throws BatchException
+	 *             if any user could not be saved, with each failure mapped as
+	 *             {@link #save(User)} would and keyed by principal name.
+	 * @return saved users, in the same order
+	 */
+	public List<User> save(List<User> users) {
+		List<Batch.Request> requests = new ArrayList<Batch.Request>();
+		for (User user : users) {
+			requests.add(new Batch.Request("POST", "/users", user));
+		}
+		List<Batch.Response> responses = batch(requests);
+
+		List<User> saved = new ArrayList<User>();
+		Map<String, ConnectorException> failures = new LinkedHashMap<String, ConnectorException>();
+		for (int i = 0; i < users.size(); i++) {
+			Batch.Response response = responses.get(i);
+			if (response.isSuccess())
+				saved.add(response.getBody(User.class));
+			else
+				failures.put(users.get(i).getUserPrincipalName(),
+						toException(response, users.get(i).getUserPrincipalName(), PrincipalType.user));
+		}
+		if (!failures.isEmpty())
+			throw new BatchException(failures);
+		return saved;
+	}
+
+	/**
+	 * Updates the properties of users, sending the requests in batches.
+	 * Every user is attempted, even if some fail.
+	 * 
+	 * @param users
+	 * @throws BatchException
+	 *             if any user could not be updated, with each failure mapped
+	 *             as {@link #update(User)} would and keyed by object id.
+	 */
+	public void update(Collection<User> users) {
+		List<Batch.Request> requests = new ArrayList<Batch.Request>();
+		for (User user : users) {
+			/* Do not try to save object ID */
+			User nuser = new User(user);
+			nuser.setId(null);
+			nuser.setObjectId(null);
+			requests.add(new Batch.Request("PATCH", String.format("/users/%s", user.getObjectId()), nuser));
+		}
+		checkResponses(requests, batch(requests));
+	}
+
+	/**
+	 * Deletes users by specified object ids, sending the requests in batches.
+	 * Every user is attempted, even if some fail.
+	 * 
+	 * @param objectIds
+	 * @throws BatchException
+	 *             if any user could not be deleted, with each failure mapped
+	 *             as {@link #delete(String)} would and keyed by object id.
+	 */
+	public void delete(Collection<String> objectIds) {
+		List<Batch.Request> requests = new ArrayList<Batch.Request>();
+		for (String objectId : objectIds) {
+			requests.add(new Batch.Request("DELETE", String.format("/users/%s", objectId)));
 		}
-		else
-			checkResponse(response, 204);
+		checkResponses(requests, batch(requests));
+	}
 
+	private void checkResponses(List<Batch.Request> requests, List<Batch.Response> responses) {
+		Map<String, ConnectorException> failures = new LinkedHashMap<String, ConnectorException>();
+		for (int i = 0; i < requests.size(); i++) {
+			Batch.Response response = responses.get(i);
+			if (!response.isSuccess()) {
+				String url = requests.get(i).getUrl();
+				String objectId = url.substring(url.lastIndexOf('/') + 1);
+				failures.put(objectId, toException(response, objectId, PrincipalType.user));
+			}
+		}
+		if (!failures.isEmpty())
+			throw new BatchException(failures);
 	}
 	
 	/**
@@ -293,9 +461,12 @@ public class UserService extends AbstractRestAPIService {
 					);
 			}
 		});
-		
-		checkResponse(response, 200);
 
+		try {
+			checkResponse(response, 200);
+		} finally {
+			response.release();
+		}
 	}
 
 	/**
@@ -375,6 +546,39 @@ public class UserService extends AbstractRestAPIService {
 		}
 	}
 
+	/**
+	 * Finds roles and groups each of the users has or belongs to, sending the
+	 * requests in batches rather than one at a time. Every user is attempted,
+	 * even if some fail.
+	 * 
+	 * @param users
+	 * @throws BatchException
+	 *             if the groups and roles of any user could not be found,
+	 *             keyed by object id. The other users are still updated.
+	 */
+	public void probeGroupsAndRoles(Collection<User> users) {
+		List<User> list = new ArrayList<User>(users);
+		List<Batch.Request> requests = new ArrayList<Batch.Request>();
+		for (User user : list) {
+			requests.add(new Batch.Request("GET", String.format("/users/%s/memberOf", user.getObjectId())));
+		}
+		List<Batch.Response> responses = batch(requests);
+
+		Map<String, ConnectorException> failures = new LinkedHashMap<String, ConnectorException>();
+		for (int i = 0; i < list.size(); i++) {
+			User user = list.get(i);
+			Batch.Response response = responses.get(i);
+			if (response.isSuccess()) {
+				GroupsAndRoles groupsAndRoles = mapGroupsAndRoles(response.getBody(Map.class));
+				user.setMemberOf(groupsAndRoles.groups);
+				user.setRoles(groupsAndRoles.roles);
+			} else
+				failures.put(user.getObjectId(), toException(response, user.getObjectId(), PrincipalType.user));
+		}
+		if (!failures.isEmpty())
+			throw new BatchException(failures);
+	}
+
 	/**
 	 * Helper utility function which segregates groups and roles an object id
 	 * belongs to into different lists and returns them encapsulated in
@@ -384,8 +588,11 @@ public class UserService extends AbstractRestAPIService {
 	 * @return GroupsAndRoles instance
 	 */
 	private GroupsAndRoles mapGroupsAndRoles(HttpResponse response) {
+		return mapGroupsAndRoles(JsonMapperService.getInstance().getObject(Map.class, response.contentString()));
+	}
+
+	private GroupsAndRoles mapGroupsAndRoles(Map<?, ?> groupsAndRolesMap) {
 		GroupsAndRoles groupsAndRoles = new GroupsAndRoles();
-		Map<?, ?> groupsAndRolesMap = JsonMapperService.getInstance().getObject(Map.class, response.contentString());
 		List<?> groupsAndRolesList = (List<?>) groupsAndRolesMap.get("value");
 		if (groupsAndRolesList != null) {
 			for (Object object : groupsAndRolesList) {
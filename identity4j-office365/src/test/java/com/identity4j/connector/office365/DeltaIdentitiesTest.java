@@ -0,0 +1,249 @@
+package com.identity4j.connector.office365;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.OperationContext;
+import com.identity4j.connector.ResultIterator;
+import com.identity4j.connector.office365.DeltaMembershipsTest.StubResponse;
+import com.identity4j.connector.office365.services.Batch;
+import com.identity4j.connector.office365.services.Directory;
+import com.identity4j.connector.office365.services.token.handler.ADToken;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.util.MultiMap;
+import com.identity4j.util.http.HttpPair;
+import com.identity4j.util.http.HttpResponse;
+import com.identity4j.util.http.RateLimiter;
+import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.json.JsonMapperService;
+
+public class DeltaIdentitiesTest {
+
+	private static final String USERS_LINK = "https://graph.microsoft.com/v1.0/users/delta?";
+	private static final String GROUPS_LINK = "https://graph.microsoft.com/v1.0/groups/delta?";
+	private static final Object GROUP = body("id", "g1", "displayName", "Group 1");
+	private static final Object ROLE = body("id", "r1", "displayName", "Admins", "isAssignableRole", true);
+
+	private Map<String, String> pages = new HashMap<String, String>();
+	private Map<String, Object> users = new HashMap<String, Object>();
+	private Map<String, List<Object>> memberOf = new HashMap<String, List<Object>>();
+	private List<String> batched = new ArrayList<String>();
+	private Office365Connector connector;
+
+	@Before
+	public void setUp() {
+		final ADToken token = new ADToken();
+		token.setAccessToken("test");
+		token.setExpiresOn(System.currentTimeMillis() / 1000 + 3600);
+		final HttpRequestHandler handler = new HttpRequestHandler() {
+			@Override
+			public HttpResponse handleRequestGet(URI uri, HttpPair... header) {
+				String query = uri.getQuery().startsWith("$select=") ? "" : uri.getQuery();
+				return new StubResponse(pages.get(uri.getPath() + "?" + query));
+			}
+
+			@Override
+			public HttpResponse handleRequestPost(URI uri, String data, HttpPair... header) {
+				assertEquals("/v1.0/$batch", uri.getPath());
+				return new StubResponse(batch(JsonMapperService.getInstance().getObject(Batch.class, data)));
+			}
+		};
+		RateLimiter rateLimiter = new RateLimiter();
+		rateLimiter.setBaseBackoff(1);
+		handler.setRateLimiter(rateLimiter);
+
+		MultiMap parameters = new MultiMap();
+		parameters.set(Office365Configuration.OFFICE365_DELTA_QUERY, "true");
+		connector = new Office365Connector() {
+			@Override
+			protected Directory openDirectory(Office365Configuration configuration) throws IOException {
+				Directory directory = new Directory();
+				directory.init(token, handler, configuration);
+				return directory;
+			}
+		};
+		connector.open(new Office365Configuration(parameters));
+
+		users.put("u1", user("u1", "User One", "Paris"));
+		users.put("u2", user("u2", "User Two", "Rome"));
+		memberOf.put("u1", new ArrayList<Object>(Arrays.asList(GROUP, ROLE)));
+		memberOf.put("u2", new ArrayList<Object>(Arrays.asList(ROLE)));
+
+		/* First round */
+		pages.put("/v1.0/groups/delta?", "{\"value\":[{\"id\":\"g1\",\"displayName\":\"Group 1\",\"members@delta\":["
+				+ member("u1") + "]}],\"@odata.deltaLink\":\"" + GROUPS_LINK + "$deltatoken=g1\"}");
+		pages.put("/v1.0/users/delta?", "{\"value\":[" + json(users.get("u1")) + "," + json(users.get("u2")) + "],"
+				+ "\"@odata.deltaLink\":\"" + USERS_LINK + "$deltatoken=u1\"}");
+
+		/* Second round, u1 changed city only and u2 joined a group */
+		pages.put("/v1.0/groups/delta?$deltatoken=g1", "{\"value\":[{\"id\":\"g1\",\"members@delta\":["
+				+ member("u2") + "]}],\"@odata.deltaLink\":\"" + GROUPS_LINK + "$deltatoken=g2\"}");
+		pages.put("/v1.0/users/delta?$deltatoken=u1", "{\"value\":[{\"id\":\"u1\",\"city\":\"London\"}],"
+				+ "\"@odata.deltaLink\":\"" + USERS_LINK + "$deltatoken=u2\"}");
+
+		/* Nothing changed after that */
+		pages.put("/v1.0/groups/delta?$deltatoken=g2", "{\"value\":[],\"@odata.deltaLink\":\"" + GROUPS_LINK
+				+ "$deltatoken=g2\"}");
+	}
+
+	@After
+	public void tearDown() {
+		connector.close();
+	}
+
+	@Test
+	public void itShouldGetPartialUsersInFull() {
+		ResultIterator<Identity> it = connector.allIdentities(OperationContext.createDefault());
+		Map<String, Identity> first = list(it);
+		assertEquals(2, first.size());
+		assertEquals(Collections.singleton("Group 1"), roles(first.get("u1")));
+		assertTrue(roles(first.get("u2")).isEmpty());
+		assertEquals(Arrays.asList("/users/u1/memberOf", "/users/u2/memberOf"), sorted(batched));
+
+		/* u1 moved to London, u2 joined Group 1 */
+		users.put("u1", user("u1", "User One", "London"));
+		memberOf.get("u2").add(GROUP);
+		batched.clear();
+		Map<String, Identity> second = list(connector.allIdentities(OperationContext.createDefault(it.tag())));
+
+		assertEquals(new HashSet<String>(Arrays.asList("u1", "u2")), second.keySet());
+		Identity u1 = second.get("u1");
+		assertEquals("u1@example.com", u1.getPrincipalName());
+		assertEquals("User One", u1.getFullName());
+		assertEquals("London", u1.getAttribute(Office365ModelConvertor.ATTR_CITY));
+		assertEquals(Collections.singleton("Group 1"), roles(u1));
+		Identity u2 = second.get("u2");
+		assertEquals("User Two", u2.getFullName());
+		assertEquals("Rome", u2.getAttribute(Office365ModelConvertor.ATTR_CITY));
+		assertEquals(Collections.singleton("Group 1"), roles(u2));
+		assertEquals(Arrays.asList("/users/u1", "/users/u1/memberOf", "/users/u2", "/users/u2/memberOf"), sorted(batched));
+	}
+
+	@Test
+	public void itShouldSkipUsersDeletedSince() {
+		ResultIterator<Identity> it = connector.allIdentities(OperationContext.createDefault());
+		list(it);
+
+		users.remove("u1");
+		Map<String, Identity> second = list(connector.allIdentities(OperationContext.createDefault(it.tag())));
+
+		assertEquals(Collections.singleton("u2"), second.keySet());
+	}
+
+	@Test
+	public void itShouldReportMembershipChangesTakenByAnUntaggedListing() {
+		ResultIterator<Identity> it = connector.allIdentities(OperationContext.createDefault());
+		list(it);
+		memberOf.get("u2").add(GROUP);
+
+		/* A full listing in between, e.g. to look up a user */
+		list(connector.allIdentities(OperationContext.createDefault()));
+		Map<String, Identity> second = list(connector.allIdentities(OperationContext.createDefault(it.tag())));
+
+		assertEquals(new HashSet<String>(Arrays.asList("u1", "u2")), second.keySet());
+		assertEquals(Collections.singleton("Group 1"), roles(second.get("u2")));
+	}
+
+	@Test
+	public void itShouldReportMembershipChangesAgainWhenRetried() throws IOException {
+		ResultIterator<Identity> it = connector.allIdentities(OperationContext.createDefault());
+		list(it);
+		memberOf.get("u2").add(GROUP);
+
+		ResultIterator<Identity> failed = connector.allIdentities(OperationContext.createDefault(it.tag()));
+		failed.next();
+		((Closeable) failed).close();
+		assertEquals(it.tag(), failed.tag());
+		Map<String, Identity> retried = list(connector.allIdentities(OperationContext.createDefault(failed.tag())));
+
+		assertEquals(new HashSet<String>(Arrays.asList("u1", "u2")), retried.keySet());
+		assertEquals(Collections.singleton("Group 1"), roles(retried.get("u2")));
+	}
+
+	private Map<String, Identity> list(ResultIterator<Identity> it) {
+		Map<String, Identity> identities = new HashMap<String, Identity>();
+		while (it.hasNext()) {
+			Identity identity = it.next();
+			identities.put(identity.getGuid(), identity);
+		}
+		return identities;
+	}
+
+	private static Set<String> roles(Identity identity) {
+		Set<String> names = new HashSet<String>();
+		for (Role role : identity.getRoles()) {
+			names.add(role.getPrincipalName());
+		}
+		return names;
+	}
+
+	private static List<String> sorted(List<String> paths) {
+		List<String> l = new ArrayList<String>(paths);
+		Collections.sort(l);
+		return l;
+	}
+
+	private String batch(Batch batch) {
+		List<Batch.Response> responses = new ArrayList<Batch.Response>();
+		for (Batch.Request request : batch.getRequests()) {
+			String path = request.getUrl().split("\\?")[0];
+			batched.add(path);
+			String[] parts = path.split("/");
+			Batch.Response response = new Batch.Response();
+			response.setId(request.getId());
+			if (parts.length == 4 && memberOf.containsKey(parts[2])) {
+				response.setStatus(200);
+				response.setBody(body("value", memberOf.get(parts[2])));
+			} else if (users.containsKey(parts[2])) {
+				response.setStatus(200);
+				response.setBody(users.get(parts[2]));
+			} else
+				response.setStatus(404);
+			responses.add(response);
+		}
+		Batch.Responses result = new Batch.Responses();
+		result.setResponses(responses);
+		return json(result);
+	}
+
+	private static Map<String, Object> user(String id, String displayName, String city) {
+		return body("id", id, "displayName", displayName, "userPrincipalName", id + "@example.com", "city", city);
+	}
+
+	private static String member(String id) {
+		return "{\"@odata.type\":\"#microsoft.graph.user\",\"id\":\"" + id + "\"}";
+	}
+
+	private static Map<String, Object> body(Object... keyValues) {
+		Map<String, Object> body = new HashMap<String, Object>();
+		for (int i = 0; i < keyValues.length; i += 2) {
+			body.put((String) keyValues[i], keyValues[i + 1]);
+		}
+		return body;
+	}
+
+	private static String json(Object object) {
+		try {
+			return JsonMapperService.getInstance().getJson(object);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.identity4j.connector.office365;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.office365.services.GroupService;
+import com.identity4j.connector.office365.services.token.handler.ADToken;
+import com.identity4j.util.MultiMap;
+import com.identity4j.util.http.HttpPair;
+import com.identity4j.util.http.HttpResponse;
+import com.identity4j.util.http.HttpStatus;
+import com.identity4j.util.http.request.HttpRequestHandler;
+
+public class DeltaMembershipsTest {
+
+	private static final String LINK = "https://graph.microsoft.com/v1.0/groups/delta?";
+
+	private Map<String, String> pages = new HashMap<String, String>();
+	private GroupService groupService;
+	private DeltaMemberships memberships;
+
+	@Before
+	public void setUp() {
+		ADToken token = new ADToken();
+		token.setAccessToken("test");
+		token.setExpiresOn(System.currentTimeMillis() / 1000 + 3600);
+		HttpRequestHandler handler = new HttpRequestHandler() {
+			@Override
+			public HttpResponse handleRequestGet(URI uri, HttpPair... header) {
+				assertEquals("/v1.0/groups/delta", uri.getPath());
+				String query = uri.getQuery().startsWith("$select=") ? "" : uri.getQuery();
+				return new StubResponse(pages.get(query));
+			}
+		};
+		handler.setRateLimiter(null);
+		groupService = new GroupService(token, handler, new Office365Configuration(new MultiMap()));
+		memberships = new DeltaMemberships();
+
+		pages.put("", "{\"value\":[{\"id\":\"g1\",\"displayName\":\"Group 1\",\"members@delta\":["
+				+ user("u1", false) + ",{\"@odata.type\":\"#microsoft.graph.group\",\"id\":\"g9\"}]}],"
+				+ "\"@odata.nextLink\":\"" + LINK + "$skiptoken=a\"}");
+		pages.put("$skiptoken=a", "{\"value\":[{\"id\":\"g1\",\"members@delta\":[" + user("u2", false) + "]},"
+				+ "{\"id\":\"g2\",\"displayName\":\"Group 2\",\"members@delta\":[" + user("u1", false) + "]}],"
+				+ "\"@odata.deltaLink\":\"" + LINK + "$deltatoken=b\"}");
+		pages.put("$deltatoken=b", "{\"value\":[{\"id\":\"g1\",\"members@delta\":[" + user("u2", true) + "]},"
+				+ "{\"id\":\"g2\",\"@removed\":{\"reason\":\"changed\"}}],"
+				+ "\"@odata.deltaLink\":\"" + LINK + "$deltatoken=c\"}");
+	}
+
+	@Test
+	public void itShouldBuildMembershipsFromAllPages() {
+		DeltaMemberships.Changes changes = memberships.sync(groupService, null);
+
+		assertNull(changes.getUsers());
+		assertEquals(LINK + "$deltatoken=b", changes.getDeltaLink());
+	}
+
+	@Test
+	public void itShouldApplyChanges() {
+		String first = memberships.sync(groupService, null).getDeltaLink();
+
+		DeltaMemberships.Changes changes = memberships.sync(groupService, first);
+
+		/* u1 was in the removed group g2, u2 left g1 */
+		assertEquals(new HashSet<String>(Arrays.asList("u1", "u2")), changes.getUsers());
+		assertEquals(LINK + "$deltatoken=c", changes.getDeltaLink());
+	}
+
+	@Test
+	public void itShouldKeepChangesForEachLink() {
+		String first = memberships.sync(groupService, null).getDeltaLink();
+		pages.put("$deltatoken=c", "{\"value\":[{\"id\":\"g1\",\"members@delta\":[" + user("u3", false) + "]}],"
+				+ "\"@odata.deltaLink\":\"" + LINK + "$deltatoken=d\"}");
+		pages.put("$deltatoken=d", "{\"value\":[],\"@odata.deltaLink\":\"" + LINK + "$deltatoken=d\"}");
+
+		/* Another listing takes the changes first */
+		String second = memberships.sync(groupService, null).getDeltaLink();
+
+		assertEquals(new HashSet<String>(Arrays.asList("u1", "u2", "u3")), memberships.sync(groupService, first).getUsers());
+		assertEquals(Collections.singleton("u3"), memberships.sync(groupService, second).getUsers());
+		/* Asked again from the same link, as when a listing is retried */
+		assertEquals(new HashSet<String>(Arrays.asList("u1", "u2", "u3")), memberships.sync(groupService, first).getUsers());
+		assertTrue(memberships.sync(groupService, LINK + "$deltatoken=d").getUsers().isEmpty());
+		assertNull(memberships.sync(groupService, LINK + "$deltatoken=unknown").getUsers());
+	}
+
+	@Test
+	public void itShouldRebuildWhenLinkExpires() {
+		memberships.sync(groupService, null);
+		String second = memberships.sync(groupService, null).getDeltaLink();
+
+		/* No page for deltatoken=c, so the link has expired */
+		DeltaMemberships.Changes changes = memberships.sync(groupService, second);
+
+		assertNull(changes.getUsers());
+		assertEquals(LINK + "$deltatoken=b", changes.getDeltaLink());
+	}
+
+	private static String user(String id, boolean removed) {
+		return "{\"@odata.type\":\"#microsoft.graph.user\",\"id\":\"" + id + "\""
+				+ (removed ? ",\"@removed\":{\"reason\":\"deleted\"}" : "") + "}";
+	}
+
+	static class StubResponse implements HttpResponse {
+		private final String content;
+
+		StubResponse(String content) {
+			this.content = content == null ? "" : content;
+		}
+
+		@Override
+		public byte[] content() {
+			return content.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public String contentString() {
+			return content;
+		}
+
+		@Override
+		public HttpStatus status() {
+			return content.isEmpty() ? new HttpStatus(410, "Gone", "HTTP/1.1") : new HttpStatus(200, "OK", "HTTP/1.1");
+		}
+
+		@Override
+		public void release() {
+		}
+
+		@Override
+		public List<HttpPair> headers() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public InputStream contentStream() throws IOException {
+			return new ByteArrayInputStream(content());
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package com.identity4j.connector.office365.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.exception.PrincipalAlreadyExistsException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.office365.Office365Configuration;
+import com.identity4j.connector.office365.entity.User;
+import com.identity4j.connector.office365.services.GroupService.GroupMember;
+import com.identity4j.connector.office365.services.token.handler.ADToken;
+import com.identity4j.util.MultiMap;
+import com.identity4j.util.http.HttpPair;
+import com.identity4j.util.http.HttpResponse;
+import com.identity4j.util.http.HttpStatus;
+import com.identity4j.util.http.RateLimiter;
+import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.json.JsonMapperService;
+
+public class BatchTest {
+
+	private StubRequestHandler handler;
+	private UserService userService;
+	private GroupService groupService;
+
+	@Before
+	public void setUp() {
+		Office365Configuration configuration = new Office365Configuration(new MultiMap());
+		ADToken token = new ADToken();
+		token.setAccessToken("test");
+		token.setExpiresOn(System.currentTimeMillis() / 1000 + 3600);
+		handler = new StubRequestHandler();
+		RateLimiter rateLimiter = new RateLimiter();
+		rateLimiter.setBaseBackoff(1);
+		handler.setRateLimiter(rateLimiter);
+		userService = new UserService(token, handler, configuration);
+		groupService = new GroupService(token, handler, configuration);
+	}
+
+	@Test
+	public void itShouldProbeUsersInBatchesOfTwenty() {
+		handler.responder = request -> {
+			String id = request.getUrl().split("/")[2];
+			return response(request, 200, body("value", Arrays.asList(group(id + "-group"))));
+		};
+
+		List<User> users = users(25);
+		userService.probeGroupsAndRoles(users);
+
+		assertEquals(2, handler.batches.size());
+		assertEquals(20, handler.batches.get(0).getRequests().size());
+		assertEquals(5, handler.batches.get(1).getRequests().size());
+		for (User user : users) {
+			assertEquals(1, user.getMemberOf().size());
+			assertEquals(user.getObjectId() + "-group", user.getMemberOf().get(0).getObjectId());
+			assertTrue(user.getRoles().isEmpty());
+		}
+	}
+
+	@Test
+	public void itShouldMapFailedSubRequestsToExceptions() {
+		handler.responder = request -> {
+			if (request.getUrl().startsWith("/users/user1/"))
+				return response(request, 404, error("Request_ResourceNotFound", "Not found"));
+			if (request.getUrl().startsWith("/users/user2/"))
+				return response(request, 500, error("InternalServerError", "Oops"));
+			return response(request, 200, body("value", Collections.emptyList()));
+		};
+
+		List<User> users = users(3);
+		try {
+			userService.probeGroupsAndRoles(users);
+			fail("Expected failures");
+		} catch (BatchException be) {
+			assertEquals(2, be.getFailures().size());
+			assertTrue(be.getFailures().get("user1") instanceof PrincipalNotFoundException);
+			assertEquals("InternalServerError:Oops", be.getFailures().get("user2").getMessage());
+		}
+		assertTrue(users.get(0).getMemberOf().isEmpty());
+		assertNull(users.get(1).getMemberOf());
+	}
+
+	@Test
+	public void itShouldRetryThrottledSubRequests() {
+		Set<String> throttled = new HashSet<String>();
+		handler.responder = request -> {
+			if (request.getUrl().equals("/users/user3") && throttled.add(request.getUrl())) {
+				Batch.Response response = response(request, 429, error("TooManyRequests", "Slow down"));
+				response.setHeaders(Collections.singletonMap("Retry-After", "0"));
+				return response;
+			}
+			return response(request, 204, null);
+		};
+
+		userService.delete(Arrays.asList("user0", "user1", "user2", "user3"));
+
+		assertEquals(2, handler.batches.size());
+		assertEquals(1, handler.batches.get(1).getRequests().size());
+		assertEquals("/users/user3", handler.batches.get(1).getRequests().get(0).getUrl());
+	}
+
+	@Test
+	public void itShouldNotRetryUnavailableCreates() {
+		handler.responder = request -> {
+			Map<?, ?> user = (Map<?, ?>) request.getBody();
+			if (user.get("userPrincipalName").equals("user1"))
+				return response(request, 503, error("ServiceUnavailable", "Try later"));
+			return response(request, 201, user);
+		};
+
+		List<User> users = users(2);
+		for (User user : users) {
+			user.setUserPrincipalName(user.getObjectId());
+		}
+		try {
+			userService.save(users);
+			fail("Expected failures");
+		} catch (BatchException be) {
+			assertEquals(1, be.getFailures().size());
+			assertTrue(be.getFailures().containsKey("user1"));
+		}
+		assertEquals(1, handler.batches.size());
+	}
+
+	@Test
+	public void itShouldMapConflictsWhenSaving() {
+		handler.responder = request -> {
+			Map<?, ?> user = (Map<?, ?>) request.getBody();
+			if (user.get("userPrincipalName").equals("user1"))
+				return response(request, 400, error("Request_BadRequest",
+						"Another object with the same value for property userPrincipalName already exists."));
+			return response(request, 201, user);
+		};
+
+		List<User> users = users(2);
+		for (User user : users) {
+			user.setUserPrincipalName(user.getObjectId());
+		}
+		try {
+			userService.save(users);
+			fail("Expected failures");
+		} catch (BatchException be) {
+			assertEquals(1, be.getFailures().size());
+			assertTrue(be.getFailures().get("user1") instanceof PrincipalAlreadyExistsException);
+		}
+	}
+
+	@Test
+	public void itShouldFollowGroupMemberPages() {
+		handler.responder = request -> {
+			if (request.getUrl().startsWith("/groups/group0/members?$top=")) {
+				Map<String, Object> page = body("value", Arrays.asList(member("user0")));
+				page.put("@odata.nextLink", "https://graph.microsoft.com/v1.0/groups/group0/members?$skiptoken=x");
+				return response(request, 200, page);
+			}
+			if (request.getUrl().equals("/groups/group0/members?$skiptoken=x"))
+				return response(request, 200, body("value", Arrays.asList(member("user1"))));
+			return response(request, 200, body("value", Arrays.asList(member("user2"))));
+		};
+
+		Map<String, List<GroupMember>> members = groupService.members(Arrays.asList("group0", "group1"));
+
+		assertEquals(2, handler.batches.size());
+		assertEquals(Arrays.asList("group0", "group1"), new ArrayList<String>(members.keySet()));
+		assertEquals(2, members.get("group0").size());
+		assertEquals("user1", members.get("group0").get(1).getId());
+		assertEquals(1, members.get("group1").size());
+	}
+
+	private static List<User> users(int count) {
+		List<User> users = new ArrayList<User>();
+		for (int i = 0; i < count; i++) {
+			User user = new User();
+			user.setObjectId("user" + i);
+			users.add(user);
+		}
+		return users;
+	}
+
+	private static Map<String, Object> group(String id) {
+		Map<String, Object> group = body("id", id);
+		group.put("objectId", id);
+		return group;
+	}
+
+	private static Map<String, Object> member(String id) {
+		return body("id", id);
+	}
+
+	private static Map<String, Object> error(String code, String message) {
+		Map<String, Object> error = body("code", code);
+		error.put("message", message);
+		return body("error", error);
+	}
+
+	private static Map<String, Object> body(String key, Object value) {
+		Map<String, Object> body = new HashMap<String, Object>();
+		body.put(key, value);
+		return body;
+	}
+
+	private static Batch.Response response(Batch.Request request, int status, Object body) {
+		Batch.Response response = new Batch.Response();
+		response.setId(request.getId());
+		response.setStatus(status);
+		response.setBody(body);
+		return response;
+	}
+
+	static class StubRequestHandler extends HttpRequestHandler {
+		private List<Batch> batches = new ArrayList<Batch>();
+		private Function<Batch.Request, Batch.Response> responder;
+
+		@Override
+		public HttpResponse handleRequestPost(URI uri, String data, HttpPair... header) {
+			assertEquals("/v1.0/$batch", uri.getPath());
+			Batch batch = JsonMapperService.getInstance().getObject(Batch.class, data);
+			batches.add(batch);
+			List<Batch.Response> responses = new ArrayList<Batch.Response>();
+			for (Batch.Request request : batch.getRequests()) {
+				responses.add(responder.apply(request));
+			}
+			/* The server may answer in any order */
+			Collections.reverse(responses);
+			Batch.Responses result = new Batch.Responses();
+			result.setResponses(responses);
+			try {
+				return new StubResponse(JsonMapperService.getInstance().getJson(result));
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	static class StubResponse implements HttpResponse {
+		private final String content;
+
+		StubResponse(String content) {
+			this.content = content;
+		}
+
+		@Override
+		public byte[] content() {
+			return content.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public String contentString() {
+			return content;
+		}
+
+		@Override
+		public HttpStatus status() {
+			return new HttpStatus(200, "OK", "HTTP/1.1");
+		}
+
+		@Override
+		public void release() {
+		}
+
+		@Override
+		public List<HttpPair> headers() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public InputStream contentStream() throws IOException {
+			return new ByteArrayInputStream(content());
+		}
+	}
+}
@@ -23,11 +23,9 @@ package com.identity4j.connector.salesforce;
  */
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -43,9 +41,7 @@ import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.connector.salesforce.entity.Group;
-import com.identity4j.connector.salesforce.entity.Groups;
 import com.identity4j.connector.salesforce.entity.User;
-import com.identity4j.connector.salesforce.entity.Users;
 import com.identity4j.connector.salesforce.services.Directory;
 import com.identity4j.connector.salesforce.services.token.handler.SalesforceAuthorizationHelper;
 import com.identity4j.util.CollectionUtil;
@@ -136,16 +132,8 @@ public class SalesforceConnector extends AbstractConnector<SalesforceConfigurati
 	 */
 	@Override
 	public ResultIterator<Role> allRoles(OperationContext opContext) throws ConnectorException {
-		Groups groups = directory.groups().all();
-		List<Group> groupList = groups.getGroups();
-		List<Role> roles = new ArrayList<Role>();
-		
-		if(groupList != null){
-			for (Group group : groupList) {
-				roles.add(SalesforceModelConvertor.getInstance().groupToRole(group));
-			}
-		}
-		return ResultIterator.createDefault(roles.iterator(), opContext.getTag());
+		return ResultIterator.createDefault(directory.groups().stream(), SalesforceModelConvertor.getInstance()::groupToRole,
+				opContext.getTag());
 	}
 
 	/**
@@ -333,18 +321,8 @@ public class SalesforceConnector extends AbstractConnector<SalesforceConfigurati
 	 */
 	@Override
 	public ResultIterator<Identity> allIdentities(OperationContext opContext) throws ConnectorException {
-		Users users = directory.users().all();
-		List<Identity> identities = new ArrayList<Identity>();
-		
-		List<User> userList = users.getUsers();
-		
-		if(userList != null){
-			for (User user : userList) {
-				identities.add(SalesforceModelConvertor.getInstance().convertSalesforceUserToSalesforceIdentity(user));
-			}
-		}
-		
-		return ResultIterator.createDefault(identities.iterator(), opContext.getTag());
+		return ResultIterator.createDefault(directory.users().stream(),
+				SalesforceModelConvertor.getInstance()::convertSalesforceUserToSalesforceIdentity, opContext.getTag());
 	}
 	
 	/**
@@ -38,6 +38,7 @@ import com.identity4j.util.StringUtil;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpResponse;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -139,9 +140,7 @@ public class GroupService extends AbstractRestAPIService {
 	 * @return groups list
 	 */
 	public Groups all() {
-		HttpResponse response = httpRequestHandler.handleRequestGet(
-				constructSOQLURI(String.format(serviceConfiguration.getGetAllGroups(), GROUP_ATTRIBUTES)),
-				getHeaders().toArray(new HttpPair[0]));
+		HttpResponse response = list();
 		try {
 			return JsonMapperService.getInstance().getObject(Groups.class, response.contentString());
 		}
@@ -150,6 +149,22 @@ public class GroupService extends AbstractRestAPIService {
 		}
 	}
 
+	/**
+	 * This method streams all groups present in the data store, mapping each
+	 * only as it is requested rather than reading the whole response first.
+	 * 
+	 * @return groups
+	 */
+	public JsonArrayIterator<Group> stream() {
+		return streamRecords(list(), Group.class);
+	}
+
+	private HttpResponse list() {
+		return httpRequestHandler.handleRequestGet(
+				constructSOQLURI(String.format(serviceConfiguration.getGetAllGroups(), GROUP_ATTRIBUTES)),
+				getHeaders().toArray(new HttpPair[0]));
+	}
+
 	/**
 	 * Saves group into Salesforce datastore.
 	 * 
@@ -164,11 +179,14 @@ public class GroupService extends AbstractRestAPIService {
 		try {
 			HttpResponse response = httpRequestHandler.handleRequestPost(constructURI("Group"),
 					JsonMapperService.getInstance().getJson(group), getHeaders().toArray(new HttpPair[0]));
+			try {
+				String id = JsonMapperService.getInstance().getJsonProperty(response.contentString(), "id").toString();
+				group.setId(id);
 
-			String id = JsonMapperService.getInstance().getJsonProperty(response.contentString(), "id").toString();
-			group.setId(id);
-
-			return group;
+				return group;
+			} finally {
+				response.release();
+			}
 		} catch (IOException e) {
 			throw new ConnectorException("Problem in saving group", e);
 		}
@@ -195,16 +213,18 @@ public class GroupService extends AbstractRestAPIService {
 
 			HttpResponse response = httpRequestHandler.handleRequestPatch(constructURI(String.format("Group/%s", id)),
 					JsonMapperService.getInstance().getJson(group), getHeaders().toArray(new HttpPair[0]));
-
-			if (response.status().getCode() == 404) {
-				throw new PrincipalNotFoundException(group.getId() + " not found.", null, PrincipalType.role);
+			try {
+				if (response.status().getCode() == 404) {
+					throw new PrincipalNotFoundException(group.getId() + " not found.", null, PrincipalType.role);
+				}
+
+				if (response.status().getCode() != 204) {
+					throw new ConnectorException("Problem in updating group as status code is not 204 is "
+							+ response.status().getCode() + " : " + response.contentString());
+				}
+			} finally {
+				response.release();
 			}
-
-			if (response.status().getCode() != 204) {
-				throw new ConnectorException("Problem in updating group as status code is not 204 is "
-						+ response.status().getCode() + " : " + response.contentString());
-			}
-
 		} catch (IOException e) {
 			throw new ConnectorException("Problem in updating group", e);
 		} finally {
@@ -226,14 +246,17 @@ public class GroupService extends AbstractRestAPIService {
 	public void delete(String guid) {
 		HttpResponse response = httpRequestHandler.handleRequestDelete(constructURI(String.format("Group/%s", guid)),
 				getHeaders().toArray(new HttpPair[0]));
+		try {
+			if (response.status().getCode() == 404 || response.status().getCode() == 400) {
+				throw new PrincipalNotFoundException(guid + " not found.", null, PrincipalType.role);
+			}
 
-		if (response.status().getCode() == 404 || response.status().getCode() == 400) {
-			throw new PrincipalNotFoundException(guid + " not found.", null, PrincipalType.role);
-		}
-
-		if (response.status().getCode() != 204) {
-			throw new ConnectorException("Problem in deleting group as status code is not 204 is "
-					+ response.status().getCode() + " : " + response.contentString());
+			if (response.status().getCode() != 204) {
+				throw new ConnectorException("Problem in deleting group as status code is not 204 is "
+						+ response.status().getCode() + " : " + response.contentString());
+			}
+		} finally {
+			response.release();
 		}
 	}
 
@@ -254,20 +277,23 @@ public class GroupService extends AbstractRestAPIService {
 
 			HttpResponse response = httpRequestHandler.handleRequestPost(constructURI("GroupMember"),
 					JsonMapperService.getInstance().getJson(groupMember), getHeaders().toArray(new HttpPair[0]));
-
-			if (response.status().getCode() == 400) {
-				throw new ConnectorException("Problem in adding group member " + response.status().getCode() + " : "
-						+ response.contentString());
+			try {
+				if (response.status().getCode() == 400) {
+					throw new ConnectorException("Problem in adding group member " + response.status().getCode() + " : "
+							+ response.contentString());
+				}
+
+				String id = JsonMapperService.getInstance().getJsonProperty(response.contentString().toString(), "id")
+						.toString();
+				if (StringUtil.isNullOrEmpty(id)) {
+					throw new ConnectorException("Problem in saving group member " + response.contentString().toString());
+				}
+				groupMember.setId(id);
+
+				return groupMember;
+			} finally {
+				response.release();
 			}
-
-			String id = JsonMapperService.getInstance().getJsonProperty(response.contentString().toString(), "id")
-					.toString();
-			if (StringUtil.isNullOrEmpty(id)) {
-				throw new ConnectorException("Problem in saving group member " + response.contentString().toString());
-			}
-			groupMember.setId(id);
-
-			return groupMember;
 		} catch (IOException e) {
 			throw new ConnectorException("Problem in saving group member.", e);
 		}
@@ -288,12 +314,14 @@ public class GroupService extends AbstractRestAPIService {
 		// using group member id for deleting relation
 		HttpResponse response = httpRequestHandler.handleRequestDelete(
 				constructURI(String.format("GroupMember/%s", groupMember.getId())), getHeaders().toArray(new HttpPair[0]));
-
-		if (response.status().getCode() != 204) {
-			throw new ConnectorException("Problem in deleting group member as status code is not 204 is "
-					+ response.status().getCode() + " : " + response.contentString());
+		try {
+			if (response.status().getCode() != 204) {
+				throw new ConnectorException("Problem in deleting group member as status code is not 204 is "
+						+ response.status().getCode() + " : " + response.contentString());
+			}
+		} finally {
+			response.release();
 		}
-
 	}
 
 	/**
@@ -45,6 +45,7 @@ import com.identity4j.util.StringUtil;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpResponse;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -187,9 +188,7 @@ public class UserService extends AbstractRestAPIService{
 	 * @return users list
 	 */
 	public Users all(){
-		HttpResponse response = httpRequestHandler.handleRequestGet(
-				constructSOQLURI(String.format(serviceConfiguration.getGetAllUsers(),
-						USER_ATTRIBUTES)),getHeaders().toArray(new HttpPair[0]));
+		HttpResponse response = list();
 		try {
 			return JsonMapperService.getInstance().getObject(Users.class, response.contentString());
 		}
@@ -197,6 +196,22 @@ public class UserService extends AbstractRestAPIService{
 			response.release();
 		}
 	}
+
+	/**
+	 * This method streams all users present in the data store, mapping each
+	 * only as it is requested rather than reading the whole response first.
+	 * 
+	 * @return users
+	 */
+	public JsonArrayIterator<User> stream() {
+		return streamRecords(list(), User.class);
+	}
+
+	private HttpResponse list() {
+		return httpRequestHandler.handleRequestGet(
+				constructSOQLURI(String.format(serviceConfiguration.getGetAllUsers(),
+						USER_ATTRIBUTES)),getHeaders().toArray(new HttpPair[0]));
+	}
 	
 	/**
 	 * <p>
@@ -279,16 +294,18 @@ public class UserService extends AbstractRestAPIService{
 					constructURI(String.format("User/%s", id)),
 					JsonMapperService.getInstance().getJson(user),
 					getHeaders().toArray(new HttpPair[0]));
+			try {
+				if(response.status().getCode() == 404){
+					throw new PrincipalNotFoundException(user.getId() + " not found.",null,PrincipalType.user);
+				}
 			
-			if(response.status().getCode() == 404){
-				throw new PrincipalNotFoundException(user.getId() + " not found.",null,PrincipalType.user);
-			}
-			
-			if(response.status().getCode() != 204){
-				throw new ConnectorException("Problem in updating user as status code is not 204 is "
-						+ response.status().getCode() + " : " + response.contentString());
+				if(response.status().getCode() != 204){
+					throw new ConnectorException("Problem in updating user as status code is not 204 is "
+							+ response.status().getCode() + " : " + response.contentString());
+				}
+			} finally {
+				response.release();
 			}
-			
 		} catch (IOException e) {
 			throw new ConnectorException("Problem in updating user",e);
 		}finally{
@@ -311,9 +328,12 @@ public class UserService extends AbstractRestAPIService{
 		HttpResponse response = httpRequestHandler.handleRequestPost(
 				constructURI(String.format("User/%s/password", user.getId())),
 				passwordJson, getHeaders().toArray(new HttpPair[0]));
-		
-		if(response.status().getCode() != 204){
-			throw new ConnectorException("Problem in creating principal reason : " + response.contentString());
+		try {
+			if(response.status().getCode() != 204){
+				throw new ConnectorException("Problem in creating principal reason : " + response.contentString());
+			}
+		} finally {
+			response.release();
 		}
 	}
 	
@@ -366,10 +386,13 @@ public class UserService extends AbstractRestAPIService{
 		HttpResponse response = httpRequestHandler
 				.handleRequestPost(constructURI("User"), JsonMapperService
 						.getInstance().getJson(user), getHeaders().toArray(new HttpPair[0]));
-
-		probeUserCreationException(user, response);
-		String id = JsonMapperService.getInstance().getJsonProperty(response.contentString(), "id").toString();
-		user.setId(id);
+		try {
+			probeUserCreationException(user, response);
+			String id = JsonMapperService.getInstance().getJsonProperty(response.contentString(), "id").toString();
+			user.setId(id);
+		} finally {
+			response.release();
+		}
 	}
 
 	/**
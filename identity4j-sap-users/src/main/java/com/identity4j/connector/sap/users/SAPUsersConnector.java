@@ -101,16 +101,19 @@ public class SAPUsersConnector extends JDBCConnector<SAPUsersConfiguration> {
 	public void enableIdentity(Identity identity) {
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
+			connection = getConnection();
 			String sql = configuration.getSql(
 					configuration.replaceTokens(String.format("ALTER USER ${principalName} ACTIVATE"), identity));
-			statement = connect.prepareStatement(sql);
+			statement = connection.prepareStatement(sql);
 			statement.executeUpdate();
 		} catch (SQLException e) {
 			throw new ConnectorException(e);
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 	}
 
@@ -118,33 +121,38 @@ public class SAPUsersConnector extends JDBCConnector<SAPUsersConfiguration> {
 	public void disableIdentity(Identity identity) {
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
+			connection = getConnection();
 			String sql = configuration.getSql(
 					configuration.replaceTokens(String.format("ALTER USER ${principalName} DEACTIVATE"), identity));
-			statement = connect.prepareStatement(sql);
+			statement = connection.prepareStatement(sql);
 			statement.executeUpdate();
 		} catch (SQLException e) {
 			throw new ConnectorException(e);
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 	}
 
 	@Override
 	public void updateIdentity(Identity identity) throws ConnectorException {
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
+			connection = getConnection();
 			Identity oldIdentity = getIdentityByName(identity.getPrincipalName());
-			connect.setAutoCommit(false);
-			PreparedStatement statement = connect.prepareStatement(String.format("ALTER USER %s CLEAR ALL PARAMETERS", identity.getPrincipalName()));
+			connection.setAutoCommit(false);
+			PreparedStatement statement = connection.prepareStatement(String.format("ALTER USER %s CLEAR ALL PARAMETERS", identity.getPrincipalName()));
 			try {
 				statement.executeUpdate();
 			} finally {
 				statement.close();
 			}
 			for(Map.Entry<String, String[]> en : identity.getAttributes().entrySet()) {
-				statement = connect.prepareStatement(String.format("ALTER USER %s SET PARAMETER '%s' = '%s'", identity.getPrincipalName(), JDBCConfiguration.escapeString(en.getKey()), JDBCConfiguration.escapeString(StringUtil.toDefaultString(en.getValue()))));
+				statement = connection.prepareStatement(String.format("ALTER USER %s SET PARAMETER '%s' = '%s'", identity.getPrincipalName(), JDBCConfiguration.escapeString(en.getKey()), JDBCConfiguration.escapeString(StringUtil.toDefaultString(en.getValue()))));
 				try {
 					statement.executeUpdate();
 				} finally {
@@ -152,15 +160,18 @@ public class SAPUsersConnector extends JDBCConnector<SAPUsersConfiguration> {
 				}
 			}
 			updateIdentityRoles(oldIdentity, identity);
-			connect.commit();
+			connection.commit();
 		} catch (SQLException e) {
 			throw new ConnectorException(e);
 		} finally {
-			try {
-				connect.setAutoCommit(true);
-			} catch (SQLException e) {
+			if (connection != null) {
+				try {
+					connection.setAutoCommit(true);
+				} catch (SQLException e) {
+				}
 			}
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 	}
 
@@ -168,16 +179,19 @@ public class SAPUsersConnector extends JDBCConnector<SAPUsersConfiguration> {
 	public void unlockIdentity(Identity identity) throws ConnectorException {
 		PreparedStatement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
+			connection = getConnection();
 			String sql = configuration.getSql(configuration
 					.replaceTokens(String.format("ALTER USER ${principalName} DROP CONNECT ATTEMPTS"), identity));
-			statement = connect.prepareStatement(sql);
+			statement = connection.prepareStatement(sql);
 			statement.executeUpdate();
 		} catch (SQLException e) {
 			throw new ConnectorException(e);
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 
 	}
@@ -186,9 +200,11 @@ public class SAPUsersConnector extends JDBCConnector<SAPUsersConfiguration> {
 	protected Identity createIdentity(ResultSet resultSet) throws SQLException {
 		Identity identity = super.createIdentity(resultSet);
 		PreparedStatement statement = null;
+		Connection connection = null;
 		try {
+			connection = getConnection();
 			String sql = String.format("SELECT * FROM \"SYS\".\"USER_PARAMETERS\" WHERE USER_NAME = ?");
-			statement = connect.prepareStatement(sql);
+			statement = connection.prepareStatement(sql);
 			statement.setString(1, identity.getPrincipalName());
 			resultSet = statement.executeQuery();
 			while (resultSet.next()) {
@@ -206,6 +222,7 @@ public class SAPUsersConnector extends JDBCConnector<SAPUsersConfiguration> {
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 		return identity;
 	}
@@ -217,14 +234,17 @@ public class SAPUsersConnector extends JDBCConnector<SAPUsersConfiguration> {
 		if (forcePasswordChangeAtLogon) {
 			Statement statement = null;
 			ResultSet resultSet = null;
+			Connection connection = null;
 			try {
-				statement = connect.createStatement();
+				connection = getConnection();
+				statement = connection.createStatement();
 				statement.executeUpdate("ALTER USER " + identity.getPrincipalName() + " FORCE PASSWORD CHANGE");
 			} catch (SQLException e) {
 				throw new ConnectorException(e);
 			} finally {
 				closeStatement(statement);
 				closeResultSet(resultSet);
+				releaseConnection(connection);
 			}
 		}
 
@@ -267,8 +287,10 @@ public class SAPUsersConnector extends JDBCConnector<SAPUsersConfiguration> {
 
 		Statement statement = null;
 		ResultSet resultSet = null;
+		Connection connection = null;
 		try {
-			statement = connect.createStatement();
+			connection = getConnection();
+			statement = connection.createStatement();
 			resultSet = statement.executeQuery("SELECT * FROM PUBLIC.M_PASSWORD_POLICY");
 			while (resultSet.next()) {
 				String k = resultSet.getString("PROPERTY");
@@ -289,6 +311,7 @@ public class SAPUsersConnector extends JDBCConnector<SAPUsersConfiguration> {
 		} finally {
 			closeStatement(statement);
 			closeResultSet(resultSet);
+			releaseConnection(connection);
 		}
 
 		return dpc;
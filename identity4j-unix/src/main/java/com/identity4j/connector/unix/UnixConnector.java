@@ -30,16 +30,13 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.StringTokenizer;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 
 import com.identity4j.connector.OperationContext;
@@ -48,6 +45,7 @@ import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.flatfile.AbstractFlatFile;
 import com.identity4j.connector.flatfile.AbstractFlatFileConnector;
+import com.identity4j.connector.flatfile.FlatFileChanges;
 import com.identity4j.connector.flatfile.LocalDelimitedFlatFile;
 import com.identity4j.connector.flatfile.LocalFixedWidthFlatFile;
 import com.identity4j.connector.principal.AccountStatusType;
@@ -55,7 +53,6 @@ import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.IdentityImpl;
 import com.identity4j.connector.principal.PasswordStatus;
 import com.identity4j.connector.principal.Role;
-import com.identity4j.connector.principal.RoleImpl;
 import com.identity4j.util.StringUtil;
 import com.identity4j.util.Util;
 import com.identity4j.util.crypt.Encoder;
@@ -99,11 +96,11 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 	private LocalDelimitedFlatFile groupFlatFile;
 	private LocalDelimitedFlatFile shadowFlatFile;
 	private boolean passwordsInShadow = true;
-	private final Map<String, Role> roleMap = new HashMap<String, Role>();
-	private final Map<String, List<String>> additionalGroups = new HashMap<String, List<String>>();
+	private volatile UnixGroupIndex groupIndex = UnixGroupIndex.EMPTY;
 	private long lastLogLastLoaded = -1;
 
 	private LocalFixedWidthFlatFile lastLogFlatFile;
+	private boolean groupLoaded;
 
 	public UnixConnector() {
 		super(UnixDESEncoder.ID, UnixMD5Encoder.ID, UnixBlowfishEncoder.ID, UnixSHA256Encoder.ID, UnixSHA512Encoder.ID);
@@ -133,6 +130,28 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 		}
 	}
 
+	@Override
+	public void beginBatch() {
+		super.beginBatch();
+		groupFlatFile.beginBatch();
+		if (passwordsInShadow) {
+			shadowFlatFile.beginBatch();
+		}
+	}
+
+	@Override
+	public void commit() throws ConnectorException {
+		super.commit();
+		try {
+			groupFlatFile.commit();
+			if (passwordsInShadow) {
+				shadowFlatFile.commit();
+			}
+		} catch (IOException e) {
+			throw new ConnectorException("Write failure", e);
+		}
+	}
+
 	@Override
 	public ResultIterator<Role> allRoles(OperationContext opContext) throws ConnectorException {
 		checkLoaded();
@@ -142,14 +161,9 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 	@Override
 	public Role getRoleByName(String roleName) throws PrincipalNotFoundException, ConnectorException {
 		checkLoaded();
-		Role role = roleMap.get(roleName);
-		if (role == null) {
-			final List<String> row = groupFlatFile.getRowByKeyField(0, roleName);
-			if (row == null)
-				throw new PrincipalNotFoundException(String.format("No role named '%s'", roleName));
-			role = new RoleImpl(row.get(GID_INDEX), roleName);
-			roleMap.put(roleName, role);
-		}
+		Role role = groupIndex.getRole(roleName);
+		if (role == null)
+			throw new PrincipalNotFoundException(String.format("No role named '%s'", roleName));
 		return role;
 	}
 
@@ -178,16 +192,18 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 		try {
 			if (!password.startsWith("!")) {
 				password = "!" + password;
-				row.set(getConfiguration().getPasswordFieldIndex(), password);
-				getPasswordFile().writeRows();
+				getPasswordFile().set(row, getConfiguration().getPasswordFieldIndex(), password);
+				getPasswordFile().writeChanges();
 			}
 			if (passwordsInShadow) {
 				final long now = System.currentTimeMillis();
 				setOnRowOrAdd(shadowRow, DAYS_SINCE_ACCOUNT_WAS_DISABLED_INDEX,
 						String.valueOf(now / 1000 / 60 / 60 / 24));
-				shadowFlatFile.writeRows();
+				shadowFlatFile.markDirty(shadowRow);
+				shadowFlatFile.writeChanges();
 			}
 			identity.getAccountStatus().lock();
+			invalidateIdentity(identity.getPrincipalName());
 		} catch (IOException e) {
 			throw new ConnectorException("Lock account failure during write", e);
 		}
@@ -411,14 +427,15 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 		try {
 			if (password.startsWith("!")) {
 				password = password.substring(1);
-				row.set(getConfiguration().getPasswordFieldIndex(), password);
-				getPasswordFile().writeRows();
+				getPasswordFile().set(row, getConfiguration().getPasswordFieldIndex(), password);
+				getPasswordFile().writeChanges();
 			}
 			if (passwordsInShadow) {
-				shadowRow.set(DAYS_SINCE_ACCOUNT_WAS_DISABLED_INDEX, "");
-				shadowFlatFile.writeRows();
+				shadowFlatFile.set(shadowRow, DAYS_SINCE_ACCOUNT_WAS_DISABLED_INDEX, "");
+				shadowFlatFile.writeChanges();
 			}
 			identity.getAccountStatus().unlock();
+			invalidateIdentity(identity.getPrincipalName());
 		} catch (IOException e) {
 			throw new ConnectorException("Unlock account failure during write", e);
 		}
@@ -431,14 +448,14 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 		List<String> row = passwordFile.getRowByKeyField(keyFieldIndex, identity.getPrincipalName());
 		if (passwordsInShadow) {
 			// Move the encoded password from passwd to shadow
-			String encpw = row.set(getConfiguration().getPasswordFieldIndex(), "x");
+			String encpw = passwordFile.set(row, getConfiguration().getPasswordFieldIndex(), "x");
 			row = shadowFlatFile.getRowByKeyField(keyFieldIndex, identity.getPrincipalName());
-			row.set(getConfiguration().getPasswordFieldIndex(), encpw);
+			shadowFlatFile.set(row, getConfiguration().getPasswordFieldIndex(), encpw);
 			final long now = System.currentTimeMillis();
-			row.set(DAYS_SINCE_LAST_PASSWORD_CHANGE_INDEX, String.valueOf(now / 1000 / 60 / 60 / 24));
+			shadowFlatFile.set(row, DAYS_SINCE_LAST_PASSWORD_CHANGE_INDEX, String.valueOf(now / 1000 / 60 / 60 / 24));
 			identity.setPasswordStatus(createPasswordStatusFromShadowRow(row));
 			try {
-				shadowFlatFile.writeRows();
+				shadowFlatFile.writeChanges();
 			} catch (IOException e) {
 				throw new ConnectorException("Write failure", e);
 			}
@@ -517,7 +534,7 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 					ATTR_DAYS_AFTER_PASSWORD_EXPIRES_THAT_ACCOUNT_IS_DISABLED, identity, shadowRow);
 			maybeSet(DAYS_SINCE_ACCOUNT_WAS_DISABLED_INDEX, ATTR_DAYS_SINCE_ACCOUNT_WAS_DISABLED, identity, shadowRow);
 			try {
-				shadowFlatFile.writeRows();
+				shadowFlatFile.writeChanges();
 			} catch (IOException e) {
 				throw new ConnectorException("Write failure", e);
 			}
@@ -526,7 +543,7 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 
 	private void maybeSet(int idx, String name, Identity identity, List<String> shadowRow) {
 		String value = identity.getAttributeOrDefault(name, "");
-		shadowRow.set(idx, value);
+		shadowFlatFile.set(shadowRow, idx, value);
 	}
 
 	@Override
@@ -561,11 +578,14 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 		}
 
 		List<String> row = groupFlatFile.getRowByKeyField(GID_INDEX, role.getGuid());
-		row.set(0, role.getPrincipalName());
+		groupFlatFile.set(row, 0, role.getPrincipalName());
+
+		indexGroups();
+		invalidateIdentities();
 
-		// write the entire file
+		// write the changed row
 		try {
-			groupFlatFile.writeRows();
+			groupFlatFile.writeChanges();
 		} catch (IOException e) {
 			throw new ConnectorException("Write failure", e);
 		}
@@ -590,16 +610,15 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 		// write new row to remote file
 		try {
 			groupFlatFile.add(row);
-			if (groupFlatFile.getFile().getFileSystem().hasCapability(Capability.APPEND_CONTENT)) {
-				groupFlatFile.appendRow(row);
-			} else {
-				groupFlatFile.writeRows();
-			}
+			indexGroups();
+			groupFlatFile.writeChanges();
 		} catch (ConnectorException ce) {
 			groupFlatFile.remove(row);
+			indexGroups();
 			throw ce;
 		} catch (IOException e) {
 			groupFlatFile.remove(row);
+			indexGroups();
 			throw new ConnectorException("Write failure", e);
 		}
 
@@ -612,8 +631,10 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 	public void deleteRole(String principalName) throws ConnectorException {
 		checkLoaded();
 		groupFlatFile.remove(principalName);
+		indexGroups();
+		invalidateIdentities();
 		try {
-			groupFlatFile.writeRows();
+			groupFlatFile.writeChanges();
 		} catch (IOException e) {
 			throw new ConnectorException("delete role failure during write", e);
 		}
@@ -661,23 +682,13 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 				passwordFile.add(passwordRow);
 
 				try {
-					if (passwordFile.getFile().getFileSystem().hasCapability(Capability.APPEND_CONTENT)) {
-						passwordFile.appendRow(passwordRow);
-					} else {
-						passwordFile.writeRows();
-					}
-				} catch (IOException e) {
-					throw new ConnectorException("Failed to append row.", e);
-				}
-
-				try {
-					passwordRow.set(getConfiguration().getPasswordFieldIndex(),
+					passwordFile.set(passwordRow, getConfiguration().getPasswordFieldIndex(),
 							new String(
 									getEncoderManager().encode(password,
 											getConfiguration().getIdentityPasswordEncoding(),
 											getConfiguration().getCharset(), null, null),
 									getConfiguration().getCharset()));
-					passwordFile.writeRows();
+					passwordFile.writeChanges();
 				} catch (UnsupportedEncodingException e) {
 					throw new ConnectorException(e);
 				} catch (EncoderException e) {
@@ -718,6 +729,8 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 		lastLogLastLoaded = -1;
 		shadowFlatFile = null;
 		groupFlatFile = null;
+		groupIndex = UnixGroupIndex.EMPTY;
+		groupLoaded = false;
 	}
 
 	@Override
@@ -811,27 +824,10 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 	}
 
 	private void doIdentityRoles(List<String> row, IdentityImpl identity) {
-		// Add the users primary group
-		String gid = row.get(GID_FIELD_INDEX);
-		List<String> groupRow = groupFlatFile.getRowByKeyField(GID_INDEX, gid);
-		Role role = null;
-		if (groupRow != null) {
-			role = getRoleByName(groupRow.get(0));
+		// The users primary group, then the additional groups
+		for (Role role : groupIndex.getRoles(identity.getPrincipalName(), row.get(GID_FIELD_INDEX))) {
 			identity.addRole(role);
 		}
-
-		// Add the additional groups
-		List<String> groups = additionalGroups.get(identity.getPrincipalName());
-		if (groups != null) {
-			for (String groupName : groups) {
-				if (role == null || !groupName.equals(role.getPrincipalName())) {
-					Role additionalGroup = getRoleByName(groupName);
-					if (additionalGroup != null) {
-						identity.addRole(additionalGroup);
-					}
-				}
-			}
-		}
 	}
 
 	private void checkLastLogLoaded() throws IOException {
@@ -858,14 +854,27 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 			groupFlatFile.addIndex(0); // Name
 			groupFlatFile.addIndex(GID_INDEX); // GID
 			groupFlatFile.setFieldSeparator(':');
+			groupFlatFile.setCompactRows(getConfiguration().isCompactRows());
 		}
-		if (groupFlatFile.isStale()) {
-			roleMap.clear();
-			additionalGroups.clear();
+		if (groupFlatFile.isBatch()) {
+			return;
+		}
+		if (getConfiguration().isIncrementalReload() && groupLoaded) {
+			FlatFileChanges changes = groupFlatFile.reloadIfStale(0);
+			if (changes != null) {
+				indexGroups();
+				if (!changes.isEmpty()) {
+					/* Any identity's roles may have changed */
+					invalidateIdentities();
+				}
+			}
+		} else if (groupFlatFile.isStale()) {
+			invalidateIdentities();
 			groupFlatFile.load();
+			groupLoaded = true;
 
-			// Index the groups users
-			loadAdditionalGroupUsers();
+			// Index the groups and their users
+			indexGroups();
 		}
 	}
 
@@ -883,7 +892,7 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 		try {
 			InputStream inputStream = process.getInputStream();
 			try {
-				lastLogFlatFile.load(inputStream, getConfiguration().getCharset());
+				invalidateChanged(lastLogFlatFile.reload(inputStream, getConfiguration().getCharset(), 0));
 			} finally {
 				inputStream.close();
 			}
@@ -901,22 +910,14 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 		}
 	}
 
-	private void loadAdditionalGroupUsers() {
-		for (List<String> row : groupFlatFile.getContents()) {
-			if (row.size() > 3) {
-				String users = row.get(3);
-				StringTokenizer t = new StringTokenizer(users, ",");
-				while (t.hasMoreTokens()) {
-					String user = t.nextToken();
-					List<String> groups = additionalGroups.get(user);
-					if (groups == null) {
-						groups = new ArrayList<String>();
-						additionalGroups.put(user, groups);
-					}
-					groups.add(row.get(0));
-				}
-			}
-		}
+	private void invalidateChanged(FlatFileChanges changes) {
+		invalidateIdentities(changes.getAdded());
+		invalidateIdentities(changes.getChanged());
+		invalidateIdentities(changes.getRemoved());
+	}
+
+	private void indexGroups() {
+		groupIndex = new UnixGroupIndex(groupFlatFile.getContents(), GID_INDEX, groupIndex);
 	}
 
 	private void checkShadowLoaded() throws IOException {
@@ -937,31 +938,41 @@ public class UnixConnector extends AbstractFlatFileConnector<UnixConfiguration>
 				shadowFlatFile = new LocalDelimitedFlatFile(shadowFile, getConfiguration().getCharset());
 				shadowFlatFile.addIndex(0);
 				shadowFlatFile.setFieldSeparator(':');
+				shadowFlatFile.setCompactRows(getConfiguration().isCompactRows());
 			} else {
 				// Passwords are in /etc/passwd file
 				passwordsInShadow = false;
 			}
 		}
-		if (passwordsInShadow) {
-			shadowFlatFile.reloadIfStale();
+		if (passwordsInShadow && !shadowFlatFile.isBatch()) {
+			if (getConfiguration().isIncrementalReload()) {
+				FlatFileChanges changes = shadowFlatFile.reloadIfStale(0);
+				if (changes != null) {
+					invalidateChanged(changes);
+				}
+			} else if (shadowFlatFile.isStale()) {
+				shadowFlatFile.load();
+				invalidateIdentities();
+			}
 		}
 	}
 
 	class RoleIterator implements Iterator<Role> {
+		private final Role[] roles = groupIndex.getRoles();
 		private int row = 0;
 
 		public boolean hasNext() {
-			return row < groupFlatFile.size();
+			return row < roles.length;
 		}
 
 		public Role next() {
-			List<String> list = groupFlatFile.getContents().get(row++);
-			String keyFieldValue = list.get(0);
-			return getRoleByName(keyFieldValue);
+			if (row >= roles.length)
+				throw new NoSuchElementException("No more roles.");
+			return roles[row++];
 		}
 
 		public void remove() {
-			groupFlatFile.getContents().remove(row);
+			deleteRole(roles[row - 1].getPrincipalName());
 		}
 	}
 }
@@ -0,0 +1,166 @@
+package com.identity4j.connector.unix;
+
+/*
+ * #%L
+ * Identity4J Unix
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import com.identity4j.connector.principal.Role;
+import com.identity4j.connector.principal.RoleImpl;
+
+/**
+ * The groups of a group file, with each group's role created once, and
+ * indexes from group name and GID to group, and from user to the groups the
+ * user is an additional member of. Built in one pass over the file each time
+ * it is loaded, and not changed afterwards, so it may be read from any number
+ * of threads.
+ */
+final class UnixGroupIndex {
+
+	static final UnixGroupIndex EMPTY = new UnixGroupIndex();
+
+	private static final int[] NO_GROUPS = new int[0];
+
+	private final Role[] roles;
+	private final Map<String, Integer> byName;
+	private final Map<String, Integer> byGid;
+	private final Map<String, int[]> memberOf;
+
+	private UnixGroupIndex() {
+		roles = new Role[0];
+		byName = byGid = new HashMap<String, Integer>();
+		memberOf = new HashMap<String, int[]>();
+	}
+
+	/**
+	 * Build the index from group rows, reusing roles from a previous index
+	 * where the group's name and GID are unchanged.
+	 * 
+	 * @param rows group rows (name, password, GID, members)
+	 * @param gidIndex column of GID
+	 * @param previous previous index
+	 */
+	UnixGroupIndex(List<List<String>> rows, int gidIndex, UnixGroupIndex previous) {
+		Role[] roles = new Role[rows.size()];
+		byName = new HashMap<String, Integer>(rows.size() * 2);
+		byGid = new HashMap<String, Integer>(rows.size() * 2);
+		memberOf = new HashMap<String, int[]>();
+		int count = 0;
+		for (List<String> row : rows) {
+			if (row.size() <= gidIndex) {
+				continue;
+			}
+			String name = row.get(0);
+			String gid = row.get(gidIndex);
+			if (byName.containsKey(name)) {
+				continue;
+			}
+			Role role = previous.getRole(name);
+			if (role == null || !gid.equals(role.getGuid())) {
+				role = new RoleImpl(gid, name);
+			}
+			int ordinal = count++;
+			roles[ordinal] = role;
+			byName.put(name, ordinal);
+			if (!byGid.containsKey(gid)) {
+				byGid.put(gid, ordinal);
+			}
+			if (row.size() > 3) {
+				StringTokenizer t = new StringTokenizer(row.get(3), ",");
+				while (t.hasMoreTokens()) {
+					String user = t.nextToken();
+					int[] groups = memberOf.get(user);
+					if (groups == null) {
+						groups = new int[] { ordinal };
+					} else {
+						groups = Arrays.copyOf(groups, groups.length + 1);
+						groups[groups.length - 1] = ordinal;
+					}
+					memberOf.put(user, groups);
+				}
+			}
+		}
+		this.roles = count == roles.length ? roles : Arrays.copyOf(roles, count);
+	}
+
+	/**
+	 * Get the role of a group given its name.
+	 * 
+	 * @param name group name
+	 * @return role or <code>null</code>
+	 */
+	Role getRole(String name) {
+		Integer ordinal = byName.get(name);
+		return ordinal == null ? null : roles[ordinal];
+	}
+
+	/**
+	 * Get the role of a group given its GID.
+	 * 
+	 * @param gid GID
+	 * @return role or <code>null</code>
+	 */
+	Role getRoleByGid(String gid) {
+		Integer ordinal = byGid.get(gid);
+		return ordinal == null ? null : roles[ordinal];
+	}
+
+	/**
+	 * Get the roles of a user, the primary group's first, followed by those
+	 * of any other groups the user is a member of.
+	 * 
+	 * @param user user name
+	 * @param primaryGid GID of the user's primary group
+	 * @return roles
+	 */
+	Role[] getRoles(String user, String primaryGid) {
+		Integer primary = byGid.get(primaryGid);
+		int[] groups = memberOf.get(user);
+		if (groups == null) {
+			groups = NO_GROUPS;
+		}
+		Role[] userRoles = new Role[groups.length + (primary == null ? 0 : 1)];
+		int count = 0;
+		if (primary != null) {
+			userRoles[count++] = roles[primary];
+		}
+		for (int group : groups) {
+			if (primary == null || group != primary) {
+				userRoles[count++] = roles[group];
+			}
+		}
+		return count == userRoles.length ? userRoles : Arrays.copyOf(userRoles, count);
+	}
+
+	/**
+	 * Get all roles, in file order.
+	 * 
+	 * @return roles
+	 */
+	Role[] getRoles() {
+		return roles.clone();
+	}
+}
@@ -0,0 +1,91 @@
+package com.identity4j.connector.unix;
+
+/*
+ * #%L
+ * Identity4J Unix
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.identity4j.connector.principal.Role;
+
+public class UnixGroupIndexTest {
+
+    @Test
+    public void rolesOfUsers() {
+        UnixGroupIndex index = index("root:x:0:", "wheel:x:10:alice,bob", "users:x:100:alice", "staff:x:50:bob,carol");
+        assertEquals(Arrays.asList("users", "wheel"), names(index.getRoles("alice", "100")));
+        assertEquals(Arrays.asList("root", "wheel", "staff"), names(index.getRoles("bob", "0")));
+        assertEquals(Arrays.asList("staff"), names(index.getRoles("carol", "999")));
+        assertEquals(Arrays.asList("users"), names(index.getRoles("dave", "100")));
+        assertArrayEquals(new Role[0], index.getRoles("erin", "999"));
+    }
+
+    @Test
+    public void lookups() {
+        UnixGroupIndex index = index("root:x:0:", "wheel:x:10:alice", "", "dup:x:10:", "wheel:x:11:");
+        assertEquals("10", index.getRole("wheel").getGuid());
+        assertSame(index.getRole("wheel"), index.getRoleByGid("10"));
+        assertEquals("dup", index.getRole("dup").getPrincipalName());
+        assertNull(index.getRole("nobody"));
+        assertNull(index.getRoleByGid("12"));
+        assertEquals(Arrays.asList("root", "wheel", "dup"), names(index.getRoles()));
+        assertNull(UnixGroupIndex.EMPTY.getRole("root"));
+    }
+
+    @Test
+    public void unchangedRolesAreKept() {
+        UnixGroupIndex previous = index("root:x:0:", "wheel:x:10:alice");
+        UnixGroupIndex index = new UnixGroupIndex(rows("root:x:0:bob", "wheel:x:11:alice"), 2, previous);
+        assertSame(previous.getRole("root"), index.getRole("root"));
+        assertNotSame(previous.getRole("wheel"), index.getRole("wheel"));
+        assertEquals("11", index.getRole("wheel").getGuid());
+    }
+
+    private static UnixGroupIndex index(String... lines) {
+        return new UnixGroupIndex(rows(lines), 2, UnixGroupIndex.EMPTY);
+    }
+
+    private static List<List<String>> rows(String... lines) {
+        List<List<String>> rows = new ArrayList<List<String>>();
+        for (String line : lines) {
+            rows.add(Arrays.asList(line.split(":", -1)));
+        }
+        return rows;
+    }
+
+    private static List<String> names(Role[] roles) {
+        List<String> names = new ArrayList<String>();
+        for (Role role : roles) {
+            names.add(role.getPrincipalName());
+        }
+        return names;
+    }
+}
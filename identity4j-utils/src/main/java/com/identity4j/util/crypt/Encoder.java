@@ -47,6 +47,20 @@ public interface Encoder {
 	 */
 	boolean isOfType(byte[] encodedBytes, String charset);
 
+	/**
+	 * Get the fixed prefixes (sigils such as <code>$1$</code> or
+	 * <code>{SHA}</code>) that start any data {@link #isOfType(byte[], String)}
+	 * would recognise. Data starting with one of these is taken to have been
+	 * encoded by this encoder, letting {@link EncoderManager} detect it with a
+	 * table lookup rather than asking every encoder in turn. Encoders that
+	 * cannot be recognised by a prefix return an empty array.
+	 *
+	 * @return prefixes
+	 */
+	default String[] getPrefixes() {
+		return new String[0];
+	}
+
 	/**
 	 * Encode a string
 	 * 
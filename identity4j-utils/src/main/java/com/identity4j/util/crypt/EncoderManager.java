@@ -23,15 +23,19 @@ package com.identity4j.util.crypt;
  */
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 import com.identity4j.util.crypt.impl.PlainEncoder;
 
 public class EncoderManager {
 
 	private Map<String, Encoder> encoders = new TreeMap<String, Encoder>();
+	private volatile PrefixIndex prefixIndex = new PrefixIndex(encoders);
 
 	public EncoderManager() {
 	}
@@ -45,6 +49,7 @@ public class EncoderManager {
 			throw new IllegalArgumentException("An encoder with the ID of " + encoder.getId() + " has already been registered.");
 		}
 		encoders.put(encoder.getId(), encoder);
+		encodersChanged();
 	}
 
 	public void removeEncoder(Encoder encoder) {
@@ -52,31 +57,83 @@ public class EncoderManager {
 			throw new IllegalArgumentException("An encoder with the ID of " + encoder.getId() + " is not registered.");
 		}
 		encoders.remove(encoder.getId());
+		encodersChanged();
 	}
 
+	/**
+	 * Detect the encoder used to create an encoded string. The string is
+	 * first matched against the prefixes declared by the registered encoders,
+	 * and only converted to bytes and offered to every encoder if that fails.
+	 * 
+	 * @param string encoded string
+	 * @param charset character set
+	 * @param supportedEncoders IDs of encoders that may be returned, or
+	 *            <code>null</code> for any
+	 * @return encoder or <code>null</code> if none recognise the string
+	 */
 	public Encoder getEncoderForEncodedString(char[] string, String charset, Collection<String> supportedEncoders) {
-		try {
-			byte[] data = new String(string).getBytes(charset);
-			for (Encoder encoder : encoders.values()) {
-				if (encoder.isOfType(data, null)) {
-					return encoder;
-				}
+		PrefixIndex index = prefixIndex;
+		for (int length : index.lengths) {
+			if (length > string.length) {
+				continue;
 			}
+			Encoder encoder = index.prefixes.get(new String(string, 0, length));
+			if (encoder != null && isSupported(encoder, supportedEncoders)) {
+				return encoder;
+			}
+		}
+		try {
+			return scan(new String(string).getBytes(charset), charset, supportedEncoders);
 		} catch (UnsupportedEncodingException uee) {
 			throw new Error(uee);
 		}
-		return null;
 	}
 
+	/**
+	 * Detect the encoder used to create encoded data. The data is first
+	 * matched against the prefixes declared by the registered encoders, and
+	 * only offered to every encoder if that fails.
+	 * 
+	 * @param encodedData encoded data
+	 * @param charSet character set
+	 * @return encoder or <code>null</code> if none recognise the data
+	 */
 	public Encoder getEncoderForEncodedData(byte[] encodedData, String charSet) {
-		for (Encoder encoder : encoders.values()) {
-			if (encoder.isOfType(encodedData, charSet)) {
+		PrefixIndex index = prefixIndex;
+		for (int length : index.lengths) {
+			if (length > encodedData.length) {
+				continue;
+			}
+			Encoder encoder = index.prefixes.get(new String(encodedData, 0, length, StandardCharsets.ISO_8859_1));
+			if (encoder != null) {
 				return encoder;
 			}
 		}
+		return scan(encodedData, charSet, null);
+	}
+
+	/**
+	 * Offer data without a known prefix to each encoder the caller supports in
+	 * turn. Such values are mostly unique (salted hashes), so the result is
+	 * not worth remembering.
+	 */
+	private Encoder scan(byte[] encodedData, String charset, Collection<String> supportedEncoders) {
+		for (Encoder e : encoders.values()) {
+			if (isSupported(e, supportedEncoders) && e.isOfType(encodedData, charset)) {
+				return e;
+			}
+		}
 		return null;
 	}
 
+	private static boolean isSupported(Encoder encoder, Collection<String> supportedEncoders) {
+		return supportedEncoders == null || supportedEncoders.contains(encoder.getId());
+	}
+
+	private void encodersChanged() {
+		prefixIndex = new PrefixIndex(encoders);
+	}
+
 	public String[] getEncoderIds() {
 		return encoders.keySet().toArray(new String[encoders.size()]);
 	}
@@ -111,4 +168,32 @@ public class EncoderManager {
 		}
 		return encoder;
 	}
+
+	/**
+	 * Immutable lookup of encoder by prefix. Where more than one encoder
+	 * declares the same prefix, the first in ID order wins, just as it would
+	 * when asking each encoder in turn.
+	 */
+	private final static class PrefixIndex {
+		private final Map<String, Encoder> prefixes = new HashMap<String, Encoder>();
+		private final int[] lengths;
+
+		PrefixIndex(Map<String, Encoder> encoders) {
+			TreeSet<Integer> lengthSet = new TreeSet<Integer>();
+			for (Encoder encoder : encoders.values()) {
+				for (String prefix : encoder.getPrefixes()) {
+					if (prefix.length() > 0 && !prefixes.containsKey(prefix)) {
+						prefixes.put(prefix, encoder);
+						lengthSet.add(prefix.length());
+					}
+				}
+			}
+			/* Longest first, so the most specific prefix wins */
+			lengths = new int[lengthSet.size()];
+			int i = 0;
+			for (Integer length : lengthSet.descendingSet()) {
+				lengths[i++] = length;
+			}
+		}
+	}
 }
@@ -0,0 +1,307 @@
+package com.identity4j.util.crypt;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies credentials on a dedicated, bounded pool of threads, so that slow
+ * hash schemes such as BCrypt or many round SHA crypt do not tie up the
+ * threads handling requests. The pool is sized to the number of processors
+ * and its queue is bounded, so a burst of logins beyond what it can hold is
+ * rejected rather than queued indefinitely. Timings are kept for each scheme.
+ * <p>
+ * The shared instance may be sized using the system properties
+ * <code>identity4j.verification.threads</code> and
+ * <code>identity4j.verification.queueDepth</code>.
+ */
+public class VerificationService implements Closeable {
+
+	/**
+	 * Default number of verifications that may wait for a thread.
+	 */
+	public final static int DEFAULT_QUEUE_DEPTH = 1024;
+
+	private final static class Holder {
+		private final static VerificationService INSTANCE = new VerificationService(
+				Integer.getInteger("identity4j.verification.threads", Runtime.getRuntime().availableProcessors()),
+				Integer.getInteger("identity4j.verification.queueDepth", DEFAULT_QUEUE_DEPTH));
+	}
+
+	/**
+	 * Timings of the verifications of one scheme.
+	 */
+	public final static class Timing {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private final LongAdder rejected = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAdder totalWaitNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		private Timing() {
+		}
+
+		/**
+		 * Get the number of verifications completed, including those that
+		 * failed with an exception.
+		 * 
+		 * @return count
+		 */
+		public long getCount() {
+			return count.sum();
+		}
+
+		/**
+		 * Get the number of verifications that failed with an exception.
+		 * 
+		 * @return failures
+		 */
+		public long getFailures() {
+			return failures.sum();
+		}
+
+		/**
+		 * Get the number of verifications rejected because the queue was full.
+		 * 
+		 * @return rejected
+		 */
+		public long getRejected() {
+			return rejected.sum();
+		}
+
+		/**
+		 * Get the total time spent verifying.
+		 * 
+		 * @return total time in nanoseconds
+		 */
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		/**
+		 * Get the mean time spent verifying.
+		 * 
+		 * @return mean time in nanoseconds
+		 */
+		public long getMeanNanos() {
+			long c = count.sum();
+			return c == 0 ? 0 : totalNanos.sum() / c;
+		}
+
+		/**
+		 * Get the mean time verifications waited in the queue.
+		 * 
+		 * @return mean wait in nanoseconds
+		 */
+		public long getMeanWaitNanos() {
+			long c = count.sum();
+			return c == 0 ? 0 : totalWaitNanos.sum() / c;
+		}
+
+		/**
+		 * Get the longest time spent on one verification.
+		 * 
+		 * @return maximum time in nanoseconds
+		 */
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		void completed(long waitNanos, long nanos, boolean failed) {
+			count.increment();
+			if (failed) {
+				failures.increment();
+			}
+			totalWaitNanos.add(waitNanos);
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+		}
+
+		@Override
+		public String toString() {
+			return "Timing [count=" + getCount() + ", failures=" + getFailures() + ", rejected=" + getRejected() + ", mean="
+					+ TimeUnit.NANOSECONDS.toMicros(getMeanNanos()) + "us, meanWait="
+					+ TimeUnit.NANOSECONDS.toMicros(getMeanWaitNanos()) + "us, max="
+					+ TimeUnit.NANOSECONDS.toMicros(getMaxNanos()) + "us]";
+		}
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final ConcurrentMap<String, Timing> timings = new ConcurrentHashMap<String, Timing>();
+
+	/**
+	 * Get the shared instance.
+	 * 
+	 * @return shared instance
+	 */
+	public static VerificationService getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param threads maximum number of verifications run at once
+	 * @param queueDepth maximum number of verifications waiting for a thread
+	 */
+	public VerificationService(int threads, int queueDepth) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("There must be at least one verification thread.");
+		}
+		if (queueDepth < 0) {
+			throw new IllegalArgumentException("Queue depth may not be negative.");
+		}
+		BlockingQueue<Runnable> queue = queueDepth == 0 ? new SynchronousQueue<Runnable>()
+				: new ArrayBlockingQueue<Runnable>(queueDepth);
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "identity4j-verification-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Run a verification on the pool. If the queue is full, the returned
+	 * future completes exceptionally with a
+	 * {@link RejectedExecutionException} straight away. Cancelling the future
+	 * before the verification starts means it will not be run.
+	 * 
+	 * @param scheme name under which the verification is timed, usually the
+	 *            encoder ID
+	 * @param verification verification
+	 * @return future result of the verification
+	 */
+	public CompletableFuture<Boolean> verify(String scheme, final Callable<Boolean> verification) {
+		final Timing timing = getTiming(scheme);
+		final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+		final long queued = System.nanoTime();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (future.isDone()) {
+						return;
+					}
+					long started = System.nanoTime();
+					try {
+						Boolean result = verification.call();
+						timing.completed(started - queued, System.nanoTime() - started, false);
+						future.complete(result);
+					} catch (Throwable e) {
+						timing.completed(started - queued, System.nanoTime() - started, true);
+						future.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			timing.rejected.increment();
+			future.completeExceptionally(ree);
+		}
+		return future;
+	}
+
+	/**
+	 * Check on the pool that un-encoded data would match the encoded data if
+	 * it was encoded. The verification is timed under the ID of the encoder.
+	 * 
+	 * @param encoder encoder
+	 * @param encodedData encoded data
+	 * @param unencodedData un-encoded data
+	 * @param passphrase passphrase if supported
+	 * @param charset character set
+	 * @return future result of the match
+	 * @see Encoder#match(byte[], byte[], byte[], String)
+	 */
+	public CompletableFuture<Boolean> match(final Encoder encoder, final byte[] encodedData, final byte[] unencodedData,
+			final byte[] passphrase, final String charset) {
+		return verify(encoder.getId(), new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return encoder.match(encodedData, unencodedData, passphrase, charset);
+			}
+		});
+	}
+
+	/**
+	 * Get the timings of each scheme verified so far, keyed by scheme.
+	 * 
+	 * @return timings
+	 */
+	public Map<String, Timing> getTimings() {
+		return Collections.unmodifiableMap(new TreeMap<String, Timing>(timings));
+	}
+
+	/**
+	 * Get the number of verifications waiting for a thread.
+	 * 
+	 * @return queued verifications
+	 */
+	public int getQueued() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Get the number of verifications running.
+	 * 
+	 * @return running verifications
+	 */
+	public int getActive() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Stop accepting verifications. Those already queued still run.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	private Timing getTiming(String scheme) {
+		return timings.computeIfAbsent(scheme, s -> new Timing());
+	}
+}
@@ -27,7 +27,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.security.MessageDigest;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
@@ -136,7 +136,7 @@ public class AESEncoder extends RawAESEncoder {
             byte[] data = new byte[encodedData.length - offset - saltLen];
             din.readFully(data);
             byte[] newEncoded = super.encode(unencodedData, salt, passphrase, charset, keyLength, iterations);
-            return Arrays.equals(data, newEncoded);
+            return MessageDigest.isEqual(data, newEncoded);
         } catch (IOException ioe) {
             return false;
         }
@@ -22,7 +22,7 @@ package com.identity4j.util.crypt.impl;
  * #L%
  */
 
-import java.util.Arrays;
+import java.security.MessageDigest;
 
 import com.identity4j.util.crypt.Encoder;
 import com.identity4j.util.crypt.EncoderException;
@@ -52,7 +52,7 @@ public abstract class AbstractEncoder implements Encoder {
 
 	@Override
 	public boolean match(byte[] encodedData, byte[] unencodedData, byte[] passphrase, String charset) {
-		return Arrays.equals(encodedData, encode(unencodedData, null, passphrase, charset));
+		return MessageDigest.isEqual(encodedData, encode(unencodedData, null, passphrase, charset));
 	}
 
 
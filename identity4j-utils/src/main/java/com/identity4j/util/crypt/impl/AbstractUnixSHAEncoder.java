@@ -23,6 +23,7 @@ package com.identity4j.util.crypt.impl;
  */
 
 import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
 
 import com.identity4j.util.crypt.EncoderException;
 
@@ -60,7 +61,7 @@ public abstract class AbstractUnixSHAEncoder extends AbstractEncoder {
 			}
 			String encsalt = encoded.substring(0, idx);
 			String toMatch = doCrypt(unencodedData, charset, encsalt);
-			return toMatch.equals(encoded);
+			return MessageDigest.isEqual(toMatch.getBytes(charset), encodedData);
 			
 		} catch (UnsupportedEncodingException e) {
 			throw new EncoderException(e);
@@ -78,6 +79,11 @@ public abstract class AbstractUnixSHAEncoder extends AbstractEncoder {
 		}
 	}
 
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { saltPrefix };
+	}
+
 	@Override
 	public byte[] encode(byte[] toEncode, byte[] salt, byte[] passphrase, String charset) throws EncoderException {
 		try {
@@ -23,7 +23,7 @@ package com.identity4j.util.crypt.impl;
  */
 
 import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
+import java.security.MessageDigest;
 
 import com.identity4j.util.crypt.EncoderException;
 
@@ -57,13 +57,18 @@ public class Drupal7Encoder extends AbstractPHPHashEncoder {
         }
     }
 
+    @Override
+    public String[] getPrefixes() {
+        return new String[] { "$S$" };
+    }
+
     @Override
     public boolean match(byte[] encodedData, byte[] unencodedData, byte[] passphrase, String charset) {
 
         try {
             String encoded = new String(encodedData, charset);
             String encsalt = encoded.substring(0, 12);
-            return Arrays.equals(encode(unencodedData, encsalt.getBytes(charset), passphrase, charset), encodedData);
+            return MessageDigest.isEqual(encode(unencodedData, encsalt.getBytes(charset), passphrase, charset), encodedData);
 
         } catch (UnsupportedEncodingException e) {
             throw new EncoderException(e);
@@ -74,4 +74,9 @@ public class MessageDigestStringEncoder extends CompoundEncoder {
         }
     }
 
+    @Override
+    public String[] getPrefixes() {
+        return new String[] { "{" + hashAlgorithm + "}" };
+    }
+
 }
@@ -66,6 +66,11 @@ public class UnixBlowfishEncoder extends AbstractEncoder {
 		}
 	}
 
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { "$2$", "$2a$" };
+	}
+
 	@Override
 	public byte[] encode(byte[] toEncode, byte[] salt, byte[] passphrase, String charset) throws EncoderException {
 		try {
@@ -23,7 +23,7 @@ package com.identity4j.util.crypt.impl;
  */
 
 import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
+import java.security.MessageDigest;
 
 import com.identity4j.util.crypt.EncoderException;
 import com.identity4j.util.unix.DESCrypt;
@@ -49,7 +49,7 @@ public class UnixDESEncoder extends AbstractEncoder {
 				return false;
 			}
 			String encsalt = encoded.substring(0, 2);
-			return Arrays.equals(encode(unencodedData, encsalt.getBytes(charset), passphrase, charset), encodedData);
+			return MessageDigest.isEqual(encode(unencodedData, encsalt.getBytes(charset), passphrase, charset), encodedData);
 
 		} catch (UnsupportedEncodingException e) {
 			throw new EncoderException(e);
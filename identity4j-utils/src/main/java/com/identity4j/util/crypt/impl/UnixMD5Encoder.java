@@ -23,7 +23,7 @@ package com.identity4j.util.crypt.impl;
  */
 
 import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
+import java.security.MessageDigest;
 
 import com.identity4j.util.crypt.EncoderException;
 import com.identity4j.util.unix.MD5Crypt;
@@ -64,7 +64,7 @@ public class UnixMD5Encoder extends AbstractEncoder {
 				throw new EncoderException("Expected end of salt character $");
 			}
 			String encsalt = encoded.substring(0, idx);
-			return Arrays.equals(encode(unencodedData,  encsalt.getBytes(charset), passphrase, charset), encodedData);
+			return MessageDigest.isEqual(encode(unencodedData,  encsalt.getBytes(charset), passphrase, charset), encodedData);
 
 		} catch (UnsupportedEncodingException e) {
 			throw new EncoderException(e);
@@ -80,6 +80,11 @@ public class UnixMD5Encoder extends AbstractEncoder {
 		}
 	}
 
+	@Override
+	public String[] getPrefixes() {
+		return new String[] { saltPrefix };
+	}
+
 	@Override
 	public byte[] encode(byte[] toEncode, byte[] salt, byte[] passphrase, String charset) throws EncoderException {
 		try {
@@ -52,5 +52,43 @@ public interface HttpProviderClient {
 	void setConnectTimeout(int ms);
 
 	void setConnectionRequestTimeout(int ms);
+
+	/**
+	 * Set the maximum number of connections the pool this client uses may hold
+	 * in total. Providers that do not pool connections ignore this.
+	 * 
+	 * @param max maximum connections
+	 */
+	default void setMaxConnections(int max) {
+	}
+
+	/**
+	 * Set the maximum number of connections the pool this client uses may hold
+	 * to any one host, which limits how many requests to it can run at once.
+	 * Providers that do not pool connections ignore this.
+	 * 
+	 * @param max maximum connections per route
+	 */
+	default void setMaxConnectionsPerRoute(int max) {
+	}
+
+	/**
+	 * Set how long a pooled connection may sit idle before it is closed.
+	 * Providers that do not pool connections ignore this.
+	 * 
+	 * @param ms idle timeout in milliseconds
+	 */
+	default void setIdleConnectionTimeout(int ms) {
+	}
+
+	/**
+	 * Set the longest time a connection will be kept alive for reuse, used
+	 * when the server does not say or asks for longer. Providers that do not
+	 * pool connections ignore this.
+	 * 
+	 * @param ms keep alive in milliseconds
+	 */
+	default void setKeepAlive(int ms) {
+	}
 	
 }
@@ -0,0 +1,444 @@
+package com.identity4j.util.http;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Throttles requests to remote APIs so they run as fast as the API will
+ * tolerate and no faster.
+ * <p>
+ * Requests are grouped by a key chosen by the caller, typically a tenant and
+ * the host of the API, and each key has its own token bucket. By default a
+ * key is not limited at all until the API first throttles it. Every
+ * throttled response (<code>429 Too Many Requests</code> or
+ * <code>503 Service Unavailable</code>) pauses all requests for that key,
+ * either for the time given by the server in <code>Retry-After</code> or for
+ * an exponential backoff with jitter. The first also limits the key to the
+ * throttled rate, and later ones cut the rate by a factor. From then on the
+ * rate adapts by additive increase, multiplicative decrease (AIMD), every
+ * successful request raising it a little, up to a maximum.
+ * {@link #execute(String, boolean, Callable)} wraps all of this around a
+ * single request, retrying throttled requests up to a limit. Requests that
+ * are not idempotent are only retried on <code>429</code>, as a
+ * <code>503</code> does not promise the request was not acted upon.
+ */
+public class RateLimiter {
+	private final static Log LOG = LogFactory.getLog(RateLimiter.class);
+
+	public final static double UNLIMITED = Double.POSITIVE_INFINITY;
+	public final static double DEFAULT_INITIAL_RATE = UNLIMITED;
+	public final static double DEFAULT_THROTTLED_RATE = 10;
+	public final static double DEFAULT_MIN_RATE = 0.5;
+	public final static double DEFAULT_MAX_RATE = UNLIMITED;
+	public final static double DEFAULT_BURST = 10;
+	public final static double DEFAULT_INCREASE = 1;
+	public final static double DEFAULT_DECREASE = 0.5;
+	public final static int DEFAULT_MAX_RETRIES = 5;
+	public final static long DEFAULT_BASE_BACKOFF = 500;
+	public final static long DEFAULT_MAX_BACKOFF = 60000;
+
+	private static class DefaultHolder {
+		private final static RateLimiter INSTANCE = new RateLimiter();
+	}
+
+	private final class Bucket {
+		private double rate = initialRate;
+		private double tokens = burst;
+		private long refilled = System.nanoTime();
+		private long blockedUntil = refilled;
+
+		/**
+		 * Take a token if one is available.
+		 * 
+		 * @return zero if a token was taken, otherwise nanoseconds to wait
+		 *         before trying again
+		 */
+		synchronized long reserve() {
+			long now = System.nanoTime();
+			if (now - blockedUntil < 0)
+				return blockedUntil - now;
+			if (rate == UNLIMITED)
+				return 0;
+			tokens = Math.min(burst, tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+			refilled = now;
+			if (tokens >= 1) {
+				tokens -= 1;
+				return 0;
+			}
+			return (long) Math.ceil((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+		}
+
+		/*
+		 * Adding increase / rate per request raises the rate by about
+		 * increase each second while requests are flowing at full speed.
+		 */
+		synchronized void increase() {
+			if (rate != UNLIMITED)
+				rate = Math.min(maxRate, rate + increase / rate);
+		}
+
+		synchronized void decrease(long pauseMs) {
+			if (rate == UNLIMITED) {
+				rate = Math.max(minRate, throttledRate);
+				refilled = System.nanoTime();
+			} else
+				rate = Math.max(minRate, rate * decrease);
+			tokens = 0;
+			long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pauseMs);
+			if (until - blockedUntil > 0)
+				blockedUntil = until;
+		}
+
+		synchronized double getRate() {
+			return rate;
+		}
+	}
+
+	private final Map<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+	private volatile double initialRate = DEFAULT_INITIAL_RATE;
+	private volatile double throttledRate = DEFAULT_THROTTLED_RATE;
+	private volatile double minRate = DEFAULT_MIN_RATE;
+	private volatile double maxRate = DEFAULT_MAX_RATE;
+	private volatile double burst = DEFAULT_BURST;
+	private volatile double increase = DEFAULT_INCREASE;
+	private volatile double decrease = DEFAULT_DECREASE;
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+	private volatile long baseBackoff = DEFAULT_BASE_BACKOFF;
+	private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+
+	/**
+	 * Get the rate limiter shared by callers that do not need their own
+	 * settings.
+	 * 
+	 * @return default rate limiter
+	 */
+	public static RateLimiter getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	public double getInitialRate() {
+		return initialRate;
+	}
+
+	/**
+	 * Set the rate in requests per second that new keys start at, or
+	 * {@link #UNLIMITED} (the default) to not limit them until they are first
+	 * throttled. This does not affect keys that have already been used.
+	 * 
+	 * @param initialRate initial rate
+	 */
+	public void setInitialRate(double initialRate) {
+		this.initialRate = initialRate;
+	}
+
+	public double getThrottledRate() {
+		return throttledRate;
+	}
+
+	/**
+	 * Set the rate in requests per second that a key which is not limited
+	 * drops to when it is first throttled.
+	 * 
+	 * @param throttledRate throttled rate
+	 */
+	public void setThrottledRate(double throttledRate) {
+		this.throttledRate = throttledRate;
+	}
+
+	public double getMinRate() {
+		return minRate;
+	}
+
+	public void setMinRate(double minRate) {
+		this.minRate = minRate;
+	}
+
+	public double getMaxRate() {
+		return maxRate;
+	}
+
+	public void setMaxRate(double maxRate) {
+		this.maxRate = maxRate;
+	}
+
+	public double getBurst() {
+		return burst;
+	}
+
+	/**
+	 * Set how many requests may be made at once before the rate applies.
+	 * 
+	 * @param burst burst
+	 */
+	public void setBurst(double burst) {
+		this.burst = burst;
+	}
+
+	public double getIncrease() {
+		return increase;
+	}
+
+	/**
+	 * Set roughly how many requests per second the rate rises by each second
+	 * while requests succeed.
+	 * 
+	 * @param increase additive increase
+	 */
+	public void setIncrease(double increase) {
+		this.increase = increase;
+	}
+
+	public double getDecrease() {
+		return decrease;
+	}
+
+	/**
+	 * Set the factor the rate is multiplied by when a request is throttled.
+	 * 
+	 * @param decrease multiplicative decrease
+	 */
+	public void setDecrease(double decrease) {
+		this.decrease = decrease;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public long getBaseBackoff() {
+		return baseBackoff;
+	}
+
+	public void setBaseBackoff(long baseBackoff) {
+		this.baseBackoff = baseBackoff;
+	}
+
+	public long getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	public void setMaxBackoff(long maxBackoff) {
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Get the current rate for a key.
+	 * 
+	 * @param key key
+	 * @return requests per second, or {@link #UNLIMITED}
+	 */
+	public double getRate(String key) {
+		return bucket(key).getRate();
+	}
+
+	/**
+	 * Block until a request may be made for a key.
+	 * 
+	 * @param key key
+	 * @throws HttpException if interrupted while waiting
+	 */
+	public void acquire(String key) {
+		Bucket bucket = bucket(key);
+		long wait;
+		while ((wait = bucket.reserve()) > 0) {
+			sleep(TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+		}
+	}
+
+	/**
+	 * Record that a request for a key succeeded, raising its rate.
+	 * 
+	 * @param key key
+	 */
+	public void succeeded(String key) {
+		bucket(key).increase();
+	}
+
+	/**
+	 * Record that a request for a key was throttled, lowering its rate and
+	 * pausing all requests for it.
+	 * 
+	 * @param key key
+	 * @param attempt number of retries already made for this request
+	 * @param retryAfter milliseconds the server asked to wait, or -1
+	 * @return milliseconds to wait before retrying
+	 */
+	public long throttled(String key, int attempt, long retryAfter) {
+		long delay = Math.max(retryAfter, backoff(attempt));
+		bucket(key).decrease(delay);
+		return delay;
+	}
+
+	/**
+	 * Make an idempotent request, waiting for the rate limit first and
+	 * retrying if it is throttled.
+	 * 
+	 * @param key key
+	 * @param request request
+	 * @return response
+	 * @see #execute(String, boolean, Callable)
+	 */
+	public HttpResponse execute(String key, Callable<HttpResponse> request) {
+		return execute(key, true, request);
+	}
+
+	/**
+	 * Make a request, waiting for the rate limit first and retrying if it is
+	 * throttled. A request that is not idempotent (such as a
+	 * <code>POST</code>) is only retried when the server says it was not
+	 * processed, i.e. <code>429</code>. If it is still throttled after the
+	 * maximum number of retries, or cannot be retried, the last response is
+	 * returned as is.
+	 * 
+	 * @param key key
+	 * @param idempotent whether the request may safely be repeated
+	 * @param request request
+	 * @return response
+	 */
+	public HttpResponse execute(String key, boolean idempotent, Callable<HttpResponse> request) {
+		for (int attempt = 0;; attempt++) {
+			acquire(key);
+			HttpResponse response;
+			try {
+				response = request.call();
+			} catch (RuntimeException re) {
+				throw re;
+			} catch (Exception e) {
+				throw new HttpException(e);
+			}
+
+			int code = response.status().getCode();
+			if (!isThrottled(code)) {
+				succeeded(key);
+				return response;
+			}
+
+			long delay = throttled(key, attempt, getRetryAfter(response));
+			if (!isRetryable(code, idempotent)) {
+				LOG.warn(String.format("Request for %s throttled (%d), not retrying as it is not idempotent.", key, code));
+				return response;
+			}
+			if (attempt >= maxRetries) {
+				LOG.warn(String.format("Request for %s still throttled (%d) after %d retries.", key, code, attempt));
+				return response;
+			}
+			response.release();
+			if (LOG.isInfoEnabled())
+				LOG.info(String.format("Request for %s throttled (%d), retrying in %dms at %.1f requests/s.", key,
+						code, delay, getRate(key)));
+			sleep(delay);
+		}
+	}
+
+	/**
+	 * Get if a status code means the server wants requests to slow down.
+	 * 
+	 * @param code status code
+	 * @return throttled
+	 */
+	public static boolean isThrottled(int code) {
+		return code == 429 || code == 503;
+	}
+
+	/**
+	 * Get if a throttled request may be retried. A <code>429</code> means the
+	 * request was refused, but a <code>503</code> may come after it was acted
+	 * upon, so only idempotent requests are retried then.
+	 * 
+	 * @param code status code
+	 * @param idempotent whether the request may safely be repeated
+	 * @return retryable
+	 */
+	public static boolean isRetryable(int code, boolean idempotent) {
+		return code == 429 || (idempotent && code == 503);
+	}
+
+	/**
+	 * Get how long a response asks the client to wait before retrying.
+	 * 
+	 * @param response response
+	 * @return milliseconds, or -1 if the response does not say
+	 */
+	public static long getRetryAfter(HttpResponse response) {
+		HttpPair header = Http.getHeader(response, "Retry-After");
+		return header == null ? -1 : parseRetryAfter(header.getValue(), System.currentTimeMillis());
+	}
+
+	/**
+	 * Parse a <code>Retry-After</code> value, which is either a number of
+	 * seconds or an HTTP date.
+	 * 
+	 * @param value value
+	 * @param now current time in milliseconds
+	 * @return milliseconds, or -1 if the value cannot be parsed
+	 */
+	public static long parseRetryAfter(String value, long now) {
+		value = value.trim();
+		try {
+			return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+		} catch (NumberFormatException nfe) {
+		}
+		try {
+			return Math.max(0, ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - now);
+		} catch (DateTimeParseException dtpe) {
+			return -1;
+		}
+	}
+
+	/*
+	 * Exponential backoff with "equal jitter", between half of and the full
+	 * capped delay, so retries spread out but always wait a while.
+	 */
+	long backoff(int attempt) {
+		long cap = Math.min(maxBackoff, baseBackoff << Math.min(attempt, 30));
+		return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+	}
+
+	private Bucket bucket(String key) {
+		return buckets.computeIfAbsent(key, k -> new Bucket());
+	}
+
+	private static void sleep(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HttpException("Interrupted while waiting for rate limit.", e);
+		}
+	}
+}
@@ -23,14 +23,23 @@ package com.identity4j.util.http.request;
  */
 
 import java.net.URI;
+import java.util.concurrent.Callable;
 
 import com.identity4j.util.http.Http;
+import com.identity4j.util.http.HttpException;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpProviderClient;
 import com.identity4j.util.http.HttpResponse;
+import com.identity4j.util.http.RateLimiter;
 
 /**
  * This class provides all the methods to send http requests to the REST endpoint.
+ * <p>
+ * Requests are throttled by a {@link RateLimiter}, keyed by the host and an
+ * optional scope such as a tenant, once the server first responds that it is
+ * being sent too many, and retried when it does. <code>POST</code> and
+ * <code>PATCH</code> requests are not idempotent, so they are only retried
+ * on <code>429</code>.
  * 
  * @author gaurav
  * 
@@ -38,6 +47,43 @@ import com.identity4j.util.http.HttpResponse;
 
 public class HttpRequestHandler {
 
+	private RateLimiter rateLimiter = RateLimiter.getDefault();
+	private String rateLimitScope;
+
+	public HttpRequestHandler() {
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param rateLimitScope scope (e.g. tenant) requests are rate limited in
+	 *            along with the host
+	 */
+	public HttpRequestHandler(String rateLimitScope) {
+		this.rateLimitScope = rateLimitScope;
+	}
+
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Set the rate limiter to use, or <code>null</code> to not limit requests.
+	 * 
+	 * @param rateLimiter rate limiter
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	public String getRateLimitScope() {
+		return rateLimitScope;
+	}
+
+	public void setRateLimitScope(String rateLimitScope) {
+		this.rateLimitScope = rateLimitScope;
+	}
+
 	/**
 	 * Performs HTTP GET request.
 	 * 
@@ -46,7 +92,7 @@ public class HttpRequestHandler {
 	 * @return response data which contains data if any and http response codes.
 	 */
 	public HttpResponse handleRequestGet(URI uri, HttpPair... header) {
-		return getClient(uri).get(getPathAndQuerry(uri), header);
+		return execute(uri, true, () -> getClient(uri).get(getPathAndQuerry(uri), header));
 	}
 
 
@@ -59,7 +105,7 @@ public class HttpRequestHandler {
 	 * @return response data which contains data if any and http response codes.
 	 */
 	public HttpResponse handleRequestPost(URI uri,final String data, HttpPair... header) {
-		return getClient(uri).post(getPathAndQuerry(uri), data, header);
+		return execute(uri, false, () -> getClient(uri).post(getPathAndQuerry(uri), data, header));
 	}
 	
 	/**
@@ -71,7 +117,7 @@ public class HttpRequestHandler {
 	 * @return response data which contains data if any and http response codes.
 	 */
 	public HttpResponse handleRequestPatch(URI uri,final String data, HttpPair...headers) {
-		return getClient(uri).patch(getPathAndQuerry(uri), data, headers);
+		return execute(uri, false, () -> getClient(uri).patch(getPathAndQuerry(uri), data, headers));
 	}
 	
 	
@@ -84,7 +130,7 @@ public class HttpRequestHandler {
 	 * @return response data which contains data if any and http response codes.
 	 */
 	public HttpResponse handleRequestPut(URI uri,final String data, HttpPair...headers) {
-		return getClient(uri).put(getPathAndQuerry(uri), data, headers);
+		return execute(uri, true, () -> getClient(uri).put(getPathAndQuerry(uri), data, headers));
 	}
 
 	/**
@@ -95,7 +141,24 @@ public class HttpRequestHandler {
 	 * @return response data which contains data if any and http response codes.
 	 */
 	public HttpResponse handleRequestDelete(URI uri, HttpPair... headers)  {
-		return getClient(uri).delete(getPathAndQuerry(uri), headers);
+		return execute(uri, true, () -> getClient(uri).delete(getPathAndQuerry(uri), headers));
+	}
+
+	protected HttpResponse execute(URI uri, boolean idempotent, Callable<HttpResponse> request) {
+		if (rateLimiter == null) {
+			try {
+				return request.call();
+			} catch (RuntimeException re) {
+				throw re;
+			} catch (Exception e) {
+				throw new HttpException(e);
+			}
+		}
+		return rateLimiter.execute(getRateLimitKey(uri), idempotent, request);
+	}
+
+	public String getRateLimitKey(URI uri) {
+		return rateLimitScope == null ? uri.getHost() : rateLimitScope + "@" + uri.getHost();
 	}
 	
 	protected String getPath(URI uri) {
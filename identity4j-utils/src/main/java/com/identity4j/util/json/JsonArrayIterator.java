@@ -0,0 +1,182 @@
+package com.identity4j.util.json;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streams the elements of an array held in one field of a JSON object, such as
+ * the <code>value</code> array of an OData page, mapping each element as it is
+ * read rather than mapping the whole document first. Only the element being
+ * returned is held in memory.
+ * <p>
+ * The other fields of the object are kept as properties. Those that come
+ * before the array are available immediately, those after it once the
+ * iterator is exhausted. The parser and any resources passed in are closed
+ * when the last element has been read, when an error occurs, or when
+ * {@link #close()} is called.
+ *
+ * @param <T> element type
+ */
+public class JsonArrayIterator<T> implements Iterator<T>, Closeable {
+
+	private final JsonParser parser;
+	private final String field;
+	private final Class<T> type;
+	private final Closeable[] resources;
+	private final Map<String, Object> properties = new LinkedHashMap<String, Object>();
+	private T next;
+	private boolean inArray;
+	private boolean closed;
+
+	JsonArrayIterator(JsonParser parser, String field, Class<T> type, Closeable... resources) {
+		this.parser = parser;
+		this.field = field;
+		this.type = type;
+		this.resources = resources;
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				throw new JsonMapperException("Expected a JSON object.", null);
+			readFields();
+		} catch (IOException ioe) {
+			closeQuietly();
+			throw new JsonMapperException(ioe.getMessage(), ioe);
+		} catch (RuntimeException re) {
+			closeQuietly();
+			throw re;
+		}
+	}
+
+	/**
+	 * Get a field of the object other than the array. Fields after the array
+	 * are only available once the iterator has been exhausted.
+	 * 
+	 * @param name field name
+	 * @return value, or <code>null</code> if there is no such field (yet)
+	 */
+	public Object getProperty(String name) {
+		return properties.get(name);
+	}
+
+	/**
+	 * Get all fields read so far, other than the array.
+	 * 
+	 * @return properties
+	 */
+	public Map<String, Object> getProperties() {
+		return Collections.unmodifiableMap(properties);
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (next == null && inArray) {
+			try {
+				JsonToken token = parser.nextToken();
+				if (token == JsonToken.END_ARRAY) {
+					inArray = false;
+					readFields();
+					close();
+				} else if (token != JsonToken.VALUE_NULL) {
+					next = parser.readValueAs(type);
+				}
+			} catch (IOException ioe) {
+				closeQuietly();
+				throw new JsonMapperException(ioe.getMessage(), ioe);
+			} catch (RuntimeException re) {
+				closeQuietly();
+				throw re;
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		try {
+			return next;
+		} finally {
+			next = null;
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			inArray = false;
+			try {
+				parser.close();
+			} finally {
+				for (Closeable c : resources)
+					c.close();
+			}
+		}
+	}
+
+	/**
+	 * Read fields until the array is reached or the object ends, keeping any
+	 * others as properties.
+	 */
+	private void readFields() throws IOException {
+		JsonToken token;
+		while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			token = parser.nextToken();
+			if (name.equals(field)) {
+				if (token == JsonToken.START_ARRAY) {
+					inArray = true;
+					return;
+				}
+				if (token != JsonToken.VALUE_NULL)
+					throw new JsonMapperException(String.format("Expected %s to be an array.", field), null);
+			} else {
+				properties.put(name, parser.readValueAs(Object.class));
+			}
+		}
+		if (token != JsonToken.END_OBJECT)
+			throw new JsonMapperException("Expected end of JSON object.", null);
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (IOException ioe) {
+		}
+	}
+}
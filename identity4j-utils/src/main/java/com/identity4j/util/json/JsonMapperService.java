@@ -22,7 +22,9 @@ package com.identity4j.util.json;
  * #L%
  */
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
@@ -94,6 +96,28 @@ public class JsonMapperService{
 		} 
     }
     
+    /**
+     * Streams the elements of an array field of a json object from a stream,
+     * mapping each to the specified class only as it is requested. The stream
+     * and any resources supplied are closed once the array has been read, or
+     * when the returned iterator is closed.
+     * 
+     * @param clazz each array element is mapped to this class
+     * @param in json stream
+     * @param field name of array field in top level object
+     * @param resources any additional resources to close along with the stream
+     * @return iterator of mapped java objects
+     */
+    public <T> JsonArrayIterator<T> getObjects(Class<T> clazz, InputStream in, String field, Closeable... resources) {
+        try {
+            return new JsonArrayIterator<T>(objectMapper.getFactory().createParser(in), field, clazz, resources);
+        } catch (JsonMapperException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JsonMapperException(e.getMessage(), e);
+        }
+    }
+    
     /**
      * Converts a Java object into json.
      * 
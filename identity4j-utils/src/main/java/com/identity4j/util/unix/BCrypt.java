@@ -36,6 +36,8 @@ package com.identity4j.util.unix;
 // ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
 // OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 
 /**
@@ -800,7 +802,12 @@ public class BCrypt {
 	 * @return	true if the passwords match, false otherwise
 	 */
 	public static boolean checkpw(String plaintext, String hashed) {
-		return (hashed.compareTo(hashpw(plaintext, hashed)) == 0);
+		try {
+			/* Compare without returning early, so timing reveals nothing */
+			return MessageDigest.isEqual(hashed.getBytes("UTF-8"), hashpw(plaintext, hashed).getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException uee) {
+			throw new AssertionError("UTF-8 is not supported");
+		}
 	}
 
 	public void blf_enc(int[] data, int blocks) {
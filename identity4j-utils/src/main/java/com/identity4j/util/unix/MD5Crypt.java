@@ -34,9 +34,11 @@ package com.identity4j.util.unix;
  */
 
 import java.io.UnsupportedEncodingException;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 /**
  * Porting from the C version of Flash Authoring
@@ -79,13 +81,11 @@ public class MD5Crypt {
     static char[] itoa64 = /* 0 ... 63 => ascii - 64 */
     "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
 
-    private static String cryptTo64(long v, int n) {
-        StringBuilder result = new StringBuilder();
+    private static void cryptTo64(StringBuilder result, long v, int n) {
         while (--n >= 0) {
             result.append(itoa64[(int) v & 0x3f]);
             v >>= 6;
         }
-        return result.toString();
     }
 
     /*
@@ -108,9 +108,42 @@ public class MD5Crypt {
                                                   */
     private static int MD5_SIZE = 16;
 
+    /*
+     * Digests and buffers are reused by each thread, so that the rounds
+     * allocate nothing
+     */
+    private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    private static final class State {
+        private final MessageDigest ctx;
+        private final MessageDigest ctx1;
+        private final byte[] finalState = new byte[MD5_SIZE];
+        private byte[] round = new byte[128];
+
+        private State() {
+            try {
+                ctx = MessageDigest.getInstance("MD5");
+                ctx1 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
     private static void memset(byte[] array) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = 0;
+        Arrays.fill(array, (byte) 0);
+    }
+
+    private static void digest(MessageDigest digest, byte[] into) {
+        try {
+            digest.digest(into, 0, MD5_SIZE);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
         }
     }
 
@@ -126,13 +159,13 @@ public class MD5Crypt {
      */
     public static String crypt_md5(byte[] pw, String salt, String magic) throws NoSuchAlgorithmException,
                     UnsupportedEncodingException {
-        StringBuilder passwd = new StringBuilder();
         String sp, ep;
-        byte[] finalState = new byte[MD5_SIZE];
 
         int sl = 0, pl = 0, i = 0;
-        MessageDigest ctx = MessageDigest.getInstance("MD5");
-        MessageDigest ctx1 = MessageDigest.getInstance("MD5");
+        State state = STATE.get();
+        MessageDigest ctx = state.ctx;
+        MessageDigest ctx1 = state.ctx1;
+        byte[] finalState = state.finalState;
         long l;
 
         /* Refine the Salt first */
@@ -170,7 +203,7 @@ public class MD5Crypt {
         ctx1.update(pw, 0, pw.length);
         ctx1.update(saltBytes, 0, sl);
         ctx1.update(pw, 0, pw.length);
-        finalState = ctx1.digest();
+        digest(ctx1, finalState);
 
         for (pl = pw.length; pl > 0; pl -= MD5_SIZE) {
             ctx.update(finalState, 0, pl > MD5_SIZE ? MD5_SIZE : pl);
@@ -188,59 +221,73 @@ public class MD5Crypt {
             }
         }
 
-        /* Now make the output string */
-        passwd.append(magic);
-        passwd.append(sp.substring(0, sl));
-        passwd.append("$");
-
-        finalState = ctx.digest();
+        digest(ctx, finalState);
 
         /*
          * and now, just to make sure things don't run too fast On a 60 Mhz
          * Pentium this takes 34 msec, so you would need 30 seconds to build a
-         * 1000 entry dictionary...
+         * 1000 entry dictionary... Each round is gathered into one buffer so
+         * it is a single update.
          */
+        pl = pw.length;
+        if (state.round.length < pl * 2 + sl + MD5_SIZE) {
+            state.round = new byte[pl * 2 + sl + MD5_SIZE];
+        }
+        byte[] round = state.round;
         for (i = 0; i < 1000; i++) {
-            ctx1.reset();
-
+            int n;
             if ((i & 1) != 0) {
-                ctx1.update(pw, 0, pw.length);
+                System.arraycopy(pw, 0, round, 0, pl);
+                n = pl;
             } else {
-                ctx1.update(finalState, 0, MD5_SIZE);
+                System.arraycopy(finalState, 0, round, 0, MD5_SIZE);
+                n = MD5_SIZE;
             }
 
             if ((i % 3) != 0) {
-                ctx1.update(saltBytes, 0, sl);
+                System.arraycopy(saltBytes, 0, round, n, sl);
+                n += sl;
             }
 
             if ((i % 7) != 0) {
-                ctx1.update(pw, 0, pw.length);
+                System.arraycopy(pw, 0, round, n, pl);
+                n += pl;
             }
 
             if ((i & 1) != 0) {
-                ctx1.update(finalState, 0, MD5_SIZE);
+                System.arraycopy(finalState, 0, round, n, MD5_SIZE);
+                n += MD5_SIZE;
             } else {
-                ctx1.update(pw, 0, pw.length);
+                System.arraycopy(pw, 0, round, n, pl);
+                n += pl;
             }
 
-            finalState = ctx1.digest();
+            ctx1.update(round, 0, n);
+            digest(ctx1, finalState);
         }
 
+        /* Now make the output string */
+        StringBuilder passwd = new StringBuilder(magic.length() + sl + 23);
+        passwd.append(magic);
+        passwd.append(sp, 0, sl);
+        passwd.append("$");
+
         l = (byteToUnsigned(finalState[0]) << 16) | (byteToUnsigned(finalState[6]) << 8) | byteToUnsigned(finalState[12]);
-        passwd.append(cryptTo64(l, 4));
+        cryptTo64(passwd, l, 4);
         l = (byteToUnsigned(finalState[1]) << 16) | (byteToUnsigned(finalState[7]) << 8) | byteToUnsigned(finalState[13]);
-        passwd.append(cryptTo64(l, 4));
+        cryptTo64(passwd, l, 4);
         l = (byteToUnsigned(finalState[2]) << 16) | (byteToUnsigned(finalState[8]) << 8) | byteToUnsigned(finalState[14]);
-        passwd.append(cryptTo64(l, 4));
+        cryptTo64(passwd, l, 4);
         l = (byteToUnsigned(finalState[3]) << 16) | (byteToUnsigned(finalState[9]) << 8) | byteToUnsigned(finalState[15]);
-        passwd.append(cryptTo64(l, 4));
+        cryptTo64(passwd, l, 4);
         l = (byteToUnsigned(finalState[4]) << 16) | (byteToUnsigned(finalState[10]) << 8) | byteToUnsigned(finalState[5]);
-        passwd.append(cryptTo64(l, 4));
+        cryptTo64(passwd, l, 4);
         l = byteToUnsigned(finalState[11]);
-        passwd.append(cryptTo64(l, 2));
+        cryptTo64(passwd, l, 2);
 
         /* Don't leave anything around in vm they could use. */
         memset(finalState);
+        memset(round);
 
         return passwd.toString();
     }
@@ -65,8 +65,6 @@ package com.identity4j.util.unix;
  * #L%
  */
 
-import java.security.MessageDigest;
-
 /*------------------------------------------------------------------------------
                                                                            class
                                                                      Sha256Crypt
@@ -110,18 +108,6 @@ public final class Sha256Crypt
   static private final String SALTCHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
   static private final String itoa64 = "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
 
-  static private MessageDigest getSHA256()
-  {
-    try
-      {
-        return MessageDigest.getInstance("SHA-256");
-      }
-    catch (java.security.NoSuchAlgorithmException ex)
-      {
-        throw new RuntimeException(ex);
-      }
-  }
-
   /**
    * <p>This method actually generates an Sha256 crypted password hash
    * from a plaintext password and a salt.</p>
@@ -142,15 +128,7 @@ public final class Sha256Crypt
 
   public static final String Sha256_crypt(String keyStr, String saltStr, int roundsCount)
   {
-    MessageDigest ctx = getSHA256();
-    MessageDigest alt_ctx = getSHA256();
-    byte[] alt_result;
-    byte[] temp_result;
-    byte[] p_bytes = null;
-    byte[] s_bytes = null;
-    int cnt, cnt2;
     int rounds = ROUNDS_DEFAULT;  // Default number of rounds.
-    StringBuilder buffer;
     boolean include_round_count = false;
 
     /* -- */
@@ -213,115 +191,11 @@ public final class Sha256Crypt
     byte[] key = keyStr.getBytes();
     byte[] salt = saltStr.getBytes();
 
-    ctx.reset();
-    ctx.update(key, 0, key.length);
-    ctx.update(salt, 0, salt.length);
-
-    alt_ctx.reset();
-    alt_ctx.update(key, 0, key.length);
-    alt_ctx.update(salt, 0, salt.length);
-    alt_ctx.update(key, 0, key.length);
-
-    alt_result = alt_ctx.digest();
-
-    for (cnt = key.length; cnt > 32; cnt -= 32)
-      {
-        ctx.update(alt_result, 0, 32);
-      }
-
-    ctx.update(alt_result, 0, cnt);
-
-    for (cnt = key.length; cnt > 0; cnt >>= 1)
-      {
-        if ((cnt & 1) != 0)
-          {
-            ctx.update(alt_result, 0, 32);
-          }
-        else
-          {
-            ctx.update(key, 0, key.length);
-          }
-      }
-
-    alt_result = ctx.digest();
-
-    alt_ctx.reset();
-
-    for (cnt = 0; cnt < key.length; ++cnt)
-      {
-        alt_ctx.update(key, 0, key.length);
-      }
-
-    temp_result = alt_ctx.digest();
-
-    p_bytes = new byte[key.length];
-
-    for (cnt2 = 0, cnt = p_bytes.length; cnt >= 32; cnt -= 32)
-      {
-        System.arraycopy(temp_result, 0, p_bytes, cnt2, 32);
-        cnt2 += 32;
-      }
-
-    System.arraycopy(temp_result, 0, p_bytes, cnt2, cnt);
-
-    alt_ctx.reset();
-
-    for (cnt = 0; cnt < 16 + (alt_result[0]&0xFF); ++cnt)
-      {
-        alt_ctx.update(salt, 0, salt.length);
-      }
-
-    temp_result = alt_ctx.digest();
-
-    s_bytes = new byte[salt.length];
-
-    for (cnt2 = 0, cnt = s_bytes.length; cnt >= 32; cnt -= 32)
-      {
-        System.arraycopy(temp_result, 0, s_bytes, cnt2, 32);
-        cnt2 += 32;
-      }
-
-    System.arraycopy(temp_result, 0, s_bytes, cnt2, cnt);
-
-    /* Repeatedly run the collected hash value through SHA256 to burn
-       CPU cycles.  */
+    ShaCryptEngine.State state = ShaCryptEngine.SHA256.crypt(key, salt, rounds);
+    byte[] alt_result = state.result;
 
-    for (cnt = 0; cnt < rounds; ++cnt)
-      {
-        ctx.reset();
-
-        if ((cnt & 1) != 0)
-          {
-            ctx.update(p_bytes, 0, key.length);
-          }
-        else
-          {
-            ctx.update (alt_result, 0, 32);
-          }
-
-        if (cnt % 3 != 0)
-          {
-            ctx.update(s_bytes, 0, salt.length);
-          }
-
-        if (cnt % 7 != 0)
-          {
-            ctx.update(p_bytes, 0, key.length);
-          }
-
-        if ((cnt & 1) != 0)
-          {
-            ctx.update(alt_result, 0, 32);
-          }
-        else
-          {
-            ctx.update(p_bytes, 0, key.length);
-          }
-
-        alt_result = ctx.digest();
-      }
-
-    buffer = new StringBuilder(sha256_salt_prefix);
+    StringBuilder buffer = new StringBuilder(128);
+    buffer.append(sha256_salt_prefix);
 
     if (include_round_count || rounds != ROUNDS_DEFAULT)
       {
@@ -333,42 +207,27 @@ public final class Sha256Crypt
     buffer.append(saltStr);
     buffer.append("$");
 
-    buffer.append(b64_from_24bit (alt_result[0],  alt_result[10], alt_result[20], 4));
-    buffer.append(b64_from_24bit (alt_result[21], alt_result[1],  alt_result[11], 4));
-    buffer.append(b64_from_24bit (alt_result[12], alt_result[22], alt_result[2],  4));
-    buffer.append(b64_from_24bit (alt_result[3],  alt_result[13], alt_result[23], 4));
-    buffer.append(b64_from_24bit (alt_result[24], alt_result[4],  alt_result[14], 4));
-    buffer.append(b64_from_24bit (alt_result[15], alt_result[25], alt_result[5],  4));
-    buffer.append(b64_from_24bit (alt_result[6],  alt_result[16], alt_result[26], 4));
-    buffer.append(b64_from_24bit (alt_result[27], alt_result[7],  alt_result[17], 4));
-    buffer.append(b64_from_24bit (alt_result[18], alt_result[28], alt_result[8],  4));
-    buffer.append(b64_from_24bit (alt_result[9],  alt_result[19], alt_result[29], 4));
-    buffer.append(b64_from_24bit ((byte)0x00,     alt_result[31],  alt_result[30], 3));
+    ShaCryptEngine.b64From24Bit(buffer, alt_result[0],  alt_result[10], alt_result[20], 4);
+    ShaCryptEngine.b64From24Bit(buffer, alt_result[21], alt_result[1],  alt_result[11], 4);
+    ShaCryptEngine.b64From24Bit(buffer, alt_result[12], alt_result[22], alt_result[2],  4);
+    ShaCryptEngine.b64From24Bit(buffer, alt_result[3],  alt_result[13], alt_result[23], 4);
+    ShaCryptEngine.b64From24Bit(buffer, alt_result[24], alt_result[4],  alt_result[14], 4);
+    ShaCryptEngine.b64From24Bit(buffer, alt_result[15], alt_result[25], alt_result[5],  4);
+    ShaCryptEngine.b64From24Bit(buffer, alt_result[6],  alt_result[16], alt_result[26], 4);
+    ShaCryptEngine.b64From24Bit(buffer, alt_result[27], alt_result[7],  alt_result[17], 4);
+    ShaCryptEngine.b64From24Bit(buffer, alt_result[18], alt_result[28], alt_result[8],  4);
+    ShaCryptEngine.b64From24Bit(buffer, alt_result[9],  alt_result[19], alt_result[29], 4);
+    ShaCryptEngine.b64From24Bit(buffer, (byte)0x00,     alt_result[31],  alt_result[30], 3);
 
     /* Clear the buffer for the intermediate result so that people
        attaching to processes or reading core dumps cannot get any
        information. */
 
-    ctx.reset();
+    state.clear();
 
     return buffer.toString();
   }
 
-  private static final String b64_from_24bit(byte B2, byte B1, byte B0, int size)
-  {
-    int v = ((((int) B2) & 0xFF) << 16) | ((((int) B1) & 0xFF) << 8) | ((int)B0 & 0xff);
-
-    StringBuilder result = new StringBuilder();
-
-    while (--size >= 0)
-      {
-        result.append(itoa64.charAt((int) (v & 0x3f)));
-        v >>>= 6;
-      }
-
-    return result.toString();
-  }
-
   /**
    * <p>This method tests a plaintext password against a SHA256 Unix
    * Crypt'ed hash and returns true if the password matches the
@@ -0,0 +1,226 @@
+package com.identity4j.util.unix;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The digest rounds shared by {@link Sha256Crypt} and {@link Sha512Crypt}.
+ * Each thread reuses its own digests and working buffers, and every round is
+ * gathered into a single buffer and digested in place, so a crypt allocates
+ * nothing beyond its result string once the buffers have grown to fit.
+ */
+final class ShaCryptEngine {
+
+    final static ShaCryptEngine SHA256 = new ShaCryptEngine("SHA-256", 32);
+    final static ShaCryptEngine SHA512 = new ShaCryptEngine("SHA-512", 64);
+
+    private final static char[] ITOA64 = "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    /**
+     * Per thread digests and buffers. Callers must {@link #clear()} once they
+     * have read {@link #result}.
+     */
+    final static class State {
+        final byte[] result;
+        private final MessageDigest ctx;
+        private final MessageDigest altCtx;
+        private final byte[] temp;
+        private byte[] p = new byte[64];
+        private byte[] s = new byte[16];
+        private byte[] round = new byte[256];
+
+        private State(String algorithm, int size) {
+            try {
+                ctx = MessageDigest.getInstance(algorithm);
+                altCtx = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            result = new byte[size];
+            temp = new byte[size];
+        }
+
+        /**
+         * Overwrite the intermediate results so that people attaching to
+         * processes or reading heap dumps cannot get any information.
+         */
+        void clear() {
+            Arrays.fill(result, (byte) 0);
+            Arrays.fill(temp, (byte) 0);
+            Arrays.fill(p, (byte) 0);
+            Arrays.fill(s, (byte) 0);
+            Arrays.fill(round, (byte) 0);
+        }
+    }
+
+    private final int size;
+    private final ThreadLocal<State> state;
+
+    private ShaCryptEngine(final String algorithm, final int size) {
+        this.size = size;
+        state = new ThreadLocal<State>() {
+            @Override
+            protected State initialValue() {
+                return new State(algorithm, size);
+            }
+        };
+    }
+
+    /**
+     * Run the algorithm, leaving the final digest in {@link State#result} of
+     * the returned state.
+     *
+     * @param key password
+     * @param salt salt, already truncated
+     * @param rounds number of rounds
+     * @return state of the calling thread
+     */
+    State crypt(byte[] key, byte[] salt, int rounds) {
+        State st = state.get();
+        MessageDigest ctx = st.ctx;
+        MessageDigest altCtx = st.altCtx;
+        byte[] result = st.result;
+        byte[] temp = st.temp;
+        int cnt;
+
+        ctx.reset();
+        ctx.update(key, 0, key.length);
+        ctx.update(salt, 0, salt.length);
+
+        altCtx.reset();
+        altCtx.update(key, 0, key.length);
+        altCtx.update(salt, 0, salt.length);
+        altCtx.update(key, 0, key.length);
+        digest(altCtx, result);
+
+        for (cnt = key.length; cnt > size; cnt -= size) {
+            ctx.update(result, 0, size);
+        }
+        ctx.update(result, 0, cnt);
+
+        for (cnt = key.length; cnt > 0; cnt >>= 1) {
+            if ((cnt & 1) != 0) {
+                ctx.update(result, 0, size);
+            } else {
+                ctx.update(key, 0, key.length);
+            }
+        }
+        digest(ctx, result);
+
+        /* P sequence, derived from the key */
+        for (cnt = 0; cnt < key.length; ++cnt) {
+            altCtx.update(key, 0, key.length);
+        }
+        digest(altCtx, temp);
+        if (st.p.length < key.length) {
+            st.p = new byte[key.length];
+        }
+        byte[] p = st.p;
+        fill(temp, p, key.length);
+
+        /* S sequence, derived from the salt */
+        for (cnt = 0; cnt < 16 + (result[0] & 0xFF); ++cnt) {
+            altCtx.update(salt, 0, salt.length);
+        }
+        digest(altCtx, temp);
+        if (st.s.length < salt.length) {
+            st.s = new byte[salt.length];
+        }
+        byte[] s = st.s;
+        fill(temp, s, salt.length);
+
+        /*
+         * Repeatedly run the collected hash value through the digest to burn
+         * CPU cycles. Each round's input is gathered into one buffer so it is a
+         * single update.
+         */
+        int pl = key.length;
+        int sl = salt.length;
+        if (st.round.length < size + pl * 2 + sl) {
+            st.round = new byte[size + pl * 2 + sl];
+        }
+        byte[] round = st.round;
+        for (cnt = 0; cnt < rounds; ++cnt) {
+            int n;
+            boolean odd = (cnt & 1) != 0;
+            if (odd) {
+                System.arraycopy(p, 0, round, 0, pl);
+                n = pl;
+            } else {
+                System.arraycopy(result, 0, round, 0, size);
+                n = size;
+            }
+            if (cnt % 3 != 0) {
+                System.arraycopy(s, 0, round, n, sl);
+                n += sl;
+            }
+            if (cnt % 7 != 0) {
+                System.arraycopy(p, 0, round, n, pl);
+                n += pl;
+            }
+            if (odd) {
+                System.arraycopy(result, 0, round, n, size);
+                n += size;
+            } else {
+                System.arraycopy(p, 0, round, n, pl);
+                n += pl;
+            }
+            ctx.update(round, 0, n);
+            digest(ctx, result);
+        }
+
+        return st;
+    }
+
+    private void fill(byte[] temp, byte[] target, int length) {
+        int cnt, cnt2;
+        for (cnt2 = 0, cnt = length; cnt >= size; cnt -= size) {
+            System.arraycopy(temp, 0, target, cnt2, size);
+            cnt2 += size;
+        }
+        System.arraycopy(temp, 0, target, cnt2, cnt);
+    }
+
+    private void digest(MessageDigest digest, byte[] into) {
+        try {
+            digest.digest(into, 0, size);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Append the crypt base 64 encoding of three bytes.
+     */
+    static void b64From24Bit(StringBuilder buffer, byte b2, byte b1, byte b0, int n) {
+        int v = ((b2 & 0xFF) << 16) | ((b1 & 0xFF) << 8) | (b0 & 0xff);
+        while (--n >= 0) {
+            buffer.append(ITOA64[v & 0x3f]);
+            v >>>= 6;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.identity4j.util.crypt;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.identity4j.util.crypt.impl.AbstractEncoder;
+import com.identity4j.util.crypt.impl.DefaultEncoderManager;
+import com.identity4j.util.crypt.impl.Drupal7Encoder;
+import com.identity4j.util.crypt.impl.MD5StringEncoder;
+import com.identity4j.util.crypt.impl.SHAStringEncoder;
+import com.identity4j.util.crypt.impl.UnixBlowfishEncoder;
+import com.identity4j.util.crypt.impl.UnixDESEncoder;
+import com.identity4j.util.crypt.impl.UnixMD5Encoder;
+import com.identity4j.util.crypt.impl.UnixSHA256Encoder;
+import com.identity4j.util.crypt.impl.UnixSHA512Encoder;
+
+public class EncoderManagerTest {
+
+	@Test
+	public void testDetectByPrefix() throws Exception {
+		EncoderManager mgr = DefaultEncoderManager.getInstance();
+		for (String id : Arrays.asList(UnixMD5Encoder.ID, UnixSHA256Encoder.ID, UnixSHA512Encoder.ID, UnixBlowfishEncoder.ID,
+			SHAStringEncoder.ID, MD5StringEncoder.ID, Drupal7Encoder.ID)) {
+			byte[] encoded = mgr.encode("asecret".toCharArray(), id, "UTF-8", null, null);
+			assertEquals(id, mgr.getEncoderForEncodedData(encoded, "UTF-8").getId());
+			assertEquals(id, mgr.getEncoderForEncodedString(new String(encoded, "UTF-8").toCharArray(), "UTF-8", null).getId());
+		}
+	}
+
+	@Test
+	public void testPrefixSkipsScan() {
+		EncoderManager mgr = new EncoderManager();
+		CountingEncoder counting = new CountingEncoder("a-counting", "x");
+		mgr.addEncoder(counting);
+		UnixMD5Encoder md5 = new UnixMD5Encoder();
+		mgr.addEncoder(md5);
+		assertSame(md5, mgr.getEncoderForEncodedString("$1$salt$hash".toCharArray(), "UTF-8", null));
+		assertEquals(0, counting.calls);
+	}
+
+	@Test
+	public void testUnprefixedValuesAreScanned() throws Exception {
+		EncoderManager mgr = new EncoderManager();
+		CountingEncoder counting = new CountingEncoder("a-counting", "xyz");
+		mgr.addEncoder(counting);
+		mgr.addEncoder(new UnixDESEncoder());
+
+		assertSame(counting, mgr.getEncoderForEncodedData("xyz".getBytes("UTF-8"), "UTF-8"));
+		assertSame(counting, mgr.getEncoderForEncodedData("xyz".getBytes("UTF-8"), "UTF-8"));
+		assertEquals(2, counting.calls);
+
+		assertNull(mgr.getEncoderForEncodedData("ab!dEfGhIjKlM".getBytes("UTF-8"), "UTF-8"));
+		assertEquals(3, counting.calls);
+	}
+
+	@Test
+	public void testSupportedEncoders() {
+		EncoderManager mgr = new EncoderManager();
+		CountingEncoder first = new CountingEncoder("a-first", "xyz");
+		CountingEncoder second = new CountingEncoder("b-second", "xyz");
+		mgr.addEncoder(first);
+		mgr.addEncoder(second);
+		mgr.addEncoder(new UnixMD5Encoder());
+
+		assertSame(first, mgr.getEncoderForEncodedString("xyz".toCharArray(), "UTF-8", null));
+		assertSame(second, mgr.getEncoderForEncodedString("xyz".toCharArray(), "UTF-8", Collections.singleton("b-second")));
+		assertNull(mgr.getEncoderForEncodedString("$1$salt$hash".toCharArray(), "UTF-8", Collections.singleton("b-second")));
+	}
+
+	static class CountingEncoder extends AbstractEncoder {
+		private final String recognises;
+		int calls;
+
+		CountingEncoder(String id, String recognises) {
+			super(id);
+			this.recognises = recognises;
+		}
+
+		@Override
+		public boolean isOfType(byte[] encodedBytes, String charset) {
+			calls++;
+			return new String(encodedBytes).equals(recognises);
+		}
+
+		@Override
+		public byte[] encode(byte[] toEncode, byte[] salt, byte[] passphrase, String charset) throws EncoderException {
+			return toEncode;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.identity4j.util.crypt;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import com.identity4j.util.crypt.impl.DefaultEncoderManager;
+import com.identity4j.util.crypt.impl.UnixSHA512Encoder;
+
+public class VerificationServiceTest {
+
+	@Test
+	public void testMatch() throws Exception {
+		VerificationService service = new VerificationService(2, 10);
+		try {
+			Encoder encoder = DefaultEncoderManager.getInstance().getEncoderById(UnixSHA512Encoder.ID);
+			byte[] encoded = encoder.encode("asecret".getBytes("UTF-8"), null, null, "UTF-8");
+			assertTrue(service.match(encoder, encoded, "asecret".getBytes("UTF-8"), null, "UTF-8").get());
+			assertFalse(service.match(encoder, encoded, "wrong".getBytes("UTF-8"), null, "UTF-8").get());
+
+			VerificationService.Timing timing = service.getTimings().get(UnixSHA512Encoder.ID);
+			assertEquals(2, timing.getCount());
+			assertEquals(0, timing.getFailures());
+			assertTrue(timing.getMaxNanos() > 0);
+			assertTrue(timing.getMeanNanos() <= timing.getMaxNanos());
+		} finally {
+			service.close();
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		VerificationService service = new VerificationService(1, 1);
+		try {
+			service.verify("failing", new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					throw new IllegalStateException("Broken");
+				}
+			}).get();
+			fail("Expected failure");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof IllegalStateException);
+			assertEquals(1, service.getTimings().get("failing").getFailures());
+		} finally {
+			service.close();
+		}
+	}
+
+	@Test
+	public void testQueueBounded() throws Exception {
+		VerificationService service = new VerificationService(1, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Callable<Boolean> blocking = new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				started.countDown();
+				release.await();
+				return true;
+			}
+		};
+		try {
+			CompletableFuture<Boolean> running = service.verify("slow", blocking);
+			started.await();
+			CompletableFuture<Boolean> queued = service.verify("slow", blocking);
+			assertEquals(1, service.getQueued());
+			CompletableFuture<Boolean> rejected = service.verify("slow", blocking);
+			assertTrue(rejected.isCompletedExceptionally());
+			try {
+				rejected.get();
+				fail("Expected rejection");
+			} catch (ExecutionException ee) {
+				assertTrue(ee.getCause() instanceof RejectedExecutionException);
+			}
+			release.countDown();
+			assertTrue(running.get());
+			assertTrue(queued.get());
+			assertEquals(1, service.getTimings().get("slow").getRejected());
+			assertEquals(2, service.getTimings().get("slow").getCount());
+		} finally {
+			release.countDown();
+			service.close();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.identity4j.util.http;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	@Test
+	public void testParseRetryAfter() {
+		long now = 1_600_000_000_000L;
+		assertEquals(120000, RateLimiter.parseRetryAfter("120", now));
+		assertEquals(0, RateLimiter.parseRetryAfter(" 0 ", now));
+		String date = DateTimeFormatter.RFC_1123_DATE_TIME
+				.format(Instant.ofEpochMilli(now + 30000).atOffset(ZoneOffset.UTC));
+		assertEquals(30000, RateLimiter.parseRetryAfter(date, now));
+		assertEquals(0, RateLimiter.parseRetryAfter(date, now + 60000));
+		assertEquals(-1, RateLimiter.parseRetryAfter("soon", now));
+	}
+
+	@Test
+	public void testAdditiveIncreaseMultiplicativeDecrease() {
+		RateLimiter limiter = new RateLimiter();
+		limiter.setInitialRate(10);
+		limiter.setMaxRate(12);
+		limiter.setMinRate(4);
+		limiter.setBaseBackoff(1);
+
+		limiter.succeeded("a");
+		assertEquals(10.1, limiter.getRate("a"), 0.0001);
+		for (int i = 0; i < 100; i++)
+			limiter.succeeded("a");
+		assertEquals(12, limiter.getRate("a"), 0.0001);
+
+		limiter.throttled("a", 0, -1);
+		assertEquals(6, limiter.getRate("a"), 0.0001);
+		limiter.throttled("a", 0, -1);
+		assertEquals(4, limiter.getRate("a"), 0.0001);
+
+		/* Other keys are not affected */
+		assertEquals(10, limiter.getRate("b"), 0.0001);
+	}
+
+	@Test
+	public void testUnlimitedUntilThrottled() {
+		RateLimiter limiter = new RateLimiter();
+		limiter.setBaseBackoff(1);
+		long started = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			limiter.acquire("a");
+			limiter.succeeded("a");
+		}
+		assertTrue((System.nanoTime() - started) / 1000000 < 1000);
+		assertEquals(RateLimiter.UNLIMITED, limiter.getRate("a"), 0);
+
+		limiter.throttled("a", 0, -1);
+		assertEquals(RateLimiter.DEFAULT_THROTTLED_RATE, limiter.getRate("a"), 0.0001);
+		limiter.throttled("a", 0, -1);
+		assertEquals(RateLimiter.DEFAULT_THROTTLED_RATE * RateLimiter.DEFAULT_DECREASE, limiter.getRate("a"), 0.0001);
+		assertEquals(RateLimiter.UNLIMITED, limiter.getRate("b"), 0);
+	}
+
+	@Test
+	public void testOnlyIdempotentRequestsAreRetriedWhenUnavailable() {
+		assertTrue(RateLimiter.isRetryable(429, true));
+		assertTrue(RateLimiter.isRetryable(429, false));
+		assertTrue(RateLimiter.isRetryable(503, true));
+		assertFalse(RateLimiter.isRetryable(503, false));
+		assertFalse(RateLimiter.isRetryable(500, true));
+	}
+
+	@Test
+	public void testBackoffIsJitteredAndCapped() {
+		RateLimiter limiter = new RateLimiter();
+		limiter.setBaseBackoff(100);
+		limiter.setMaxBackoff(1000);
+		for (int i = 0; i < 100; i++) {
+			long b = limiter.backoff(2);
+			assertTrue(b >= 200 && b <= 400);
+			b = limiter.backoff(40);
+			assertTrue(b >= 500 && b <= 1000);
+		}
+		assertEquals(5000, limiter.throttled("a", 0, 5000));
+	}
+
+	@Test
+	public void testAcquireIsPaced() {
+		RateLimiter limiter = new RateLimiter();
+		limiter.setInitialRate(50);
+		limiter.setBurst(1);
+		long started = System.nanoTime();
+		for (int i = 0; i < 6; i++)
+			limiter.acquire("a");
+		/* The first is free, the other five take 20ms each */
+		assertTrue((System.nanoTime() - started) / 1000000 >= 90);
+	}
+}
@@ -0,0 +1,124 @@
+package com.identity4j.util.json;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JsonArrayIteratorTest {
+
+	public static class Item {
+		private String name;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+
+	static class CloseCounter implements Closeable {
+		int closed;
+
+		@Override
+		public void close() throws IOException {
+			closed++;
+		}
+	}
+
+	@Test
+	public void testPropertiesBeforeAndAfterArray() throws IOException {
+		CloseCounter counter = new CloseCounter();
+		JsonArrayIterator<Item> it = JsonMapperService.getInstance().getObjects(Item.class,
+				stream("{\"@odata.nextLink\":\"next\",\"value\":[{\"name\":\"a\",\"other\":1},null,{\"name\":\"b\"}],\"count\":2}"),
+				"value", counter);
+		assertEquals("next", it.getProperty("@odata.nextLink"));
+		assertNull(it.getProperty("count"));
+		assertTrue(it.hasNext());
+		assertEquals("a", it.next().getName());
+		assertEquals("b", it.next().getName());
+		assertEquals(0, counter.closed);
+		assertFalse(it.hasNext());
+		assertEquals(2, it.getProperty("count"));
+		assertEquals(1, counter.closed);
+		it.close();
+		assertEquals(1, counter.closed);
+	}
+
+	@Test
+	public void testNestedPropertiesAndMissingArray() {
+		JsonArrayIterator<Item> it = JsonMapperService.getInstance().getObjects(Item.class,
+				stream("{\"meta\":{\"page\":[1,2]},\"done\":true}"), "records");
+		assertFalse(it.hasNext());
+		assertEquals(Boolean.TRUE, it.getProperty("done"));
+		assertTrue(((Map<?, ?>) it.getProperty("meta")).containsKey("page"));
+	}
+
+	@Test
+	public void testNullArray() {
+		JsonArrayIterator<Item> it = JsonMapperService.getInstance().getObjects(Item.class,
+				stream("{\"users\":null,\"next_page\":null}"), "users");
+		assertFalse(it.hasNext());
+		assertTrue(it.getProperties().containsKey("next_page"));
+	}
+
+	@Test
+	public void testCloseEarly() throws IOException {
+		CloseCounter counter = new CloseCounter();
+		JsonArrayIterator<Item> it = JsonMapperService.getInstance().getObjects(Item.class,
+				stream("{\"value\":[{\"name\":\"a\"},{\"name\":\"b\"}]}"), "value", counter);
+		assertEquals("a", it.next().getName());
+		it.close();
+		assertFalse(it.hasNext());
+		assertEquals(1, counter.closed);
+	}
+
+	@Test(expected = JsonMapperException.class)
+	public void testTruncated() {
+		CloseCounter counter = new CloseCounter();
+		JsonArrayIterator<Item> it = JsonMapperService.getInstance().getObjects(Item.class,
+				stream("{\"value\":[{\"name\":\"a\"},{\"na"), "value", counter);
+		try {
+			it.next();
+			it.next();
+		} finally {
+			assertEquals(1, counter.closed);
+		}
+	}
+
+	static InputStream stream(String json) {
+		return new ByteArrayInputStream(json.getBytes());
+	}
+}
@@ -0,0 +1,105 @@
+package com.identity4j.util.unix;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Times the Unix crypt implementations against the default round count test
+ * vectors from {@link UnixCryptTest}, checking each result as it goes, and
+ * reports the heap allocated per hash. Each algorithm is timed both as it is
+ * now and as it was before digests and buffers were reused (the classes in
+ * the <code>baseline</code> package), so the two can be compared in one run.
+ * Run with the number of iterations per vector as the only argument.
+ */
+public class UnixCryptBenchmark {
+
+	interface Crypt {
+		String crypt(String password, String salt) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		String[] sha512 = defaultRounds(UnixCryptTest.SHA512);
+		String[] sha256 = defaultRounds(UnixCryptTest.SHA256);
+		for (int pass = 0; pass < 3; pass++) {
+			time(pass, "sha512", "new", sha512, iterations, (password, salt) -> Sha512Crypt.Sha512_crypt(password, salt, 0));
+			time(pass, "sha512", "old", sha512, iterations,
+				(password, salt) -> com.identity4j.util.unix.baseline.Sha512Crypt.Sha512_crypt(password, salt, 0));
+			time(pass, "sha256", "new", sha256, iterations, (password, salt) -> Sha256Crypt.Sha256_crypt(password, salt, 0));
+			time(pass, "sha256", "old", sha256, iterations,
+				(password, salt) -> com.identity4j.util.unix.baseline.Sha256Crypt.Sha256_crypt(password, salt, 0));
+			time(pass, "md5", "new", UnixCryptTest.MD5, iterations * 10,
+				(password, salt) -> MD5Crypt.crypt_md5(password.getBytes("UTF-8"), salt));
+			time(pass, "md5", "old", UnixCryptTest.MD5, iterations * 10,
+				(password, salt) -> com.identity4j.util.unix.baseline.MD5Crypt.crypt_md5(password.getBytes("UTF-8"), salt));
+		}
+	}
+
+	private static void time(int pass, String name, String version, String[] vectors, int iterations, Crypt crypt)
+			throws Exception {
+		long allocated = allocated();
+		long started = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (int v = 0; v < vectors.length; v += 3) {
+				check(vectors[v + 2], crypt.crypt(vectors[v + 1], vectors[v]));
+			}
+		}
+		report(pass, name + " " + version, started, allocated, iterations * vectors.length / 3);
+	}
+
+	private static String[] defaultRounds(String[] vectors) {
+		List<String> selected = new ArrayList<String>();
+		for (int v = 0; v < vectors.length; v += 3) {
+			if (!vectors[v].contains("rounds=")) {
+				selected.addAll(Arrays.asList(vectors).subList(v, v + 3));
+			}
+		}
+		return selected.toArray(new String[selected.size()]);
+	}
+
+	private static void check(String expected, String actual) {
+		if (!expected.equals(actual)) {
+			throw new IllegalStateException("Expected " + expected + " got " + actual);
+		}
+	}
+
+	private static void report(int pass, String name, long started, long allocatedBefore, int hashes) {
+		long took = System.nanoTime() - started;
+		long allocated = allocated() - allocatedBefore;
+		System.out.println(String.format("pass %d %-10s %6d hashes %8.1f us/hash %8d bytes/hash", pass, name, hashes,
+			took / 1000.0 / hashes, allocated / hashes));
+	}
+
+	private static long allocated() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,134 @@
+package com.identity4j.util.unix;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class UnixCryptTest {
+
+	/* Salt, password and expected hash, from Ulrich Drepper's specification */
+	static final String[] SHA512 = {
+		"$6$saltstring", "Hello world!", "$6$saltstring$svn8UoSVapNtMuq1ukKS4tPQd8iKwSMHWjl/O817G3uBnIFNjnQJuesI68u4OTLiBFdcbYEdFCoEOfaS35inz1",
+		"$6$xxxxxxxx", "geheim", "$6$xxxxxxxx$wuSdyeOvQXjj/nNoWnjjo.6OxUWrQFRIj019kh1cDpun6l6cpr3ywSrBprYRYZXcm4Kv9lboCEFI3GzBkdNAz/",
+		"$6$rounds=10000$saltstringsaltstring", "Hello world!", "$6$rounds=10000$saltstringsaltst$OW1/O6BYHV6BcXZu8QVeXbDWra3Oeqh0sbHbbMCVNSnCM/UrjmM0Dp8vOuZeHBy/YTBmSK6H9qs/y3RnOaw5v.",
+		"$6$rounds=5000$toolongsaltstring", "This is just a test", "$6$rounds=5000$toolongsaltstrin$lQ8jolhgVRVhY4b5pZKaysCLi0QBxGoNeKQzQ3glMhwllF7oGDZxUhx1yxdYcz/e1JSbq3y6JMxxl8audkUEm0",
+		"$6$rounds=1400$anotherlongsaltstring", "a very much longer text to encrypt.  This one even stretches over morethan one line.", "$6$rounds=1400$anotherlongsalts$POfYwTEok97VWcjxIiSOjiykti.o/pQs.wPvMxQ6Fm7I6IoYN3CmLs66x9t0oSwbtEW7o7UmJEiDwGqd8p4ur1",
+		"$6$rounds=77777$short", "we have a short salt string but not a short password", "$6$rounds=77777$short$WuQyW2YR.hBNpjjRhpYD/ifIw05xdfeEyQoMxIXbkvr0gge1a1x3yRULJ5CCaUeOxFmtlcGZelFl5CxtgfiAc0",
+		"$6$rounds=123456$asaltof16chars..", "a short string", "$6$rounds=123456$asaltof16chars..$BtCwjqMJGx5hrJhZywWvt0RLE8uZ4oPwcelCjmw2kSYu.Ec6ycULevoBK25fs2xXgMNrCzIMVcgEJAstJeonj1",
+		"$6$rounds=10$roundstoolow", "the minimum number is still observed", "$6$rounds=1000$roundstoolow$kUMsbe306n21p9R.FRkW3IGn.S9NPN0x50YhH1xhLsPuWGsUSklZt58jaTfF4ZEQpyUNGc0dqbpBYYBaHHrsX."
+	};
+
+	static final String[] SHA256 = {
+		"$5$saltstring", "Hello world!", "$5$saltstring$5B8vYYiY.CVt1RlTTf8KbXBH3hsxY/GNooZaBBGWEc5",
+		"$5$rounds=10000$saltstringsaltstring", "Hello world!", "$5$rounds=10000$saltstringsaltst$3xv.VbSHBb41AL9AvLeujZkZRBAwqFMz2.opqey6IcA",
+		"$5$rounds=5000$toolongsaltstring", "This is just a test", "$5$rounds=5000$toolongsaltstrin$Un/5jzAHMgOGZ5.mWJpuVolil07guHPvOW8mGRcvxa5",
+		"$5$rounds=1400$anotherlongsaltstring", "a very much longer text to encrypt.  This one even stretches over morethan one line.", "$5$rounds=1400$anotherlongsalts$Rx.j8H.h8HjEDGomFU8bDkXm3XIUnzyxf12oP84Bnq1",
+		"$5$rounds=77777$short", "we have a short salt string but not a short password", "$5$rounds=77777$short$JiO1O3ZpDAxGJeaDIuqCoEFysAe1mZNJRs3pw0KQRd/",
+		"$5$rounds=123456$asaltof16chars..", "a short string", "$5$rounds=123456$asaltof16chars..$gP3VQ/6X7UUEW3HkBn2w1/Ptq2jxPyzV/cZKmF/wJvD",
+		"$5$rounds=10$roundstoolow", "the minimum number is still observed", "$5$rounds=1000$roundstoolow$yfvwcWrQ8l/K0DAWyuPMDNHpIVlTQebY9l/gL972bIC",
+		"$5$xxxxxxxx", "geheim", "$5$xxxxxxxx$ijhlhCdRA2QW6WNt2gTM6DpCZIX63YOhKz1k/yeewq/"
+	};
+
+	/* Salt, password and expected hash, as produced by openssl passwd -1 */
+	static final String[] MD5 = {
+		"$1$saltsalt", "password", "$1$saltsalt$qjXMvbEw8oaL.CzflDtaK/",
+		"$1$abcdefgh", "Hello world!", "$1$abcdefgh$fzmjzFdo5nMtBG8gtud5e0",
+		"$1$short", "a very much longer text to encrypt.  This one even stretches over morethan one line.",
+		"$1$short$is2kXq1Ku8M.L6yrpgt.l0",
+		"$1$12345678", "", "$1$12345678$xek.CpjQUVgdf/P2N9KQf/"
+	};
+
+	@Test
+	public void testSha512() {
+		for (int i = 0; i < SHA512.length; i += 3) {
+			assertEquals(SHA512[i + 2], Sha512Crypt.Sha512_crypt(SHA512[i + 1], SHA512[i], 0));
+			assertTrue(Sha512Crypt.verifyPassword(SHA512[i + 1], SHA512[i + 2]));
+		}
+		assertFalse(Sha512Crypt.verifyPassword("wrong", SHA512[2]));
+	}
+
+	@Test
+	public void testSha256() {
+		for (int i = 0; i < SHA256.length; i += 3) {
+			assertEquals(SHA256[i + 2], Sha256Crypt.Sha256_crypt(SHA256[i + 1], SHA256[i], 0));
+			assertTrue(Sha256Crypt.verifyPassword(SHA256[i + 1], SHA256[i + 2]));
+		}
+		assertFalse(Sha256Crypt.verifyPassword("wrong", SHA256[2]));
+	}
+
+	@Test
+	public void testMD5() throws Exception {
+		for (int i = 0; i < MD5.length; i += 3) {
+			assertEquals(MD5[i + 2], MD5Crypt.crypt_md5(MD5[i + 1].getBytes("UTF-8"), MD5[i]));
+			assertTrue(MD5Crypt.verifyMD5Password(MD5[i + 1], MD5[i + 2]));
+		}
+		assertFalse(MD5Crypt.verifyMD5Password("wrong", MD5[2]));
+	}
+
+	@Test
+	public void testGeneratedSaltRoundTrips() throws Exception {
+		String sha512 = Sha512Crypt.Sha512_crypt("asecret", null, 0);
+		assertTrue(Sha512Crypt.verifyHashTextFormat(sha512));
+		assertTrue(Sha512Crypt.verifyPassword("asecret", sha512));
+		String sha256 = Sha256Crypt.Sha256_crypt("asecret", null, 0);
+		assertTrue(Sha256Crypt.verifyHashTextFormat(sha256));
+		assertTrue(Sha256Crypt.verifyPassword("asecret", sha256));
+		assertTrue(MD5Crypt.verifyMD5Password("asecret", MD5Crypt.md5Crypt("asecret", "UTF-8")));
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 32; i++) {
+				final int vector = (i % 2) * 3;
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						return SHA512[vector + 2].equals(Sha512Crypt.Sha512_crypt(SHA512[vector + 1], SHA512[vector], 0))
+							&& SHA256[vector + 2].equals(Sha256Crypt.Sha256_crypt(SHA256[vector + 1], SHA256[vector], 0))
+							&& MD5[vector + 2].equals(MD5Crypt.crypt_md5(MD5[vector + 1].getBytes("UTF-8"), MD5[vector]));
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -23,11 +23,9 @@ package com.identity4j.connector.zendesk;
  */
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -43,9 +41,7 @@ import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.connector.zendesk.entity.Group;
-import com.identity4j.connector.zendesk.entity.Groups;
 import com.identity4j.connector.zendesk.entity.User;
-import com.identity4j.connector.zendesk.entity.Users;
 import com.identity4j.connector.zendesk.services.Directory;
 import com.identity4j.connector.zendesk.services.token.handler.ZendeskAuthorizationHelper;
 import com.identity4j.util.CollectionUtil;
@@ -134,16 +130,8 @@ public class ZendeskConnector extends AbstractConnector<ZendeskConfiguration> {
 	 */
 	@Override
 	public ResultIterator<Role> allRoles(OperationContext opContext) throws ConnectorException {
-		Groups groups = directory.groups().all();
-		List<Group> groupList = groups.getGroups();
-		List<Role> roles = new ArrayList<Role>();
-		
-		if(groupList != null){
-			for (Group group : groupList) {
-				roles.add(ZendeskModelConvertor.getInstance().groupToRole(group));
-			}
-		}
-		return ResultIterator.createDefault(roles.iterator(), opContext.getTag());
+		return ResultIterator.createDefault(directory.groups().stream(), ZendeskModelConvertor.getInstance()::groupToRole,
+				opContext.getTag());
 	}
 
 	/**
@@ -336,18 +324,8 @@ public class ZendeskConnector extends AbstractConnector<ZendeskConfiguration> {
 	 */
 	@Override
 	public ResultIterator<Identity> allIdentities(OperationContext opContext) throws ConnectorException {
-		Users users = directory.users().all();
-		List<Identity> identities = new ArrayList<Identity>();
-		
-		List<User> userList = users.getUsers();
-		
-		if(userList != null){
-			for (User user : userList) {
-				identities.add(ZendeskModelConvertor.getInstance().convertZendeskUserToZendeskIdentity(user));
-			}
-		}
-		
-		return ResultIterator.createDefault(identities.iterator(), opContext.getTag());
+		return ResultIterator.createDefault(directory.users().stream(),
+				ZendeskModelConvertor.getInstance()::convertZendeskUserToZendeskIdentity, opContext.getTag());
 	}
 	
 	/**
@@ -22,6 +22,8 @@ package com.identity4j.connector.zendesk.services;
  * #L%
  */
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.LinkedList;
@@ -33,6 +35,7 @@ import com.identity4j.connector.zendesk.ZendeskConfiguration;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpResponse;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -120,4 +123,35 @@ public abstract class AbstractRestAPIService {
 				getObject(new TypeReference<List<AppErrorMessage>>() {}, httpResponse.contentString());
 		throw new ConnectorException(appErrorMessages.toString());
 	}
+
+	/**
+	 * Utility function to stream the principals in the <code>results</code> array
+	 * of a list response, rather than reading the whole response into memory.
+	 * The response is released once the array has been read or the iterator is
+	 * closed.
+	 * 
+	 * @param response response
+	 * @param type principal type
+	 * @return principals
+	 */
+	protected <T> JsonArrayIterator<T> streamRecords(final HttpResponse response, Class<T> type) {
+		try {
+			if (response.status().getCode() != 200) {
+				throw new ConnectorException("Problem in listing principals reason : " + response.status().getCode()
+						+ " " + response.contentString());
+			}
+			return JsonMapperService.getInstance().getObjects(type, response.contentStream(), "results", new Closeable() {
+				@Override
+				public void close() {
+					response.release();
+				}
+			});
+		} catch (IOException e) {
+			response.release();
+			throw new ConnectorException(e.getMessage(), e);
+		} catch (RuntimeException re) {
+			response.release();
+			throw re;
+		}
+	}
 }
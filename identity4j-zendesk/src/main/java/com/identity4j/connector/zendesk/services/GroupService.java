@@ -39,6 +39,7 @@ import com.identity4j.connector.zendesk.entity.Groups;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpResponse;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -124,14 +125,28 @@ public class GroupService extends AbstractRestAPIService{
 	 * @return groups list
 	 */
 	public Groups all(){
-		HttpResponse response = httpRequestHandler.handleRequestGet(constructURI("search", "query=type:group"),
-				getHeaders().toArray(new HttpPair[0]));
+		HttpResponse response = list();
 		try {
 			return JsonMapperService.getInstance().getObject(Groups.class, response.contentString());
 		} finally {
 			response.release();
 		}
 	}
+
+	/**
+	 * This method streams all groups present in the data store, mapping each
+	 * only as it is requested rather than reading the whole response first.
+	 * 
+	 * @return groups
+	 */
+	public JsonArrayIterator<Group> stream() {
+		return streamRecords(list(), Group.class);
+	}
+
+	private HttpResponse list() {
+		return httpRequestHandler.handleRequestGet(constructURI("search", "query=type:group"),
+				getHeaders().toArray(new HttpPair[0]));
+	}
 	
 	
 	/**
@@ -147,14 +162,17 @@ public class GroupService extends AbstractRestAPIService{
 		try{
 			String json = String.format("{\"group\":  %s}", JsonMapperService.getInstance().getJson(group));
 			HttpResponse response = httpRequestHandler.handleRequestPost(constructURI("groups"),json, getHeaders().toArray(new HttpPair[0]));
-	
-			if(response.status().getCode() != 201){
-				throw new ConnectorException("Problem in creating principal reason : " + response.contentString());
-			}
+			try {
+				if(response.status().getCode() != 201){
+					throw new ConnectorException("Problem in creating principal reason : " + response.contentString());
+				}
 			
-			@SuppressWarnings("unchecked")
-			Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(response.contentString(), "group");
-			return JsonMapperService.getInstance().convert(records, Group.class);
+				@SuppressWarnings("unchecked")
+				Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(response.contentString(), "group");
+				return JsonMapperService.getInstance().convert(records, Group.class);
+			} finally {
+				response.release();
+			}
 		}catch(IOException e){
 			throw new ConnectorException("Problem in saving group " + group.getName(), e);
 		}
@@ -176,16 +194,18 @@ public class GroupService extends AbstractRestAPIService{
 			HttpResponse response = httpRequestHandler.handleRequestPut(
 					constructURI(String.format("groups/%s", group.getId()),
 							null), json, getHeaders().toArray(new HttpPair[0]));
+			try {
+				if(response.status().getCode() == 404){
+					throw new PrincipalNotFoundException(group.getId() + " not found.",null,PrincipalType.role);
+				}
 			
-			if(response.status().getCode() == 404){
-				throw new PrincipalNotFoundException(group.getId() + " not found.",null,PrincipalType.role);
-			}
-			
-			if(response.status().getCode() != 200){
-				throw new ConnectorException("Problem in updating group as status code is not 200 is " 
-							+ response.status().getCode() + " " + response.contentString());
+				if(response.status().getCode() != 200){
+					throw new ConnectorException("Problem in updating group as status code is not 200 is " 
+								+ response.status().getCode() + " " + response.contentString());
+				}
+			} finally {
+				response.release();
 			}
-			
 		} catch (IOException e) {
 			throw new ConnectorException("Problem in updating user",e);
 		}
@@ -200,16 +220,18 @@ public class GroupService extends AbstractRestAPIService{
 	 */
 	public void delete(Integer id) {
 		HttpResponse response = httpRequestHandler.handleRequestDelete(constructURI(String.format("groups/%d", id)), getHeaders().toArray(new HttpPair[0]));
+		try {
+			if(response.status().getCode() == 404){
+				throw new PrincipalNotFoundException(id + " not found.",null,PrincipalType.user);
+			}
 		
-		if(response.status().getCode() == 404){
-			throw new PrincipalNotFoundException(id + " not found.",null,PrincipalType.user);
-		}
-		
-		if(response.status().getCode() != 200){
-			throw new ConnectorException("Problem in deleting group as status code is not 200 is " 
-						+ response.status().getCode() + " " + response.contentString());
+			if(response.status().getCode() != 200){
+				throw new ConnectorException("Problem in deleting group as status code is not 200 is " 
+							+ response.status().getCode() + " " + response.contentString());
+			}
+		} finally {
+			response.release();
 		}
-		
 	}
 	
 	/**
@@ -234,17 +256,20 @@ public class GroupService extends AbstractRestAPIService{
 			
 			
 			HttpResponse response = httpRequestHandler.handleRequestPost(constructURI("group_memberships"),json, getHeaders().toArray(new HttpPair[0]));
-			
-			if(response.status().getCode() != 201){
-				throw new ConnectorException(
-						"Problem in adding group member "
-								+ response.status().getCode() + " : " + response.contentString());
-			}
+			try {
+				if(response.status().getCode() != 201){
+					throw new ConnectorException(
+							"Problem in adding group member "
+									+ response.status().getCode() + " : " + response.contentString());
+				}
 	
-			@SuppressWarnings("unchecked")
-			Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(
-					response.contentString(), "group_membership");
-			return JsonMapperService.getInstance().convert(records, GroupMembership.class);
+				@SuppressWarnings("unchecked")
+				Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(
+						response.contentString(), "group_membership");
+				return JsonMapperService.getInstance().convert(records, GroupMembership.class);
+			} finally {
+				response.release();
+			}
 		}catch(IOException e){
 			throw new ConnectorException("Problem in saving group membership.",e);
 		}
@@ -268,14 +293,15 @@ public class GroupService extends AbstractRestAPIService{
 		//using group member id for deleting relation
 		HttpResponse response = httpRequestHandler.handleRequestDelete(
 				constructURI(String.format("group_memberships/%d",groupMembership.getId())), getHeaders().toArray(new HttpPair[0]));
-		
-
-		if(response.status().getCode() != 200){
-			throw new ConnectorException(
-					"Problem in deleting group member as status code is not 200 is "
-							+ response.status().getCode() + " : " + response.contentString());
+		try {
+			if(response.status().getCode() != 200){
+				throw new ConnectorException(
+						"Problem in deleting group member as status code is not 200 is "
+								+ response.status().getCode() + " : " + response.contentString());
+			}
+		} finally {
+			response.release();
 		}
-		
 	}
 	
 	/**
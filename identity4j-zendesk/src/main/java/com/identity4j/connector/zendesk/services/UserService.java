@@ -46,6 +46,7 @@ import com.identity4j.util.StringUtil;
 import com.identity4j.util.http.HttpPair;
 import com.identity4j.util.http.HttpResponse;
 import com.identity4j.util.http.request.HttpRequestHandler;
+import com.identity4j.util.json.JsonArrayIterator;
 import com.identity4j.util.json.JsonMapperService;
 
 /**
@@ -161,7 +162,7 @@ public class UserService extends AbstractRestAPIService{
 	 * @return users list
 	 */
 	public Users all(){
-		HttpResponse response = httpRequestHandler.handleRequestGet(constructURI("search","query=type:user"), getHeaders().toArray(new HttpPair[0]));
+		HttpResponse response = list();
 		try {
 			return JsonMapperService.getInstance().getObject(Users.class, response.contentString());
 		}
@@ -170,6 +171,20 @@ public class UserService extends AbstractRestAPIService{
 		}
 	}
 
+	/**
+	 * This method streams all users present in the data store, mapping each
+	 * only as it is requested rather than reading the whole response first.
+	 * 
+	 * @return users
+	 */
+	public JsonArrayIterator<User> stream() {
+		return streamRecords(list(), User.class);
+	}
+
+	private HttpResponse list() {
+		return httpRequestHandler.handleRequestGet(constructURI("search","query=type:user"), getHeaders().toArray(new HttpPair[0]));
+	}
+
 	/**
 	 * Saves user into zendesk data store.
 	 * <br/>
@@ -188,29 +203,32 @@ public class UserService extends AbstractRestAPIService{
 		try{
 			String json = String.format("{\"user\":  %s}", JsonMapperService.getInstance().getJson(user));
 			HttpResponse response = httpRequestHandler.handleRequestPost(constructURI("users"),json, getHeaders().toArray(new HttpPair[0]));
-	
-			if(response.status().getCode() != 201){
-				if(response.contentString().contains(String.format("Email %s is already being used by another user", user.getEmail()))){
-					throw new PrincipalAlreadyExistsException("Principal already exists by email " + user.getEmail());
-				}
+			try {
+				if(response.status().getCode() != 201){
+					if(response.contentString().contains(String.format("Email %s is already being used by another user", user.getEmail()))){
+						throw new PrincipalAlreadyExistsException("Principal already exists by email " + user.getEmail());
+					}
 				
-				throw new ConnectorException("Problem in creating principal reason : " + response.contentString());
-			}
+					throw new ConnectorException("Problem in creating principal reason : " + response.contentString());
+				}
 			
-			@SuppressWarnings("unchecked")
-			Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(response.contentString(), "user");
-			User userPersisted = JsonMapperService.getInstance().convert(records, User.class);
+				@SuppressWarnings("unchecked")
+				Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(response.contentString(), "user");
+				User userPersisted = JsonMapperService.getInstance().convert(records, User.class);
 			
-			setPassword(userPersisted.getId(), password);
+				setPassword(userPersisted.getId(), password);
 			
-			userPersisted.setPassword(password);//json returned does not have password as field
-			userPersisted.setGroupMemberships(new GroupMemberships());
+				userPersisted.setPassword(password);//json returned does not have password as field
+				userPersisted.setGroupMemberships(new GroupMemberships());
 			
-			if(user.getGroupMemberships() != null)
-				userPersisted.getGroupMemberships().setGroupMemberships(handleGroupMembers(user.getGroupMemberships().getGroupMemberships(),userPersisted.getId()));
+				if(user.getGroupMemberships() != null)
+					userPersisted.getGroupMemberships().setGroupMemberships(handleGroupMembers(user.getGroupMemberships().getGroupMemberships(),userPersisted.getId()));
 			
 			
-			return userPersisted;
+				return userPersisted;
+			} finally {
+				response.release();
+			}
 		}catch(IOException e){
 			throw new ConnectorException("Problem in saving user " + user.getName(),e);
 		}finally{
@@ -236,23 +254,25 @@ public class UserService extends AbstractRestAPIService{
 		try{
 			String json = String.format("{\"user\":  %s}", JsonMapperService.getInstance().getJson(user));
 			HttpResponse response = httpRequestHandler.handleRequestPut(constructURI(String.format("users/%s",user.getId())),json, getHeaders().toArray(new HttpPair[0]));
+			try {
+				if(response.status().getCode() == 404){
+					throw new PrincipalNotFoundException(user.getId() + " not found.",null,PrincipalType.user);
+				}
 			
-			if(response.status().getCode() == 404){
-				throw new PrincipalNotFoundException(user.getId() + " not found.",null,PrincipalType.user);
-			}
-			
-			if(response.status().getCode() != 200){
-				throw new ConnectorException("Problem in updating user as status code is not 200 is " 
-							+ response.status().getCode() + " " + response.contentString());
-			}
-			
-			@SuppressWarnings("unchecked")
-			Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(response.contentString(), "user");
-			User userUpdated = JsonMapperService.getInstance().convert(records, User.class);
-			userUpdated.setPassword(user.getPassword());
+				if(response.status().getCode() != 200){
+					throw new ConnectorException("Problem in updating user as status code is not 200 is " 
+								+ response.status().getCode() + " " + response.contentString());
+				}
 			
-			return userUpdated;
+				@SuppressWarnings("unchecked")
+				Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(response.contentString(), "user");
+				User userUpdated = JsonMapperService.getInstance().convert(records, User.class);
+				userUpdated.setPassword(user.getPassword());
 			
+				return userUpdated;
+			} finally {
+				response.release();
+			}
 		} catch (IOException e) {
 			throw new ConnectorException("Problem in updating user " + user.getName(),e);
 		}finally{
@@ -271,20 +291,22 @@ public class UserService extends AbstractRestAPIService{
 	 */
 	public User delete(Integer id) {
 		HttpResponse response = httpRequestHandler.handleRequestDelete(constructURI(String.format("users/%d", id)), getHeaders().toArray(new HttpPair[0]));
+		try {
+			if(response.status().getCode() == 404){
+				throw new PrincipalNotFoundException(id + " not found.",null,PrincipalType.user);
+			}
 		
-		if(response.status().getCode() == 404){
-			throw new PrincipalNotFoundException(id + " not found.",null,PrincipalType.user);
-		}
+			if(response.status().getCode() != 200){
+				throw new ConnectorException("Problem in deleting user as status code is not 200 is " 
+							+ response.status().getCode() + " " + response.contentString());
+			}
 		
-		if(response.status().getCode() != 200){
-			throw new ConnectorException("Problem in deleting user as status code is not 200 is " 
-						+ response.status().getCode() + " " + response.contentString());
+			@SuppressWarnings("unchecked")
+			Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(response.contentString(), "user");
+			return JsonMapperService.getInstance().convert(records, User.class);
+		} finally {
+			response.release();
 		}
-		
-		@SuppressWarnings("unchecked")
-		Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(response.contentString(), "user");
-		return JsonMapperService.getInstance().convert(records, User.class);
-		
 	}
 	
 	/**
@@ -299,19 +321,22 @@ public class UserService extends AbstractRestAPIService{
 	public User suspend(Integer id,boolean suspend){
 		String json = String.format("{\"user\": {\"suspended\":%s}}", suspend);
 		HttpResponse response = httpRequestHandler.handleRequestPut(constructURI(String.format("users/%d",id)),json, getHeaders().toArray(new HttpPair[0]));
+		try {
+			if(response.status().getCode() == 404){
+				throw new PrincipalNotFoundException(id + " not found.",null,PrincipalType.user);
+			}
 		
-		if(response.status().getCode() == 404){
-			throw new PrincipalNotFoundException(id + " not found.",null,PrincipalType.user);
-		}
+			if(response.status().getCode() != 200){
+				throw new ConnectorException("Problem in updating user as status code is not 200 is " 
+							+ response.status().getCode() + " " + response.contentString());
+			}
 		
-		if(response.status().getCode() != 200){
-			throw new ConnectorException("Problem in updating user as status code is not 200 is " 
-						+ response.status().getCode() + " " + response.contentString());
+			@SuppressWarnings("unchecked")
+			Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(response.contentString(), "user");
+			return JsonMapperService.getInstance().convert(records, User.class);
+		} finally {
+			response.release();
 		}
-		
-		@SuppressWarnings("unchecked")
-		Map<String, Object> records = (Map<String, Object>) JsonMapperService.getInstance().getJsonProperty(response.contentString(), "user");
-		return JsonMapperService.getInstance().convert(records, User.class);
 	}
 	
 	/**
@@ -378,14 +403,17 @@ public class UserService extends AbstractRestAPIService{
 	 */
 	private void passwordChangeHelper(Integer id, String json) {
 		HttpResponse response = httpRequestHandler.handleRequestPost(constructURI(String.format("users/%d/password", id)),json,getHeaders().toArray(new HttpPair[0]));
+		try {
+			if(response.status().getCode() == 404){
+				throw new PrincipalNotFoundException(id + " not found.",null,PrincipalType.user);
+			}
 		
-		if(response.status().getCode() == 404){
-			throw new PrincipalNotFoundException(id + " not found.",null,PrincipalType.user);
-		}
-		
-		if(response.status().getCode() != 200){
-			throw new ConnectorException("Problem in setting password for user as status code is not 200 is " 
-						+ response.status().getCode() + " " + response.contentString());
+			if(response.status().getCode() != 200){
+				throw new ConnectorException("Problem in setting password for user as status code is not 200 is " 
+							+ response.status().getCode() + " " + response.contentString());
+			}
+		} finally {
+			response.release();
 		}
 	}
 	